@@ -0,0 +1,105 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink.avro;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import nl.basjes.parse.httpdlog.avro.AvroBinding;
+import nl.basjes.parse.httpdlog.dissectors.ScreenResolutionDissector;
+import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPCityDissector;
+import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPISPDissector;
+import nl.basjes.parse.httpdlog.flink.TestCase;
+import nl.basjes.parse.record.Click;
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.util.List;
+
+import static nl.basjes.parse.httpdlog.flink.TestCase.CITY_TEST_MMDB;
+import static nl.basjes.parse.httpdlog.flink.TestCase.ISP_TEST_MMDB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The same as TestParserMapFunctionAvroInline but the values are put directly into the (reused) Click
+ * by the AvroBinding instead of via the reflection based setters of a separate Builder class.
+ */
+class TestParserMapFunctionAvroBinding implements Serializable {
+
+    @Test
+    void testAvroBinding() throws Exception {
+        // set up the execution environment
+        final ExecutionEnvironment env = ExecutionEnvironment.getExecutionEnvironment();
+
+        DataSet<String> input = env.fromElements(TestCase.getInputLine());
+
+        DataSet<Click> filledTestRecords = input
+            .map(new RichMapFunction<String, Click>() {
+                private AvroBinding<Click> binding;
+                private Parser<Click> parser;
+                private Click click;
+
+                @Override
+                public void open(org.apache.flink.configuration.Configuration parameters) {
+                    binding = new AvroBinding<Click>(Click.getClassSchema())
+                        .map("timestamp",                             "TIME.EPOCH:request.receive.time.epoch")
+                        .map("device.screenWidth",                    "SCREENWIDTH:request.firstline.uri.query.s.width")
+                        .map("device.screenHeight",                   "SCREENHEIGHT:request.firstline.uri.query.s.height")
+                        .map("browser.useragent",                     "HTTP.USERAGENT:request.user-agent")
+                        .map("visitor.ip",                            "IP:connection.client.host")
+                        .map("visitor.isp.asnNumber",                 "ASN:connection.client.host.asn.number")
+                        .map("visitor.isp.asnOrganization",           "STRING:connection.client.host.asn.organization")
+                        .map("visitor.isp.ispName",                   "STRING:connection.client.host.isp.name")
+                        .map("visitor.isp.ispOrganization",           "STRING:connection.client.host.isp.organization")
+                        .map("visitor.geoLocation.continentName",     "STRING:connection.client.host.continent.name")
+                        .map("visitor.geoLocation.continentCode",     "STRING:connection.client.host.continent.code")
+                        .map("visitor.geoLocation.countryName",       "STRING:connection.client.host.country.name")
+                        .map("visitor.geoLocation.countryIso",        "STRING:connection.client.host.country.iso")
+                        .map("visitor.geoLocation.subdivisionName",   "STRING:connection.client.host.subdivision.name")
+                        .map("visitor.geoLocation.subdivisionIso",    "STRING:connection.client.host.subdivision.iso")
+                        .map("visitor.geoLocation.cityName",          "STRING:connection.client.host.city.name")
+                        .map("visitor.geoLocation.postalCode",        "STRING:connection.client.host.postal.code")
+                        .map("visitor.geoLocation.locationLatitude",  "STRING:connection.client.host.location.latitude")
+                        .map("visitor.geoLocation.locationLongitude", "STRING:connection.client.host.location.longitude");
+
+                    parser = binding.bind(new HttpdLoglineParser<>(Click.class, TestCase.getLogFormat())
+                        .addDissector(new ScreenResolutionDissector())
+                        .addTypeRemapping("request.firstline.uri.query.g", "HTTP.URI")
+                        .addTypeRemapping("request.firstline.uri.query.r", "HTTP.URI")
+                        .addTypeRemapping("request.firstline.uri.query.s", "SCREENRESOLUTION")
+                        .addDissector(new GeoIPISPDissector(ISP_TEST_MMDB))
+                        .addDissector(new GeoIPCityDissector(CITY_TEST_MMDB)));
+
+                    click = binding.newRecord();
+                }
+
+                @Override
+                public Click map(String line) throws Exception {
+                    // The same Click instance is filled for every line (the usual object reuse rules of Flink apply).
+                    return binding.parse(parser, click, line);
+                }
+            }).name("Extract Elements from logline");
+
+        List<Click> result = filledTestRecords.collect();
+
+        assertEquals(1, result.size());
+        assertEquals(ExpectedClick.create(), result.get(0));
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * The record the parser writes the values of a single line in for the {@link LogAggregator}.
+ * A single instance is reused for all lines; the values are folded into the aggregates as soon as the line has
+ * been parsed so no object is created per line.
+ */
+public final class AggregationRecord {
+
+    final String[]  groupValues;
+    long            epoch;
+    boolean         hasEpoch;
+
+    final long[]    longValues;
+    final double[]  doubleValues;
+    final String[]  stringValues;
+    final boolean[] present;
+
+    AggregationRecord(int groups, int metrics) {
+        groupValues  = new String[groups];
+        longValues   = new long[metrics];
+        doubleValues = new double[metrics];
+        stringValues = new String[metrics];
+        present      = new boolean[metrics];
+    }
+
+    void clear() {
+        Arrays.fill(groupValues, null);
+        hasEpoch = false;
+        Arrays.fill(stringValues, null);
+        Arrays.fill(present, false);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The aggregates of all groups (per window). This is a partial state: the results of several LogAggregators
+ * (i.e. one per file, possibly on different machines because it is Serializable) with the same definition
+ * can be merged into one.
+ */
+public final class AggregationResult implements Serializable {
+
+    /** The window start of the lines without a timestamp (or of all lines if there are no windows). */
+    public static final long NO_WINDOW = Long.MIN_VALUE;
+
+    private final String[]                     groupNames;
+    private final long                         windowSize;
+    private final MetricSpec[]                 metrics;
+    private final Map<GroupKey, GroupAggregates> groups = new HashMap<>();
+
+    // Used to find the group of a line without creating a key for every line
+    private transient GroupKey probe;
+
+    AggregationResult(String[] groupNames, long windowSize, MetricSpec[] metrics) {
+        this.groupNames = groupNames;
+        this.windowSize = windowSize;
+        this.metrics    = metrics;
+    }
+
+    long windowStartOf(AggregationRecord record) {
+        if (windowSize <= 0 || !record.hasEpoch) {
+            return NO_WINDOW;
+        }
+        return Math.floorDiv(record.epoch, windowSize) * windowSize;
+    }
+
+    void add(AggregationRecord record) {
+        if (probe == null) {
+            probe = new GroupKey();
+        }
+        probe.set(windowStartOf(record), record.groupValues);
+        GroupAggregates aggregates = groups.get(probe);
+        if (aggregates == null) {
+            aggregates = new GroupAggregates(metrics);
+            groups.put(probe.copy(), aggregates);
+        }
+        aggregates.add(record);
+    }
+
+    /**
+     * Add the aggregates of the other result to this one.
+     * @throws IllegalArgumentException if the other result was made with a different definition.
+     */
+    public AggregationResult merge(AggregationResult other) {
+        if (!Arrays.equals(groupNames, other.groupNames) ||
+            windowSize != other.windowSize ||
+            !Arrays.equals(metrics, other.metrics)) {
+            throw new IllegalArgumentException("Unable to merge the results of different aggregations");
+        }
+        for (Map.Entry<GroupKey, GroupAggregates> entry : other.groups.entrySet()) {
+            GroupAggregates aggregates = groups.get(entry.getKey());
+            if (aggregates == null) {
+                aggregates = new GroupAggregates(metrics);
+                groups.put(entry.getKey(), aggregates);
+            }
+            aggregates.merge(entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Move the groups of all windows that start before the epoch to a new result (i.e. the windows that are
+     * complete in a stream of lines) so they can be reported and are no longer kept in memory here.
+     * The groups without a window are never moved.
+     * @param epoch The epoch in milliseconds.
+     */
+    public AggregationResult removeWindowsBefore(long epoch) {
+        AggregationResult removed = new AggregationResult(groupNames, windowSize, metrics);
+        Iterator<Map.Entry<GroupKey, GroupAggregates>> iterator = groups.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<GroupKey, GroupAggregates> entry = iterator.next();
+            long windowStart = entry.getKey().getWindowStart();
+            if (windowStart != NO_WINDOW && windowStart < epoch) {
+                removed.groups.put(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+        }
+        return removed;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The names of the group by fields (the values in the GroupKey are in the same order).
+     */
+    public List<String> getGroupNames() {
+        return Collections.unmodifiableList(Arrays.asList(groupNames));
+    }
+
+    /**
+     * @return The size of the windows in milliseconds (0 = no windows).
+     */
+    public long getWindowSize() {
+        return windowSize;
+    }
+
+    public List<String> getMetricNames() {
+        List<String> names = new ArrayList<>(metrics.length);
+        for (MetricSpec metric : metrics) {
+            names.add(metric.name);
+        }
+        return names;
+    }
+
+    public Map<GroupKey, GroupAggregates> getGroups() {
+        return Collections.unmodifiableMap(groups);
+    }
+
+    /**
+     * @return The aggregates of the group or null if there were no lines in it.
+     */
+    public GroupAggregates get(long windowStart, String... groupValues) {
+        return groups.get(new GroupKey(windowStart, groupValues));
+    }
+
+    public int size() {
+        return groups.size();
+    }
+}
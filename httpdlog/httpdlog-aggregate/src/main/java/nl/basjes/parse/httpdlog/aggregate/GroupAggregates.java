@@ -0,0 +1,158 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import nl.basjes.parse.core.HyperLogLog;
+import nl.basjes.parse.httpdlog.aggregate.MetricSpec.Kind;
+
+import java.io.Serializable;
+
+/**
+ * The aggregated values of a single group (the partial state which can be merged with that of the same group
+ * from a different {@link LogAggregator}).
+ */
+public final class GroupAggregates implements Serializable {
+
+    private final MetricSpec[]  metrics;
+
+    private long                count = 0;
+    private final long[]        valueCounts;
+    private final long[]        longSums;
+    private final double[]      doubleSums;
+    private final Histogram[]   histograms;
+    private final HyperLogLog[] distincts;
+
+    GroupAggregates(MetricSpec[] metrics) {
+        this.metrics = metrics;
+        valueCounts = new long[metrics.length];
+        longSums    = new long[metrics.length];
+        doubleSums  = new double[metrics.length];
+        histograms  = new Histogram[metrics.length];
+        distincts   = new HyperLogLog[metrics.length];
+        for (int index = 0; index < metrics.length; index++) {
+            if (metrics[index].kind == Kind.HISTOGRAM) {
+                histograms[index] = new Histogram();
+            }
+            if (metrics[index].kind == Kind.DISTINCT) {
+                distincts[index] = new HyperLogLog(metrics[index].precision);
+            }
+        }
+    }
+
+    void add(AggregationRecord record) {
+        count++;
+        for (int index = 0; index < metrics.length; index++) {
+            if (!record.present[index]) {
+                continue;
+            }
+            valueCounts[index]++;
+            switch (metrics[index].kind) {
+                case SUM:
+                    longSums[index] += record.longValues[index];
+                    doubleSums[index] += record.doubleValues[index];
+                    break;
+                case HISTOGRAM:
+                    histograms[index].record(record.longValues[index]);
+                    break;
+                case DISTINCT:
+                default:
+                    distincts[index].add(record.stringValues[index]);
+                    break;
+            }
+        }
+    }
+
+    void merge(GroupAggregates other) {
+        count += other.count;
+        for (int index = 0; index < metrics.length; index++) {
+            valueCounts[index] += other.valueCounts[index];
+            longSums[index]    += other.longSums[index];
+            doubleSums[index]  += other.doubleSums[index];
+            if (histograms[index] != null) {
+                histograms[index].merge(other.histograms[index]);
+            }
+            if (distincts[index] != null) {
+                distincts[index].merge(other.distincts[index]);
+            }
+        }
+    }
+
+    private int indexOf(String name, Kind kind) {
+        for (int index = 0; index < metrics.length; index++) {
+            if (metrics[index].name.equals(name) && metrics[index].kind == kind) {
+                return index;
+            }
+        }
+        throw new IllegalArgumentException("There is no " + kind + " with the name \"" + name + "\"");
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The number of lines in this group.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of lines in this group that had a value for the field of the sum.
+     */
+    public long getValueCount(String sumName) {
+        return valueCounts[indexOf(sumName, Kind.SUM)];
+    }
+
+    /**
+     * @return The sum of the values of a field that is retrieved as a long (so without any loss of precision).
+     */
+    public long getLongSum(String sumName) {
+        return longSums[indexOf(sumName, Kind.SUM)];
+    }
+
+    /**
+     * @return The sum of the values (as a double, also for the fields that are retrieved as a long).
+     */
+    public double getSum(String sumName) {
+        int index = indexOf(sumName, Kind.SUM);
+        return longSums[index] + doubleSums[index];
+    }
+
+    /**
+     * @return The histogram. For a field that is retrieved as a double the values in it are multiplied with the scale.
+     */
+    public Histogram getHistogram(String histogramName) {
+        return histograms[indexOf(histogramName, Kind.HISTOGRAM)];
+    }
+
+    /**
+     * @param percentile The percentile (0-100).
+     * @return The (approximate) value at the percentile in the unit of the field (i.e. divided by the scale).
+     */
+    public double getPercentile(String histogramName, double percentile) {
+        int index = indexOf(histogramName, Kind.HISTOGRAM);
+        long value = histograms[index].getValueAtPercentile(percentile);
+        double scale = metrics[index].scale;
+        return scale == 0 ? value : value / scale;
+    }
+
+    /**
+     * @return The estimated number of distinct values.
+     */
+    public long getDistinct(String distinctName) {
+        return distincts[indexOf(distinctName, Kind.DISTINCT)].estimate();
+    }
+}
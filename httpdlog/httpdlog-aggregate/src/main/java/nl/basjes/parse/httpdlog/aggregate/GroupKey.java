@@ -0,0 +1,94 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The window and the values of the group by fields that identify a group.
+ */
+public final class GroupKey implements Serializable {
+
+    private long     windowStart;
+    private String[] values;
+    private int      hash;
+
+    GroupKey() {
+    }
+
+    public GroupKey(long windowStart, String... values) {
+        set(windowStart, values.clone());
+    }
+
+    /**
+     * Only used on the (internal) instance that is used to look up the group of each line.
+     */
+    void set(long newWindowStart, String[] newValues) {
+        windowStart = newWindowStart;
+        values      = newValues;
+        hash        = 31 * Long.hashCode(newWindowStart) + Arrays.hashCode(newValues);
+    }
+
+    GroupKey copy() {
+        return new GroupKey(windowStart, values);
+    }
+
+    /**
+     * @return The start (epoch milliseconds) of the window or {@link AggregationResult#NO_WINDOW}.
+     */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * @return The values of the group by fields (in the order in which they were added; null if absent).
+     */
+    public List<String> getValues() {
+        return Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GroupKey)) {
+            return false;
+        }
+        GroupKey other = (GroupKey) o;
+        return hash == other.hash &&
+            windowStart == other.windowStart &&
+            Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupKey{windowStart=" + windowStart + ", values=" + Arrays.toString(values) + '}';
+    }
+}
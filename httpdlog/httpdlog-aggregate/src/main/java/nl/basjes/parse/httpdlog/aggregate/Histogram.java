@@ -0,0 +1,155 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A histogram of non negative long values (like the %D microseconds) with log-linear buckets (like an HDR histogram):
+ * the values below 128 have a bucket of their own and above that every power of 2 is split into 64 buckets.
+ * So any percentile is reported with a relative error of at most 1/128 (0.8%) regardless of the range of values
+ * and the memory needed only grows with the logarithm of the largest value (a few KiB for values up to hours).
+ * Histograms can be merged without any loss of precision. Negative values are recorded as 0.
+ */
+public final class Histogram implements Serializable {
+
+    private static final int SUB_BUCKET_BITS  = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private long[] counts = new long[2 * SUB_BUCKET_COUNT];
+    private long   totalCount = 0;
+    private long   min = Long.MAX_VALUE;
+    private long   max = Long.MIN_VALUE;
+    private double sum = 0;
+
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift * SUB_BUCKET_COUNT) + (int) (value >>> shift);
+    }
+
+    static long lowestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long top = (bucket % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+        return top << shift;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        return lowestValueOf(bucket) + (1L << shift) - 1;
+    }
+
+    private void ensureBucket(int bucket) {
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(bucket + 1, counts.length + counts.length / 2));
+        }
+    }
+
+    public void record(long value) {
+        long theValue = Math.max(0, value);
+        int bucket = bucketOf(theValue);
+        ensureBucket(bucket);
+        counts[bucket]++;
+        totalCount++;
+        sum += theValue;
+        if (theValue < min) {
+            min = theValue;
+        }
+        if (theValue > max) {
+            max = theValue;
+        }
+    }
+
+    public void merge(Histogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        ensureBucket(other.counts.length - 1);
+        for (int bucket = 0; bucket < other.counts.length; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    // --------------------------------------------
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return The smallest recorded value (0 if there are none).
+     */
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    /**
+     * @return The largest recorded value (0 if there are none).
+     */
+    public long getMax() {
+        return totalCount == 0 ? 0 : max;
+    }
+
+    /**
+     * @return The exact mean of the recorded values (0 if there are none).
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * @param percentile The percentile (0-100, so 99.9 is the value below which 99.9% of the values are).
+     * @return The (approximate) value at the percentile (0 if there are no values).
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100 (was " + percentile + ")");
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        if (rank == 1) {
+            return min;
+        }
+        if (rank == totalCount) {
+            return max;
+        }
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                long middle = lowestValueOf(bucket) + (highestValueOf(bucket) - lowestValueOf(bucket)) / 2;
+                return Math.max(getMin(), Math.min(getMax(), middle));
+            }
+        }
+        return getMax();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.FieldCasts;
+import nl.basjes.parse.core.HyperLogLog;
+import nl.basjes.parse.core.LineConsumer;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ParserFactory;
+import nl.basjes.parse.httpdlog.aggregate.MetricSpec.Kind;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses log lines and directly folds the values into aggregates per group (like a GROUP BY in SQL) without
+ * creating any object per line: the counts and sums are primitive counters, the distributions (like %D or
+ * $request_time) are kept in a {@link Histogram} and the number of distinct values (like client IPs) is
+ * estimated with a {@link HyperLogLog}.
+ * The groups can be split into tumbling windows on the (epoch) timestamp of the line.
+ *
+ * <pre>{@code
+ * LogAggregator aggregator = new LogAggregator(() -> new HttpdLoglineParser<>(AggregationRecord.class, logformat))
+ *     .window(60_000)
+ *     .groupBy("STRING:request.status.last")
+ *     .sum("bytes", "BYTES:response.body.bytes")
+ *     .histogram("latency", "MICROSECONDS:response.server.processing.time")
+ *     .distinct("clients", "IP:connection.client.host");
+ * aggregator.addLines(inputStream);
+ * AggregationResult result = aggregator.getResult();
+ * }</pre>
+ * An instance is not thread safe; use one per thread (or file) and merge the results.
+ */
+public class LogAggregator extends LineConsumer<AggregationRecord> {
+
+    /** The field of the timestamp of the request that is used for the windows by default. */
+    public static final String DEFAULT_WINDOW_FIELD = "TIME.EPOCH:request.receive.time.epoch";
+
+    private final List<String>                     groupFields = new ArrayList<>();
+    private final List<MetricSpec>                 metrics     = new ArrayList<>();
+    private String                                 windowField = null;
+    private long                                   windowSize  = 0;
+
+    // Everything below is created when the first line is added.
+    private Parser<AggregationRecord>              parser;
+    private AggregationRecord                      record;
+    private AggregationResult                      result;
+
+    /**
+     * @param parserFactory Creates the parser (with the logformat and any additional dissectors) for the AggregationRecord.
+     */
+    public LogAggregator(ParserFactory<AggregationRecord> parserFactory) {
+        super(parserFactory);
+    }
+
+    private void checkNotStarted() {
+        if (record != null) {
+            throw new IllegalStateException("The aggregation cannot be changed after the first line has been added.");
+        }
+    }
+
+    private static String checkField(String fieldValue) {
+        if (fieldValue.endsWith("*")) {
+            throw new IllegalArgumentException("A wildcard field cannot be aggregated: " + fieldValue);
+        }
+        return Parser.cleanupFieldValue(fieldValue);
+    }
+
+    /**
+     * Group by the (string) value of the field. A line without this field is in the group with a null value.
+     */
+    public LogAggregator groupBy(String fieldValue) {
+        checkNotStarted();
+        groupFields.add(checkField(fieldValue));
+        return this;
+    }
+
+    /**
+     * Split the groups into tumbling windows on the timestamp of the request.
+     * @param newWindowSize The size of the windows in milliseconds.
+     */
+    public LogAggregator window(long newWindowSize) {
+        return window(DEFAULT_WINDOW_FIELD, newWindowSize);
+    }
+
+    /**
+     * Split the groups into tumbling windows on the epoch (milliseconds) in the field.
+     * The lines without this field are in {@link AggregationResult#NO_WINDOW}.
+     * @param newWindowSize The size of the windows in milliseconds.
+     */
+    public LogAggregator window(String epochFieldValue, long newWindowSize) {
+        checkNotStarted();
+        if (newWindowSize <= 0) {
+            throw new IllegalArgumentException("The window size must be > 0");
+        }
+        windowField = checkField(epochFieldValue);
+        windowSize  = newWindowSize;
+        return this;
+    }
+
+    private LogAggregator addMetric(MetricSpec metric) {
+        checkNotStarted();
+        for (MetricSpec existing : metrics) {
+            if (existing.name.equals(metric.name)) {
+                throw new IllegalArgumentException("There already is a value with the name \"" + metric.name + "\"");
+            }
+        }
+        metrics.add(metric);
+        return this;
+    }
+
+    /**
+     * Sum the values of the field (the number of lines with a value is also available).
+     */
+    public LogAggregator sum(String name, String fieldValue) {
+        return addMetric(new MetricSpec(name, checkField(fieldValue), Kind.SUM, 0, 0));
+    }
+
+    /**
+     * Keep the distribution of the (long) values of the field (like the %D microseconds).
+     * A value with a fraction is rounded; the field must be a LONG (else use a scale).
+     */
+    public LogAggregator histogram(String name, String fieldValue) {
+        return addMetric(new MetricSpec(name, checkField(fieldValue), Kind.HISTOGRAM, 0, 0));
+    }
+
+    /**
+     * Keep the distribution of the (decimal) values of the field (like the nginx $request_time seconds).
+     * @param scale The values are multiplied with this and rounded before they are recorded
+     *              (i.e. 1000 for a precision of milliseconds for a value in seconds).
+     */
+    public LogAggregator histogram(String name, String fieldValue, double scale) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("The scale must be > 0");
+        }
+        return addMetric(new MetricSpec(name, checkField(fieldValue), Kind.HISTOGRAM, scale, 0));
+    }
+
+    /**
+     * Estimate the number of distinct values of the field (with a standard error of 1.6%).
+     */
+    public LogAggregator distinct(String name, String fieldValue) {
+        return distinct(name, fieldValue, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Estimate the number of distinct values of the field.
+     * @param precision The precision of the HyperLogLog (4-18).
+     */
+    public LogAggregator distinct(String name, String fieldValue, int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("The precision must be in the range 4-18");
+        }
+        return addMetric(new MetricSpec(name, checkField(fieldValue), Kind.DISTINCT, 0, precision));
+    }
+
+    // --------------------------------------------
+
+    private void initialize() {
+        if (record != null) {
+            return;
+        }
+        if (groupFields.isEmpty() && metrics.isEmpty() && windowField == null) {
+            throw new IllegalStateException("Nothing to aggregate");
+        }
+        List<String> fieldValues = new ArrayList<>(groupFields);
+        for (MetricSpec metric : metrics) {
+            fieldValues.add(metric.fieldValue);
+        }
+        if (windowField != null) {
+            fieldValues.add(windowField);
+        }
+        Map<String, EnumSet<Casts>> allCasts = getCasts(fieldValues);
+        parser = createParser();
+
+        for (int index = 0; index < groupFields.size(); index++) {
+            final int group = index;
+            FieldCasts.checkRetrievable(allCasts, groupFields.get(group));
+            parser.addFieldSetter(groupFields.get(group),
+                (aggregationRecord, name, value) -> aggregationRecord.groupValues[group] = value.getString());
+        }
+
+        if (windowField != null) {
+            FieldCasts.checkRetrievable(allCasts, windowField);
+            parser.addFieldSetter(windowField, (aggregationRecord, name, value) -> {
+                Long epoch = value.getLong();
+                if (epoch != null) {
+                    aggregationRecord.epoch = epoch;
+                    aggregationRecord.hasEpoch = true;
+                }
+            });
+        }
+
+        for (int index = 0; index < metrics.size(); index++) {
+            final int metric = index;
+            MetricSpec spec = metrics.get(metric);
+            EnumSet<Casts> casts = FieldCasts.getCasts(allCasts, spec.fieldValue);
+            switch (spec.kind) {
+                case SUM:
+                    if (casts.contains(Casts.LONG) && !casts.contains(Casts.DOUBLE)) {
+                        parser.addFieldSetter(spec.fieldValue, (aggregationRecord, name, value) -> setLong(aggregationRecord, metric, value.getLong()));
+                    } else {
+                        // A value that can be a double may have a fraction (like the "0.123" seconds of the nginx
+                        // $upstream_response_time) and a String (like the nginx $request_time) is converted if it is a number.
+                        parser.addFieldSetter(spec.fieldValue, (aggregationRecord, name, value) -> {
+                            Double doubleValue = value.getDouble();
+                            if (doubleValue != null) {
+                                aggregationRecord.longValues[metric] = 0;
+                                aggregationRecord.doubleValues[metric] = doubleValue;
+                                aggregationRecord.present[metric] = true;
+                            }
+                        });
+                    }
+                    break;
+
+                case HISTOGRAM:
+                    if (spec.scale == 0 && !casts.contains(Casts.LONG)) {
+                        throw new IllegalArgumentException("The field \"" + spec.fieldValue + "\" is not a number: " +
+                            "use a histogram with a scale to convert its values");
+                    }
+                    if (spec.scale == 0 && !casts.contains(Casts.DOUBLE)) {
+                        parser.addFieldSetter(spec.fieldValue, (aggregationRecord, name, value) -> setLong(aggregationRecord, metric, value.getLong()));
+                    } else {
+                        // A value that can be a double may have a fraction which is rounded if there is no scale.
+                        final double scale = spec.scale == 0 ? 1 : spec.scale;
+                        parser.addFieldSetter(spec.fieldValue, (aggregationRecord, name, value) -> {
+                            Double doubleValue = value.getDouble();
+                            setLong(aggregationRecord, metric, doubleValue == null ? null : Math.round(doubleValue * scale));
+                        });
+                    }
+                    break;
+
+                case DISTINCT:
+                default:
+                    parser.addFieldSetter(spec.fieldValue, (aggregationRecord, name, value) -> {
+                        String stringValue = value.getString();
+                        if (stringValue != null) {
+                            aggregationRecord.stringValues[metric] = stringValue;
+                            aggregationRecord.present[metric] = true;
+                        }
+                    });
+                    break;
+            }
+        }
+
+        record = new AggregationRecord(groupFields.size(), metrics.size());
+        result = new AggregationResult(
+            groupFields.toArray(new String[0]), windowSize, metrics.toArray(new MetricSpec[0]));
+    }
+
+    private static void setLong(AggregationRecord aggregationRecord, int metric, Long value) {
+        if (value != null) {
+            aggregationRecord.longValues[metric] = value;
+            aggregationRecord.doubleValues[metric] = 0;
+            aggregationRecord.present[metric] = true;
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse the line and add it to the aggregates.
+     * @return true if the line was added, false if it was bad or rejected by the parser (filters or sampling).
+     */
+    @Override
+    public boolean add(String line) {
+        initialize();
+        record.clear();
+        if (!parse(parser, record, line)) {
+            return false;
+        }
+        result.add(record);
+        return true;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The aggregates so far. This is the live state which is updated by every following line.
+     */
+    public AggregationResult getResult() {
+        initialize();
+        return result;
+    }
+
+    /**
+     * Take the aggregates of all windows that start before the epoch (i.e. the windows that are complete).
+     */
+    public AggregationResult removeWindowsBefore(long epoch) {
+        return getResult().removeWindowsBefore(epoch);
+    }
+
+    /**
+     * @return The underlying parser (i.e. to get the counters of the filters); null before the first line.
+     */
+    public Parser<AggregationRecord> getParser() {
+        return parser;
+    }
+}
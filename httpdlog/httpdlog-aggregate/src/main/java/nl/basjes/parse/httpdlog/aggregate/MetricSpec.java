@@ -0,0 +1,69 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The definition of one of the aggregated values (shared by all groups).
+ */
+final class MetricSpec implements Serializable {
+
+    enum Kind {
+        SUM,
+        HISTOGRAM,
+        DISTINCT
+    }
+
+    final String name;
+    final String fieldValue;
+    final Kind   kind;
+    // HISTOGRAM: the doubles are multiplied with this before recording them (0 = the values are longs).
+    final double scale;
+    // DISTINCT: the precision of the HyperLogLog.
+    final int    precision;
+
+    MetricSpec(String name, String fieldValue, Kind kind, double scale, int precision) {
+        this.name       = name;
+        this.fieldValue = fieldValue;
+        this.kind       = kind;
+        this.scale      = scale;
+        this.precision  = precision;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MetricSpec)) {
+            return false;
+        }
+        MetricSpec other = (MetricSpec) o;
+        return name.equals(other.name) &&
+            fieldValue.equals(other.fieldValue) &&
+            kind == other.kind &&
+            Double.compare(scale, other.scale) == 0 &&
+            precision == other.precision;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, fieldValue, kind, scale, precision);
+    }
+}
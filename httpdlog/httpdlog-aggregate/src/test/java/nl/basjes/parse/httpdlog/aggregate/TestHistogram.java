@@ -0,0 +1,85 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestHistogram {
+
+    @Test
+    void testBuckets() {
+        int previous = -1;
+        for (long value = 0; value < 1_000_000; value++) {
+            int bucket = Histogram.bucketOf(value);
+            // The buckets are consecutive and every value is within the bounds of its bucket
+            assertTrue(bucket == previous || bucket == previous + 1, "Value " + value);
+            assertTrue(Histogram.lowestValueOf(bucket) <= value && value <= Histogram.highestValueOf(bucket));
+            previous = bucket;
+        }
+        int last = Histogram.bucketOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(last));
+    }
+
+    @Test
+    void testPercentiles() {
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < values.length; i++) {
+            // Log normal like latencies
+            values[i] = (long) Math.exp(8 + 2 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertEquals(exact, estimate, Math.max(1, exact / 100.0), "Percentile " + percentile);
+        }
+        assertEquals(values[0], histogram.getValueAtPercentile(0));
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(101));
+    }
+
+    @Test
+    void testMerge() {
+        Histogram all = new Histogram();
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        for (long value = 0; value < 10_000; value++) {
+            all.record(value * value);
+            (value % 3 == 0 ? first : second).record(value * value);
+        }
+        first.merge(second);
+        first.merge(new Histogram());
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMin(),   first.getMin());
+        assertEquals(all.getMax(),   first.getMax());
+        assertEquals(all.getMean(),  first.getMean(), 0.001);
+        for (double percentile = 0; percentile <= 100; percentile += 0.5) {
+            assertEquals(all.getValueAtPercentile(percentile), first.getValueAtPercentile(percentile));
+        }
+    }
+}
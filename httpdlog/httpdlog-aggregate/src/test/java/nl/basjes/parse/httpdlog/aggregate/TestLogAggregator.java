@@ -0,0 +1,258 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.aggregate;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestLogAggregator {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b %D";
+
+    // 2012-10-24 21:00:00 UTC
+    private static final long MINUTE_0 = 1351112400000L;
+    private static final long MINUTE_1 = MINUTE_0 + 60_000;
+
+    private static String line(int client, int second, int status, String bytes, int micros) {
+        return "10.0.0." + client + " - - [24/Oct/2012:23:0" + (second / 60) + ':' + String.format("%02d", second % 60) +
+            " +0200] \"GET /index.html HTTP/1.1\" " + status + ' ' + bytes + ' ' + micros;
+    }
+
+    private static List<String> createLines() {
+        List<String> lines = new ArrayList<>();
+        // Minute 0: 100 lines with status 200 from 10 clients with 1..100 ms and 2 lines with status 404.
+        for (int i = 1; i <= 100; i++) {
+            lines.add(line(i % 10, i % 60, 200, "1000", i * 1000));
+        }
+        lines.add(line(1, 10, 404, "-", 500));
+        lines.add(line(2, 20, 404, "-", 700));
+        // Minute 1: 10 lines with status 200 from 1 client
+        for (int i = 0; i < 10; i++) {
+            lines.add(line(42, 60 + i, 200, "10", 100));
+        }
+        lines.add("This is not a logline");
+        return lines;
+    }
+
+    private static Parser<AggregationRecord> createParser() {
+        return new HttpdLoglineParser<>(AggregationRecord.class, LOGFORMAT);
+    }
+
+    private static LogAggregator createAggregator() {
+        return new LogAggregator(TestLogAggregator::createParser)
+            .window(60_000)
+            .groupBy("STRING:request.status.last")
+            .sum("bytes", "BYTES:response.body.bytes")
+            .histogram("latency", "MICROSECONDS:response.server.processing.time")
+            .distinct("clients", "IP:connection.client.host");
+    }
+
+    private static void checkResult(AggregationResult result) {
+        assertEquals(3, result.size());
+
+        GroupAggregates ok = result.get(MINUTE_0, "200");
+        assertEquals(100,       ok.getCount());
+        assertEquals(100,       ok.getValueCount("bytes"));
+        assertEquals(100_000L,  ok.getLongSum("bytes"));
+        assertEquals(100_000.0, ok.getSum("bytes"));
+        assertEquals(10,        ok.getDistinct("clients"));
+        assertEquals(100,       ok.getHistogram("latency").getCount());
+        assertEquals(1000,      ok.getHistogram("latency").getMin());
+        assertEquals(100_000,   ok.getHistogram("latency").getMax());
+        assertEquals(50_500.0,  ok.getHistogram("latency").getMean(), 0.001);
+        assertEquals(50_000,    ok.getPercentile("latency", 50), 50_000 * 0.01);
+        assertEquals(99_000,    ok.getPercentile("latency", 99), 99_000 * 0.01);
+        assertEquals(100_000,   ok.getPercentile("latency", 100));
+
+        GroupAggregates notFound = result.get(MINUTE_0, "404");
+        assertEquals(2,         notFound.getCount());
+        assertEquals(0L,        notFound.getLongSum("bytes"));
+        assertEquals(2,         notFound.getDistinct("clients"));
+        assertEquals(500,       notFound.getPercentile("latency", 1));
+
+        GroupAggregates nextMinute = result.get(MINUTE_1, "200");
+        assertEquals(10,        nextMinute.getCount());
+        assertEquals(100L,      nextMinute.getLongSum("bytes"));
+        assertEquals(1,         nextMinute.getDistinct("clients"));
+
+        assertNull(result.get(MINUTE_1, "404"));
+    }
+
+    @Test
+    void testAggregation() throws IOException {
+        LogAggregator aggregator = createAggregator();
+        assertEquals(112, aggregator.addLines(new StringReader(String.join("\n", createLines()))));
+        assertEquals(112, aggregator.getGoodLines());
+        assertEquals(1,   aggregator.getBadLines());
+        assertEquals(0,   aggregator.getFilteredLines());
+
+        AggregationResult result = aggregator.getResult();
+        assertEquals("[STRING:request.status.last]", result.getGroupNames().toString());
+        assertEquals("[bytes, latency, clients]",    result.getMetricNames().toString());
+        assertEquals(60_000,                          result.getWindowSize());
+        checkResult(result);
+    }
+
+    @Test
+    void testMergePartialStates() throws Exception {
+        List<String> lines = createLines();
+        LogAggregator first = createAggregator();
+        LogAggregator second = createAggregator();
+        for (int i = 0; i < lines.size(); i++) {
+            (i % 2 == 0 ? first : second).add(lines.get(i));
+        }
+
+        // The partial states can be shipped to a different machine
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(second.getResult());
+        }
+        AggregationResult secondResult;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            secondResult = (AggregationResult) in.readObject();
+        }
+
+        checkResult(first.getResult().merge(secondResult));
+
+        LogAggregator different = new LogAggregator(TestLogAggregator::createParser)
+            .groupBy("STRING:request.status.last");
+        different.add(lines.get(0));
+        assertThrows(IllegalArgumentException.class, () -> first.getResult().merge(different.getResult()));
+    }
+
+    @Test
+    void testRemoveCompletedWindows() {
+        LogAggregator aggregator = createAggregator();
+        for (String line : createLines()) {
+            aggregator.add(line);
+        }
+        AggregationResult completed = aggregator.removeWindowsBefore(MINUTE_1);
+        assertEquals(2, completed.size());
+        assertEquals(100, completed.get(MINUTE_0, "200").getCount());
+        assertEquals(1, aggregator.getResult().size());
+        assertEquals(10, aggregator.getResult().get(MINUTE_1, "200").getCount());
+    }
+
+    @Test
+    void testNoWindowAndDoubleValues() {
+        // The nginx $request_time is a String with the seconds with a milliseconds resolution
+        LogAggregator aggregator = new LogAggregator(() ->
+            new HttpdLoglineParser<>(AggregationRecord.class, "$remote_addr $request_time"))
+            .groupBy("IP:connection.client.host")
+            .sum("seconds", "SECOND_MILLIS:response.server.processing.time")
+            .histogram("time", "SECOND_MILLIS:response.server.processing.time", 1000);
+        assertTrue(aggregator.add("10.0.0.1 1.250"));
+        assertTrue(aggregator.add("10.0.0.1 3.001"));
+        assertTrue(aggregator.add("10.0.0.2 0.002"));
+
+        AggregationResult result = aggregator.getResult();
+        assertEquals(2, result.size());
+        GroupAggregates first = result.get(AggregationResult.NO_WINDOW, "10.0.0.1");
+        assertEquals(2, first.getCount());
+        assertEquals(4.251, first.getSum("seconds"), 0.0001);
+        assertEquals(3.001, first.getPercentile("time", 100), 0.0001);
+        assertEquals(1.250, first.getPercentile("time", 50), 0.0001);
+        assertEquals(0.002, result.get(AggregationResult.NO_WINDOW, "10.0.0.2").getPercentile("time", 50), 0.0001);
+    }
+
+    @Test
+    void testUpstreamResponseTime() {
+        // The nginx $upstream_response_time can be a LONG or a DOUBLE and has the seconds with a milliseconds resolution
+        final String upstreamTime = "SECOND_MILLIS:nginxmodule.upstream.response.time.0.value";
+        LogAggregator aggregator = new LogAggregator(() ->
+            new HttpdLoglineParser<>(AggregationRecord.class, "$remote_addr $upstream_response_time"))
+            .groupBy("IP:connection.client.host")
+            .sum("seconds", upstreamTime)
+            .histogram("millis", upstreamTime, 1000)
+            .histogram("rounded", upstreamTime);
+        assertTrue(aggregator.add("10.0.0.1 0.123"));
+        assertTrue(aggregator.add("10.0.0.1 2.500"));
+        assertTrue(aggregator.add("10.0.0.1 4.000"));
+
+        GroupAggregates group = aggregator.getResult().get(AggregationResult.NO_WINDOW, "10.0.0.1");
+        assertEquals(3, group.getCount());
+        assertEquals(6.623, group.getSum("seconds"), 0.0001);
+        assertEquals(3, group.getHistogram("millis").getCount());
+        assertEquals(0.123, group.getPercentile("millis", 1), 0.0001);
+        assertEquals(4.0, group.getPercentile("millis", 100), 0.0001);
+        // Without a scale the fraction is rounded (instead of dropping the value)
+        assertEquals(3, group.getHistogram("rounded").getCount());
+        assertEquals(0, group.getPercentile("rounded", 1), 0.0001);
+
+        // A String (like the nginx $request_time) needs a scale to be converted
+        LogAggregator noScale = new LogAggregator(() ->
+            new HttpdLoglineParser<>(AggregationRecord.class, "$remote_addr $request_time"))
+            .histogram("time", "SECOND_MILLIS:response.server.processing.time");
+        assertThrows(IllegalArgumentException.class, () -> noScale.add("10.0.0.1 1.250"));
+    }
+
+    @Test
+    void testParserFiltersAndSampling() {
+        LogAggregator aggregator = new LogAggregator(() -> {
+            Parser<AggregationRecord> parser = createParser();
+            parser.addFieldFilter("STRING:request.status.last", value -> "404".equals(value.getString()));
+            parser.setLineSampler(line -> !line.startsWith("10.0.0.2 "));
+            return parser;
+        })
+            .groupBy("STRING:request.status.last");
+        for (String line : createLines()) {
+            aggregator.add(line);
+        }
+        AggregationResult result = aggregator.getResult();
+        assertEquals(1, result.size());
+        assertEquals(1, result.get(AggregationResult.NO_WINDOW, "404").getCount());
+        assertEquals(111, aggregator.getFilteredLines());
+        assertEquals(11, aggregator.getParser().getSampledOutLines());
+    }
+
+    @Test
+    void testBadConfig() {
+        LogAggregator nothing = new LogAggregator(TestLogAggregator::createParser);
+        assertThrows(IllegalStateException.class, () -> nothing.add("Something"));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> new LogAggregator(TestLogAggregator::createParser).groupBy("STRING:request.firstline.uri.query.*"));
+        assertThrows(IllegalArgumentException.class,
+            () -> new LogAggregator(TestLogAggregator::createParser).sum("a", "BYTES:response.body.bytes").sum("a", "BYTES:response.body.bytes"));
+        assertThrows(IllegalArgumentException.class,
+            () -> new LogAggregator(TestLogAggregator::createParser).window(0));
+
+        LogAggregator unknownField = new LogAggregator(TestLogAggregator::createParser)
+            .sum("foo", "STRING:no.such.field");
+        assertThrows(IllegalStateException.class, () -> unknownField.add("Something"));
+
+        LogAggregator started = createAggregator();
+        assertFalse(started.add("Something"));
+        assertThrows(IllegalStateException.class, () -> started.groupBy("IP:connection.client.host"));
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.FieldCasts;
+import nl.basjes.parse.core.FieldSetter;
+import nl.basjes.parse.core.LineConsumer;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ParserFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses log lines straight into the vectors of an Arrow VectorSchemaRoot (a batch of rows).
+ * No object is created per line: the parser puts the values directly into the current row of the vectors.
+ *
+ * The type of every column is derived from the casts of the field: a field that can be a DOUBLE becomes
+ * a Float8, else a field that can be a LONG becomes a BigInt and else it becomes a VarChar (UTF-8) vector.
+ * The String values of a low cardinality field (like the method or the status) can be dictionary encoded:
+ * then every distinct value is stored only once per batch and the rows only contain the index of the value.
+ *
+ * <pre>{@code
+ * try (ArrowBatchWriter writer = new ArrowBatchWriter(
+ *          () -> new HttpdLoglineParser<>(ArrowRecord.class, logformat), allocator)
+ *          .addField("ip",     "IP:connection.client.host")
+ *          .addField("bytes",  "BYTES:response.body.bytes")
+ *          .addDictionaryField("method", "HTTP.METHOD:request.firstline.method")) {
+ *     for (String line : lines) {
+ *         writer.add(line);
+ *         if (writer.isFull()) {
+ *             consume(writer.getBatch(), writer.getDictionaryProvider());
+ *             writer.reset();
+ *         }
+ *     }
+ *     consume(writer.getBatch(), writer.getDictionaryProvider());
+ * }
+ * }</pre>
+ * The vectors (and the dictionaries) are reused for the next batch after {@link #reset()}.
+ * An instance is not thread safe.
+ */
+public class ArrowBatchWriter extends LineConsumer<ArrowRecord> implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /** The metadata key of the Arrow field that holds the field of the parser of the column. */
+    public static final String FIELD_METADATA_KEY = "httpdlog.field";
+
+    private static final class ColumnSpec {
+        private final String  name;
+        private final String  fieldValue;
+        private final boolean dictionary;
+
+        ColumnSpec(String name, String fieldValue, boolean dictionary) {
+            this.name       = name;
+            this.fieldValue = fieldValue;
+            this.dictionary = dictionary;
+        }
+    }
+
+    private final BufferAllocator            allocator;
+    private final List<ColumnSpec>           columnSpecs = new ArrayList<>();
+    private int                              batchSize = DEFAULT_BATCH_SIZE;
+
+    // Everything below is created when the first line is added.
+    private Parser<ArrowRecord>              parser;
+    private Schema                           schema;
+    private VectorSchemaRoot                 root;
+    private ArrowColumn[]                    columns;
+    private final List<VarCharVector>        dictionaryVectors = new ArrayList<>();
+    private DictionaryProvider.MapDictionaryProvider dictionaryProvider;
+    private ArrowRecord                      record;
+
+    private int     rowCount = 0;
+    private boolean rowDirty = false;
+
+    /**
+     * @param parserFactory Creates the parser (with the logformat and any additional dissectors) for the ArrowRecord.
+     * @param allocator The allocator of the memory of the vectors.
+     */
+    public ArrowBatchWriter(ParserFactory<ArrowRecord> parserFactory, BufferAllocator allocator) {
+        super(parserFactory);
+        this.allocator     = allocator;
+    }
+
+    /**
+     * Add a column with the value of the field (the field is also the name of the column).
+     */
+    public ArrowBatchWriter addField(String fieldValue) {
+        return addField(fieldValue, fieldValue);
+    }
+
+    /**
+     * Add a column with the value of the field.
+     */
+    public ArrowBatchWriter addField(String name, String fieldValue) {
+        return addColumn(name, fieldValue, false);
+    }
+
+    /**
+     * Add a dictionary encoded String column with the value of the field (the field is also the name of the column).
+     */
+    public ArrowBatchWriter addDictionaryField(String fieldValue) {
+        return addDictionaryField(fieldValue, fieldValue);
+    }
+
+    /**
+     * Add a dictionary encoded String column with the value of the field.
+     */
+    public ArrowBatchWriter addDictionaryField(String name, String fieldValue) {
+        return addColumn(name, fieldValue, true);
+    }
+
+    private ArrowBatchWriter addColumn(String name, String fieldValue, boolean dictionary) {
+        if (root != null) {
+            throw new IllegalStateException("Columns cannot be added after the first line has been written.");
+        }
+        for (ColumnSpec columnSpec : columnSpecs) {
+            if (columnSpec.name.equals(name)) {
+                throw new IllegalArgumentException("There already is a column named \"" + name + "\"");
+            }
+        }
+        columnSpecs.add(new ColumnSpec(name, Parser.cleanupFieldValue(fieldValue), dictionary));
+        return this;
+    }
+
+    /**
+     * @param newBatchSize The maximum number of rows in a batch.
+     */
+    public ArrowBatchWriter setBatchSize(int newBatchSize) {
+        if (newBatchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be > 0");
+        }
+        batchSize = newBatchSize;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // --------------------------------------------
+
+    private static Casts chooseCasts(ColumnSpec columnSpec, Map<String, EnumSet<Casts>> allCasts) {
+        if (columnSpec.dictionary) {
+            if (!FieldCasts.getCasts(allCasts, columnSpec.fieldValue).contains(Casts.STRING)) {
+                throw new IllegalArgumentException("The field \"" + columnSpec.fieldValue + "\" is not a String " +
+                    "so it cannot be dictionary encoded");
+            }
+            return Casts.STRING;
+        }
+        return FieldCasts.getColumnCasts(allCasts, columnSpec.fieldValue);
+    }
+
+    private static ArrowType toArrowType(Casts casts) {
+        switch (casts) {
+            case LONG:
+                return new ArrowType.Int(64, true);
+            case DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case STRING:
+            default:
+                return new ArrowType.Utf8();
+        }
+    }
+
+    private void initialize() {
+        if (root != null) {
+            return;
+        }
+        if (columnSpecs.isEmpty()) {
+            throw new IllegalStateException("No columns were specified");
+        }
+
+        List<String> fieldValues = new ArrayList<>();
+        for (ColumnSpec columnSpec : columnSpecs) {
+            fieldValues.add(columnSpec.fieldValue);
+        }
+        Map<String, EnumSet<Casts>> allCasts = getCasts(fieldValues);
+
+        List<Field>              fields     = new ArrayList<>();
+        List<Casts>              fieldCasts = new ArrayList<>();
+        List<DictionaryEncoding> encodings  = new ArrayList<>();
+        for (ColumnSpec columnSpec : columnSpecs) {
+            Casts casts = chooseCasts(columnSpec, allCasts);
+            ArrowType          arrowType = toArrowType(casts);
+            DictionaryEncoding encoding  = null;
+            if (columnSpec.dictionary) {
+                // The vector of the column holds the indexes, the dictionary holds the values.
+                encoding  = new DictionaryEncoding(encodings.size(), false, new ArrowType.Int(32, true));
+                arrowType = encoding.getIndexType();
+                encodings.add(encoding);
+            }
+            FieldType fieldType = new FieldType(true, arrowType, encoding,
+                Collections.singletonMap(FIELD_METADATA_KEY, columnSpec.fieldValue));
+            fields.add(new Field(columnSpec.name, fieldType, null));
+            fieldCasts.add(casts);
+        }
+        schema = new Schema(fields);
+
+        root = VectorSchemaRoot.create(schema, allocator);
+        dictionaryProvider = new DictionaryProvider.MapDictionaryProvider();
+        Utf8Encoder encoder = new Utf8Encoder();
+
+        parser = createParser();
+        record = new ArrowRecord();
+
+        columns = new ArrowColumn[columnSpecs.size()];
+        for (int i = 0; i < columns.length; i++) {
+            ColumnSpec  columnSpec = columnSpecs.get(i);
+            Casts       casts      = fieldCasts.get(i);
+            FieldVector vector     = root.getVector(i);
+            vector.setInitialCapacity(batchSize);
+            vector.allocateNew();
+
+            ArrowColumn column;
+            switch (casts) {
+                case LONG:
+                    column = new ArrowColumn.BigIntColumn((BigIntVector) vector);
+                    break;
+                case DOUBLE:
+                    column = new ArrowColumn.Float8Column((Float8Vector) vector);
+                    break;
+                case STRING:
+                default:
+                    if (columnSpec.dictionary) {
+                        DictionaryEncoding encoding = vector.getField().getDictionary();
+                        VarCharVector dictionaryVector = new VarCharVector(columnSpec.name + ".dictionary", allocator);
+                        dictionaryVector.allocateNew();
+                        dictionaryVectors.add(dictionaryVector);
+                        dictionaryProvider.put(new Dictionary(dictionaryVector, encoding));
+                        column = new ArrowColumn.DictionaryColumn((IntVector) vector, dictionaryVector, encoder);
+                    } else {
+                        column = new ArrowColumn.VarCharColumn((VarCharVector) vector, encoder);
+                    }
+                    break;
+            }
+            columns[i] = column;
+            // The value goes straight into the vector of the column (no reflection or lookup per value).
+            FieldSetter<ArrowRecord> setter = (arrowRecord, name, value) -> column.set(arrowRecord.getRow(), value);
+            parser.addFieldSetter(columnSpec.fieldValue, setter);
+        }
+    }
+
+    /**
+     * @return The schema of the batches.
+     */
+    public Schema getSchema() {
+        initialize();
+        return schema;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse the line into the next row of the batch.
+     * @return true if the line was added, false if it was bad or rejected by one of the field filters.
+     * @throws IllegalStateException If the batch is already full.
+     */
+    @Override
+    public boolean add(String line) {
+        initialize();
+        if (isFull()) {
+            throw new IllegalStateException("The batch is full: use getBatch() and reset() first.");
+        }
+        if (rowDirty) {
+            // The previous line was rejected after some of its values had been written into this row.
+            for (ArrowColumn column : columns) {
+                column.clearRow(rowCount);
+            }
+        }
+        record.setRow(rowCount);
+        rowDirty = true;
+        if (!parse(parser, record, line)) {
+            return false;
+        }
+        rowDirty = false;
+        rowCount++;
+        return true;
+    }
+
+    /**
+     * @return true if the batch holds the maximum number of rows.
+     */
+    public boolean isFull() {
+        return rowCount >= batchSize;
+    }
+
+    /**
+     * @return The number of rows in the current batch.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Complete the current batch. The returned root (and the dictionaries) remain valid until {@link #reset()}.
+     */
+    public VectorSchemaRoot getBatch() {
+        initialize();
+        for (ArrowColumn column : columns) {
+            column.finishBatch();
+        }
+        root.setRowCount(rowCount);
+        return root;
+    }
+
+    /**
+     * @return The dictionaries of the dictionary encoded columns (by the id in the schema of the column).
+     */
+    public DictionaryProvider getDictionaryProvider() {
+        initialize();
+        return dictionaryProvider;
+    }
+
+    /**
+     * Start a new (empty) batch in the same vectors.
+     */
+    public void reset() {
+        initialize();
+        for (FieldVector vector : root.getFieldVectors()) {
+            vector.reset();
+        }
+        for (ArrowColumn column : columns) {
+            column.startBatch();
+        }
+        root.setRowCount(0);
+        rowCount = 0;
+        rowDirty = false;
+    }
+
+    /**
+     * Release the memory of the vectors and the dictionaries.
+     */
+    @Override
+    public void close() {
+        if (root != null) {
+            root.close();
+        }
+        for (VarCharVector dictionaryVector : dictionaryVectors) {
+            dictionaryVector.close();
+        }
+        dictionaryVectors.clear();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+import nl.basjes.parse.core.Value;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the values of a single field into the vector of a column.
+ */
+abstract class ArrowColumn {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Make the value in this row null again (after a line that was rejected halfway had already set it).
+     */
+    abstract void clearRow(int row);
+
+    /**
+     * Put the value (as the type of this column) in this row; a value that has no such form is ignored.
+     */
+    abstract void set(int row, Value value);
+
+    /**
+     * Called when the values of a batch are complete.
+     */
+    void finishBatch() {
+    }
+
+    /**
+     * Called before the values of the next batch are written.
+     */
+    void startBatch() {
+    }
+
+    // --------------------------------------------
+
+    static final class VarCharColumn extends ArrowColumn {
+        private final VarCharVector vector;
+        private final Utf8Encoder   encoder;
+
+        VarCharColumn(VarCharVector vector, Utf8Encoder encoder) {
+            this.vector  = vector;
+            this.encoder = encoder;
+        }
+
+        @Override
+        void clearRow(int row) {
+            vector.setSafe(row, EMPTY, 0, 0);
+            vector.setNull(row);
+        }
+
+        @Override
+        void set(int row, Value value) {
+            String stringValue = value.getString();
+            if (stringValue == null) {
+                return;
+            }
+            int length = encoder.encode(stringValue);
+            vector.setSafe(row, encoder.getBuffer(), 0, length);
+        }
+    }
+
+    static final class BigIntColumn extends ArrowColumn {
+        private final BigIntVector vector;
+
+        BigIntColumn(BigIntVector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        void clearRow(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void set(int row, Value value) {
+            Long longValue = value.getLong();
+            if (longValue != null) {
+                vector.setSafe(row, longValue);
+            }
+        }
+    }
+
+    static final class Float8Column extends ArrowColumn {
+        private final Float8Vector vector;
+
+        Float8Column(Float8Vector vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        void clearRow(int row) {
+            vector.setNull(row);
+        }
+
+        @Override
+        void set(int row, Value value) {
+            Double doubleValue = value.getDouble();
+            if (doubleValue != null) {
+                vector.setSafe(row, doubleValue);
+            }
+        }
+    }
+
+    /**
+     * A String column that stores every distinct value only once (per batch) in the dictionary
+     * and only the index of the value in the rows.
+     */
+    static final class DictionaryColumn extends ArrowColumn {
+        private final IntVector             indexVector;
+        private final VarCharVector         dictionaryVector;
+        private final Utf8Encoder           encoder;
+        private final Map<String, Integer>  indexes = new HashMap<>();
+
+        DictionaryColumn(IntVector indexVector, VarCharVector dictionaryVector, Utf8Encoder encoder) {
+            this.indexVector      = indexVector;
+            this.dictionaryVector = dictionaryVector;
+            this.encoder          = encoder;
+        }
+
+        @Override
+        void clearRow(int row) {
+            indexVector.setNull(row);
+        }
+
+        @Override
+        void set(int row, Value value) {
+            String stringValue = value.getString();
+            if (stringValue == null) {
+                return;
+            }
+            Integer index = indexes.get(stringValue);
+            if (index == null) {
+                index = indexes.size();
+                indexes.put(stringValue, index);
+                int length = encoder.encode(stringValue);
+                dictionaryVector.setSafe(index, encoder.getBuffer(), 0, length);
+            }
+            indexVector.setSafe(row, index);
+        }
+
+        int getDictionarySize() {
+            return indexes.size();
+        }
+
+        @Override
+        void finishBatch() {
+            dictionaryVector.setValueCount(indexes.size());
+        }
+
+        @Override
+        void startBatch() {
+            indexes.clear();
+            dictionaryVector.reset();
+        }
+    }
+}
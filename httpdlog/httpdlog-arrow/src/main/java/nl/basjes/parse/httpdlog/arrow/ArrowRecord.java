@@ -0,0 +1,38 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+/**
+ * The record the parser puts the values in for the {@link ArrowBatchWriter}.
+ * There is only one instance per writer: it only holds the current row, the setter of every column
+ * writes the value straight into its vector.
+ */
+public final class ArrowRecord {
+
+    private int row = 0;
+
+    ArrowRecord() {
+    }
+
+    void setRow(int newRow) {
+        row = newRow;
+    }
+
+    int getRow() {
+        return row;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryEncoder;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestArrowBatchWriter {
+
+    private static final String LOGFORMAT = "$remote_addr \"$request\" $status $body_bytes_sent $upstream_response_time";
+
+    private static final String[] LINES = {
+        "10.0.0.1 \"GET /index.html HTTP/1.1\" 200 1234 0.010",
+        "This is not an nginx line",
+        "10.0.0.2 \"POST /api/order HTTP/1.1\" 201 56 0.250",
+        // The health checks of the load balancer are not wanted
+        "10.0.0.3 \"GET /health HTTP/1.1\" 200 2 0.001",
+        "10.0.0.4 \"GET /index.html HTTP/1.1\" 304 0 -",
+    };
+
+    private static Parser<ArrowRecord> createParser() {
+        Parser<ArrowRecord> parser = new HttpdLoglineParser<>(ArrowRecord.class, LOGFORMAT);
+        parser.addFieldFilter("HTTP.URI:request.firstline.uri", value -> !"/health".equals(value.getString()));
+        return parser;
+    }
+
+    private static ArrowBatchWriter createWriter(BufferAllocator allocator) {
+        return new ArrowBatchWriter(TestArrowBatchWriter::createParser, allocator)
+            // nginx declares the $remote_addr as STRING_OR_LONG; a dictionary encoded column is always a String.
+            .addDictionaryField("ip", "IP:connection.client.host")
+            .addDictionaryField("method", "HTTP.METHOD:request.firstline.method")
+            .addField("HTTP.URI:request.firstline.uri")
+            .addDictionaryField("status", "STRING:request.status.last")
+            .addField("bytes",    "BYTES:response.body.bytes")
+            .addField("upstream", "SECOND_MILLIS:nginxmodule.upstream.response.time.0.value");
+    }
+
+    private static List<String> decode(VectorSchemaRoot root, ArrowBatchWriter writer, String column) {
+        ValueVector indexes = root.getVector(column);
+        Dictionary dictionary = writer.getDictionaryProvider()
+            .lookup(indexes.getField().getDictionary().getId());
+        List<String> values = new ArrayList<>();
+        try (ValueVector decoded = DictionaryEncoder.decode(indexes, dictionary)) {
+            for (int i = 0; i < decoded.getValueCount(); i++) {
+                Object value = decoded.getObject(i);
+                values.add(value == null ? null : value.toString());
+            }
+        }
+        return values;
+    }
+
+    private static List<String> strings(VarCharVector vector) {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < vector.getValueCount(); i++) {
+            values.add(vector.isNull(i) ? null : new String(vector.get(i), StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    @Test
+    void testSchema() {
+        try (BufferAllocator allocator = new RootAllocator();
+             ArrowBatchWriter writer = createWriter(allocator)) {
+            Schema schema = writer.getSchema();
+            List<Field> fields = schema.getFields();
+            assertEquals(6, fields.size());
+
+            assertEquals("ip", fields.get(0).getName());
+            assertEquals("IP:connection.client.host", fields.get(0).getMetadata().get(ArrowBatchWriter.FIELD_METADATA_KEY));
+
+            // The dictionary encoded column holds the indexes of the values in the dictionary
+            assertEquals(new ArrowType.Int(32, true), fields.get(1).getType());
+            assertEquals(new ArrowType.Utf8(), writer.getDictionaryProvider()
+                .lookup(fields.get(1).getDictionary().getId()).getVectorType());
+
+            assertEquals("HTTP.URI:request.firstline.uri", fields.get(2).getName());
+            assertEquals(new ArrowType.Utf8(), fields.get(2).getType());
+            assertEquals(new ArrowType.Int(64, true), fields.get(4).getType());
+            assertEquals(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE), fields.get(5).getType());
+        }
+    }
+
+    @Test
+    void testBatch() {
+        try (BufferAllocator allocator = new RootAllocator();
+             ArrowBatchWriter writer = createWriter(allocator)) {
+            for (String line : LINES) {
+                writer.add(line);
+            }
+            assertEquals(3, writer.getGoodLines());
+            assertEquals(1, writer.getBadLines());
+            assertEquals(1, writer.getFilteredLines());
+
+            VectorSchemaRoot root = writer.getBatch();
+            assertEquals(3, root.getRowCount());
+
+            assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.4"), decode(root, writer, "ip"));
+            assertEquals(Arrays.asList("/index.html", "/api/order", "/index.html"),
+                strings((VarCharVector) root.getVector("HTTP.URI:request.firstline.uri")));
+            assertEquals(Arrays.asList("GET", "POST", "GET"), decode(root, writer, "method"));
+            assertEquals(Arrays.asList("200", "201", "304"), decode(root, writer, "status"));
+
+            // Every distinct value is stored only once
+            IntVector methods = (IntVector) root.getVector("method");
+            assertEquals(methods.get(0), methods.get(2));
+            assertEquals(2, writer.getDictionaryProvider()
+                .lookup(methods.getField().getDictionary().getId()).getVector().getValueCount());
+
+            BigIntVector bytes = (BigIntVector) root.getVector("bytes");
+            assertEquals(1234L, bytes.get(0));
+            assertEquals(56L,   bytes.get(1));
+            assertEquals(0L,    bytes.get(2));
+
+            Float8Vector upstream = (Float8Vector) root.getVector("upstream");
+            assertEquals(0.010, upstream.get(0), 0.0001);
+            assertEquals(0.250, upstream.get(1), 0.0001);
+            assertTrue(upstream.isNull(2)); // Not the value of the filtered health check
+        }
+    }
+
+    @Test
+    void testMultipleBatches() {
+        try (BufferAllocator allocator = new RootAllocator();
+             ArrowBatchWriter writer = createWriter(allocator).setBatchSize(2)) {
+            List<String> ips = new ArrayList<>();
+            List<String> methods = new ArrayList<>();
+            for (String line : LINES) {
+                writer.add(line);
+                if (writer.isFull()) {
+                    VectorSchemaRoot root = writer.getBatch();
+                    ips.addAll(decode(root, writer, "ip"));
+                    methods.addAll(decode(root, writer, "method"));
+                    assertThrows(IllegalStateException.class, () -> writer.add(LINES[0]));
+                    writer.reset();
+                }
+            }
+            VectorSchemaRoot root = writer.getBatch();
+            assertEquals(1, root.getRowCount());
+            ips.addAll(decode(root, writer, "ip"));
+            methods.addAll(decode(root, writer, "method"));
+
+            assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.4"), ips);
+            assertEquals(Arrays.asList("GET", "POST", "GET"), methods);
+            // The dictionary starts empty again for every batch
+            assertEquals(1, writer.getDictionaryProvider()
+                .lookup(root.getVector("method").getField().getDictionary().getId()).getVector().getValueCount());
+        }
+    }
+
+    private static String request(String method) {
+        return "10.0.0.1 \"" + method + " /index.html HTTP/1.1\" 200 10 0.100";
+    }
+
+    @Test
+    void testDictionaryReuseAcrossReset() {
+        try (BufferAllocator allocator = new RootAllocator();
+             ArrowBatchWriter writer = createWriter(allocator)) {
+            for (String method : new String[]{"OPTIONS", "DELETE", "GET"}) {
+                assertTrue(writer.add(request(method)));
+            }
+            VectorSchemaRoot root = writer.getBatch();
+            long dictionaryId = root.getVector("method").getField().getDictionary().getId();
+            Dictionary dictionary = writer.getDictionaryProvider().lookup(dictionaryId);
+            assertEquals(Arrays.asList("OPTIONS", "DELETE", "GET"), decode(root, writer, "method"));
+
+            writer.reset();
+            assertTrue(writer.add(request("GET")));
+            assertTrue(writer.add(request("PUT")));
+            root = writer.getBatch();
+
+            // The same dictionary (and vector) is filled again from the start: the shorter GET now is the first
+            // value and nothing of the OPTIONS that was there before must remain.
+            assertSame(dictionary, writer.getDictionaryProvider().lookup(dictionaryId));
+            assertEquals(Arrays.asList("GET", "PUT"), strings((VarCharVector) dictionary.getVector()));
+            IntVector methods = (IntVector) root.getVector("method");
+            assertEquals(0, methods.get(0));
+            assertEquals(1, methods.get(1));
+            assertEquals(Arrays.asList("GET", "PUT"), decode(root, writer, "method"));
+
+            // Filling the same batch over and over again does not need any additional memory.
+            long allocated = allocator.getAllocatedMemory();
+            for (int batch = 0; batch < 100; batch++) {
+                writer.reset();
+                assertTrue(writer.add(request("GET")));
+                assertTrue(writer.add(request("PUT")));
+                writer.getBatch();
+            }
+            assertEquals(allocated, allocator.getAllocatedMemory());
+        }
+    }
+
+    @Test
+    void testDouble() {
+        try (BufferAllocator allocator = new RootAllocator();
+             ArrowBatchWriter writer = new ArrowBatchWriter(
+                 () -> new HttpdLoglineParser<>(ArrowRecord.class, "$remote_addr $upstream_response_time"), allocator)
+                 .addField("seconds",      "SECOND_MILLIS:nginxmodule.upstream.response.time.0.value")
+                 .addField("milliseconds", "MILLISECONDS:nginxmodule.upstream.response.time.0.value")) {
+            assertTrue(writer.add("10.0.0.1 0.123"));
+            assertTrue(writer.add("10.0.0.2 -"));
+
+            VectorSchemaRoot root = writer.getBatch();
+            Float8Vector seconds = (Float8Vector) root.getVector("seconds");
+            assertEquals(0.123, seconds.get(0), 0.0001);
+            assertTrue(seconds.isNull(1));
+            BigIntVector milliseconds = (BigIntVector) root.getVector("milliseconds");
+            assertEquals(123L, milliseconds.get(0));
+        }
+    }
+
+    @Test
+    void testBadConfig() {
+        try (BufferAllocator allocator = new RootAllocator()) {
+            assertThrows(IllegalStateException.class, () ->
+                new ArrowBatchWriter(TestArrowBatchWriter::createParser, allocator).getSchema());
+
+            assertThrows(IllegalArgumentException.class, () ->
+                new ArrowBatchWriter(TestArrowBatchWriter::createParser, allocator)
+                    .addField("ip", "IP:connection.client.host")
+                    .addField("ip", "HTTP.URI:request.firstline.uri"));
+
+            try (ArrowBatchWriter writer = new ArrowBatchWriter(TestArrowBatchWriter::createParser, allocator)
+                     .addDictionaryField("bytes", "BYTES:response.body.bytes")) {
+                // Also a String so it can be dictionary encoded
+                assertFalse(writer.getSchema().getFields().isEmpty());
+                assertTrue(writer.add(LINES[0]));
+                assertEquals(Collections.singletonList("1234"), decode(writer.getBatch(), writer, "bytes"));
+            }
+        }
+    }
+}
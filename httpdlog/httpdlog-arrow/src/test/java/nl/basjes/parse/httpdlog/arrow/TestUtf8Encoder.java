@@ -0,0 +1,52 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.arrow;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class TestUtf8Encoder {
+
+    private static void check(Utf8Encoder encoder, String value) {
+        int length = encoder.encode(value);
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), Arrays.copyOf(encoder.getBuffer(), length), value);
+    }
+
+    @Test
+    void testEncode() {
+        Utf8Encoder encoder = new Utf8Encoder();
+        check(encoder, "");
+        check(encoder, "Simple ASCII");
+        check(encoder, "Ünïcödé € 中文");
+        // A surrogate pair (an emoji) and unpaired surrogates
+        check(encoder, "Smile 😀!");
+        check(encoder, "Bad \ud83d!");
+        check(encoder, "Bad \ude00!");
+        check(encoder, "Bad at the end \ud83d");
+
+        // Grow the buffer
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("€");
+        }
+        check(encoder, sb.toString());
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds the fields of the parser directly to the fields of an Avro record (a GenericData.Record or a generated
+ * SpecificRecord). The values are put in the record by position: there is no setter method that is called via
+ * reflection and no intermediate object (like a builder) is created per line.
+ *
+ * <pre>{@code
+ * AvroBinding<Click> binding = new AvroBinding<Click>(Click.getClassSchema())
+ *     .map("timestamp",                "TIME.EPOCH:request.receive.time.epoch")
+ *     .map("device.screenWidth",       "SCREENWIDTH:request.firstline.uri.query.s.width")
+ *     .map("visitor.ip",               "IP:connection.client.host");
+ *
+ * Parser<Click> parser = binding.bind(new HttpdLoglineParser<>(Click.class, logformat));
+ * Click click = binding.newRecord();
+ * for (String line : lines) {
+ *     if (binding.parse(parser, click, line) != null) {
+ *         binding.write(click, encoder); // Or use the (reused) click in any other way.
+ *     }
+ * }
+ * }</pre>
+ * The fields are specified as the names of the fields from the root record separated by a '.'.
+ * Nested records are created once and then reused. The supported types of the fields are
+ * string, long, int, double, float and boolean; all of them optionally in a union with null.
+ *
+ * A binding must only be bound to a single parser and is just like the parser not thread safe.
+ * @param <RECORD> The class of the (root) record.
+ */
+public final class AvroBinding<RECORD extends IndexedRecord> implements Serializable {
+
+    private static final EnumSet<Schema.Type> SUPPORTED_TYPES = EnumSet.of(
+        Schema.Type.STRING,
+        Schema.Type.LONG,
+        Schema.Type.INT,
+        Schema.Type.DOUBLE,
+        Schema.Type.FLOAT,
+        Schema.Type.BOOLEAN);
+
+    private static final class NestedRecord implements Serializable {
+        private final int[]  positions;
+        private final Schema schema;
+
+        NestedRecord(int[] positions, Schema schema) {
+            this.positions = positions;
+            this.schema    = schema;
+        }
+    }
+
+    private final Schema                 schema;
+    // All leaves in the order of the schema (which is also the order of the binary encoding).
+    private final List<AvroLeaf>         leaves        = new ArrayList<>();
+    private final Map<String, AvroLeaf>  leavesByPath  = new LinkedHashMap<>();
+    // The nested records; a parent always comes before its children.
+    private final List<NestedRecord>     nestedRecords = new ArrayList<>();
+    private final List<String>           unsupported   = new ArrayList<>();
+
+    // The mapped leaves and their parser fields.
+    private final List<AvroLeaf>         mappedLeaves  = new ArrayList<>();
+    private final List<String>           parserFields  = new ArrayList<>();
+
+    // Which of the mapped leaves received a value in the current line.
+    private boolean[]                    seen = new boolean[0];
+    // Why a value of the current line could not be stored (null if there was no such value).
+    private String                       invalidValue = null;
+
+    public AvroBinding(Schema schema) {
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("The schema must be a record instead of " + schema.getType());
+        }
+        this.schema = schema;
+        compile(schema, "", new int[0]);
+    }
+
+    private void compile(Schema recordSchema, String prefix, int[] parentPositions) {
+        for (Schema.Field field : recordSchema.getFields()) {
+            String path = prefix + field.name();
+            int[] positions = Arrays.copyOf(parentPositions, parentPositions.length + 1);
+            positions[parentPositions.length] = field.pos();
+
+            Schema fieldSchema = field.schema();
+            if (fieldSchema.getType() == Schema.Type.RECORD) {
+                nestedRecords.add(new NestedRecord(positions, fieldSchema));
+                compile(fieldSchema, path + '.', positions);
+                continue;
+            }
+
+            int valueIndex = -1;
+            int nullIndex  = -1;
+            if (fieldSchema.getType() == Schema.Type.UNION) {
+                List<Schema> types = fieldSchema.getTypes();
+                if (types.size() != 2) {
+                    unsupported.add(path);
+                    continue;
+                }
+                nullIndex  = types.get(0).getType() == Schema.Type.NULL ? 0 : 1;
+                valueIndex = 1 - nullIndex;
+                if (types.get(nullIndex).getType() != Schema.Type.NULL) {
+                    unsupported.add(path);
+                    continue;
+                }
+                fieldSchema = types.get(valueIndex);
+            }
+            if (!SUPPORTED_TYPES.contains(fieldSchema.getType())) {
+                unsupported.add(path);
+                continue;
+            }
+
+            Object defaultValue = null;
+            if (field.hasDefaultValue()) {
+                defaultValue = GenericData.get().getDefaultValue(field);
+                if (defaultValue instanceof CharSequence) {
+                    defaultValue = defaultValue.toString(); // Instead of the Utf8
+                }
+            }
+            AvroLeaf leaf = new AvroLeaf(path, positions, fieldSchema.getType(), valueIndex, nullIndex,
+                field.hasDefaultValue(), defaultValue);
+            leaves.add(leaf);
+            leavesByPath.put(path, leaf);
+        }
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Put the value of the parser field in the Avro field.
+     * @param avroField The names of the fields from the root record to the field separated by a '.'.
+     * @param parserField The field of the parser (i.e. "IP:connection.client.host").
+     */
+    public AvroBinding<RECORD> map(String avroField, String parserField) {
+        AvroLeaf leaf = leavesByPath.get(avroField);
+        if (leaf == null) {
+            if (unsupported.contains(avroField)) {
+                throw new IllegalArgumentException("The type of the Avro field \"" + avroField + "\" is not supported");
+            }
+            throw new IllegalArgumentException("There is no Avro field \"" + avroField + "\" in " + schema.getFullName());
+        }
+        if (mappedLeaves.contains(leaf)) {
+            throw new IllegalArgumentException("The Avro field \"" + avroField + "\" has already been mapped");
+        }
+        mappedLeaves.add(leaf);
+        parserFields.add(parserField);
+        seen = new boolean[mappedLeaves.size()];
+        return this;
+    }
+
+    /**
+     * Add the mapped fields as targets to the parser.
+     * @return The same parser.
+     */
+    public Parser<RECORD> bind(Parser<RECORD> parser) {
+        for (int i = 0; i < mappedLeaves.size(); i++) {
+            final int      index = i;
+            final AvroLeaf leaf  = mappedLeaves.get(i);
+            parser.addFieldSetter(parserFields.get(i), (record, name, value) -> {
+                try {
+                    if (leaf.set(record, value)) {
+                        seen[index] = true;
+                    }
+                } catch (ArithmeticException e) {
+                    invalidValue = e.getMessage();
+                }
+            });
+        }
+        return parser;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Create a new record (and its nested records).
+     * If the generated SpecificRecord class of the schema is available that is used, else a GenericData.Record.
+     */
+    @SuppressWarnings("unchecked")
+    public RECORD newRecord() {
+        RECORD record = (RECORD) SpecificData.get().newRecord(null, schema);
+        reset(record);
+        for (AvroLeaf leaf : leaves) {
+            if (!mappedLeaves.contains(leaf)) {
+                leaf.reset(record);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Prepare the record for the next line: the mapped fields get their default value (or null) and
+     * the missing nested records are created.
+     */
+    public void reset(RECORD record) {
+        GenericData model = record instanceof SpecificRecord ? SpecificData.get() : GenericData.get();
+        for (NestedRecord nestedRecord : nestedRecords) {
+            IndexedRecord parent = record;
+            int[] positions = nestedRecord.positions;
+            for (int i = 0; i < positions.length - 1; i++) {
+                parent = (IndexedRecord) parent.get(positions[i]);
+            }
+            int position = positions[positions.length - 1];
+            if (parent.get(position) == null) {
+                parent.put(position, model.newRecord(null, nestedRecord.schema));
+            }
+        }
+        for (AvroLeaf leaf : mappedLeaves) {
+            leaf.reset(record);
+        }
+        Arrays.fill(seen, false);
+        invalidValue = null;
+    }
+
+    /**
+     * Reset the record and parse the line into it.
+     * @return The record or null if the line was rejected by one of the field filters of the parser.
+     * @throws DissectionFailure If the line could not be parsed or if there is no value for a mapped Avro field
+     *                           that is not nullable and has no default, or if a value does not fit in an int
+     *                           field that is not nullable.
+     */
+    public RECORD parse(Parser<RECORD> parser, RECORD record, String line)
+        throws DissectionFailure, InvalidDissectorException, MissingDissectorsException {
+        reset(record);
+        if (parser.parse(record, line) == null) {
+            return null;
+        }
+        if (invalidValue != null) {
+            throw new DissectionFailure(invalidValue);
+        }
+        for (int i = 0; i < seen.length; i++) {
+            if (!seen[i] && mappedLeaves.get(i).isRequired()) {
+                throw new DissectionFailure("The line has no value for the required Avro field \"" +
+                    mappedLeaves.get(i).getPath() + "\" (" + parserFields.get(i) + ")");
+            }
+        }
+        return record;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Write the record in the Avro binary encoding (the same as a DatumWriter would produce).
+     * The fields are written in the order of the schema by position, without any lookup by name or type.
+     */
+    public void write(RECORD record, Encoder encoder) throws IOException {
+        if (!unsupported.isEmpty()) {
+            throw new IllegalStateException("The schema has fields of an unsupported type " + unsupported +
+                ": use a DatumWriter instead.");
+        }
+        for (AvroLeaf leaf : leaves) {
+            leaf.write(record, encoder);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.Value;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.util.Utf8;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A field with a primitive value (possibly in a union with null) somewhere in the (nested) records of a schema.
+ * It is located by the positions of the fields from the root record to this field, so reading and writing
+ * the value is done by position without any lookup by name.
+ */
+final class AvroLeaf implements Serializable {
+
+    private final String      path;
+    private final int[]       positions;
+    private final Schema.Type type;
+    private final int         valueIndex; // The index in the union of the value branch (-1 if not a union)
+    private final int         nullIndex;  // The index in the union of the null branch (-1 if not nullable)
+    private final boolean     hasDefault;
+    private final Object      defaultValue;
+
+    AvroLeaf(String path, int[] positions, Schema.Type type, int valueIndex, int nullIndex,
+             boolean hasDefault, Object defaultValue) {
+        this.path         = path;
+        this.positions    = positions;
+        this.type         = type;
+        this.valueIndex   = valueIndex;
+        this.nullIndex    = nullIndex;
+        this.hasDefault   = hasDefault;
+        this.defaultValue = defaultValue;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    boolean isNullable() {
+        return nullIndex >= 0;
+    }
+
+    /**
+     * @return true if a line must have a value for this field (it is not nullable and has no default).
+     */
+    boolean isRequired() {
+        return !isNullable() && !hasDefault;
+    }
+
+    private IndexedRecord parentOf(IndexedRecord root) {
+        IndexedRecord parent = root;
+        for (int i = 0; i < positions.length - 1; i++) {
+            parent = (IndexedRecord) parent.get(positions[i]);
+        }
+        return parent;
+    }
+
+    Object get(IndexedRecord root) {
+        return parentOf(root).get(positions[positions.length - 1]);
+    }
+
+    /**
+     * Put the default value (or null) in the record. A required field is left as is.
+     */
+    void reset(IndexedRecord root) {
+        if (hasDefault || isNullable()) {
+            parentOf(root).put(positions[positions.length - 1], defaultValue);
+        }
+    }
+
+    /**
+     * @return true if the value was put in the record, false if it was null (and the field is not nullable).
+     * @throws ArithmeticException If the value does not fit in an int field that is not nullable
+     *                             (in a nullable field such a value is null).
+     */
+    boolean set(IndexedRecord root, Value value) {
+        Object converted;
+        try {
+            converted = convert(value);
+        } catch (ArithmeticException e) {
+            if (!isNullable()) {
+                throw e;
+            }
+            converted = null;
+        }
+        if (converted == null && !isNullable()) {
+            return false;
+        }
+        parentOf(root).put(positions[positions.length - 1], converted);
+        return true;
+    }
+
+    private Object convert(Value value) {
+        switch (type) {
+            case LONG:
+                return value.getLong();
+            case INT:
+                Long longValue = value.getLong();
+                if (longValue == null) {
+                    return null;
+                }
+                if (longValue < Integer.MIN_VALUE || longValue > Integer.MAX_VALUE) {
+                    // Wrapped around it would be a different (valid looking) value.
+                    throw new ArithmeticException("The value " + longValue + " of the field \"" + path +
+                        "\" does not fit in an int");
+                }
+                return longValue.intValue();
+            case DOUBLE:
+                return value.getDouble();
+            case FLOAT:
+                Double doubleValue = value.getDouble();
+                return doubleValue == null ? null : Float.valueOf(doubleValue.floatValue());
+            case BOOLEAN:
+                String stringValue = value.getString();
+                return stringValue == null ? null : Boolean.valueOf(stringValue);
+            case STRING:
+            default:
+                return value.getString();
+        }
+    }
+
+    /**
+     * Write the value from the record in the Avro binary encoding.
+     */
+    void write(IndexedRecord root, Encoder encoder) throws IOException {
+        Object value = get(root);
+        if (value == null) {
+            if (!isNullable()) {
+                throw new IOException("The field \"" + path + "\" has no value but it is not nullable");
+            }
+            encoder.writeIndex(nullIndex);
+            encoder.writeNull();
+            return;
+        }
+        if (valueIndex >= 0) {
+            encoder.writeIndex(valueIndex);
+        }
+        switch (type) {
+            case LONG:
+                encoder.writeLong(((Number) value).longValue());
+                break;
+            case INT:
+                encoder.writeInt(((Number) value).intValue());
+                break;
+            case DOUBLE:
+                encoder.writeDouble(((Number) value).doubleValue());
+                break;
+            case FLOAT:
+                encoder.writeFloat(((Number) value).floatValue());
+                break;
+            case BOOLEAN:
+                encoder.writeBoolean((Boolean) value);
+                break;
+            case STRING:
+            default:
+                if (value instanceof Utf8) {
+                    encoder.writeString((Utf8) value);
+                } else {
+                    encoder.writeString(value.toString());
+                }
+                break;
+        }
+    }
+}
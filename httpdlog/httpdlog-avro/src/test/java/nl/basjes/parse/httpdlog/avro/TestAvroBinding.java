@@ -0,0 +1,203 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestAvroBinding {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b";
+
+    private static final Schema SCHEMA = new Schema.Parser().parse(
+        "{ \"type\": \"record\", \"name\": \"Hit\", \"namespace\": \"nl.basjes.parse.httpdlog.avro.test\", \"fields\": [" +
+        "  { \"name\": \"ip\",        \"type\": \"string\" }," +
+        "  { \"name\": \"timestamp\", \"type\": \"long\" }," +
+        "  { \"name\": \"request\",   \"type\": { \"type\": \"record\", \"name\": \"Request\", \"fields\": [" +
+        "      { \"name\": \"method\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+        "      { \"name\": \"uri\",    \"type\": [\"null\", \"string\"], \"default\": null }" +
+        "  ] } }," +
+        "  { \"name\": \"status\",    \"type\": \"int\", \"default\": 0 }," +
+        "  { \"name\": \"bytes\",     \"type\": [\"long\", \"null\"], \"default\": -1 }," +
+        "  { \"name\": \"source\",    \"type\": \"string\", \"default\": \"access\" }" +
+        "] }");
+
+    private static final String[] LINES = {
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.php HTTP/1.1\" 200 1234",
+        "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"POST /form.php HTTP/1.1\" 404 -",
+    };
+
+    private static AvroBinding<GenericRecord> createBinding() {
+        return new AvroBinding<GenericRecord>(SCHEMA)
+            .map("ip",              "IP:connection.client.host")
+            .map("timestamp",       "TIME.EPOCH:request.receive.time.epoch")
+            .map("request.method",  "HTTP.METHOD:request.firstline.method")
+            .map("request.uri",     "HTTP.URI:request.firstline.uri")
+            .map("status",          "STRING:request.status.last")
+            .map("bytes",           "BYTES:response.body.bytesclf");
+    }
+
+    private static byte[] write(AvroBinding<GenericRecord> binding, GenericRecord record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        binding.write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static byte[] writeWithDatumWriter(GenericRecord record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(SCHEMA).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    void testGenericRecord() throws Exception {
+        AvroBinding<GenericRecord> binding = createBinding();
+        Parser<GenericRecord> parser = binding.bind(new HttpdLoglineParser<>(GenericRecord.class, LOGFORMAT));
+
+        GenericRecord record = binding.newRecord();
+        assertTrue(record instanceof GenericData.Record);
+        assertEquals("access", record.get("source"));
+
+        assertSame(record, binding.parse(parser, record, LINES[0]));
+        GenericRecord request = (GenericRecord) record.get("request");
+        assertEquals("127.0.0.1",     record.get("ip"));
+        assertEquals(1351112444000L,  record.get("timestamp"));
+        assertEquals("GET",           request.get("method"));
+        assertEquals("/index.php",    request.get("uri"));
+        assertEquals(200,             record.get("status"));
+        assertEquals(1234L,           record.get("bytes"));
+        assertEquals("access",        record.get("source"));
+
+        byte[] bytes = write(binding, record);
+        assertArrayEquals(writeWithDatumWriter(record), bytes);
+        GenericRecord read = new GenericDatumReader<GenericRecord>(SCHEMA)
+            .read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        assertEquals(record, read);
+
+        // The same record (and nested record) is reused and the values of the previous line are gone.
+        assertSame(record, binding.parse(parser, record, LINES[1]));
+        assertSame(request, record.get("request"));
+        assertEquals("127.0.0.2",     record.get("ip"));
+        assertEquals("POST",          request.get("method"));
+        assertEquals(404,             record.get("status"));
+        assertNull(record.get("bytes"));
+        assertArrayEquals(writeWithDatumWriter(record), write(binding, record));
+    }
+
+    @Test
+    void testRequiredField() throws Exception {
+        AvroBinding<GenericRecord> binding = new AvroBinding<GenericRecord>(SCHEMA)
+            .map("ip",          "IP:connection.client.host")
+            .map("timestamp",   "TIME.EPOCH:request.receive.time.epoch");
+        Parser<GenericRecord> parser = binding.bind(new HttpdLoglineParser<>(GenericRecord.class, "%h %t"));
+
+        GenericRecord record = binding.newRecord();
+        assertSame(record, binding.parse(parser, record, "127.0.0.1 [24/Oct/2012:23:00:44 +0200]"));
+        // The fields that are not mapped have their default
+        assertEquals(0,   record.get("status"));
+        assertEquals(-1L, record.get("bytes"));
+        assertNull(((GenericRecord) record.get("request")).get("uri"));
+        assertArrayEquals(writeWithDatumWriter(record), write(binding, record));
+
+        // The ip is not nullable and has no default.
+        assertThrows(DissectionFailure.class, () -> binding.parse(parser, record, "- [24/Oct/2012:23:00:44 +0200]"));
+    }
+
+    @Test
+    void testIntOutOfRange() throws Exception {
+        Schema schema = new Schema.Parser().parse(
+            "{ \"type\": \"record\", \"name\": \"Sizes\", \"fields\": [" +
+            "  { \"name\": \"bytes\",    \"type\": \"int\", \"default\": 0 }," +
+            "  { \"name\": \"optional\", \"type\": [\"null\", \"int\"], \"default\": null }" +
+            "] }");
+        AvroBinding<GenericRecord> binding = new AvroBinding<GenericRecord>(schema)
+            .map("bytes",    "BYTES:response.body.bytes");
+        Parser<GenericRecord> parser = binding.bind(new HttpdLoglineParser<>(GenericRecord.class, "%b"));
+        GenericRecord record = binding.newRecord();
+
+        assertSame(record, binding.parse(parser, record, "2147483647"));
+        assertEquals(Integer.MAX_VALUE, record.get("bytes"));
+
+        // A value that does not fit is not wrapped around into a different value.
+        assertThrows(DissectionFailure.class, () -> binding.parse(parser, record, "3000000000"));
+
+        // The next line is fine again
+        assertSame(record, binding.parse(parser, record, "1234"));
+        assertEquals(1234, record.get("bytes"));
+
+        // In a nullable field such a value is null
+        AvroBinding<GenericRecord> nullableBinding = new AvroBinding<GenericRecord>(schema)
+            .map("optional", "BYTES:response.body.bytes");
+        Parser<GenericRecord> nullableParser = nullableBinding.bind(new HttpdLoglineParser<>(GenericRecord.class, "%b"));
+        GenericRecord nullableRecord = nullableBinding.newRecord();
+        assertSame(nullableRecord, nullableBinding.parse(nullableParser, nullableRecord, "3000000000"));
+        assertNull(nullableRecord.get("optional"));
+        assertSame(nullableRecord, nullableBinding.parse(nullableParser, nullableRecord, "1234"));
+        assertEquals(1234, nullableRecord.get("optional"));
+    }
+
+    @Test
+    void testFilteredLine() throws Exception {
+        AvroBinding<GenericRecord> binding = createBinding();
+        Parser<GenericRecord> parser = binding.bind(new HttpdLoglineParser<>(GenericRecord.class, LOGFORMAT));
+        parser.addFieldFilter("STRING:request.status.last", value -> !"404".equals(value.getString()));
+
+        GenericRecord record = binding.newRecord();
+        assertNull(binding.parse(parser, record, LINES[1]));
+    }
+
+    @Test
+    void testBadMapping() {
+        Schema schemaWithArray = new Schema.Parser().parse(
+            "{ \"type\": \"record\", \"name\": \"WithArray\", \"fields\": [" +
+            "  { \"name\": \"ip\",   \"type\": \"string\" }," +
+            "  { \"name\": \"tags\", \"type\": { \"type\": \"array\", \"items\": \"string\" } }" +
+            "] }");
+        AvroBinding<GenericRecord> binding = new AvroBinding<>(schemaWithArray);
+        assertThrows(IllegalArgumentException.class, () -> binding.map("tags", "STRING:request.firstline.uri"));
+        assertThrows(IllegalArgumentException.class, () -> binding.map("nosuchfield", "IP:connection.client.host"));
+        binding.map("ip", "IP:connection.client.host");
+        assertThrows(IllegalArgumentException.class, () -> binding.map("ip", "IP:connection.client.host"));
+        assertThrows(IllegalStateException.class, () -> write(binding, binding.newRecord()));
+
+        assertThrows(IllegalArgumentException.class, () -> new AvroBinding<>(Schema.create(Schema.Type.STRING)));
+    }
+}
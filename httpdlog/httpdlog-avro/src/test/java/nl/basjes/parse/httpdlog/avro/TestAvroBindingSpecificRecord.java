@@ -0,0 +1,144 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.avro;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import nl.basjes.parse.httpdlog.dissectors.ScreenResolutionDissector;
+import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPCityDissector;
+import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPISPDissector;
+import nl.basjes.parse.record.Click;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// CHECKSTYLE.OFF: LineLength
+class TestAvroBindingSpecificRecord {
+
+    private static final String TEST_MMDB_BASE_DIR = "../../GeoIP2-TestData/test-data/";
+    private static final String ISP_TEST_MMDB = TEST_MMDB_BASE_DIR + "GeoIP2-ISP-Test.mmdb";
+    private static final String CITY_TEST_MMDB = TEST_MMDB_BASE_DIR + "GeoIP2-City-Test.mmdb";
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    private static final String USERAGENT = "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10_6_4; nl-nl) AppleWebKit/533.17.8 (KHTML, like Gecko) Version/5.0.1 Safari/533.17.8";
+
+    private static final String LINE = "2001:980:91c0:1:8d31:a232:25e5:85d - - [05/Sep/2010:11:27:50 +0200] " +
+        "\"GET /index.html?s=1280x800 HTTP/1.1\" 200 23617 \"-\" \"" + USERAGENT + "\"";
+
+    private static final String LINE2 = "2001:980:91c0:1:8d31:a232:25e5:85d - - [05/Sep/2010:11:27:51 +0200] " +
+        "\"GET /index.html?s=1024x768 HTTP/1.1\" 200 23617 \"-\" \"Other\"";
+
+    // The same mapping as the Setter class in the Flink example TestParserMapFunctionAvroInline.
+    private static AvroBinding<Click> createBinding() {
+        return new AvroBinding<Click>(Click.getClassSchema())
+            .map("timestamp",                           "TIME.EPOCH:request.receive.time.epoch")
+            .map("device.screenWidth",                  "SCREENWIDTH:request.firstline.uri.query.s.width")
+            .map("device.screenHeight",                 "SCREENHEIGHT:request.firstline.uri.query.s.height")
+            .map("browser.useragent",                   "HTTP.USERAGENT:request.user-agent")
+            .map("visitor.ip",                          "IP:connection.client.host")
+            .map("visitor.isp.asnNumber",               "ASN:connection.client.host.asn.number")
+            .map("visitor.isp.asnOrganization",         "STRING:connection.client.host.asn.organization")
+            .map("visitor.isp.ispName",                 "STRING:connection.client.host.isp.name")
+            .map("visitor.isp.ispOrganization",         "STRING:connection.client.host.isp.organization")
+            .map("visitor.geoLocation.continentName",   "STRING:connection.client.host.continent.name")
+            .map("visitor.geoLocation.continentCode",   "STRING:connection.client.host.continent.code")
+            .map("visitor.geoLocation.countryName",     "STRING:connection.client.host.country.name")
+            .map("visitor.geoLocation.countryIso",      "STRING:connection.client.host.country.iso")
+            .map("visitor.geoLocation.subdivisionName", "STRING:connection.client.host.subdivision.name")
+            .map("visitor.geoLocation.subdivisionIso",  "STRING:connection.client.host.subdivision.iso")
+            .map("visitor.geoLocation.cityName",        "STRING:connection.client.host.city.name")
+            .map("visitor.geoLocation.postalCode",      "STRING:connection.client.host.postal.code")
+            .map("visitor.geoLocation.locationLatitude",  "STRING:connection.client.host.location.latitude")
+            .map("visitor.geoLocation.locationLongitude", "STRING:connection.client.host.location.longitude");
+    }
+
+    private static Parser<Click> createParser(AvroBinding<Click> binding) {
+        return binding.bind(
+            new HttpdLoglineParser<>(Click.class, LOGFORMAT)
+                .addDissector(new ScreenResolutionDissector())
+                .addTypeRemapping("request.firstline.uri.query.s", "SCREENRESOLUTION")
+                .addDissector(new GeoIPISPDissector(ISP_TEST_MMDB))
+                .addDissector(new GeoIPCityDissector(CITY_TEST_MMDB)));
+    }
+
+    private static Click expectedClick(long timestamp, long width, long height, String useragent) {
+        Click.Builder builder = Click.newBuilder()
+            .setTimestamp(timestamp);
+        builder.getDeviceBuilder()
+            .setScreenWidth(width)
+            .setScreenHeight(height);
+        builder.getBrowserBuilder()
+            .setUseragent(useragent);
+        builder.getVisitorBuilder()
+            .setIp("2001:980:91c0:1:8d31:a232:25e5:85d");
+        builder.getVisitorBuilder().getIspBuilder()
+            .setAsnNumber("6666")
+            .setAsnOrganization("Basjes Global Network IPv6")
+            .setIspName("Basjes ISP IPv6")
+            .setIspOrganization("Niels Basjes IPv6");
+        builder.getVisitorBuilder().getGeoLocationBuilder()
+            .setContinentName("Europe")
+            .setContinentCode("EU")
+            .setCountryName("Netherlands")
+            .setCountryIso("NL")
+            .setSubdivisionName("Noord Holland")
+            .setSubdivisionIso("NH")
+            .setCityName("Amstelveen")
+            .setPostalCode("1187")
+            .setLocationLatitude(52.5)
+            .setLocationLongitude(5.75);
+        return builder.build();
+    }
+
+    @Test
+    void testSpecificRecord() throws Exception {
+        AvroBinding<Click> binding = createBinding();
+        Parser<Click> parser = createParser(binding);
+
+        Click click = binding.newRecord();
+        assertSame(click, binding.parse(parser, click, LINE));
+        assertEquals(expectedClick(1283678870000L, 1280, 800, USERAGENT), click);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        binding.write(click, encoder);
+        encoder.flush();
+        byte[] bytes = out.toByteArray();
+
+        out.reset();
+        new SpecificDatumWriter<>(Click.class).write(click, encoder);
+        encoder.flush();
+        assertArrayEquals(out.toByteArray(), bytes);
+
+        Click read = new SpecificDatumReader<>(Click.class).read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        assertEquals(click, read);
+
+        // The same instance is reused for the next line
+        assertSame(click, binding.parse(parser, click, LINE2));
+        assertEquals(expectedClick(1283678871000L, 1024, 768, "Other"), click);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.beam;
+
+import nl.basjes.parse.core.BatchHandler;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ParserFactory;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import org.apache.beam.sdk.coders.CannotProvideCoderException;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a PCollection of log lines into records.
+ * The result has two outputs: the records ({@link #getRecordsTag()}) and the lines that could not be parsed
+ * together with the error message ({@link #getFailuresTag()}). The lines that are rejected by the field filters
+ * of the parser are dropped.
+ * <pre>
+ * HttpdLogParse&lt;MyRecord&gt; parse = HttpdLogParse.of(MyRecord.class, MyRecord::createParser);
+ * PCollectionTuple result = lines.apply(parse);
+ * PCollection&lt;MyRecord&gt; records = result.get(parse.getRecordsTag());
+ * PCollection&lt;KV&lt;String, String&gt;&gt; failures = result.get(parse.getFailuresTag());
+ * </pre>
+ * The parser is created once per DoFn instance (in the @Setup) which Beam reuses for all bundles.
+ * The lines of a bundle are collected and parsed as a single batch at the end of the bundle.
+ * The counters linesRead, goodLines, badLines, filteredLines and sampledOutLines are reported as Beam Metrics
+ * in the "httpdlog" namespace.
+ */
+public final class HttpdLogParse<RECORD> extends PTransform<PCollection<String>, PCollectionTuple> {
+
+    public static final String METRICS_NAMESPACE = "httpdlog";
+
+    private final Class<RECORD>                    recordClass;
+    private final ParserFactory<RECORD>            parserFactory;
+    private Coder<RECORD>                          recordCoder = null;
+
+    private final TupleTag<RECORD>                 recordsTag  = new TupleTag<>("records");
+    private final TupleTag<KV<String, String>>     failuresTag = new TupleTag<>("failures");
+
+    public static <RECORD> HttpdLogParse<RECORD> of(Class<RECORD> recordClass, ParserFactory<RECORD> parserFactory) {
+        return new HttpdLogParse<>(recordClass, parserFactory);
+    }
+
+    private HttpdLogParse(Class<RECORD> recordClass, ParserFactory<RECORD> parserFactory) {
+        this.recordClass = recordClass;
+        this.parserFactory = parserFactory;
+    }
+
+    /**
+     * Use this coder for the records instead of the one from the CoderRegistry of the pipeline.
+     */
+    public HttpdLogParse<RECORD> withCoder(Coder<RECORD> newRecordCoder) {
+        recordCoder = newRecordCoder;
+        return this;
+    }
+
+    public TupleTag<RECORD> getRecordsTag() {
+        return recordsTag;
+    }
+
+    /**
+     * @return The tag of the failures: the bad line and the error message.
+     */
+    public TupleTag<KV<String, String>> getFailuresTag() {
+        return failuresTag;
+    }
+
+    @Override
+    public PCollectionTuple expand(PCollection<String> input) {
+        Coder<RECORD> coder = recordCoder;
+        if (coder == null) {
+            try {
+                coder = input.getPipeline().getCoderRegistry().getCoder(recordClass);
+            } catch (CannotProvideCoderException e) {
+                throw new IllegalStateException("No coder for " + recordClass.getCanonicalName() + ": use withCoder(...)", e);
+            }
+        }
+
+        PCollectionTuple result = input.apply(
+            ParDo.of(new ParseDoFn<>(parserFactory, recordsTag, failuresTag))
+                .withOutputTags(recordsTag, TupleTagList.of(failuresTag)));
+        result.get(recordsTag).setCoder(coder);
+        result.get(failuresTag).setCoder(KvCoder.of(StringUtf8Coder.of(), StringUtf8Coder.of()));
+        return result;
+    }
+
+    // --------------------------------------------
+
+    static class ParseDoFn<RECORD> extends DoFn<String, RECORD> {
+
+        private final ParserFactory<RECORD>            parserFactory;
+        private final TupleTag<RECORD>                 recordsTag;
+        private final TupleTag<KV<String, String>>     failuresTag;
+
+        private final Counter linesRead     = Metrics.counter(METRICS_NAMESPACE, "linesRead");
+        private final Counter goodLines     = Metrics.counter(METRICS_NAMESPACE, "goodLines");
+        private final Counter badLines      = Metrics.counter(METRICS_NAMESPACE, "badLines");
+        private final Counter filteredLines = Metrics.counter(METRICS_NAMESPACE, "filteredLines");
+        private final Counter sampledOutLines = Metrics.counter(METRICS_NAMESPACE, "sampledOutLines");
+
+        private transient Parser<RECORD>      parser;
+
+        // The lines of the current bundle with the timestamp and window they must be output with.
+        private transient List<String>        lines;
+        private transient List<Instant>       timestamps;
+        private transient List<BoundedWindow> windows;
+
+        ParseDoFn(ParserFactory<RECORD> parserFactory, TupleTag<RECORD> recordsTag, TupleTag<KV<String, String>> failuresTag) {
+            this.parserFactory = parserFactory;
+            this.recordsTag = recordsTag;
+            this.failuresTag = failuresTag;
+        }
+
+        @Setup
+        public void setup() throws Exception {
+            parser     = parserFactory.createParser();
+            lines      = new ArrayList<>();
+            timestamps = new ArrayList<>();
+            windows    = new ArrayList<>();
+        }
+
+        @StartBundle
+        public void startBundle() {
+            lines.clear();
+            timestamps.clear();
+            windows.clear();
+        }
+
+        @ProcessElement
+        public void processElement(@Element String line, @Timestamp Instant timestamp, BoundedWindow window) {
+            lines.add(line);
+            timestamps.add(timestamp);
+            windows.add(window);
+        }
+
+        @FinishBundle
+        public void finishBundle(FinishBundleContext context) throws Exception {
+            if (lines.isEmpty()) {
+                return;
+            }
+            BundleHandler handler = new BundleHandler(context);
+            parser.parseBatch(lines, handler);
+
+            linesRead.inc(lines.size());
+            goodLines.inc(handler.good);
+            badLines.inc(handler.bad);
+            filteredLines.inc(handler.filtered);
+            sampledOutLines.inc(handler.sampledOut);
+
+            lines.clear();
+            timestamps.clear();
+            windows.clear();
+        }
+
+        /**
+         * The results arrive in the same order as the lines so the position tells which line it was.
+         */
+        private class BundleHandler implements BatchHandler<RECORD> {
+            private final FinishBundleContext context;
+            private int  position = 0;
+            private long good     = 0;
+            private long bad      = 0;
+            private long filtered = 0;
+            private long sampledOut = 0;
+
+            BundleHandler(FinishBundleContext context) {
+                this.context = context;
+            }
+
+            @Override
+            public void onRecord(String value, RECORD record) {
+                context.output(recordsTag, record, timestamps.get(position), windows.get(position));
+                position++;
+                good++;
+            }
+
+            @Override
+            public void onFiltered(String value) {
+                position++;
+                filtered++;
+            }
+
+            @Override
+            public void onSampledOut(String value) {
+                position++;
+                sampledOut++;
+            }
+
+            @Override
+            public void onFailure(String value, DissectionFailure failure) {
+                context.output(failuresTag, KV.of(value, String.valueOf(failure.getMessage())),
+                    timestamps.get(position), windows.get(position));
+                position++;
+                bad++;
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.beam;
+
+import nl.basjes.parse.core.Parser;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.Keys;
+import org.apache.beam.sdk.transforms.Reify;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TimestampedValue;
+import org.joda.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import static nl.basjes.parse.httpdlog.beam.TestRecord.BAD_LINE;
+import static nl.basjes.parse.httpdlog.beam.TestRecord.LINE_1;
+import static nl.basjes.parse.httpdlog.beam.TestRecord.LINE_2;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class TestHttpdLogParse implements Serializable {
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    private long getCounter(PipelineResult result, String name) {
+        MetricQueryResults metrics = result.metrics().queryMetrics(
+            MetricsFilter.builder()
+                .addNameFilter(MetricNameFilter.named(HttpdLogParse.METRICS_NAMESPACE, name))
+                .build());
+        long total = 0;
+        for (MetricResult<Long> counter : metrics.getCounters()) {
+            total += counter.getAttempted();
+        }
+        return total;
+    }
+
+    @Test
+    public void testParse() {
+        HttpdLogParse<TestRecord> parse = HttpdLogParse.of(TestRecord.class, TestRecord::createParser);
+
+        PCollectionTuple result = pipeline
+            .apply(Create.of(Arrays.asList(LINE_1, BAD_LINE, LINE_2, LINE_1)))
+            .apply(parse);
+
+        PCollection<TestRecord> records = result.get(parse.getRecordsTag());
+        PCollection<KV<String, String>> failures = result.get(parse.getFailuresTag());
+
+        PAssert.that(records).containsInAnyOrder(
+            new TestRecord("127.0.0.1", "/index.php", 1234L),
+            new TestRecord("127.0.0.2", "/error.php", null),
+            new TestRecord("127.0.0.1", "/index.php", 1234L));
+
+        PAssert.that(failures.apply(Keys.create()))
+            .containsInAnyOrder(BAD_LINE);
+
+        PipelineResult pipelineResult = pipeline.run();
+        pipelineResult.waitUntilFinish();
+
+        assertEquals(4, getCounter(pipelineResult, "linesRead"));
+        assertEquals(3, getCounter(pipelineResult, "goodLines"));
+        assertEquals(1, getCounter(pipelineResult, "badLines"));
+        assertEquals(0, getCounter(pipelineResult, "filteredLines"));
+        assertEquals(0, getCounter(pipelineResult, "sampledOutLines"));
+    }
+
+    private static Parser<TestRecord> createSamplingParser() throws NoSuchMethodException {
+        Parser<TestRecord> parser = TestRecord.createParser();
+        parser.setLineSampler(line -> !line.startsWith("127.0.0.2 "));
+        return parser;
+    }
+
+    @Test
+    public void testSampledOutKeepsTimestamps() {
+        HttpdLogParse<TestRecord> parse = HttpdLogParse.of(TestRecord.class, TestHttpdLogParse::createSamplingParser);
+
+        PCollectionTuple result = pipeline
+            .apply(Create.timestamped(
+                TimestampedValue.of(LINE_2,   new Instant(1000)),
+                TimestampedValue.of(LINE_1,   new Instant(2000)),
+                TimestampedValue.of(BAD_LINE, new Instant(3000))))
+            .apply(parse);
+
+        // Every result must have the timestamp of its own line, not of the line before it.
+        PAssert.that(result.get(parse.getRecordsTag()).apply("Record timestamps", Reify.timestamps()))
+            .containsInAnyOrder(TimestampedValue.of(new TestRecord("127.0.0.1", "/index.php", 1234L), new Instant(2000)));
+
+        PAssert.that(result.get(parse.getFailuresTag()).apply(Keys.create()).apply("Failure timestamps", Reify.timestamps()))
+            .containsInAnyOrder(TimestampedValue.of(BAD_LINE, new Instant(3000)));
+
+        PipelineResult pipelineResult = pipeline.run();
+        pipelineResult.waitUntilFinish();
+
+        assertEquals(3, getCounter(pipelineResult, "linesRead"));
+        assertEquals(1, getCounter(pipelineResult, "goodLines"));
+        assertEquals(1, getCounter(pipelineResult, "badLines"));
+        assertEquals(1, getCounter(pipelineResult, "sampledOutLines"));
+    }
+}
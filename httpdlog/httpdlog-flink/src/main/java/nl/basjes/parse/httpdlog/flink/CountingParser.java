@@ -0,0 +1,124 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.flink.metrics.Counter;
+import org.apache.flink.metrics.MetricGroup;
+import org.apache.flink.metrics.SimpleCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Wraps the parser and keeps the counters of the lines (as Flink metrics in the "httpdlog" group).
+ */
+final class CountingParser<RECORD> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CountingParser.class);
+
+    static final String METRIC_GROUP   = "httpdlog";
+    static final String LINES_READ     = "linesRead";
+    static final String GOOD_LINES     = "goodLines";
+    static final String BAD_LINES      = "badLines";
+    static final String FILTERED_LINES = "filteredLines";
+
+    private static final int MAX_ERROR_LINES_LOGGED = 10;
+
+    private final Parser<RECORD> parser;
+    private final Counter        linesRead;
+    private final Counter        goodLines;
+    private final Counter        badLines;
+    private final Counter        filteredLines;
+    private int                  errorLinesLogged = 0;
+
+    /**
+     * @param metricGroup The metric group of the operator (null = the counters are not reported).
+     */
+    CountingParser(Parser<RECORD> parser, MetricGroup metricGroup) {
+        this.parser = parser;
+        if (metricGroup == null) {
+            linesRead     = new SimpleCounter();
+            goodLines     = new SimpleCounter();
+            badLines      = new SimpleCounter();
+            filteredLines = new SimpleCounter();
+        } else {
+            MetricGroup group = metricGroup.addGroup(METRIC_GROUP);
+            linesRead     = group.counter(LINES_READ);
+            goodLines     = group.counter(GOOD_LINES);
+            badLines      = group.counter(BAD_LINES);
+            filteredLines = group.counter(FILTERED_LINES);
+        }
+    }
+
+    /**
+     * Parse the line into the provided record or (if it is null) into a new record.
+     * @return The record or null if the line was rejected by one of the field filters.
+     * @throws DissectionFailure If the line is bad.
+     * @throws IOException If the parser cannot work at all.
+     */
+    RECORD parse(RECORD reuse, String line) throws DissectionFailure, IOException {
+        linesRead.inc();
+        RECORD record;
+        try {
+            if (reuse == null) {
+                record = parser.parse(line);
+            } else {
+                record = parser.parse(reuse, line);
+            }
+        } catch (DissectionFailure e) {
+            badLines.inc();
+            if (errorLinesLogged < MAX_ERROR_LINES_LOGGED) {
+                LOG.error("Parse error >>>{}<<< in line: >>>{}<<<", e.getMessage(), line);
+                errorLinesLogged++;
+                if (errorLinesLogged == MAX_ERROR_LINES_LOGGED) {
+                    LOG.error(">>>>>>>>>>> We now stop logging parse errors! <<<<<<<<<<<");
+                }
+            }
+            throw e;
+        } catch (InvalidDissectorException | MissingDissectorsException e) {
+            throw new IOException("Fatal error in the parser", e);
+        }
+
+        if (record == null) {
+            filteredLines.inc();
+        } else {
+            goodLines.inc();
+        }
+        return record;
+    }
+
+    long getLinesRead() {
+        return linesRead.getCount();
+    }
+
+    long getGoodLines() {
+        return goodLines.getCount();
+    }
+
+    long getBadLines() {
+        return badLines.getCount();
+    }
+
+    long getFilteredLines() {
+        return filteredLines.getCount();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import org.apache.flink.configuration.ConfigOption;
+import org.apache.flink.configuration.ReadableConfig;
+import org.apache.flink.connector.file.src.FileSourceSplit;
+import org.apache.flink.connector.file.src.impl.StreamFormatAdapter;
+import org.apache.flink.connector.file.src.reader.BulkFormat;
+import org.apache.flink.table.connector.ChangelogMode;
+import org.apache.flink.table.connector.format.BulkDecodingFormat;
+import org.apache.flink.table.connector.source.DynamicTableSource;
+import org.apache.flink.table.data.RowData;
+import org.apache.flink.table.factories.BulkReaderFormatFactory;
+import org.apache.flink.table.factories.DynamicTableFactory;
+import org.apache.flink.table.types.DataType;
+
+import java.util.Set;
+
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.FAIL_ON_BAD_LINES;
+
+/**
+ * The 'httpdlog' table format for the filesystem connector.
+ * The filesystem connector pushes the projection of the query down into this kind of format
+ * so only the columns that are actually read by the query are parsed.
+ */
+public class HttpdLogBulkFormatFactory implements BulkReaderFormatFactory {
+
+    @Override
+    public String factoryIdentifier() {
+        return HttpdLogFormatFactory.IDENTIFIER;
+    }
+
+    @Override
+    public Set<ConfigOption<?>> requiredOptions() {
+        return HttpdLogFormatFactory.getRequiredOptions();
+    }
+
+    @Override
+    public Set<ConfigOption<?>> optionalOptions() {
+        return HttpdLogFormatFactory.getOptionalOptions();
+    }
+
+    @Override
+    public BulkDecodingFormat<RowData> createDecodingFormat(DynamicTableFactory.Context context,
+                                                            ReadableConfig formatOptions) {
+        RowDataParserFactory parserFactory = HttpdLogFormatFactory.createParserFactory(this, context, formatOptions);
+        boolean failOnBadLines = formatOptions.get(FAIL_ON_BAD_LINES);
+
+        return new BulkDecodingFormat<RowData>() {
+            @Override
+            public BulkFormat<RowData, FileSourceSplit> createRuntimeDecoder(DynamicTableSource.Context sourceContext,
+                                                                            DataType producedDataType) {
+                return new StreamFormatAdapter<>(new HttpdLogStreamFormat(
+                    HttpdLogFormatFactory.project(parserFactory, producedDataType),
+                    sourceContext.createTypeInformation(producedDataType),
+                    failOnBadLines));
+            }
+
+            @Override
+            public ChangelogMode getChangelogMode() {
+                return ChangelogMode.insertOnly();
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ParserFactory;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import org.apache.flink.api.common.serialization.DeserializationSchema;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.util.Collector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A DeserializationSchema that parses the UTF-8 bytes of log lines (i.e. Kafka messages or chunks of a file)
+ * into records. A message that contains multiple lines (separated by '\n') produces multiple records
+ * when used with {@link #deserialize(byte[], Collector)}.
+ *
+ * Lines that are rejected by the field filters of the parser are dropped. Bad lines are dropped too
+ * unless {@link #setFailOnBadLines(boolean)} is set. All of these are counted in the "httpdlog"
+ * metric group of the operator (linesRead, goodLines, badLines and filteredLines).
+ */
+public class HttpdLogDeserializationSchema<RECORD> implements DeserializationSchema<RECORD> {
+
+    private final Class<RECORD>            recordClass;
+    private final ParserFactory<RECORD>    parserFactory;
+    private boolean                        failOnBadLines = false;
+
+    private transient CountingParser<RECORD> parser;
+
+    public HttpdLogDeserializationSchema(Class<RECORD> recordClass, ParserFactory<RECORD> parserFactory) {
+        this.recordClass   = recordClass;
+        this.parserFactory = parserFactory;
+    }
+
+    /**
+     * @param newFailOnBadLines If true a bad line fails the job instead of being dropped.
+     */
+    public HttpdLogDeserializationSchema<RECORD> setFailOnBadLines(boolean newFailOnBadLines) {
+        failOnBadLines = newFailOnBadLines;
+        return this;
+    }
+
+    public boolean isFailOnBadLines() {
+        return failOnBadLines;
+    }
+
+    @Override
+    public void open(InitializationContext context) throws Exception {
+        parser = new CountingParser<>(createParser(), context.getMetricGroup());
+    }
+
+    private Parser<RECORD> createParser() throws IOException {
+        try {
+            return parserFactory.createParser();
+        } catch (Exception e) {
+            throw new IOException("Unable to create the parser", e);
+        }
+    }
+
+    private CountingParser<RECORD> getParser() throws IOException {
+        if (parser == null) {
+            // Not all connectors call open(); then the counters are not reported.
+            parser = new CountingParser<>(createParser(), null);
+        }
+        return parser;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse a message that contains a single line.
+     * @return A new record or null if the line must be skipped.
+     */
+    @Override
+    public RECORD deserialize(byte[] message) throws IOException {
+        return deserialize(message, 0, LogLines.trimLineEnd(message, 0, message.length), null);
+    }
+
+    /**
+     * Parse a message that contains a single line into the provided record.
+     * This is intended for sources that manage their own record instances; the record must have been
+     * cleared by the caller because the parser only sets the values that are present in the line.
+     * @return The reuse record or null if the line must be skipped.
+     */
+    public RECORD deserialize(byte[] message, RECORD reuse) throws IOException {
+        return deserialize(message, 0, LogLines.trimLineEnd(message, 0, message.length), reuse);
+    }
+
+    /**
+     * Parse all lines in the message. Empty lines are ignored.
+     */
+    @Override
+    public void deserialize(byte[] message, Collector<RECORD> out) throws IOException {
+        LogLines.forEachLine(message, (bytes, start, end) -> {
+            RECORD record = deserialize(bytes, start, end, null);
+            if (record != null) {
+                out.collect(record);
+            }
+        });
+    }
+
+    private RECORD deserialize(byte[] message, int start, int end, RECORD reuse) throws IOException {
+        // Directly from the bytes, without an intermediate buffer.
+        String line = new String(message, start, end - start, StandardCharsets.UTF_8);
+        try {
+            return getParser().parse(reuse, line);
+        } catch (DissectionFailure e) {
+            if (failOnBadLines) {
+                throw new IOException("Unable to parse the line: " + line, e);
+            }
+            return null;
+        }
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public boolean isEndOfStream(RECORD nextElement) {
+        return false;
+    }
+
+    @Override
+    public TypeInformation<RECORD> getProducedType() {
+        return TypeInformation.of(recordClass);
+    }
+
+    // For testing
+    CountingParser<RECORD> getCountingParser() {
+        return parser;
+    }
+}
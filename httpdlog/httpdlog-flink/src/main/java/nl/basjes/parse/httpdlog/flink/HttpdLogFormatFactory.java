@@ -0,0 +1,132 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import org.apache.flink.api.common.serialization.DeserializationSchema;
+import org.apache.flink.configuration.ConfigOption;
+import org.apache.flink.configuration.ReadableConfig;
+import org.apache.flink.table.api.ValidationException;
+import org.apache.flink.table.connector.ChangelogMode;
+import org.apache.flink.table.connector.format.DecodingFormat;
+import org.apache.flink.table.connector.source.DynamicTableSource;
+import org.apache.flink.table.data.RowData;
+import org.apache.flink.table.factories.DeserializationFormatFactory;
+import org.apache.flink.table.factories.DynamicTableFactory;
+import org.apache.flink.table.factories.Factory;
+import org.apache.flink.table.factories.FactoryUtil;
+import org.apache.flink.table.types.DataType;
+import org.apache.flink.table.types.logical.RowType;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.DISSECTORS;
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.FAIL_ON_BAD_LINES;
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.FIELDS;
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.LOGFORMAT;
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.TYPE_REMAPPINGS;
+
+/**
+ * The 'httpdlog' table format for the connectors that read messages (like Kafka).
+ * Only the columns of the row type the connector asks for are parsed. In Flink 1.12 the Kafka connector
+ * does not push the projection of a query down so it always asks for all physical columns of the table.
+ * For files the {@link HttpdLogBulkFormatFactory} (with the same identifier) is used; the filesystem connector
+ * does ask for only the columns used in the query.
+ */
+public class HttpdLogFormatFactory implements DeserializationFormatFactory {
+
+    public static final String IDENTIFIER = "httpdlog";
+
+    @Override
+    public String factoryIdentifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public Set<ConfigOption<?>> requiredOptions() {
+        return getRequiredOptions();
+    }
+
+    @Override
+    public Set<ConfigOption<?>> optionalOptions() {
+        return getOptionalOptions();
+    }
+
+    static Set<ConfigOption<?>> getRequiredOptions() {
+        Set<ConfigOption<?>> options = new HashSet<>();
+        options.add(LOGFORMAT);
+        return options;
+    }
+
+    static Set<ConfigOption<?>> getOptionalOptions() {
+        Set<ConfigOption<?>> options = new HashSet<>();
+        options.add(FIELDS);
+        options.add(TYPE_REMAPPINGS);
+        options.add(DISSECTORS);
+        options.add(FAIL_ON_BAD_LINES);
+        return options;
+    }
+
+    @Override
+    public DecodingFormat<DeserializationSchema<RowData>> createDecodingFormat(DynamicTableFactory.Context context,
+                                                                              ReadableConfig formatOptions) {
+        RowDataParserFactory parserFactory = createParserFactory(this, context, formatOptions);
+        boolean failOnBadLines = formatOptions.get(FAIL_ON_BAD_LINES);
+
+        return new DecodingFormat<DeserializationSchema<RowData>>() {
+            @Override
+            public DeserializationSchema<RowData> createRuntimeDecoder(DynamicTableSource.Context sourceContext,
+                                                                       DataType producedDataType) {
+                return new HttpdLogRowDataDeserializationSchema(
+                    project(parserFactory, producedDataType),
+                    sourceContext.createTypeInformation(producedDataType),
+                    failOnBadLines);
+            }
+
+            @Override
+            public ChangelogMode getChangelogMode() {
+                return ChangelogMode.insertOnly();
+            }
+        };
+    }
+
+    /**
+     * @return The factory of the parser for all physical columns of the table.
+     */
+    static RowDataParserFactory createParserFactory(Factory formatFactory,
+                                                    DynamicTableFactory.Context context,
+                                                    ReadableConfig formatOptions) {
+        FactoryUtil.validateFactoryOptions(formatFactory, formatOptions);
+        DataType physicalDataType = context.getCatalogTable().getSchema().toPhysicalRowDataType();
+        return new RowDataParserFactory(formatOptions, (RowType) physicalDataType.getLogicalType());
+    }
+
+    /**
+     * @return The factory of the parser for only the produced columns (which is checked right away).
+     */
+    static RowDataParserFactory project(RowDataParserFactory parserFactory, DataType producedDataType) {
+        RowDataParserFactory projected = parserFactory.project((RowType) producedDataType.getLogicalType());
+        try {
+            projected.createParser();
+        } catch (ValidationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ValidationException("Unable to create the parser for the 'httpdlog' format: " + e.getMessage(), e);
+        }
+        return projected;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import org.apache.flink.configuration.ConfigOption;
+import org.apache.flink.configuration.ConfigOptions;
+
+import java.util.List;
+
+/**
+ * The options of the 'httpdlog' table format (in the table definition all of these get the 'httpdlog.' prefix).
+ */
+public final class HttpdLogFormatOptions {
+
+    private HttpdLogFormatOptions() {
+    }
+
+    public static final ConfigOption<String> LOGFORMAT =
+        ConfigOptions.key("logformat")
+            .stringType()
+            .noDefaultValue()
+            .withDescription("The LogFormat (Apache HTTPD) or log_format (NGINX) of the lines.");
+
+    public static final ConfigOption<List<String>> FIELDS =
+        ConfigOptions.key("fields")
+            .stringType()
+            .asList()
+            .noDefaultValue()
+            .withDescription("The fields that are put in the columns as a ';' separated list of 'column=TYPE:path'. " +
+                "A column that is named like a field (i.e. `IP:connection.client.host`) needs no entry here.");
+
+    public static final ConfigOption<List<String>> TYPE_REMAPPINGS =
+        ConfigOptions.key("type-remappings")
+            .stringType()
+            .asList()
+            .noDefaultValue()
+            .withDescription("The fields that must be dissected as a different type as a ';' separated list of " +
+                "'path=TYPE' (i.e. 'request.firstline.uri.query.g=HTTP.URI').");
+
+    public static final ConfigOption<List<String>> DISSECTORS =
+        ConfigOptions.key("dissectors")
+            .stringType()
+            .asList()
+            .noDefaultValue()
+            .withDescription("Additional dissectors as a ';' separated list of 'classname=settings' " +
+                "(the settings are passed to the initializeFromSettingsParameter of the dissector).");
+
+    public static final ConfigOption<Boolean> FAIL_ON_BAD_LINES =
+        ConfigOptions.key("fail-on-bad-lines")
+            .booleanType()
+            .defaultValue(false)
+            .withDescription("If true a line that cannot be parsed fails the job instead of being skipped.");
+}
@@ -0,0 +1,103 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.ParserFactory;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeinfo.Types;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.streaming.api.functions.ProcessFunction;
+import org.apache.flink.util.Collector;
+import org.apache.flink.util.OutputTag;
+
+/**
+ * Parses a stream of log lines into records.
+ * The lines that cannot be parsed are sent to the {@link #BAD_LINES} side output,
+ * the lines that are rejected by the field filters of the parser are dropped.
+ * All of these are counted in the "httpdlog" metric group of the operator
+ * (linesRead, goodLines, badLines and filteredLines).
+ *
+ * If a {@link RecordClearer} is provided a single record instance is filled again for every line
+ * (so no record is allocated per line). This is safe when object reuse is disabled because Flink then copies
+ * the record before it is handed to the next operator. When object reuse is enabled the downstream operators
+ * must follow the normal object reuse rules and not hold on to the record after processing it.
+ *
+ * <pre>
+ * SingleOutputStreamOperator&lt;MyRecord&gt; records = lines
+ *     .process(new HttpdLogParseFunction&lt;&gt;(MyRecord.class, MyParser::create, MyRecord::clear));
+ * DataStream&lt;String&gt; badLines = records.getSideOutput(HttpdLogParseFunction.BAD_LINES);
+ * </pre>
+ */
+public class HttpdLogParseFunction<RECORD> extends ProcessFunction<String, RECORD> implements ResultTypeQueryable<RECORD> {
+
+    public static final OutputTag<String> BAD_LINES = new OutputTag<>("httpdlog-bad-lines", Types.STRING);
+
+    private final Class<RECORD>            recordClass;
+    private final ParserFactory<RECORD>    parserFactory;
+    private final RecordClearer<RECORD>    recordClearer;
+
+    private transient CountingParser<RECORD> parser;
+    private transient RECORD                 reuse;
+
+    /**
+     * Every line is parsed into a new record.
+     */
+    public HttpdLogParseFunction(Class<RECORD> recordClass, ParserFactory<RECORD> parserFactory) {
+        this(recordClass, parserFactory, null);
+    }
+
+    /**
+     * Every line is parsed into the same record which is cleared before each line.
+     */
+    public HttpdLogParseFunction(Class<RECORD> recordClass, ParserFactory<RECORD> parserFactory, RecordClearer<RECORD> recordClearer) {
+        this.recordClass   = recordClass;
+        this.parserFactory = parserFactory;
+        this.recordClearer = recordClearer;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+        parser = new CountingParser<>(parserFactory.createParser(), getRuntimeContext().getMetricGroup());
+        if (recordClearer != null) {
+            reuse = recordClass.getDeclaredConstructor().newInstance();
+        }
+    }
+
+    @Override
+    public void processElement(String line, Context ctx, Collector<RECORD> out) throws Exception {
+        if (reuse != null) {
+            recordClearer.clear(reuse);
+        }
+        RECORD record;
+        try {
+            record = parser.parse(reuse, line);
+        } catch (DissectionFailure e) {
+            ctx.output(BAD_LINES, line);
+            return;
+        }
+        if (record != null) {
+            out.collect(record);
+        }
+    }
+
+    @Override
+    public TypeInformation<RECORD> getProducedType() {
+        return TypeInformation.of(recordClass);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import org.apache.flink.api.common.serialization.DeserializationSchema;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.table.data.RowData;
+import org.apache.flink.util.Collector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The DeserializationSchema of the 'httpdlog' table format: parses the UTF-8 bytes of log lines into rows
+ * with only the columns it was created for. The bad and filtered lines are handled and counted
+ * exactly like in the {@link HttpdLogDeserializationSchema}.
+ */
+public class HttpdLogRowDataDeserializationSchema implements DeserializationSchema<RowData> {
+
+    private final RowDataParserFactory     parserFactory;
+    private final TypeInformation<RowData> producedType;
+    private final boolean                  failOnBadLines;
+
+    private transient CountingParser<RowDataRecord> parser;
+    private transient RowDataRecord                 record;
+
+    HttpdLogRowDataDeserializationSchema(RowDataParserFactory parserFactory,
+                                         TypeInformation<RowData> producedType,
+                                         boolean failOnBadLines) {
+        this.parserFactory  = parserFactory;
+        this.producedType   = producedType;
+        this.failOnBadLines = failOnBadLines;
+    }
+
+    @Override
+    public void open(InitializationContext context) throws Exception {
+        parser = new CountingParser<>(createParser(), context.getMetricGroup());
+        record = parserFactory.createRecord();
+    }
+
+    private Parser<RowDataRecord> createParser() throws IOException {
+        try {
+            return parserFactory.createParser();
+        } catch (Exception e) {
+            throw new IOException("Unable to create the parser", e);
+        }
+    }
+
+    private CountingParser<RowDataRecord> getParser() throws IOException {
+        if (parser == null) {
+            // Not all connectors call open(); then the counters are not reported.
+            parser = new CountingParser<>(createParser(), null);
+            record = parserFactory.createRecord();
+        }
+        return parser;
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public RowData deserialize(byte[] message) throws IOException {
+        return deserialize(message, 0, LogLines.trimLineEnd(message, 0, message.length));
+    }
+
+    @Override
+    public void deserialize(byte[] message, Collector<RowData> out) throws IOException {
+        LogLines.forEachLine(message, (bytes, start, end) -> {
+            RowData row = deserialize(bytes, start, end);
+            if (row != null) {
+                out.collect(row);
+            }
+        });
+    }
+
+    private RowData deserialize(byte[] message, int start, int end) throws IOException {
+        String line = new String(message, start, end - start, StandardCharsets.UTF_8);
+        CountingParser<RowDataRecord> countingParser = getParser();
+        record.newRow();
+        try {
+            if (countingParser.parse(record, line) == null) {
+                return null;
+            }
+        } catch (DissectionFailure e) {
+            if (failOnBadLines) {
+                throw new IOException("Unable to parse the line: " + line, e);
+            }
+            return null;
+        }
+        return record.getRow();
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public boolean isEndOfStream(RowData nextElement) {
+        return false;
+    }
+
+    @Override
+    public TypeInformation<RowData> getProducedType() {
+        return producedType;
+    }
+
+    // For testing
+    CountingParser<RowDataRecord> getCountingParser() {
+        return parser;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.connector.file.src.reader.SimpleStreamFormat;
+import org.apache.flink.connector.file.src.reader.StreamFormat;
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.table.data.RowData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the lines of a (UTF-8) logfile and parses them into rows with only the columns it was created for.
+ * This is what the 'httpdlog' format uses for files; there the connector tells the format which columns
+ * the query actually reads.
+ */
+final class HttpdLogStreamFormat extends SimpleStreamFormat<RowData> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RowDataParserFactory     parserFactory;
+    private final TypeInformation<RowData> producedType;
+    private final boolean                  failOnBadLines;
+
+    HttpdLogStreamFormat(RowDataParserFactory parserFactory,
+                         TypeInformation<RowData> producedType,
+                         boolean failOnBadLines) {
+        this.parserFactory  = parserFactory;
+        this.producedType   = producedType;
+        this.failOnBadLines = failOnBadLines;
+    }
+
+    @Override
+    public StreamFormat.Reader<RowData> createReader(Configuration config, FSDataInputStream stream) throws IOException {
+        CountingParser<RowDataRecord> parser;
+        try {
+            parser = new CountingParser<>(parserFactory.createParser(), null);
+        } catch (Exception e) {
+            throw new IOException("Unable to create the parser", e);
+        }
+        return new Reader(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)),
+            parser, parserFactory.createRecord(), failOnBadLines);
+    }
+
+    @Override
+    public TypeInformation<RowData> getProducedType() {
+        return producedType;
+    }
+
+    static final class Reader implements StreamFormat.Reader<RowData> {
+        private final BufferedReader                reader;
+        private final CountingParser<RowDataRecord> parser;
+        private final RowDataRecord                 record;
+        private final boolean                       failOnBadLines;
+
+        Reader(BufferedReader reader, CountingParser<RowDataRecord> parser, RowDataRecord record, boolean failOnBadLines) {
+            this.reader         = reader;
+            this.parser         = parser;
+            this.record         = record;
+            this.failOnBadLines = failOnBadLines;
+        }
+
+        /**
+         * @return The next row or null at the end of the file (the bad and filtered lines are skipped).
+         */
+        @Override
+        public RowData read() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                record.newRow();
+                try {
+                    if (parser.parse(record, line) != null) {
+                        return record.getRow();
+                    }
+                } catch (DissectionFailure e) {
+                    if (failOnBadLines) {
+                        throw new IOException("Unable to parse the line: " + line, e);
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+        // For testing
+        CountingParser<RowDataRecord> getCountingParser() {
+            return parser;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import java.io.IOException;
+
+/**
+ * Splits the bytes of a message into the separate lines (without the line end).
+ */
+final class LogLines {
+
+    private LogLines() {
+    }
+
+    @FunctionalInterface
+    interface LineHandler {
+        /**
+         * Handle the line that is found in message[start, end).
+         */
+        void handle(byte[] message, int start, int end) throws IOException;
+    }
+
+    /**
+     * Call the handler for every line in the message (separated by '\n'). Empty lines are ignored.
+     */
+    static void forEachLine(byte[] message, LineHandler handler) throws IOException {
+        int start = 0;
+        while (start < message.length) {
+            int end = start;
+            while (end < message.length && message[end] != '\n') {
+                end++;
+            }
+            int lineEnd = trimLineEnd(message, start, end);
+            if (lineEnd > start) {
+                handler.handle(message, start, lineEnd);
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @return The end of the line without the trailing '\r' and '\n' characters.
+     */
+    static int trimLineEnd(byte[] message, int start, int end) {
+        int lineEnd = end;
+        while (lineEnd > start && (message[lineEnd - 1] == '\n' || message[lineEnd - 1] == '\r')) {
+            lineEnd--;
+        }
+        return lineEnd;
+    }
+}
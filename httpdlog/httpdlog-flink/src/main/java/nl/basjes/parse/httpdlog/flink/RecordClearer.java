@@ -0,0 +1,28 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import java.io.Serializable;
+
+/**
+ * Resets a record so it can be filled again with the values of the next line.
+ * The parser only calls the setters of the values that are present so all fields must be reset.
+ */
+@FunctionalInterface
+public interface RecordClearer<RECORD> extends Serializable {
+    void clear(RECORD record);
+}
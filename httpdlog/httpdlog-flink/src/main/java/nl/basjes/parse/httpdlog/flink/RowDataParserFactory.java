@@ -0,0 +1,230 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.FieldSetter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ParserFactory;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.flink.configuration.ReadableConfig;
+import org.apache.flink.table.api.ValidationException;
+import org.apache.flink.table.types.logical.LogicalType;
+import org.apache.flink.table.types.logical.RowType;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.DISSECTORS;
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.FIELDS;
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.LOGFORMAT;
+import static nl.basjes.parse.httpdlog.flink.HttpdLogFormatOptions.TYPE_REMAPPINGS;
+
+/**
+ * The mapping of the columns of a table onto the fields of the parsed log lines (see {@link HttpdLogFormatOptions}).
+ * This creates the Parser for the columns that are actually produced so a query only pays for dissecting
+ * the fields of the columns it reads.
+ */
+final class RowDataParserFactory implements ParserFactory<RowDataRecord> {
+
+    private final String                          logformat;
+    private final HashMap<String, HashSet<String>> typeRemappings;
+    private final LinkedHashMap<String, String>   dissectors;
+
+    // All columns of the table
+    private final LinkedHashMap<String, String>   columnFields;
+    private final LinkedHashMap<String, Casts>    columnCasts;
+
+    // The columns that are produced
+    private final String[]                        producedColumns;
+
+    private RowDataParserFactory(RowDataParserFactory base, String[] producedColumns) {
+        this.logformat       = base.logformat;
+        this.typeRemappings  = base.typeRemappings;
+        this.dissectors      = base.dissectors;
+        this.columnFields    = base.columnFields;
+        this.columnCasts     = base.columnCasts;
+        this.producedColumns = producedColumns;
+    }
+
+    /**
+     * @param formatOptions The options of the format (without the 'httpdlog.' prefix).
+     * @param physicalRowType All physical columns of the table.
+     * @throws ValidationException If the options do not match the columns.
+     */
+    RowDataParserFactory(ReadableConfig formatOptions, RowType physicalRowType) {
+        logformat = formatOptions.get(LOGFORMAT);
+
+        typeRemappings = new HashMap<>();
+        for (Map.Entry<String, String> remapping : splitEntries(formatOptions.getOptional(TYPE_REMAPPINGS), TYPE_REMAPPINGS.key()).entrySet()) {
+            typeRemappings.computeIfAbsent(remapping.getKey(), k -> new HashSet<>()).add(remapping.getValue());
+        }
+        dissectors = splitEntries(formatOptions.getOptional(DISSECTORS), DISSECTORS.key());
+
+        Map<String, String> configuredFields = splitEntries(formatOptions.getOptional(FIELDS), FIELDS.key());
+
+        columnFields = new LinkedHashMap<>();
+        columnCasts  = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (RowType.RowField rowField : physicalRowType.getFields()) {
+            String columnName = rowField.getName();
+            String fieldValue = configuredFields.remove(columnName);
+            if (fieldValue == null) {
+                if (columnName.indexOf(':') == -1) {
+                    missing.add(columnName);
+                    continue;
+                }
+                fieldValue = columnName;
+            }
+            columnFields.put(columnName, Parser.cleanupFieldValue(fieldValue));
+            columnCasts.put(columnName, toCasts(columnName, rowField.getType()));
+        }
+
+        if (!missing.isEmpty()) {
+            throw new ValidationException("The option '" + FIELDS.key() + "' must specify the field for the columns " + missing);
+        }
+        if (!configuredFields.isEmpty()) {
+            throw new ValidationException("The option '" + FIELDS.key() + "' specifies the fields of unknown columns " +
+                configuredFields.keySet());
+        }
+        producedColumns = columnFields.keySet().toArray(new String[0]);
+    }
+
+    private static LinkedHashMap<String, String> splitEntries(Optional<List<String>> entries, String optionName) {
+        LinkedHashMap<String, String> result = new LinkedHashMap<>();
+        if (!entries.isPresent()) {
+            return result;
+        }
+        for (String entry : entries.get()) {
+            int equals = entry.indexOf('=');
+            if (equals <= 0 || equals == entry.length() - 1) {
+                throw new ValidationException("The option '" + optionName + "' has an invalid entry \"" + entry +
+                    "\" (expected is \"name=value\")");
+            }
+            result.put(entry.substring(0, equals).trim(), entry.substring(equals + 1).trim());
+        }
+        return result;
+    }
+
+    private static Casts toCasts(String columnName, LogicalType type) {
+        switch (type.getTypeRoot()) {
+            case CHAR:
+            case VARCHAR:
+                return Casts.STRING;
+            case BIGINT:
+                return Casts.LONG;
+            case DOUBLE:
+                return Casts.DOUBLE;
+            default:
+                throw new ValidationException("The column \"" + columnName + "\" has the unsupported type " + type +
+                    " (only STRING, BIGINT and DOUBLE are supported)");
+        }
+    }
+
+    /**
+     * @return A factory that creates the parser for only the columns of the produced row type (in that order).
+     */
+    RowDataParserFactory project(RowType producedRowType) {
+        List<String> names = producedRowType.getFieldNames();
+        for (RowType.RowField rowField : producedRowType.getFields()) {
+            Casts casts = columnCasts.get(rowField.getName());
+            if (casts == null) {
+                throw new ValidationException("The column \"" + rowField.getName() + "\" is unknown");
+            }
+            if (casts != toCasts(rowField.getName(), rowField.getType())) {
+                throw new ValidationException("The column \"" + rowField.getName() + "\" has an unexpected type " +
+                    rowField.getType());
+            }
+        }
+        return new RowDataParserFactory(this, names.toArray(new String[0]));
+    }
+
+    String[] getProducedColumns() {
+        return producedColumns.clone();
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public Parser<RowDataRecord> createParser() throws Exception {
+        Parser<RowDataRecord> parser = new HttpdLoglineParser<>(RowDataRecord.class, logformat);
+        parser.setTypeRemappings(new HashMap<>(typeRemappings))
+              .addDissectors(createDissectors());
+
+        // Every value is put straight into the position of its column (so without looking up the field).
+        Map<String, Casts> targets = new LinkedHashMap<>();
+        for (int position = 0; position < producedColumns.length; position++) {
+            String column = producedColumns[position];
+            Casts  casts  = columnCasts.get(column);
+            targets.put(columnFields.get(column), casts);
+            parser.addFieldSetter(columnFields.get(column), createSetter(position, casts));
+        }
+        if (targets.isEmpty() && !columnFields.isEmpty()) {
+            // Something like count(*): we still need to parse the lines to know which are valid.
+            String firstColumn = columnFields.keySet().iterator().next();
+            targets.put(columnFields.get(firstColumn), columnCasts.get(firstColumn));
+            parser.addFieldSetter(columnFields.get(firstColumn), (rowDataRecord, name, value) -> { });
+        }
+
+        for (Map.Entry<String, Casts> target : targets.entrySet()) {
+            EnumSet<Casts> casts = parser.getCasts(target.getKey());
+            if (casts != null && !casts.contains(target.getValue())) {
+                throw new ValidationException("The field \"" + target.getKey() + "\" cannot be retrieved as a " +
+                    target.getValue() + " (possible are " + casts + ")");
+            }
+        }
+        return parser;
+    }
+
+    private static FieldSetter<RowDataRecord> createSetter(int position, Casts casts) {
+        switch (casts) {
+            case LONG:
+                return (rowDataRecord, name, value) -> rowDataRecord.setLong(position, value.getLong());
+            case DOUBLE:
+                return (rowDataRecord, name, value) -> rowDataRecord.setDouble(position, value.getDouble());
+            case STRING:
+            default:
+                return (rowDataRecord, name, value) -> rowDataRecord.setString(position, value.getString());
+        }
+    }
+
+    private List<Dissector> createDissectors() throws ReflectiveOperationException {
+        List<Dissector> result = new ArrayList<>();
+        for (Map.Entry<String, String> dissector : dissectors.entrySet()) {
+            Dissector instance = (Dissector) Class.forName(dissector.getKey()).getConstructor().newInstance();
+            if (!instance.initializeFromSettingsParameter(dissector.getValue())) {
+                throw new ValidationException("Initialization failed of dissector instance of class " + dissector.getKey());
+            }
+            result.add(instance);
+        }
+        return result;
+    }
+
+    /**
+     * @return A new record for the produced columns.
+     */
+    RowDataRecord createRecord() {
+        return new RowDataRecord(producedColumns.length);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import org.apache.flink.table.data.GenericRowData;
+import org.apache.flink.table.data.RowData;
+import org.apache.flink.table.data.StringData;
+
+/**
+ * The record the parser puts the values of the requested fields in for the 'httpdlog' table format.
+ * Every line gets a new row; the setters of the parser put the values at the positions of their columns.
+ */
+public final class RowDataRecord {
+
+    private final int      arity;
+    private GenericRowData row;
+
+    RowDataRecord(int arity) {
+        this.arity = arity;
+        newRow();
+    }
+
+    /**
+     * Start a new (empty) row for the next line.
+     */
+    void newRow() {
+        row = new GenericRowData(arity);
+    }
+
+    RowData getRow() {
+        return row;
+    }
+
+    void setString(int position, String value) {
+        if (value != null) {
+            row.setField(position, StringData.fromString(value));
+        }
+    }
+
+    void setLong(int position, Long value) {
+        row.setField(position, value);
+    }
+
+    void setDouble(int position, Double value) {
+        row.setField(position, value);
+    }
+}
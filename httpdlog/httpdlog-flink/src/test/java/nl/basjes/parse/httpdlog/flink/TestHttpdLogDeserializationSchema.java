@@ -0,0 +1,105 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.util.Collector;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static nl.basjes.parse.httpdlog.flink.TestRecord.BAD_LINE;
+import static nl.basjes.parse.httpdlog.flink.TestRecord.LINE_1;
+import static nl.basjes.parse.httpdlog.flink.TestRecord.LINE_2;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestHttpdLogDeserializationSchema {
+
+    private static final TestRecord RECORD_1 = new TestRecord("127.0.0.1", "/index.php", 1234L);
+    private static final TestRecord RECORD_2 = new TestRecord("127.0.0.2", "/error.php", null);
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private HttpdLogDeserializationSchema<TestRecord> createSchema() {
+        return new HttpdLogDeserializationSchema<>(TestRecord.class, TestRecord::createParser);
+    }
+
+    @Test
+    void testSingleLine() throws IOException {
+        HttpdLogDeserializationSchema<TestRecord> schema = createSchema();
+        assertEquals(TypeInformation.of(TestRecord.class), schema.getProducedType());
+
+        assertEquals(RECORD_1, schema.deserialize(bytes(LINE_1)));
+        assertEquals(RECORD_2, schema.deserialize(bytes(LINE_2 + "\r\n")));
+        assertNull(schema.deserialize(bytes(BAD_LINE)));
+
+        CountingParser<TestRecord> counters = schema.getCountingParser();
+        assertEquals(3, counters.getLinesRead());
+        assertEquals(2, counters.getGoodLines());
+        assertEquals(1, counters.getBadLines());
+        assertEquals(0, counters.getFilteredLines());
+    }
+
+    @Test
+    void testMultipleLines() throws IOException {
+        List<TestRecord> records = new ArrayList<>();
+        Collector<TestRecord> collector = new Collector<TestRecord>() {
+            @Override
+            public void collect(TestRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        HttpdLogDeserializationSchema<TestRecord> schema = createSchema();
+        schema.deserialize(bytes(LINE_1 + "\n" + BAD_LINE + "\r\n\n" + LINE_2 + "\n"), collector);
+        assertEquals(2, records.size());
+        assertEquals(RECORD_1, records.get(0));
+        assertEquals(RECORD_2, records.get(1));
+        assertEquals(1, schema.getCountingParser().getBadLines());
+    }
+
+    @Test
+    void testReuse() throws IOException {
+        HttpdLogDeserializationSchema<TestRecord> schema = createSchema();
+        TestRecord reuse = new TestRecord();
+        assertSame(reuse, schema.deserialize(bytes(LINE_1), reuse));
+        assertEquals(RECORD_1, reuse);
+        reuse.clear();
+        assertSame(reuse, schema.deserialize(bytes(LINE_2), reuse));
+        assertEquals(RECORD_2, reuse);
+    }
+
+    @Test
+    void testFailOnBadLines() throws IOException {
+        HttpdLogDeserializationSchema<TestRecord> schema = createSchema().setFailOnBadLines(true);
+        assertEquals(RECORD_1, schema.deserialize(bytes(LINE_1)));
+        assertThrows(IOException.class, () -> schema.deserialize(bytes(BAD_LINE)));
+    }
+
+}
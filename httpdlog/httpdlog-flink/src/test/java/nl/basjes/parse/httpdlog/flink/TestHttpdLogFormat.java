@@ -0,0 +1,209 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.table.api.DataTypes;
+import org.apache.flink.table.api.EnvironmentSettings;
+import org.apache.flink.table.api.TableEnvironment;
+import org.apache.flink.table.api.ValidationException;
+import org.apache.flink.table.data.GenericRowData;
+import org.apache.flink.table.data.RowData;
+import org.apache.flink.table.data.StringData;
+import org.apache.flink.table.factories.BulkReaderFormatFactory;
+import org.apache.flink.table.factories.DeserializationFormatFactory;
+import org.apache.flink.table.factories.FactoryUtil;
+import org.apache.flink.table.runtime.typeutils.InternalTypeInfo;
+import org.apache.flink.table.types.logical.RowType;
+import org.apache.flink.types.Row;
+import org.apache.flink.util.CloseableIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static nl.basjes.parse.httpdlog.flink.TestRecord.BAD_LINE;
+import static nl.basjes.parse.httpdlog.flink.TestRecord.LINE_1;
+import static nl.basjes.parse.httpdlog.flink.TestRecord.LINE_2;
+import static nl.basjes.parse.httpdlog.flink.TestRecord.LOGFORMAT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestHttpdLogFormat {
+
+    private static final String FIELDS = "ip=IP:connection.client.host;uri=HTTP.URI:request.firstline.uri;bytes=BYTES:response.body.bytesclf";
+
+    private static final RowType PHYSICAL_ROW_TYPE = (RowType) DataTypes.ROW(
+        DataTypes.FIELD("ip",    DataTypes.STRING()),
+        DataTypes.FIELD("uri",   DataTypes.STRING()),
+        DataTypes.FIELD("bytes", DataTypes.BIGINT()),
+        DataTypes.FIELD("STRING:request.status.last", DataTypes.STRING())
+    ).getLogicalType();
+
+    private static Configuration formatOptions(String fields) {
+        Configuration formatOptions = new Configuration();
+        formatOptions.set(HttpdLogFormatOptions.LOGFORMAT, LOGFORMAT);
+        formatOptions.set(HttpdLogFormatOptions.FIELDS, Arrays.asList(fields.split(";")));
+        return formatOptions;
+    }
+
+    private static RowType rowType(String... columns) {
+        List<RowType.RowField> fields = new ArrayList<>();
+        for (String column : columns) {
+            fields.add(PHYSICAL_ROW_TYPE.getFields().get(PHYSICAL_ROW_TYPE.getFieldIndex(column)));
+        }
+        return new RowType(fields);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testProjection() throws Exception {
+        RowDataParserFactory all = new RowDataParserFactory(formatOptions(FIELDS), PHYSICAL_ROW_TYPE);
+        assertEquals(4, all.createParser().getNeeded().size());
+
+        // Only the fields of the produced columns are parsed.
+        RowDataParserFactory projected = all.project(rowType("bytes", "ip"));
+        assertEquals(
+            new HashSet<>(Arrays.asList("BYTES:response.body.bytesclf", "IP:connection.client.host")),
+            projected.createParser().getNeeded());
+
+        RowType producedType = rowType("bytes", "ip");
+        HttpdLogRowDataDeserializationSchema schema =
+            new HttpdLogRowDataDeserializationSchema(projected, InternalTypeInfo.of(producedType), false);
+
+        assertEquals(GenericRowData.of(1234L, StringData.fromString("127.0.0.1")), schema.deserialize(bytes(LINE_1)));
+        assertEquals(GenericRowData.of(null, StringData.fromString("127.0.0.2")), schema.deserialize(bytes(LINE_2)));
+        assertNull(schema.deserialize(bytes(BAD_LINE)));
+
+        CountingParser<RowDataRecord> counters = schema.getCountingParser();
+        assertEquals(3, counters.getLinesRead());
+        assertEquals(2, counters.getGoodLines());
+        assertEquals(1, counters.getBadLines());
+    }
+
+    @Test
+    void testNoColumns() throws Exception {
+        // Like count(*): nothing is produced but the lines must still be validated.
+        RowDataParserFactory projected =
+            new RowDataParserFactory(formatOptions(FIELDS), PHYSICAL_ROW_TYPE).project(rowType());
+        assertEquals(Collections.singleton("IP:connection.client.host"), projected.createParser().getNeeded());
+
+        HttpdLogRowDataDeserializationSchema schema =
+            new HttpdLogRowDataDeserializationSchema(projected, InternalTypeInfo.of(rowType()), true);
+        RowData row = schema.deserialize(bytes(LINE_1));
+        assertEquals(0, row.getArity());
+        assertThrows(IOException.class, () -> schema.deserialize(bytes(BAD_LINE)));
+    }
+
+    @Test
+    void testBadConfig() {
+        // The column "bytes" has no field
+        assertThrows(ValidationException.class, () ->
+            new RowDataParserFactory(formatOptions("ip=IP:connection.client.host;uri=HTTP.URI:request.firstline.uri"),
+                PHYSICAL_ROW_TYPE));
+
+        // There is no column "foo"
+        assertThrows(ValidationException.class, () ->
+            new RowDataParserFactory(formatOptions(FIELDS + ";foo=STRING:request.status.last"), PHYSICAL_ROW_TYPE));
+
+        // Not "column=field"
+        assertThrows(ValidationException.class, () ->
+            new RowDataParserFactory(formatOptions(FIELDS + ";foo"), PHYSICAL_ROW_TYPE));
+
+        // Unsupported column type
+        assertThrows(ValidationException.class, () ->
+            new RowDataParserFactory(formatOptions("ip=IP:connection.client.host"),
+                (RowType) DataTypes.ROW(DataTypes.FIELD("ip", DataTypes.INT())).getLogicalType()));
+
+        // The uri cannot be a number
+        RowDataParserFactory badCasts = new RowDataParserFactory(
+            formatOptions("uri=HTTP.URI:request.firstline.uri"),
+            (RowType) DataTypes.ROW(DataTypes.FIELD("uri", DataTypes.BIGINT())).getLogicalType());
+        assertThrows(ValidationException.class, badCasts::createParser);
+    }
+
+    // --------------------------------------------
+
+    @Test
+    void testFactoryDiscovery() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        // The connectors that read messages
+        assertEquals(HttpdLogFormatFactory.class,
+            FactoryUtil.discoverFactory(classLoader, DeserializationFormatFactory.class, "httpdlog").getClass());
+        // The filesystem connector (which pushes the projection down)
+        assertEquals(HttpdLogBulkFormatFactory.class,
+            FactoryUtil.discoverFactory(classLoader, BulkReaderFormatFactory.class, "httpdlog").getClass());
+    }
+
+    private TableEnvironment createLogsTable(Path directory) throws IOException {
+        Files.write(directory.resolve("access.log"), bytes(LINE_1 + "\n" + BAD_LINE + "\n" + LINE_2 + "\n"));
+
+        TableEnvironment tableEnvironment = TableEnvironment.create(
+            EnvironmentSettings.newInstance().useBlinkPlanner().inBatchMode().build());
+        tableEnvironment.executeSql(
+            "CREATE TABLE logs (" +
+            "   ip     STRING," +
+            "   uri    STRING," +
+            "   `bytes` BIGINT," +
+            "   `STRING:request.status.last` STRING" +
+            ") WITH (" +
+            "   'connector'          = 'filesystem'," +
+            "   'path'               = '" + directory.toUri() + "'," +
+            "   'format'             = 'httpdlog'," +
+            "   'httpdlog.logformat' = '" + LOGFORMAT + "'," +
+            "   'httpdlog.fields'    = '" + FIELDS + "'" +
+            ")");
+        return tableEnvironment;
+    }
+
+    private static List<Row> collect(TableEnvironment tableEnvironment, String query) throws Exception {
+        List<Row> rows = new ArrayList<>();
+        try (CloseableIterator<Row> iterator = tableEnvironment.executeSql(query).collect()) {
+            iterator.forEachRemaining(rows::add);
+        }
+        return rows;
+    }
+
+    @Test
+    void testSql(@TempDir Path directory) throws Exception {
+        TableEnvironment tableEnvironment = createLogsTable(directory);
+
+        assertEquals(
+            Arrays.asList(Row.of("127.0.0.1", 1234L, "200"), Row.of("127.0.0.2", null, "500")),
+            collect(tableEnvironment, "SELECT ip, `bytes`, `STRING:request.status.last` FROM logs"));
+
+        assertEquals(
+            Collections.singletonList(Row.of("/error.php")),
+            collect(tableEnvironment, "SELECT uri FROM logs WHERE ip = '127.0.0.2'"));
+
+        assertEquals(
+            Collections.singletonList(Row.of(2L)),
+            collect(tableEnvironment, "SELECT COUNT(*) FROM logs"));
+    }
+}
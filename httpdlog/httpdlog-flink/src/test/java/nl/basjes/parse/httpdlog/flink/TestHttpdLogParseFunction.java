@@ -0,0 +1,83 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import org.apache.flink.streaming.api.datastream.DataStream;
+import org.apache.flink.streaming.api.datastream.SingleOutputStreamOperator;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static nl.basjes.parse.httpdlog.flink.TestRecord.BAD_LINE;
+import static nl.basjes.parse.httpdlog.flink.TestRecord.LINE_1;
+import static nl.basjes.parse.httpdlog.flink.TestRecord.LINE_2;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestHttpdLogParseFunction {
+
+    private List<String> runJob(boolean objectReuse, HttpdLogParseFunction<TestRecord> function) throws Exception {
+        StreamExecutionEnvironment env = StreamExecutionEnvironment.getExecutionEnvironment();
+        env.setParallelism(1);
+        if (objectReuse) {
+            env.getConfig().enableObjectReuse();
+        } else {
+            env.getConfig().disableObjectReuse();
+        }
+
+        SingleOutputStreamOperator<TestRecord> records = env
+            .fromElements(LINE_1, BAD_LINE, LINE_2, LINE_1)
+            .process(function);
+
+        DataStream<String> badLines = records.getSideOutput(HttpdLogParseFunction.BAD_LINES);
+
+        List<String> result = new ArrayList<>();
+        records
+            .map(TestRecord::toString)
+            .union(badLines.map(line -> "BAD:" + line))
+            .executeAndCollect()
+            .forEachRemaining(result::add);
+        Collections.sort(result);
+        return result;
+    }
+
+    private static final List<String> EXPECTED = new ArrayList<>();
+    static {
+        EXPECTED.add("BAD:" + BAD_LINE);
+        EXPECTED.add(new TestRecord("127.0.0.1", "/index.php", 1234L).toString());
+        EXPECTED.add(new TestRecord("127.0.0.1", "/index.php", 1234L).toString());
+        EXPECTED.add(new TestRecord("127.0.0.2", "/error.php", null).toString());
+        Collections.sort(EXPECTED);
+    }
+
+    @Test
+    void testNewRecords() throws Exception {
+        assertEquals(EXPECTED, runJob(false, new HttpdLogParseFunction<>(TestRecord.class, TestRecord::createParser)));
+    }
+
+    @Test
+    void testReusedRecord() throws Exception {
+        // The bytes of LINE_1 must not remain in the record when LINE_2 is parsed
+        assertEquals(EXPECTED, runJob(false,
+            new HttpdLogParseFunction<>(TestRecord.class, TestRecord::createParser, TestRecord::clear)));
+        assertEquals(EXPECTED, runJob(true,
+            new HttpdLogParseFunction<>(TestRecord.class, TestRecord::createParser, TestRecord::clear)));
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.flink;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+
+import java.util.Objects;
+
+public class TestRecord {
+
+    public static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b";
+
+    public static final String LINE_1 =
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.php HTTP/1.1\" 200 1234";
+    public static final String LINE_2 =
+        "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"GET /error.php HTTP/1.1\" 500 -";
+    public static final String BAD_LINE = "This is not a logline";
+
+    private String ip;
+    private String uri;
+    private Long   bytes;
+
+    public static Parser<TestRecord> createParser() throws NoSuchMethodException {
+        Parser<TestRecord> parser = new HttpdLoglineParser<>(TestRecord.class, LOGFORMAT);
+        parser.addParseTarget("setIp",    "IP:connection.client.host");
+        parser.addParseTarget("setUri",   "HTTP.URI:request.firstline.uri");
+        parser.addParseTarget("setBytes", "BYTES:response.body.bytesclf");
+        return parser;
+    }
+
+    public TestRecord() {
+    }
+
+    public TestRecord(String newIp, String newUri, Long newBytes) {
+        ip = newIp;
+        uri = newUri;
+        bytes = newBytes;
+    }
+
+    public void clear() {
+        ip = null;
+        uri = null;
+        bytes = null;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public void setIp(String newIp) {
+        ip = newIp;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public void setUri(String newUri) {
+        uri = newUri;
+    }
+
+    public Long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(Long newBytes) {
+        bytes = newBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TestRecord)) {
+            return false;
+        }
+        TestRecord that = (TestRecord) o;
+        return Objects.equals(ip, that.ip) &&
+            Objects.equals(uri, that.uri) &&
+            Objects.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ip, uri, bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "TestRecord{ip='" + ip + "', uri='" + uri + "', bytes=" + bytes + '}';
+    }
+}
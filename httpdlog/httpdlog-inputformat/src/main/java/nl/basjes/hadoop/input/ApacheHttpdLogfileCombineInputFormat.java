@@ -0,0 +1,102 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Dissector;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The same as the {@link ApacheHttpdLogfileInputFormat} yet intended for many small log files
+ * (like the hourly rotated logfiles of many webservers).
+ * Many files are packed into a single split and all files in a split are read using the same
+ * parser (so it is assembled only once per split instead of once per file).
+ *
+ * The maximum size of a split is set with mapreduce.input.fileinputformat.split.maxsize
+ * (without it all files on the same node end up in a single split).
+ */
+public class ApacheHttpdLogfileCombineInputFormat extends
+        CombineFileInputFormat<LongWritable, ParsedRecord> {
+
+    private final LogfileInputFormatSettings settings;
+
+    // --------------------------------------------
+
+    public String getLogFormat() {
+        return settings.getLogFormat();
+    }
+
+    public Set<String> getRequestedFields() {
+        return settings.getRequestedFields();
+    }
+
+    public Map<String, Set<String>> getTypeRemappings() {
+        return settings.getTypeRemappings();
+    }
+
+    public List<Dissector> getAdditionalDissectors() {
+        return settings.getAdditionalDissectors();
+    }
+
+    public ApacheHttpdLogfileCombineInputFormat() {
+        super();
+        settings = new LogfileInputFormatSettings();
+    }
+
+    public ApacheHttpdLogfileCombineInputFormat(
+            String logformat,
+            Collection<String> requestedFields,
+            Map<String, Set<String>> typeRemappings,
+            List<Dissector> additionalDissectors) {
+        super();
+        settings = new LogfileInputFormatSettings(logformat, requestedFields, typeRemappings, additionalDissectors);
+    }
+
+    public void setTypeRemappings(Map<String, Set<String>> newTypeRemappings) {
+        settings.setTypeRemappings(newTypeRemappings);
+    }
+
+    // --------------------------------------------
+
+    @Override
+    public RecordReader<LongWritable, ParsedRecord> createRecordReader(
+            final InputSplit split, final TaskAttemptContext context) throws IOException {
+        return new ApacheHttpdLogfileCombineRecordReader(settings.createRecordReader());
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return LogfileInputFormatSettings.isSplitable(context, file);
+    }
+
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        return LogfileInputFormatSettings.withoutIndexFiles(super.listStatus(job));
+    }
+}
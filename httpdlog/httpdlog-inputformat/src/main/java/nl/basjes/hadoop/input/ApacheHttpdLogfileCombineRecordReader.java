@@ -0,0 +1,107 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.IOException;
+
+/**
+ * Reads all the files of a CombineFileSplit one after the other using a single {@link ApacheHttpdLogfileRecordReader}.
+ * Unlike the generic CombineFileRecordReader (which creates a new RecordReader for every file) the parser, the record
+ * and the counters are retained from one file to the next.
+ * The key is the byte offset in the current file.
+ */
+public class ApacheHttpdLogfileCombineRecordReader extends
+        RecordReader<LongWritable, ParsedRecord> {
+
+    private final ApacheHttpdLogfileRecordReader reader;
+    private CombineFileSplit                     split;
+    private TaskAttemptContext                   context;
+    private int                                  fileIndex    = 0;
+    private long                                 bytesDone    = 0;
+
+    public ApacheHttpdLogfileCombineRecordReader(ApacheHttpdLogfileRecordReader reader) {
+        this.reader = reader;
+    }
+
+    public ApacheHttpdLogfileRecordReader getRecordReader() {
+        return reader;
+    }
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext newContext) throws IOException {
+        split     = (CombineFileSplit) genericSplit;
+        context   = newContext;
+        fileIndex = 0;
+        bytesDone = 0;
+        if (split.getNumPaths() > 0) {
+            reader.initialize(getFileSplit(0), context);
+        }
+    }
+
+    private FileSplit getFileSplit(int index) throws IOException {
+        return new FileSplit(split.getPath(index), split.getOffset(index), split.getLength(index), split.getLocations());
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        while (fileIndex < split.getNumPaths()) {
+            if (reader.nextKeyValue()) {
+                return true;
+            }
+            bytesDone += split.getLength(fileIndex);
+            fileIndex++;
+            if (fileIndex < split.getNumPaths()) {
+                reader.initializeNextSplit(getFileSplit(fileIndex), context);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return reader.getCurrentKey();
+    }
+
+    @Override
+    public ParsedRecord getCurrentValue() {
+        return reader.getCurrentValue();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        if (split == null || split.getLength() == 0) {
+            return 0.0f;
+        }
+        long bytesRead = bytesDone;
+        if (fileIndex < split.getNumPaths()) {
+            bytesRead += (long) (reader.getProgress() * split.getLength(fileIndex));
+        }
+        return Math.min(1.0f, bytesRead / (float) split.getLength());
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -16,22 +16,30 @@
  */
 package nl.basjes.hadoop.input;
 
+import nl.basjes.hadoop.input.GzipCheckpointIndex.Checkpoint;
 import nl.basjes.parse.core.Dissector;
 import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
-import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,15 +47,19 @@ import java.util.Set;
 public class ApacheHttpdLogfileInputFormat extends
         FileInputFormat<LongWritable, ParsedRecord> {
 
-    private String logFormat = null;
-    private final Set<String> requestedFields = new HashSet<>();
-    private Map<String, Set<String>> typeRemappings;
-    private List<Dissector> additionalDissectors;
+    private static final Logger LOG = LoggerFactory.getLogger(ApacheHttpdLogfileInputFormat.class);
+
+    /** If true the missing gzip checkpoint indexes are created (by the client, while computing the splits). */
+    public static final String GZIP_INDEX_CREATE = "nl.basjes.parse.apachehttpdlogline.gzip.index.create";
+    /** The minimal distance (in compressed bytes) between the checkpoints in a newly created gzip checkpoint index. */
+    public static final String GZIP_INDEX_SPAN   = "nl.basjes.parse.apachehttpdlogline.gzip.index.span";
+
+    private final LogfileInputFormatSettings settings;
     private ApacheHttpdLogfileRecordReader theRecordReader;
     // --------------------------------------------
 
     public List<String> listPossibleFields(String logformat) {
-        return listPossibleFields(logformat, typeRemappings, additionalDissectors);
+        return listPossibleFields(logformat, getTypeRemappings(), getAdditionalDissectors());
     }
 
     public static List<String> listPossibleFields(String logformat, Map<String, Set<String>> typeRemappings, List<Dissector> additionalDissectors) {
@@ -59,23 +71,24 @@ public class ApacheHttpdLogfileInputFormat extends
 
 
     public String getLogFormat() {
-        return logFormat;
+        return settings.getLogFormat();
     }
 
     public Set<String> getRequestedFields() {
-        return requestedFields;
+        return settings.getRequestedFields();
     }
 
     public Map<String, Set<String>> getTypeRemappings() {
-        return typeRemappings;
+        return settings.getTypeRemappings();
     }
 
     public List<Dissector> getAdditionalDissectors() {
-        return additionalDissectors;
+        return settings.getAdditionalDissectors();
     }
 
     public ApacheHttpdLogfileInputFormat() {
         super();
+        settings = new LogfileInputFormatSettings();
     }
 
     public ApacheHttpdLogfileInputFormat(
@@ -84,17 +97,14 @@ public class ApacheHttpdLogfileInputFormat extends
             Map<String, Set<String>> typeRemappings,
             List<Dissector> additionalDissectors) {
         super();
-        this.logFormat = logformat;
-        this.requestedFields.addAll(requestedFields);
-        this.typeRemappings = typeRemappings;
-        this.additionalDissectors = additionalDissectors;
+        settings = new LogfileInputFormatSettings(logformat, requestedFields, typeRemappings, additionalDissectors);
     }
 
     // --------------------------------------------
 
     public ApacheHttpdLogfileRecordReader createRecordReader() {
         try {
-            return new ApacheHttpdLogfileRecordReader(getLogFormat(), getRequestedFields(), getTypeRemappings(), getAdditionalDissectors());
+            return settings.createRecordReader();
         } catch (IOException e) {
             return null;
         }
@@ -115,12 +125,80 @@ public class ApacheHttpdLogfileInputFormat extends
 
     @Override
     protected boolean isSplitable(JobContext context, Path file) {
-        final CompressionCodec codec =
-            new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
-        return (null == codec) || codec instanceof SplittableCompressionCodec;
+        return LogfileInputFormatSettings.isSplitable(context, file);
+    }
+
+    @Override
+    protected List<FileStatus> listStatus(JobContext job) throws IOException {
+        return LogfileInputFormatSettings.withoutIndexFiles(super.listStatus(job));
+    }
+
+    /**
+     * A gzip file cannot be split unless it has a {@link GzipCheckpointIndex}.
+     * If it has one the file is split at the checkpoints.
+     */
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        CompressionCodecFactory codecFactory = new CompressionCodecFactory(conf);
+        List<InputSplit> splits = new ArrayList<>();
+        for (InputSplit split : super.getSplits(job)) {
+            if (split instanceof FileSplit &&
+                ((FileSplit) split).getStart() == 0 &&
+                codecFactory.getCodec(((FileSplit) split).getPath()) instanceof GzipCodec) {
+                splits.addAll(getGzipCheckpointSplits(job, (FileSplit) split));
+            } else {
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    private List<InputSplit> getGzipCheckpointSplits(JobContext job, FileSplit split) throws IOException {
+        Configuration conf = job.getConfiguration();
+        Path file = split.getPath();
+        FileSystem fs = file.getFileSystem(conf);
+
+        GzipCheckpointIndex index = GzipCheckpointIndex.load(fs, file, false);
+        if (index == null && conf.getBoolean(GZIP_INDEX_CREATE, false)) {
+            LOG.info("Creating the gzip checkpoint index for {}", file);
+            try {
+                index = GzipCheckpointIndex.create(fs, file, conf.getLong(GZIP_INDEX_SPAN, GzipCheckpointIndex.DEFAULT_SPAN));
+            } catch (IOException e) {
+                LOG.warn("Unable to create the gzip checkpoint index for {}: {}", file, e.getMessage());
+            }
+        }
+        if (index == null || index.getCheckpoints().size() < 2) {
+            return Collections.singletonList(split);
+        }
+
+        FileStatus status = fs.getFileStatus(file);
+        long splitSize = computeSplitSize(status.getBlockSize(), getMinSplitSize(job), getMaxSplitSize(job));
+        BlockLocation[] blocks = fs.getFileBlockLocations(status, 0, status.getLen());
+
+        List<InputSplit> splits = new ArrayList<>();
+        long splitStart = 0;
+        for (Checkpoint checkpoint : index.getCheckpoints()) {
+            long offset = checkpoint.getCompressedOffset();
+            if (offset - splitStart >= splitSize) {
+                splits.add(makeGzipCheckpointSplit(file, splitStart, offset, blocks));
+                splitStart = offset;
+            }
+        }
+        splits.add(makeGzipCheckpointSplit(file, splitStart, status.getLen(), blocks));
+        LOG.info("Split {} into {} parts using its gzip checkpoint index", file, splits.size());
+        return splits;
+    }
+
+    private InputSplit makeGzipCheckpointSplit(Path file, long start, long end, BlockLocation[] blocks) throws IOException {
+        String[] hosts = null;
+        if (blocks.length > 0) {
+            hosts = blocks[getBlockIndex(blocks, start)].getHosts();
+        }
+        return new GzipCheckpointSplit(file, start, end - start, hosts);
     }
 
     public void setTypeRemappings(Map<String, Set<String>> newTypeRemappings) {
-        this.typeRemappings = newTypeRemappings;
+        settings.setTypeRemappings(newTypeRemappings);
     }
 }
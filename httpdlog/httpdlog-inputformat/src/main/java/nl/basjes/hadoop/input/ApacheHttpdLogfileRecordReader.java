@@ -16,6 +16,7 @@
  */
 package nl.basjes.hadoop.input;
 
+import nl.basjes.hadoop.input.ParsedRecord.SlotSetter;
 import nl.basjes.parse.core.Casts;
 import nl.basjes.parse.core.Dissector;
 import nl.basjes.parse.core.Parser;
@@ -25,6 +26,7 @@ import nl.basjes.parse.core.exceptions.MissingDissectorsException;
 import nl.basjes.parse.httpdlog.HttpdLoglineParser;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
@@ -34,8 +36,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -54,11 +58,11 @@ public class ApacheHttpdLogfileRecordReader extends
 
     // --------------------------------------------
 
-    private final LineRecordReader                 lineReader      = new LineRecordReader();
+    private LineRecordReader                       lineReader      = new LineRecordReader();
     private Parser<ParsedRecord>                   parser;
     private List<String> fieldList = null;
 
-    private final ParsedRecord                     currentValue    = new ParsedRecord();
+    private ParsedRecord                           currentValue    = new ParsedRecord();
 
     private String                                 logformat       = null;
     private final Set<String>                      requestedFields = new HashSet<>();
@@ -108,16 +112,18 @@ public class ApacheHttpdLogfileRecordReader extends
     private Counter counterLinesRead;
     private Counter counterGoodLines;
     private Counter counterBadLines;
+    private Counter counterFilteredLines;
 
     @Override
     public void initialize(final InputSplit split,
             final TaskAttemptContext context) throws IOException {
-        lineReader.initialize(split, context);
+        initializeLineReader(split, context);
         final Configuration conf = context.getConfiguration();
 
         counterLinesRead = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "1:Lines read");
         counterGoodLines = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "2:Good lines");
         counterBadLines  = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "3:Bad lines");
+        counterFilteredLines = context.getCounter(HTTPD_LOGFILE_INPUT_FORMAT, "4:Filtered lines");
 
         if (logformat == null || requestedFields.isEmpty()) {
             if (logformat == null) {
@@ -139,6 +145,14 @@ public class ApacheHttpdLogfileRecordReader extends
             if (logformat != null && parser == null) {
                 parser = createParser();
             }
+            // All requested fields get a fixed slot in the record so storing and retrieving them avoids the maps.
+            if (conf.getBoolean(CompactParsedRecord.COMPACT_PARAM, false)) {
+                CompactParsedRecord compactParsedRecord = new CompactParsedRecord();
+                compactParsedRecord.setConf(conf);
+                currentValue = compactParsedRecord;
+            } else {
+                currentValue = new ParsedRecord(new ParsedRecordSchema(fieldList));
+            }
             for (String field : fieldList) {
                 currentValue.declareRequestedFieldname(field);
             }
@@ -151,6 +165,27 @@ public class ApacheHttpdLogfileRecordReader extends
         }
     }
 
+    /**
+     * Continue with reading the lines of an other split (file) while retaining the parser
+     * (which then does not need to be assembled again), the record and the counters.
+     * This is only allowed after this reader has been initialized.
+     */
+    public void initializeNextSplit(final InputSplit split,
+            final TaskAttemptContext context) throws IOException {
+        lineReader.close();
+        initializeLineReader(split, context);
+    }
+
+    private void initializeLineReader(final InputSplit split,
+            final TaskAttemptContext context) throws IOException {
+        if (split instanceof GzipCheckpointSplit) {
+            lineReader = new GzipCheckpointLineRecordReader();
+        } else {
+            lineReader = new LineRecordReader();
+        }
+        lineReader.initialize(split, context);
+    }
+
     protected Parser<ParsedRecord> instantiateParser(String logFormat)  {
         return new HttpdLoglineParser<>(ParsedRecord.class, logFormat)
             .setTypeRemappings(typeRemappings)
@@ -163,8 +198,7 @@ public class ApacheHttpdLogfileRecordReader extends
             return; // Nothing to do here
         }
         String firstField = fieldList.get(0);
-        if (fieldList.size() == 1 &&
-            firstField.toLowerCase().trim().equals(FIELDS)) {
+        if (isAllPossibleFieldsRequest()) {
             outputAllPossibleFields = true;
             allPossiblePaths = getParser().getPossiblePaths();
             allPossiblePathsFieldName = firstField;
@@ -175,6 +209,12 @@ public class ApacheHttpdLogfileRecordReader extends
         }
     }
 
+    // Only the names of all possible fields are requested (so nothing is parsed).
+    private boolean isAllPossibleFieldsRequest() {
+        return fieldList.size() == 1 &&
+            fieldList.get(0).toLowerCase().trim().equals(FIELDS);
+    }
+
     public EnumSet<Casts> getCasts(String name) throws IOException {
         if (outputAllPossibleFields) {
             return allCasts.get(name);
@@ -202,22 +242,32 @@ public class ApacheHttpdLogfileRecordReader extends
         try {
             newParser = instantiateParser(logformat);
 
+            List<SlotSetter> slotSetters = new ArrayList<>();
             for (String field: fieldList) {
                 if (field.endsWith(".*")) {
                     newParser.addParseTarget(ParsedRecord.class.getMethod("setMultiValueString",
                             String.class, String.class), field);
                 } else {
-                    newParser.addParseTarget(ParsedRecord.class.getMethod("set",
-                            String.class, String.class), field);
-                    newParser.addParseTarget(ParsedRecord.class.getMethod("set",
-                            String.class, Long.class), field);
-                    newParser.addParseTarget(ParsedRecord.class.getMethod("set",
-                            String.class, Double.class), field);
+                    SlotSetter setter = ParsedRecord.createSetter(field, EnumSet.allOf(Casts.class));
+                    newParser.addFieldSetter(field, setter);
+                    slotSetters.add(setter);
                 }
             }
 
+            // The setters put the values straight into the slot of the field so they need the casts.
+            // These come from this parser itself (getting them assembles it).
+            Map<String, EnumSet<Casts>> fieldCasts = isAllPossibleFieldsRequest()
+                ? Collections.emptyMap()
+                : newParser.getAllCasts();
+            for (SlotSetter setter: slotSetters) {
+                setter.retainCasts(fieldCasts);
+            }
+
         } catch (NoSuchMethodException
-                |SecurityException e) {
+                |MissingDissectorsException
+                |InvalidDissectorException
+                |SecurityException
+                |IllegalStateException e) {
             throw new IOException(e.toString());
         }
         return newParser;
@@ -225,6 +275,16 @@ public class ApacheHttpdLogfileRecordReader extends
 
     // --------------------------------------------
 
+    /**
+     * Convert the UTF-8 bytes of the line into a String in a single step.
+     * Text.toString() goes through a CharsetDecoder and an intermediate CharBuffer, the String
+     * constructor decodes (and for plain ASCII simply copies) the bytes directly.
+     * In both cases invalid UTF-8 is replaced with U+FFFD.
+     */
+    public static String decodeLine(Text line) {
+        return new String(line.getBytes(), 0, line.getLength(), StandardCharsets.UTF_8);
+    }
+
     private int errorLinesLogged = 0;
     private static final int MAX_ERROR_LINES_LOGGED = 10;
 
@@ -252,9 +312,14 @@ public class ApacheHttpdLogfileRecordReader extends
                 counterLinesRead.increment(1L);
 
                 currentValue.clear();
-                String inputLine = lineReader.getCurrentValue().toString();
+                // Decoded only once: the same String is used for the error message.
+                String inputLine = decodeLine(lineReader.getCurrentValue());
                 try {
-                    getParser().parse(currentValue, lineReader.getCurrentValue().toString());
+                    if (getParser().parse(currentValue, inputLine) == null) {
+                        // Rejected by one of the field filters of the parser
+                        counterFilteredLines.increment(1L);
+                        continue;
+                    }
                     counterGoodLines.increment(1L);
                     haveValue = true;
                 } catch (DissectionFailure e) {
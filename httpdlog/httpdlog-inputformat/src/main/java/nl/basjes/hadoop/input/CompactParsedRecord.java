@@ -0,0 +1,175 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ParsedRecord with a much smaller serialized form, intended for shuffling large amounts of parsed records.
+ * The schema (the requested fields and optionally per field a dictionary of common values) is part of the
+ * job configuration so only the values themselves are serialized (see {@link CompactParsedRecordFormat}).
+ *
+ * <ul>
+ *   <li>{@value #FIELDS_PARAM}: The comma separated list of requested fields (the same as for the InputFormat).</li>
+ *   <li>{@value #DICTIONARY_PARAM_PREFIX}&lt;field&gt;: The comma separated list of the common values of this field.
+ *       These are written as a small number instead of the full String.</li>
+ *   <li>{@value #FINGERPRINT_PARAM}: (Optional) The expected fingerprint of the schema.
+ *       This can be used to ensure that the data is never read using a different schema than it was written with.</li>
+ * </ul>
+ *
+ * The serialized records can be sorted without deserializing them.
+ * The ApacheHttpdLogfileRecordReader produces these records if {@value #COMPACT_PARAM} is true.
+ */
+public class CompactParsedRecord extends ParsedRecord implements WritableComparable<CompactParsedRecord>, Configurable {
+
+    public static final String COMPACT_PARAM           = "nl.basjes.parse.apachehttpdlogline.compact";
+    public static final String FIELDS_PARAM            = "nl.basjes.parse.apachehttpdlogline.fields";
+    public static final String DICTIONARY_PARAM_PREFIX = "nl.basjes.parse.apachehttpdlogline.compact.dictionary.";
+    public static final String FINGERPRINT_PARAM       = "nl.basjes.parse.apachehttpdlogline.compact.fingerprint";
+
+    static {
+        WritableComparator.define(CompactParsedRecord.class, new Comparator());
+    }
+
+    private Configuration             conf;
+    private CompactParsedRecordFormat format;
+
+    /**
+     * The schema MUST be provided via {@link #setConf(Configuration)} before this record can be used.
+     */
+    public CompactParsedRecord() {
+        super();
+    }
+
+    public CompactParsedRecord(List<String> fields, Map<String, List<String>> dictionaries) {
+        super();
+        setFormat(new CompactParsedRecordFormat(fields, dictionaries));
+    }
+
+    private void setFormat(CompactParsedRecordFormat newFormat) {
+        format = newFormat;
+        setSchema(format.getSchema());
+        for (String field : format.getMultiValueFields()) {
+            declareRequestedFieldname(field);
+        }
+    }
+
+    @Override
+    public void setConf(Configuration newConf) {
+        conf = newConf;
+        setFormat(CompactParsedRecordFormat.fromConfiguration(conf));
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * @return The fingerprint of the schema; records can only be read by a record with the same fingerprint.
+     */
+    public String getSchemaFingerprint() {
+        return getFormat().getFingerprint();
+    }
+
+    private CompactParsedRecordFormat getFormat() {
+        if (format == null) {
+            throw new IllegalStateException("The CompactParsedRecord does not have a schema (no configuration was set).");
+        }
+        return format;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        getFormat().write(this, out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        getFormat().read(this, in);
+    }
+
+    @Override
+    public int compareTo(CompactParsedRecord other) {
+        // Compare the serialized forms so this is always consistent with the Comparator.
+        try {
+            DataOutputBuffer buffer1 = new DataOutputBuffer();
+            DataOutputBuffer buffer2 = new DataOutputBuffer();
+            write(buffer1);
+            other.write(buffer2);
+            return getFormat().compare(
+                new CompactParsedRecordFormat.Cursor(buffer1.getData(), 0, buffer1.getLength()),
+                new CompactParsedRecordFormat.Cursor(buffer2.getData(), 0, buffer2.getLength()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Compares the serialized CompactParsedRecords without deserializing them.
+     */
+    public static class Comparator extends WritableComparator {
+        private CompactParsedRecordFormat comparatorFormat;
+
+        public Comparator() {
+            super(CompactParsedRecord.class);
+        }
+
+        @Override
+        public void setConf(Configuration conf) {
+            super.setConf(conf);
+            if (conf != null) {
+                comparatorFormat = CompactParsedRecordFormat.fromConfiguration(conf);
+            }
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            if (comparatorFormat == null) {
+                throw new IllegalStateException("The CompactParsedRecord.Comparator does not have a schema (no configuration was set).");
+            }
+            // The registered comparator is shared so the (small) cursors are not kept in fields.
+            return comparatorFormat.compare(
+                new CompactParsedRecordFormat.Cursor(b1, s1, l1),
+                new CompactParsedRecordFormat.Cursor(b2, s2, l2));
+        }
+    }
+
+}
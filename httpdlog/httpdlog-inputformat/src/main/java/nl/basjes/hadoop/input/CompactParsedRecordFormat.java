@@ -0,0 +1,408 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.hadoop.input.CompactParsedRecord.DICTIONARY_PARAM_PREFIX;
+import static nl.basjes.hadoop.input.CompactParsedRecord.FIELDS_PARAM;
+import static nl.basjes.hadoop.input.CompactParsedRecord.FINGERPRINT_PARAM;
+
+/**
+ * The serialized form of a CompactParsedRecord.
+ * Because both the writer and the reader know the schema (it is part of the job configuration)
+ * no field names are written, only:
+ * <ol>
+ *   <li>Three bitmaps (String, Long and Double) of which slots have a value.</li>
+ *   <li>For each slot the values that are present:
+ *     <ul>
+ *       <li>a String as a VInt length followed by the UTF-8 bytes,
+ *           or for a field with a dictionary a VInt code (0 = the String follows, n = the n-th dictionary value)</li>
+ *       <li>a Long as a VLong</li>
+ *       <li>a Double as 8 bytes</li>
+ *     </ul>
+ *   </li>
+ *   <li>For each multi value field (.*) the number of values followed by the key/value pairs.</li>
+ *   <li>The (rare) values of fields outside the schema including their names.</li>
+ * </ol>
+ */
+final class CompactParsedRecordFormat {
+
+    private final ParsedRecordSchema          schema;
+    private final List<String>                multiValueFields = new ArrayList<>();
+    private final String[][]                  dictionaries;
+    private final byte[][][]                  dictionaryBytes;
+    private final List<Map<String, Integer>>  dictionaryCodes;
+    private final int                         bitmapBytes;
+    private final String                      fingerprint;
+
+    CompactParsedRecordFormat(List<String> fields, Map<String, List<String>> fieldDictionaries) {
+        schema = new ParsedRecordSchema(fields);
+        for (String field : fields) {
+            if (field.endsWith(".*") && !multiValueFields.contains(field)) {
+                multiValueFields.add(field);
+            }
+        }
+
+        int slots = schema.size();
+        bitmapBytes     = (slots + 7) >>> 3;
+        dictionaries    = new String[slots][];
+        dictionaryBytes = new byte[slots][][];
+        dictionaryCodes = new ArrayList<>(slots);
+
+        // FNV-1a hash over everything that determines the serialized form.
+        long hash = 0xcbf29ce484222325L;
+        for (int slot = 0; slot < slots; slot++) {
+            String field = schema.getFieldName(slot);
+            hash = fingerprint(hash, field);
+
+            List<String> dictionary = fieldDictionaries.get(field);
+            if (dictionary == null || dictionary.isEmpty()) {
+                dictionaryCodes.add(null);
+                continue;
+            }
+            Map<String, Integer> codes = new HashMap<>(dictionary.size() * 2);
+            dictionaries[slot]    = dictionary.toArray(new String[0]);
+            dictionaryBytes[slot] = new byte[dictionary.size()][];
+            for (int code = 0; code < dictionary.size(); code++) {
+                String value = dictionary.get(code);
+                codes.putIfAbsent(value, code);
+                dictionaryBytes[slot][code] = value.getBytes(StandardCharsets.UTF_8);
+                hash = fingerprint(hash, value);
+            }
+            dictionaryCodes.add(codes);
+        }
+        for (String field : multiValueFields) {
+            hash = fingerprint(hash, field);
+        }
+        fingerprint = Long.toHexString(hash);
+    }
+
+    private static long fingerprint(long hash, String value) {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= 0xFF; // Separator
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    static CompactParsedRecordFormat fromConfiguration(Configuration conf) {
+        String fieldsValue = conf.get(FIELDS_PARAM, null);
+        if (fieldsValue == null) {
+            throw new IllegalArgumentException("The fields MUST be configured in " + FIELDS_PARAM);
+        }
+        List<String> fields = Arrays.asList(fieldsValue.split(","));
+        Map<String, List<String>> fieldDictionaries = new HashMap<>();
+        for (String field : fields) {
+            String[] dictionary = conf.getStrings(DICTIONARY_PARAM_PREFIX + field);
+            if (dictionary != null) {
+                fieldDictionaries.put(field, Arrays.asList(dictionary));
+            }
+        }
+        CompactParsedRecordFormat format = new CompactParsedRecordFormat(fields, fieldDictionaries);
+
+        String expectedFingerprint = conf.get(FINGERPRINT_PARAM, null);
+        if (expectedFingerprint != null && !expectedFingerprint.equals(format.getFingerprint())) {
+            throw new IllegalArgumentException("The configured schema has fingerprint " + format.getFingerprint() +
+                " instead of the expected " + expectedFingerprint);
+        }
+        return format;
+    }
+
+    ParsedRecordSchema getSchema() {
+        return schema;
+    }
+
+    List<String> getMultiValueFields() {
+        return multiValueFields;
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    // --------------------------------------------
+
+    private void writeBitmap(DataOutput out, ParsedRecord record, int type) throws IOException {
+        int slots = schema.size();
+        for (int first = 0; first < slots; first += 8) {
+            int bits = 0;
+            for (int slot = first; slot < Math.min(first + 8, slots); slot++) {
+                boolean present;
+                switch (type) {
+                    case 0:  present = record.hasString(slot); break;
+                    case 1:  present = record.hasLong(slot);   break;
+                    default: present = record.hasDouble(slot); break;
+                }
+                if (present) {
+                    bits |= 1 << (slot - first);
+                }
+            }
+            out.writeByte(bits);
+        }
+    }
+
+    void write(ParsedRecord record, DataOutput out) throws IOException {
+        writeBitmap(out, record, 0);
+        writeBitmap(out, record, 1);
+        writeBitmap(out, record, 2);
+
+        for (int slot = 0; slot < schema.size(); slot++) {
+            if (record.hasString(slot)) {
+                String value = record.getString(slot);
+                Map<String, Integer> codes = dictionaryCodes.get(slot);
+                if (codes == null) {
+                    Text.writeString(out, value);
+                } else {
+                    Integer code = codes.get(value);
+                    if (code == null) {
+                        WritableUtils.writeVInt(out, 0);
+                        Text.writeString(out, value);
+                    } else {
+                        WritableUtils.writeVInt(out, code + 1);
+                    }
+                }
+            }
+            if (record.hasLong(slot)) {
+                WritableUtils.writeVLong(out, record.getLongValue(slot));
+            }
+            if (record.hasDouble(slot)) {
+                out.writeDouble(record.getDoubleValue(slot));
+            }
+        }
+
+        for (String field : multiValueFields) {
+            Map<String, String> values = record.getStringSet(field);
+            if (values == null) {
+                WritableUtils.writeVInt(out, 0);
+                continue;
+            }
+            WritableUtils.writeVInt(out, values.size());
+            for (Map.Entry<String, String> value : values.entrySet()) {
+                Text.writeString(out, value.getKey());
+                Text.writeString(out, value.getValue());
+            }
+        }
+
+        Map<String, String> strings = record.getUnslottedStrings();
+        WritableUtils.writeVInt(out, strings.size());
+        for (Map.Entry<String, String> e : strings.entrySet()) {
+            Text.writeString(out, e.getKey());
+            Text.writeString(out, e.getValue());
+        }
+        Map<String, Long> longs = record.getUnslottedLongs();
+        WritableUtils.writeVInt(out, longs.size());
+        for (Map.Entry<String, Long> e : longs.entrySet()) {
+            Text.writeString(out, e.getKey());
+            WritableUtils.writeVLong(out, e.getValue());
+        }
+        Map<String, Double> doubles = record.getUnslottedDoubles();
+        WritableUtils.writeVInt(out, doubles.size());
+        for (Map.Entry<String, Double> e : doubles.entrySet()) {
+            Text.writeString(out, e.getKey());
+            out.writeDouble(e.getValue());
+        }
+    }
+
+    private static boolean isSet(byte[] bitmaps, int bitmap, int bitmapBytes, int slot) {
+        return (bitmaps[bitmap * bitmapBytes + (slot >>> 3)] & (1 << (slot & 7))) != 0;
+    }
+
+    void read(ParsedRecord record, DataInput in) throws IOException {
+        record.clear();
+        byte[] bitmaps = new byte[3 * bitmapBytes];
+        in.readFully(bitmaps);
+
+        for (int slot = 0; slot < schema.size(); slot++) {
+            if (isSet(bitmaps, 0, bitmapBytes, slot)) {
+                if (dictionaries[slot] == null) {
+                    record.setString(slot, Text.readString(in));
+                } else {
+                    int code = WritableUtils.readVInt(in);
+                    record.setString(slot, code == 0 ? Text.readString(in) : dictionaries[slot][code - 1]);
+                }
+            }
+            if (isSet(bitmaps, 1, bitmapBytes, slot)) {
+                record.setLong(slot, WritableUtils.readVLong(in));
+            }
+            if (isSet(bitmaps, 2, bitmapBytes, slot)) {
+                record.setDouble(slot, in.readDouble());
+            }
+        }
+
+        for (String field : multiValueFields) {
+            int nrOfValues = WritableUtils.readVInt(in);
+            Map<String, String> values = record.getStringSet(field);
+            for (int count = 0; count < nrOfValues; count++) {
+                values.put(Text.readString(in), Text.readString(in));
+            }
+        }
+
+        int nrOfValues = WritableUtils.readVInt(in);
+        for (int count = 0; count < nrOfValues; count++) {
+            record.set(Text.readString(in), Text.readString(in));
+        }
+        nrOfValues = WritableUtils.readVInt(in);
+        for (int count = 0; count < nrOfValues; count++) {
+            record.set(Text.readString(in), WritableUtils.readVLong(in));
+        }
+        nrOfValues = WritableUtils.readVInt(in);
+        for (int count = 0; count < nrOfValues; count++) {
+            record.set(Text.readString(in), in.readDouble());
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * The position in a serialized record while comparing and the String that was last read.
+     */
+    static final class Cursor {
+        private byte[] bytes;
+        private int    start;
+        private int    end;
+        private int    position;
+        private byte[] stringBytes;
+        private int    stringStart;
+        private int    stringLength;
+
+        Cursor(byte[] bytes, int start, int length) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end   = start + length;
+        }
+
+        private boolean isSet(int bitmap, int bitmapBytes, int slot) {
+            return (bytes[start + bitmap * bitmapBytes + (slot >>> 3)] & (1 << (slot & 7))) != 0;
+        }
+
+        private int readVInt() throws IOException {
+            int value = WritableComparator.readVInt(bytes, position);
+            position += WritableUtils.decodeVIntSize(bytes[position]);
+            return value;
+        }
+
+        private long readVLong() throws IOException {
+            long value = WritableComparator.readVLong(bytes, position);
+            position += WritableUtils.decodeVIntSize(bytes[position]);
+            return value;
+        }
+
+        private double readDouble() {
+            double value = WritableComparator.readDouble(bytes, position);
+            position += 8;
+            return value;
+        }
+
+        private void readString(byte[][] dictionary) throws IOException {
+            if (dictionary != null) {
+                int code = readVInt();
+                if (code > 0) {
+                    stringBytes  = dictionary[code - 1];
+                    stringStart  = 0;
+                    stringLength = stringBytes.length;
+                    return;
+                }
+            }
+            stringLength = readVInt();
+            stringBytes  = bytes;
+            stringStart  = position;
+            position    += stringLength;
+        }
+    }
+
+    /**
+     * Compare two serialized records without deserializing them.
+     * The records are ordered by the values of the fields in the order of the schema (a missing value comes first).
+     * Strings are ordered by their UTF-8 bytes, Longs and Doubles numerically.
+     * Records that are the same in all of that are ordered by the remaining bytes.
+     */
+    int compare(Cursor c1, Cursor c2) {
+        c1.position = c1.start + 3 * bitmapBytes;
+        c2.position = c2.start + 3 * bitmapBytes;
+
+        try {
+            for (int slot = 0; slot < schema.size(); slot++) {
+                int result = compareValue(c1.isSet(0, bitmapBytes, slot), c2.isSet(0, bitmapBytes, slot));
+                if (result != 0) {
+                    return result;
+                }
+                if (c1.isSet(0, bitmapBytes, slot)) {
+                    c1.readString(dictionaryBytes[slot]);
+                    c2.readString(dictionaryBytes[slot]);
+                    result = WritableComparator.compareBytes(
+                        c1.stringBytes, c1.stringStart, c1.stringLength,
+                        c2.stringBytes, c2.stringStart, c2.stringLength);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+
+                result = compareValue(c1.isSet(1, bitmapBytes, slot), c2.isSet(1, bitmapBytes, slot));
+                if (result != 0) {
+                    return result;
+                }
+                if (c1.isSet(1, bitmapBytes, slot)) {
+                    result = Long.compare(c1.readVLong(), c2.readVLong());
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+
+                result = compareValue(c1.isSet(2, bitmapBytes, slot), c2.isSet(2, bitmapBytes, slot));
+                if (result != 0) {
+                    return result;
+                }
+                if (c1.isSet(2, bitmapBytes, slot)) {
+                    result = Double.compare(c1.readDouble(), c2.readDouble());
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        return WritableComparator.compareBytes(
+            c1.bytes, c1.position, c1.end - c1.position,
+            c2.bytes, c2.position, c2.end - c2.position);
+    }
+
+    private static int compareValue(boolean present1, boolean present2) {
+        if (present1 == present2) {
+            return 0;
+        }
+        return present1 ? 1 : -1;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.HyperLogLog;
+
+import java.io.Serializable;
+
+/**
+ * The statistics of the values of a single field in a sample.
+ * The width is the number of characters of the value as a String.
+ */
+public final class FieldStatistics implements Serializable {
+
+    private final String      name;
+    private long              values     = 0;
+    private long              nulls      = 0;
+    private long              totalWidth = 0;
+    private final HyperLogLog distinct   = new HyperLogLog();
+
+    public FieldStatistics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void addNull() {
+        nulls++;
+    }
+
+    public void addValue(String value) {
+        if (value == null) {
+            addNull();
+            return;
+        }
+        values++;
+        totalWidth += value.length();
+        distinct.add(value);
+    }
+
+    public void merge(FieldStatistics other) {
+        values     += other.values;
+        nulls      += other.nulls;
+        totalWidth += other.totalWidth;
+        distinct.merge(other.distinct);
+    }
+
+    /**
+     * @return The number of non-null values.
+     */
+    public long getValues() {
+        return values;
+    }
+
+    public long getNulls() {
+        return nulls;
+    }
+
+    /**
+     * @return The fraction (0.0 - 1.0) of the records that do not have a value for this field.
+     */
+    public double getNullRatio() {
+        long total = values + nulls;
+        return total == 0 ? 0.0 : (double) nulls / total;
+    }
+
+    /**
+     * @return The average number of characters of the non-null values.
+     */
+    public double getAverageWidth() {
+        return values == 0 ? 0.0 : (double) totalWidth / values;
+    }
+
+    /**
+     * @return The (approximate) number of distinct non-null values in the sample.
+     */
+    public long getSampleDistinct() {
+        return Math.min(values, distinct.estimate());
+    }
+
+    /**
+     * Estimate the number of distinct values in all the records based on the sample.
+     * Like many query planners do: if more than 10% of the sampled values is distinct the number of
+     * distinct values is assumed to grow with the number of records, otherwise it is assumed to be a fixed set.
+     * @param sampledRecords The number of records in the sample
+     * @param totalRecords The (estimated) number of records in total
+     */
+    public long getEstimatedDistinct(long sampledRecords, long totalRecords) {
+        long sampleDistinct = getSampleDistinct();
+        if (values == 0 || sampledRecords == 0 || sampleDistinct * 10 <= values) {
+            return sampleDistinct;
+        }
+        return Math.max(sampleDistinct, Math.round((double) sampleDistinct * totalRecords / sampledRecords));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: nulls=%.3f width=%.1f distinct=%d", name, getNullRatio(), getAverageWidth(), getSampleDistinct());
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A sidecar index for a (non splittable) gzip file that contains the points from which decompression can be restarted.
+ * Such a checkpoint is either the start of a gzip member or the start of a deflate block; for the latter the
+ * last 32KiB of the decompressed data (the window) is needed to resolve the back references that follow.
+ * With this index a single large gzip file can be read by several mappers, each starting at its own checkpoint.
+ *
+ * The index is stored next to the gzip file with the extra extension {@link #EXTENSION}.
+ */
+public final class GzipCheckpointIndex {
+
+    public static final String EXTENSION = ".gzidx";
+
+    private static final byte[] MAGIC = "LPGZIDX1".getBytes(StandardCharsets.US_ASCII);
+
+    /** The size of the deflate window: a back reference never goes further back than this. */
+    static final int WINDOW_SIZE = 32768;
+
+    /** The default minimal distance (in compressed bytes) between two checkpoints inside a gzip member. */
+    public static final long DEFAULT_SPAN = 16L * 1024 * 1024;
+
+    public static final class Checkpoint {
+        private final boolean memberStart;
+        private final long    compressedOffset;
+        private final int     bitOffset;
+        private final long    uncompressedOffset;
+        private final byte[]  window;
+
+        Checkpoint(boolean memberStart, long compressedOffset, int bitOffset, long uncompressedOffset, byte[] window) {
+            this.memberStart        = memberStart;
+            this.compressedOffset   = compressedOffset;
+            this.bitOffset          = bitOffset;
+            this.uncompressedOffset = uncompressedOffset;
+            this.window             = window;
+        }
+
+        /**
+         * @return true if this is the start of a gzip member (i.e. the gzip header), false for a deflate block.
+         */
+        public boolean isMemberStart() {
+            return memberStart;
+        }
+
+        /**
+         * @return The offset in the gzip file of the byte that contains the first bit of this checkpoint.
+         */
+        public long getCompressedOffset() {
+            return compressedOffset;
+        }
+
+        /**
+         * @return The number of bits (0-7) of the byte at the compressed offset that belong to the previous block.
+         */
+        public int getBitOffset() {
+            return bitOffset;
+        }
+
+        /**
+         * @return The offset in the decompressed data at which this checkpoint starts.
+         */
+        public long getUncompressedOffset() {
+            return uncompressedOffset;
+        }
+
+        /**
+         * @return The decompressed data right before this checkpoint (null if the index was read without windows).
+         */
+        byte[] getWindow() {
+            return window;
+        }
+
+        @Override
+        public String toString() {
+            return (memberStart ? "Member" : "Block") + " @ " + compressedOffset + ":" + bitOffset +
+                " -> " + uncompressedOffset;
+        }
+    }
+
+    private final long             compressedLength;
+    private final long             uncompressedLength;
+    private final List<Checkpoint> checkpoints;
+
+    GzipCheckpointIndex(long compressedLength, long uncompressedLength, List<Checkpoint> checkpoints) {
+        this.compressedLength   = compressedLength;
+        this.uncompressedLength = uncompressedLength;
+        this.checkpoints        = Collections.unmodifiableList(checkpoints);
+    }
+
+    /**
+     * @return The size of the gzip file for which this index was made.
+     */
+    public long getCompressedLength() {
+        return compressedLength;
+    }
+
+    /**
+     * @return The size of all the decompressed data.
+     */
+    public long getUncompressedLength() {
+        return uncompressedLength;
+    }
+
+    /**
+     * @return The checkpoints ordered by offset. The first is always the start of the file.
+     */
+    public List<Checkpoint> getCheckpoints() {
+        return checkpoints;
+    }
+
+    // --------------------------------------------
+
+    public static Path indexPathOf(Path gzipFile) {
+        return gzipFile.suffix(EXTENSION);
+    }
+
+    /**
+     * @return true if the file is a (temporary) gzip checkpoint index (which must never be read as input).
+     */
+    public static boolean isIndexFile(Path file) {
+        String name = file.getName();
+        return name.endsWith(EXTENSION) || name.endsWith(EXTENSION + ".tmp");
+    }
+
+    /**
+     * Build the index by decompressing the entire gzip stream.
+     * @param gzipData The gzip file
+     * @param span The minimal distance (in compressed bytes) between two checkpoints inside the same gzip member.
+     */
+    public static GzipCheckpointIndex build(InputStream gzipData, long span) throws IOException {
+        return new GzipCheckpointIndexBuilder(gzipData, span).build();
+    }
+
+    /**
+     * Build the index for the gzip file and store it next to it.
+     * @return The index that was written.
+     */
+    public static GzipCheckpointIndex create(FileSystem fs, Path gzipFile, long span) throws IOException {
+        GzipCheckpointIndex index;
+        try (FSDataInputStream in = fs.open(gzipFile)) {
+            index = build(in, span);
+        }
+        // Write to a temporary file first so a reader never sees a partially written index.
+        Path indexFile = indexPathOf(gzipFile);
+        Path tmpFile = indexFile.suffix(".tmp");
+        try (FSDataOutputStream out = fs.create(tmpFile, true)) {
+            index.write(out);
+        }
+        fs.delete(indexFile, false);
+        if (!fs.rename(tmpFile, indexFile)) {
+            throw new IOException("Unable to rename " + tmpFile + " to " + indexFile);
+        }
+        return index;
+    }
+
+    /**
+     * Load the index of the gzip file if it exists and was made for the current version of the file.
+     * @param withWindows Also load the windows (which are only needed to actually start reading at a checkpoint).
+     * @return The index or null if there is no usable index.
+     */
+    public static GzipCheckpointIndex load(FileSystem fs, Path gzipFile, boolean withWindows) throws IOException {
+        Path indexFile = indexPathOf(gzipFile);
+        if (!fs.exists(indexFile)) {
+            return null;
+        }
+        GzipCheckpointIndex index;
+        try (FSDataInputStream in = fs.open(indexFile)) {
+            index = read(in, withWindows);
+        }
+        if (index.getCompressedLength() != fs.getFileStatus(gzipFile).getLen()) {
+            return null; // The index was made for a different version of this file.
+        }
+        return index;
+    }
+
+    // --------------------------------------------
+
+    public void write(OutputStream out) throws IOException {
+        DeflaterOutputStream compressed = new DeflaterOutputStream(new BufferedOutputStream(out));
+        DataOutputStream data = new DataOutputStream(compressed);
+        data.write(MAGIC);
+        data.writeLong(compressedLength);
+        data.writeLong(uncompressedLength);
+        data.writeInt(checkpoints.size());
+        for (Checkpoint checkpoint : checkpoints) {
+            data.writeBoolean(checkpoint.memberStart);
+            data.writeLong(checkpoint.compressedOffset);
+            data.writeByte(checkpoint.bitOffset);
+            data.writeLong(checkpoint.uncompressedOffset);
+            data.writeInt(checkpoint.window.length);
+            data.write(checkpoint.window);
+        }
+        data.flush();
+        compressed.finish();
+        compressed.flush();
+    }
+
+    public static GzipCheckpointIndex read(InputStream in, boolean withWindows) throws IOException {
+        DataInputStream data = new DataInputStream(new InflaterInputStream(new BufferedInputStream(in)));
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("This is not a gzip checkpoint index");
+            }
+        }
+        long compressedLength   = data.readLong();
+        long uncompressedLength = data.readLong();
+        int  count              = data.readInt();
+        List<Checkpoint> checkpoints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean memberStart        = data.readBoolean();
+            long    compressedOffset   = data.readLong();
+            int     bitOffset          = data.readByte();
+            long    uncompressedOffset = data.readLong();
+            int     windowLength       = data.readInt();
+            byte[]  window             = null;
+            if (withWindows) {
+                window = new byte[windowLength];
+                data.readFully(window);
+            } else {
+                skipFully(data, windowLength);
+            }
+            checkpoints.add(new Checkpoint(memberStart, compressedOffset, bitOffset, uncompressedOffset, window));
+        }
+        return new GzipCheckpointIndex(compressedLength, uncompressedLength, checkpoints);
+    }
+
+    private static void skipFully(DataInputStream data, int bytes) throws IOException {
+        int remaining = bytes;
+        while (remaining > 0) {
+            int skipped = data.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated gzip checkpoint index");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    // --------------------------------------------
+
+    private static final int FHCRC    = 0x02;
+    private static final int FEXTRA   = 0x04;
+    private static final int FNAME    = 0x08;
+    private static final int FCOMMENT = 0x10;
+
+    /**
+     * Read the gzip member header so the stream is positioned at the start of the deflate data.
+     * @return false if the stream was at the end (there is no next member).
+     */
+    static boolean skipGzipHeader(InputStream in) throws IOException {
+        int id1 = in.read();
+        if (id1 == -1) {
+            return false;
+        }
+        int id2 = in.read();
+        int method = in.read();
+        if (id1 != 0x1f || id2 != 0x8b || method != 8) {
+            throw new IOException("Not a gzip member (or an unsupported compression method)");
+        }
+        int flags = readByte(in);
+        for (int i = 0; i < 6; i++) { // MTIME, XFL and OS
+            readByte(in);
+        }
+        if ((flags & FEXTRA) != 0) {
+            int length = readByte(in) | readByte(in) << 8;
+            for (int i = 0; i < length; i++) {
+                readByte(in);
+            }
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated(in);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated(in);
+        }
+        if ((flags & FHCRC) != 0) {
+            readByte(in);
+            readByte(in);
+        }
+        return true;
+    }
+
+    private static void skipZeroTerminated(InputStream in) throws IOException {
+        int value;
+        do {
+            value = readByte(in);
+        } while (value != 0);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int value = in.read();
+        if (value == -1) {
+            throw new EOFException("Truncated gzip header");
+        }
+        return value;
+    }
+
+}
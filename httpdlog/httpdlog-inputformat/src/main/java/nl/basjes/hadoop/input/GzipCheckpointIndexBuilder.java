@@ -0,0 +1,426 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.hadoop.input.GzipCheckpointIndex.Checkpoint;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static nl.basjes.hadoop.input.GzipCheckpointIndex.WINDOW_SIZE;
+
+/**
+ * Decompresses a gzip stream (RFC 1952 / RFC 1951) to find the points from which decompression can be restarted.
+ * The java.util.zip.Inflater does not tell where the deflate blocks start so this is a (table driven) inflater of
+ * its own. The decompressed data itself is not needed; only the last 32KiB (the window) is retained.
+ */
+final class GzipCheckpointIndexBuilder {
+
+    private static final int MAX_BITS  = 15;
+    private static final int FAST_BITS = 10;
+    private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+
+    private static final int[] LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DISTANCE_BASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DISTANCE_EXTRA = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    private static final int[] CODE_LENGTH_ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        int[] lengths = new int[288];
+        for (int symbol = 0; symbol < 288; symbol++) {
+            if (symbol < 144) {
+                lengths[symbol] = 8;
+            } else if (symbol < 256) {
+                lengths[symbol] = 9;
+            } else if (symbol < 280) {
+                lengths[symbol] = 7;
+            } else {
+                lengths[symbol] = 8;
+            }
+        }
+        FIXED_LITERALS = new Huffman(lengths, 288);
+        lengths = new int[30];
+        Arrays.fill(lengths, 5);
+        FIXED_DISTANCES = new Huffman(lengths, 30);
+    }
+
+    /**
+     * A canonical Huffman code. The codes of at most FAST_BITS are decoded with a single table lookup,
+     * the longer ones (which are rare) one bit at a time.
+     */
+    private static final class Huffman {
+        // (symbol << 4) | length, or 0 if the code is longer than FAST_BITS.
+        private final int[] fast    = new int[1 << FAST_BITS];
+        private final int[] counts  = new int[MAX_BITS + 1];
+        private final int[] symbols;
+
+        Huffman(int[] lengths, int count) {
+            symbols = new int[count];
+            for (int symbol = 0; symbol < count; symbol++) {
+                counts[lengths[symbol]]++;
+            }
+            counts[0] = 0;
+
+            int[] offsets  = new int[MAX_BITS + 2];
+            int[] nextCode = new int[MAX_BITS + 2];
+            int code = 0;
+            for (int length = 1; length <= MAX_BITS; length++) {
+                offsets[length + 1] = offsets[length] + counts[length];
+                code = (code + counts[length - 1]) << 1;
+                nextCode[length] = code;
+            }
+
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[symbol];
+                if (length == 0) {
+                    continue;
+                }
+                symbols[offsets[length]++] = symbol;
+                int symbolCode = nextCode[length]++;
+                if (length <= FAST_BITS) {
+                    // The codes are stored starting with the most significant bit so the lookup needs them reversed.
+                    int reversed = Integer.reverse(symbolCode) >>> (32 - length);
+                    for (int index = reversed; index < fast.length; index += 1 << length) {
+                        fast[index] = (symbol << 4) | length;
+                    }
+                }
+            }
+        }
+    }
+
+    // --------------------------------------------
+
+    private final InputStream in;
+    private final long        span;
+    private final byte[]      buffer     = new byte[65536];
+    private int               bufferPos  = 0;
+    private int               bufferEnd  = 0;
+    private long              bytesRead  = 0; // Bytes moved from the buffer into the bitBuffer
+
+    private long              bitBuffer  = 0;
+    private int               bitCount   = 0;
+
+    // The last part of the decompressed data (only the last WINDOW_SIZE bytes are ever needed)
+    private final byte[]      window     = new byte[2 * WINDOW_SIZE];
+    private static final int  WINDOW_MASK = 2 * WINDOW_SIZE - 1;
+    private long              produced   = 0;
+
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    GzipCheckpointIndexBuilder(InputStream in, long span) {
+        this.in = in;
+        this.span = Math.max(WINDOW_SIZE, span);
+    }
+
+    GzipCheckpointIndex build() throws IOException {
+        while (true) {
+            long memberStart = bitPosition() >>> 3;
+            if (!GzipCheckpointIndex.skipGzipHeader(alignedByteStream())) {
+                break; // End of file
+            }
+            // A member does not depend on the data before it; only the last byte is kept to determine if it starts a line.
+            checkpoints.add(new Checkpoint(true, memberStart, 0, produced, windowBytes(1)));
+            inflateMember();
+            bits(bitCount & 7); // Skip to the byte boundary
+            // The trailer (CRC32 and ISIZE) is not verified.
+            for (int i = 0; i < 8; i++) {
+                alignedByte();
+            }
+            if (!hasMoreMembers()) {
+                break;
+            }
+        }
+        if (checkpoints.isEmpty()) {
+            throw new EOFException("Empty gzip file");
+        }
+        return new GzipCheckpointIndex(totalLength(), produced, checkpoints);
+    }
+
+    /**
+     * @return The length of the entire input (including anything after the last member).
+     */
+    private long totalLength() throws IOException {
+        long total = bytesRead + (bufferEnd - bufferPos);
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+            total += read;
+        }
+        bufferPos = 0;
+        bufferEnd = 0;
+        return total;
+    }
+
+    private void inflateMember() throws IOException {
+        long lastCheckpoint = bitPosition();
+        boolean lastBlock = false;
+        while (!lastBlock) {
+            long blockStart = bitPosition();
+            if (blockStart - lastCheckpoint >= span * 8) {
+                checkpoints.add(new Checkpoint(false, blockStart >>> 3, (int) (blockStart & 7), produced,
+                    windowBytes(WINDOW_SIZE)));
+                lastCheckpoint = blockStart;
+            }
+            lastBlock = bits(1) == 1;
+            int type = bits(2);
+            switch (type) {
+                case 0:
+                    storedBlock();
+                    break;
+                case 1:
+                    compressedBlock(FIXED_LITERALS, FIXED_DISTANCES);
+                    break;
+                case 2:
+                    dynamicBlock();
+                    break;
+                default:
+                    throw new IOException("Invalid deflate block type at bit " + blockStart);
+            }
+        }
+    }
+
+    private void storedBlock() throws IOException {
+        bits(bitCount & 7); // Skip to the byte boundary
+        int length        = alignedByte() | alignedByte() << 8;
+        int lengthInverse = alignedByte() | alignedByte() << 8;
+        if (length != (~lengthInverse & 0xFFFF)) {
+            throw new IOException("Invalid stored block length");
+        }
+        for (int i = 0; i < length; i++) {
+            output((byte) alignedByte());
+        }
+    }
+
+    private void dynamicBlock() throws IOException {
+        int literalCount    = bits(5) + 257;
+        int distanceCount   = bits(5) + 1;
+        int codeLengthCount = bits(4) + 4;
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new IOException("Invalid dynamic block code counts");
+        }
+
+        int[] codeLengthLengths = new int[19];
+        for (int i = 0; i < codeLengthCount; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = bits(3);
+        }
+        Huffman codeLengths = new Huffman(codeLengthLengths, 19);
+
+        int[] lengths = new int[literalCount + distanceCount];
+        int index = 0;
+        while (index < lengths.length) {
+            int symbol = decode(codeLengths);
+            if (symbol < 16) {
+                lengths[index++] = symbol;
+                continue;
+            }
+            int value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (index == 0) {
+                    throw new IOException("Repeat of a code length without a previous length");
+                }
+                value = lengths[index - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (index + repeat > lengths.length) {
+                throw new IOException("Too many code lengths");
+            }
+            while (repeat-- > 0) {
+                lengths[index++] = value;
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new IOException("Missing end-of-block code");
+        }
+
+        int[] distanceLengths = new int[distanceCount];
+        System.arraycopy(lengths, literalCount, distanceLengths, 0, distanceCount);
+        compressedBlock(new Huffman(lengths, literalCount), new Huffman(distanceLengths, distanceCount));
+    }
+
+    private void compressedBlock(Huffman literals, Huffman distances) throws IOException {
+        while (true) {
+            int symbol = decode(literals);
+            if (symbol < 256) {
+                output((byte) symbol);
+                continue;
+            }
+            if (symbol == 256) {
+                return; // End of block
+            }
+            symbol -= 257;
+            if (symbol >= 29) {
+                throw new IOException("Invalid length code");
+            }
+            int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+
+            int distanceSymbol = decode(distances);
+            if (distanceSymbol >= 30) {
+                throw new IOException("Invalid distance code");
+            }
+            int distance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+            if (distance > produced) {
+                throw new IOException("Distance too far back");
+            }
+            for (int i = 0; i < length; i++) {
+                output(window[(int) ((produced - distance) & WINDOW_MASK)]);
+            }
+        }
+    }
+
+    private void output(byte value) {
+        window[(int) (produced & WINDOW_MASK)] = value;
+        produced++;
+    }
+
+    private byte[] windowBytes(int maxLength) {
+        int length = (int) Math.min(maxLength, produced);
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = window[(int) ((produced - length + i) & WINDOW_MASK)];
+        }
+        return result;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The position (in bits) in the compressed stream of the next bit that will be read.
+     */
+    private long bitPosition() {
+        return bytesRead * 8 - bitCount;
+    }
+
+    /**
+     * Fill the bitBuffer with as many whole bytes as possible (less only at the end of the input).
+     */
+    private void fill() throws IOException {
+        while (bitCount <= 56 - 8) {
+            if (bufferPos == bufferEnd) {
+                bufferEnd = in.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if (bufferEnd <= 0) {
+                    bufferEnd = 0;
+                    return;
+                }
+            }
+            bitBuffer |= (long) (buffer[bufferPos++] & 0xFF) << bitCount;
+            bitCount += 8;
+            bytesRead++;
+        }
+    }
+
+    private int bits(int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        if (bitCount < count) {
+            fill();
+            if (bitCount < count) {
+                throw new EOFException("Unexpected end of the gzip data");
+            }
+        }
+        int value = (int) (bitBuffer & ((1L << count) - 1));
+        bitBuffer >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    private int decode(Huffman huffman) throws IOException {
+        if (bitCount < MAX_BITS) {
+            fill();
+        }
+        int entry = huffman.fast[(int) (bitBuffer & FAST_MASK)];
+        int length = entry & 0xF;
+        if (entry != 0 && length <= bitCount) {
+            bitBuffer >>>= length;
+            bitCount -= length;
+            return entry >>> 4;
+        }
+
+        // A long code: decode one bit at a time.
+        int code  = 0;
+        int first = 0;
+        int index = 0;
+        for (length = 1; length <= MAX_BITS; length++) {
+            code |= bits(1);
+            int count = huffman.counts[length];
+            if (code - count < first) {
+                return huffman.symbols[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new IOException("Invalid Huffman code");
+    }
+
+    /**
+     * Read a byte while the bit position is at a byte boundary.
+     */
+    private int alignedByte() throws IOException {
+        if (bitCount == 0 && bufferPos < bufferEnd) {
+            bytesRead++;
+            return buffer[bufferPos++] & 0xFF;
+        }
+        return bits(8);
+    }
+
+    private InputStream alignedByteStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (bitCount == 0) {
+                    fill();
+                    if (bitCount == 0) {
+                        return -1;
+                    }
+                }
+                return bits(8);
+            }
+        };
+    }
+
+    /**
+     * @return true if another gzip member follows (trailing garbage such as zero padding is ignored).
+     */
+    private boolean hasMoreMembers() throws IOException {
+        fill();
+        return bitCount >= 16 && (bitBuffer & 0xFFFF) == 0x8b1f;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.hadoop.input.GzipCheckpointIndex.Checkpoint;
+import org.apache.hadoop.fs.FSDataInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a gzip file starting at one of the checkpoints of its index.
+ * When a gzip member ends the reading continues with the next member (which is always a checkpoint).
+ *
+ * A deflate block can start at any bit in a byte yet the Inflater only accepts whole bytes.
+ * So the bits of the previous block are replaced by one or more empty (non final) deflate blocks
+ * that together have exactly the same number of bits. This keeps the rest of the data aligned
+ * to the same byte boundaries (which stored blocks rely on) so it can be used unchanged.
+ */
+final class GzipCheckpointInputStream extends InputStream {
+
+    // For each bit offset the bytes with the empty blocks (the last byte still needs the bits of the first block).
+    private static final byte[][] PADDING = new byte[8][];
+
+    static {
+        for (int bitOffset = 0; bitOffset < 8; bitOffset++) {
+            BitWriter writer = new BitWriter();
+            int fixedBlocks;
+            if (bitOffset % 2 == 0) {
+                fixedBlocks = bitOffset / 2; // Each is 10 bits (i.e. +2 modulo 8)
+            } else {
+                writer.emptyDynamicBlock(); // 95 bits (i.e. 7 modulo 8)
+                fixedBlocks = ((bitOffset + 1) % 8) / 2;
+            }
+            for (int i = 0; i < fixedBlocks; i++) {
+                writer.emptyFixedBlock();
+            }
+            if (writer.bitCount % 8 != bitOffset) {
+                throw new IllegalStateException("Invalid padding for bit offset " + bitOffset);
+            }
+            PADDING[bitOffset] = writer.toByteArray();
+        }
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes = new byte[16];
+        private int    bitCount = 0;
+
+        void write(int value, int count) {
+            for (int i = 0; i < count; i++) {
+                if ((bitCount >>> 3) == bytes.length) {
+                    byte[] newBytes = new byte[bytes.length * 2];
+                    System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+                    bytes = newBytes;
+                }
+                if (((value >>> i) & 1) == 1) {
+                    bytes[bitCount >>> 3] |= 1 << (bitCount & 7);
+                }
+                bitCount++;
+            }
+        }
+
+        // Huffman codes are written starting with the most significant bit.
+        void writeCode(int code, int length) {
+            write(Integer.reverse(code) >>> (32 - length), length);
+        }
+
+        void emptyFixedBlock() {
+            write(0, 1); // Not the last block
+            write(1, 2); // Fixed Huffman codes
+            writeCode(0, 7); // End of block
+        }
+
+        void emptyDynamicBlock() {
+            write(0, 1);  // Not the last block
+            write(2, 2);  // Dynamic Huffman codes
+            write(0, 5);  // 257 literal/length codes
+            write(0, 5);  // 1 distance code
+            write(15, 4); // 19 code length codes
+            // The code length code: 18 = '0', 0 = '10' and 1 = '11'
+            for (int symbol : new int[]{16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15}) {
+                write(symbol == 18 ? 1 : (symbol == 0 || symbol == 1) ? 2 : 0, 3);
+            }
+            // The 256 literals have length 0, end of block has length 1 and the distance code has length 0.
+            writeCode(0, 1);
+            write(138 - 11, 7);
+            writeCode(0, 1);
+            write(118 - 11, 7);
+            writeCode(3, 2);
+            writeCode(2, 2);
+            writeCode(0, 1); // End of block
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[(bitCount + 7) >>> 3];
+            System.arraycopy(bytes, 0, result, 0, result.length);
+            return result;
+        }
+    }
+
+    // --------------------------------------------
+
+    private final FSDataInputStream in;
+    private final List<Checkpoint>  checkpoints;
+    private final Inflater          inflater = new Inflater(true);
+    private final byte[]            input    = new byte[65536];
+    private final byte[]            oneByte  = new byte[1];
+    private int                     checkpointNr;
+    private boolean                 endOfData = false;
+
+    GzipCheckpointInputStream(FSDataInputStream in, GzipCheckpointIndex index, int checkpointNr) throws IOException {
+        this.in = in;
+        this.checkpoints = index.getCheckpoints();
+        startAt(checkpointNr);
+    }
+
+    private void startAt(int newCheckpointNr) throws IOException {
+        checkpointNr = newCheckpointNr;
+        Checkpoint checkpoint = checkpoints.get(checkpointNr);
+        inflater.reset();
+        in.seek(checkpoint.getCompressedOffset());
+
+        if (checkpoint.isMemberStart()) {
+            if (!GzipCheckpointIndex.skipGzipHeader(in)) {
+                endOfData = true;
+            }
+            return;
+        }
+
+        byte[] window = checkpoint.getWindow();
+        if (window == null) {
+            throw new IOException("The gzip checkpoint index was loaded without the windows");
+        }
+        inflater.setDictionary(window);
+
+        int bitOffset = checkpoint.getBitOffset();
+        if (bitOffset != 0) {
+            int firstByte = in.read();
+            if (firstByte == -1) {
+                throw new EOFException("Unexpected end of the gzip data");
+            }
+            byte[] padding = PADDING[bitOffset].clone();
+            padding[padding.length - 1] |= firstByte & (0xFF << bitOffset);
+            inflater.setInput(padding);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (!endOfData) {
+            try {
+                int inflated = inflater.inflate(buffer, offset, length);
+                if (inflated > 0) {
+                    return inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt gzip data after " + checkpoints.get(checkpointNr), e);
+            }
+
+            if (inflater.finished()) {
+                nextMember();
+            } else if (inflater.needsInput()) {
+                int read = in.read(input, 0, input.length);
+                if (read <= 0) {
+                    throw new EOFException("Unexpected end of the gzip data");
+                }
+                inflater.setInput(input, 0, read);
+            } else {
+                throw new IOException("Unable to decompress the gzip data after " + checkpoints.get(checkpointNr));
+            }
+        }
+        return -1;
+    }
+
+    private void nextMember() throws IOException {
+        for (int nr = checkpointNr + 1; nr < checkpoints.size(); nr++) {
+            if (checkpoints.get(nr).isMemberStart()) {
+                startAt(nr);
+                return;
+            }
+        }
+        endOfData = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.hadoop.input.GzipCheckpointIndex.Checkpoint;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Reads the lines of a {@link GzipCheckpointSplit}.
+ * The key is the position of the line in the decompressed data (just like the LineRecordReader does for a gzip file).
+ * Like with the splits of an uncompressed file every split (except the first) skips the first (partial) line
+ * and continues reading beyond its end to complete the last line.
+ * This is a drop-in replacement for the LineRecordReader (all of its methods are overridden).
+ */
+public class GzipCheckpointLineRecordReader extends LineRecordReader {
+
+    private LineReader   lineReader;
+    private long         start;
+    private long         pos;
+    private long         end;
+    private LongWritable key;
+    private Text         value;
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+        FileSplit split = (FileSplit) genericSplit;
+        Configuration conf = context.getConfiguration();
+        Path file = split.getPath();
+        FileSystem fs = file.getFileSystem(conf);
+
+        GzipCheckpointIndex index = GzipCheckpointIndex.load(fs, file, true);
+        if (index == null) {
+            throw new IOException("No valid gzip checkpoint index for " + file);
+        }
+
+        long splitStart = split.getStart();
+        long splitEnd   = splitStart + split.getLength();
+        List<Checkpoint> checkpoints = index.getCheckpoints();
+        int first = -1;
+        end = index.getUncompressedLength();
+        for (int nr = 0; nr < checkpoints.size(); nr++) {
+            Checkpoint checkpoint = checkpoints.get(nr);
+            if (checkpoint.getCompressedOffset() >= splitEnd) {
+                end = checkpoint.getUncompressedOffset();
+                break;
+            }
+            if (first == -1 && checkpoint.getCompressedOffset() >= splitStart) {
+                first = nr;
+            }
+        }
+
+        if (first == -1) {
+            // No checkpoint in this split so nothing to read.
+            start = end;
+            pos = end;
+            return;
+        }
+
+        start = checkpoints.get(first).getUncompressedOffset();
+        pos = start;
+
+        String delimiter = conf.get("textinputformat.record.delimiter");
+        byte[] recordDelimiterBytes = null;
+        if (delimiter != null) {
+            recordDelimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+        }
+        lineReader = new LineReader(new GzipCheckpointInputStream(fs.open(file), index, first), conf, recordDelimiterBytes);
+
+        if (start != 0) {
+            // The first (partial) line belongs to the previous split.
+            pos += lineReader.readLine(new Text(), 0, Integer.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        if (key == null) {
+            key = new LongWritable();
+        }
+        if (value == null) {
+            value = new Text();
+        }
+        if (lineReader == null || pos > end) {
+            return false;
+        }
+        key.set(pos);
+        int size = lineReader.readLine(value, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        if (size == 0) {
+            return false;
+        }
+        pos += size;
+        return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public float getProgress() {
+        if (start == end) {
+            return 0.0f;
+        }
+        return Math.min(1.0f, (pos - start) / (float) (end - start));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (lineReader != null) {
+            lineReader.close();
+            lineReader = null;
+        }
+    }
+}
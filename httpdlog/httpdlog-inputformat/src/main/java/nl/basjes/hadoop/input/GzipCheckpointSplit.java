@@ -0,0 +1,37 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * A part of a gzip file that has a {@link GzipCheckpointIndex}.
+ * The split contains the checkpoints that start in the byte range of the split and
+ * it covers the decompressed data from its first checkpoint up to the first checkpoint of the next split.
+ */
+public class GzipCheckpointSplit extends FileSplit {
+
+    @SuppressWarnings("unused") // Used by the Hadoop framework
+    public GzipCheckpointSplit() {
+        super();
+    }
+
+    public GzipCheckpointSplit(Path file, long start, long length, String[] hosts) {
+        super(file, start, length, hosts);
+    }
+}
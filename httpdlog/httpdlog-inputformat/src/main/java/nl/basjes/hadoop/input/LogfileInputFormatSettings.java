@@ -0,0 +1,104 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Dissector;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.JobContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The parser settings and the file handling that the {@link ApacheHttpdLogfileInputFormat} and
+ * the {@link ApacheHttpdLogfileCombineInputFormat} have in common (they extend different hadoop classes).
+ */
+final class LogfileInputFormatSettings {
+
+    private String logFormat = null;
+    private final Set<String> requestedFields = new HashSet<>();
+    private Map<String, Set<String>> typeRemappings;
+    private List<Dissector> additionalDissectors;
+
+    LogfileInputFormatSettings() {
+    }
+
+    LogfileInputFormatSettings(
+            String logformat,
+            Collection<String> requestedFields,
+            Map<String, Set<String>> typeRemappings,
+            List<Dissector> additionalDissectors) {
+        this.logFormat = logformat;
+        this.requestedFields.addAll(requestedFields);
+        this.typeRemappings = typeRemappings;
+        this.additionalDissectors = additionalDissectors;
+    }
+
+    String getLogFormat() {
+        return logFormat;
+    }
+
+    Set<String> getRequestedFields() {
+        return requestedFields;
+    }
+
+    Map<String, Set<String>> getTypeRemappings() {
+        return typeRemappings;
+    }
+
+    List<Dissector> getAdditionalDissectors() {
+        return additionalDissectors;
+    }
+
+    void setTypeRemappings(Map<String, Set<String>> newTypeRemappings) {
+        this.typeRemappings = newTypeRemappings;
+    }
+
+    ApacheHttpdLogfileRecordReader createRecordReader() throws IOException {
+        return new ApacheHttpdLogfileRecordReader(logFormat, requestedFields, typeRemappings, additionalDissectors);
+    }
+
+    // --------------------------------------------
+
+    // Files compressed with a SplittableCompressionCodec (like bzip2) are split by the FileInputFormat
+    // and the LineRecordReader aligns the splits to the compression blocks.
+    static boolean isSplitable(JobContext context, Path file) {
+        final CompressionCodec codec =
+            new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        return (null == codec) || codec instanceof SplittableCompressionCodec;
+    }
+
+    // The gzip checkpoint indexes are not input files
+    static List<FileStatus> withoutIndexFiles(List<FileStatus> allFiles) {
+        List<FileStatus> files = new ArrayList<>(allFiles.size());
+        for (FileStatus file : allFiles) {
+            if (!GzipCheckpointIndex.isIndexFile(file.getPath())) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.hadoop.input.ApacheHttpdLogfileRecordReader.decodeLine;
+
+/**
+ * Statistics about a set of logfiles that are estimated by parsing only a sample of the lines.
+ * These are intended for query planners (Hive, Pig, ...) that need to know the size of the input
+ * and the properties of the fields without reading all the data.
+ *
+ * Of each sampled file the first lines are parsed. The number of lines in a file is extrapolated
+ * from the fraction of the file that was read to get those lines (this also works for compressed files).
+ * The files that are not sampled are assumed to have the same number of lines per byte as the sampled files.
+ * Fields that end with ".*" have no statistics.
+ */
+public final class LogfileStatistics {
+
+    public static final int DEFAULT_SAMPLE_LINES = 1000;
+    public static final int DEFAULT_SAMPLE_FILES = 10;
+
+    private long sampledLines     = 0;
+    private long sampledLineBytes = 0;
+    private long badLines         = 0;
+    private long filteredLines    = 0;
+    private long totalFileSize    = 0;
+    private long estimatedRows    = 0;
+
+    private final Map<String, FieldStatistics> fieldStatistics = new LinkedHashMap<>();
+
+    private LogfileStatistics(List<String> fields) {
+        for (String field : fields) {
+            if (!field.endsWith(".*")) {
+                fieldStatistics.put(field, new FieldStatistics(field));
+            }
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Estimate the statistics of a single file by parsing at most maxLines lines.
+     */
+    public static LogfileStatistics sample(Configuration conf, Path file,
+                                           Parser<ParsedRecord> parser, List<String> fields,
+                                           int maxLines) throws IOException {
+        FileStatus fileStatus = file.getFileSystem(conf).getFileStatus(file);
+        return sample(conf, Collections.singletonList(fileStatus), parser, fields, maxLines, 1);
+    }
+
+    /**
+     * Estimate the statistics of a set of files.
+     * @param files The files (as returned by {@link #listInputFiles(Configuration, String...)})
+     * @param parser The parser that must have the fields as parse targets in a {@link ParsedRecord}.
+     * @param fields The fields for which statistics are needed.
+     * @param linesPerFile The maximum number of lines that is parsed in each sampled file.
+     * @param maxFiles The maximum number of files that is sampled (spread evenly over the list of files).
+     */
+    public static LogfileStatistics sample(Configuration conf, List<FileStatus> files,
+                                           Parser<ParsedRecord> parser, List<String> fields,
+                                           int linesPerFile, int maxFiles) throws IOException {
+        LogfileStatistics statistics = new LogfileStatistics(fields);
+        ParsedRecord record = new ParsedRecord();
+        for (String field : fields) {
+            record.declareRequestedFieldname(field);
+        }
+
+        long   sampledBytes     = 0;
+        double sampledFileLines = 0;
+
+        int filesToSample = Math.min(files.size(), Math.max(1, maxFiles));
+        for (int sample = 0; sample < filesToSample; sample++) {
+            FileStatus file = files.get((int) ((long) sample * files.size() / filesToSample));
+            sampledFileLines += statistics.sampleFile(conf, file, parser, record, linesPerFile);
+            sampledBytes += file.getLen();
+        }
+
+        for (FileStatus file : files) {
+            statistics.totalFileSize += file.getLen();
+        }
+
+        if (sampledBytes == 0 || filesToSample == files.size()) {
+            statistics.estimatedRows = Math.round(sampledFileLines);
+        } else {
+            statistics.estimatedRows = Math.round(sampledFileLines * statistics.totalFileSize / sampledBytes);
+        }
+        return statistics;
+    }
+
+    /**
+     * Parse the first lines of the file.
+     * @return The estimated number of lines in the entire file.
+     */
+    private double sampleFile(Configuration conf, FileStatus file,
+                              Parser<ParsedRecord> parser, ParsedRecord record,
+                              int maxLines) throws IOException {
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        long lines = 0;
+        float progress;
+        boolean endOfFile = false;
+        try (LineRecordReader lineReader = new LineRecordReader()) {
+            lineReader.initialize(new FileSplit(file.getPath(), 0, file.getLen(), null), context);
+            while (lines < maxLines) {
+                if (!lineReader.nextKeyValue()) {
+                    endOfFile = true;
+                    break;
+                }
+                lines++;
+                Text line = lineReader.getCurrentValue();
+                sampledLineBytes += line.getLength() + 1; // Including the newline
+                addLine(parser, record, decodeLine(line));
+            }
+            progress = lineReader.getProgress();
+        }
+        sampledLines += lines;
+
+        if (endOfFile || progress <= 0) {
+            return lines;
+        }
+        return lines / progress;
+    }
+
+    private void addLine(Parser<ParsedRecord> parser, ParsedRecord record, String line) throws IOException {
+        record.clear();
+        try {
+            if (parser.parse(record, line) == null) {
+                filteredLines++;
+                return;
+            }
+        } catch (DissectionFailure e) {
+            badLines++;
+            return;
+        } catch (InvalidDissectorException | MissingDissectorsException e) {
+            throw new IOException("Fatal error in the parser", e);
+        }
+
+        for (FieldStatistics field : fieldStatistics.values()) {
+            field.addValue(record.getString(field.getName()));
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * List the files that would be read as input for these paths (which may be globs or directories).
+     * Hidden files (starting with '_' or '.') and gzip checkpoint indexes are skipped.
+     */
+    public static List<FileStatus> listInputFiles(Configuration conf, String... paths) throws IOException {
+        List<FileStatus> files = new ArrayList<>();
+        for (String pathString : paths) {
+            Path path = new Path(pathString);
+            FileSystem fs = path.getFileSystem(conf);
+            FileStatus[] matches = fs.globStatus(path);
+            if (matches == null) {
+                continue;
+            }
+            for (FileStatus match : matches) {
+                if (match.isDirectory()) {
+                    for (FileStatus child : fs.listStatus(match.getPath())) {
+                        addInputFile(files, child);
+                    }
+                } else {
+                    addInputFile(files, match);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void addInputFile(List<FileStatus> files, FileStatus file) {
+        String name = file.getPath().getName();
+        if (file.isFile() &&
+            !name.startsWith("_") &&
+            !name.startsWith(".") &&
+            !GzipCheckpointIndex.isIndexFile(file.getPath())) {
+            files.add(file);
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The number of lines that were read.
+     */
+    public long getSampledLines() {
+        return sampledLines;
+    }
+
+    /**
+     * @return The number of sampled lines that could not be parsed.
+     */
+    public long getBadLines() {
+        return badLines;
+    }
+
+    /**
+     * @return The number of sampled lines that were rejected by the field filters of the parser.
+     */
+    public long getFilteredLines() {
+        return filteredLines;
+    }
+
+    /**
+     * @return The sum of the sizes of all files (as stored, so compressed files count as compressed).
+     */
+    public long getTotalFileSize() {
+        return totalFileSize;
+    }
+
+    /**
+     * @return The estimated number of lines in all files.
+     */
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    /**
+     * @return The estimated number of lines that will be parsed successfully.
+     */
+    public long getEstimatedGoodRows() {
+        if (sampledLines == 0) {
+            return 0;
+        }
+        return Math.round((double) estimatedRows * (sampledLines - badLines - filteredLines) / sampledLines);
+    }
+
+    /**
+     * @return The average size in bytes of a line (including the newline).
+     */
+    public double getAverageLineSize() {
+        return sampledLines == 0 ? 0.0 : (double) sampledLineBytes / sampledLines;
+    }
+
+    /**
+     * @return The estimated uncompressed size in bytes of all the lines.
+     */
+    public long getEstimatedRawDataSize() {
+        return Math.round(estimatedRows * getAverageLineSize());
+    }
+
+    /**
+     * @return The statistics of all fields (except the ".*" fields) in the requested order.
+     */
+    public Map<String, FieldStatistics> getFieldStatistics() {
+        return Collections.unmodifiableMap(fieldStatistics);
+    }
+
+    /**
+     * @return The statistics of the field or null if there are none.
+     */
+    public FieldStatistics getFieldStatistics(String field) {
+        return fieldStatistics.get(field);
+    }
+
+    /**
+     * @return The estimated number of distinct values of the field in all files (-1 if unknown).
+     */
+    public long getEstimatedDistinct(String field) {
+        FieldStatistics statistics = fieldStatistics.get(field);
+        if (statistics == null) {
+            return -1;
+        }
+        return statistics.getEstimatedDistinct(statistics.getValues() + statistics.getNulls(), getEstimatedGoodRows());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("LogfileStatistics: sampled=").append(sampledLines)
+            .append(" bad=").append(badLines)
+            .append(" filtered=").append(filteredLines)
+            .append(" rows=").append(estimatedRows)
+            .append(" rawDataSize=").append(getEstimatedRawDataSize())
+            .append(" fileSize=").append(totalFileSize);
+        for (FieldStatistics field : fieldStatistics.values()) {
+            sb.append("\n  ").append(field);
+        }
+        return sb.toString();
+    }
+}
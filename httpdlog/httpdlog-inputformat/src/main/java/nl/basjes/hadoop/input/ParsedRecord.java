@@ -16,14 +16,27 @@
  */
 package nl.basjes.hadoop.input;
 
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.FieldSetter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.Value;
 import org.apache.hadoop.io.Writable;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * The record that is produced by the ApacheHttpdLogfileRecordReader.
+ * A ParsedRecord can be bound to a {@link ParsedRecordSchema}: then the values of the fields in the schema
+ * are stored in arrays (one slot per field) and can also be set and retrieved via their slot number.
+ * Fields that are not part of the schema are stored in maps (which is all there is in a ParsedRecord without schema).
+ * The serialized form is the same in both cases.
+ */
 public class ParsedRecord implements Writable {
 
     private final Map<String, String> stringValues = new HashMap<>();
@@ -32,6 +45,18 @@ public class ParsedRecord implements Writable {
     private final Map<String, Map<String, String>> stringSetValues = new HashMap<>();
     private final Map<String, String> stringSetPrefixes = new HashMap<>();
 
+    // The slot based storage (only when there is a schema)
+    private ParsedRecordSchema schema;
+    private String[] slotStrings;
+    private long[]   slotLongs;
+    private double[] slotDoubles;
+    // The name under which the value of the slot was set (the parser uses the cleaned name).
+    private String[] slotNames;
+    // Bitmaps of which slots have a value
+    private long[]   hasString;
+    private long[]   hasLong;
+    private long[]   hasDouble;
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -45,38 +70,41 @@ public class ParsedRecord implements Writable {
         ParsedRecord that = (ParsedRecord) o;
 
         return
-            stringValues.equals(that.stringValues)              &&
-            longValues.equals(that.longValues)                  &&
-            doubleValues.equals(that.doubleValues)              &&
+            getAllStrings().equals(that.getAllStrings())        &&
+            getAllLongs().equals(that.getAllLongs())            &&
+            getAllDoubles().equals(that.getAllDoubles())        &&
             stringSetPrefixes.equals(that.stringSetPrefixes)    &&
             stringSetValues.equals(that.stringSetValues);
     }
 
     @Override
     public int hashCode() {
-        int result = stringValues.hashCode();
-        result = 31 * result + longValues.hashCode();
-        result = 31 * result + doubleValues.hashCode();
+        int result = getAllStrings().hashCode();
+        result = 31 * result + getAllLongs().hashCode();
+        result = 31 * result + getAllDoubles().hashCode();
         result = 31 * result + stringSetValues.hashCode();
         return result;
     }
 
     @Override
     public void write(DataOutput out) throws IOException {
-        out.writeInt(stringValues.size());
-        for (Map.Entry<String, String> e : stringValues.entrySet()) {
+        Map<String, String> allStrings = getAllStrings();
+        out.writeInt(allStrings.size());
+        for (Map.Entry<String, String> e : allStrings.entrySet()) {
             out.writeUTF(e.getKey());
             out.writeUTF(e.getValue());
         }
 
-        out.writeInt(longValues.size());
-        for (Map.Entry<String, Long> e : longValues.entrySet()) {
+        Map<String, Long> allLongs = getAllLongs();
+        out.writeInt(allLongs.size());
+        for (Map.Entry<String, Long> e : allLongs.entrySet()) {
             out.writeUTF(e.getKey());
             out.writeLong(e.getValue());
         }
 
-        out.writeInt(doubleValues.size());
-        for (Map.Entry<String, Double> e : doubleValues.entrySet()) {
+        Map<String, Double> allDoubles = getAllDoubles();
+        out.writeInt(allDoubles.size());
+        for (Map.Entry<String, Double> e : allDoubles.entrySet()) {
             out.writeUTF(e.getKey());
             out.writeDouble(e.getValue());
         }
@@ -100,22 +128,24 @@ public class ParsedRecord implements Writable {
 
     @Override
     public void readFields(DataInput in) throws IOException {
+        clear();
+
         // String
         int nrOfValues = in.readInt();
         for (int count = 0; count < nrOfValues; count++) {
-            stringValues.put(in.readUTF(), in.readUTF());
+            set(in.readUTF(), in.readUTF());
         }
 
         // Long
         nrOfValues = in.readInt();
         for (int count = 0; count < nrOfValues; count++) {
-            longValues.put(in.readUTF(), in.readLong());
+            set(in.readUTF(), in.readLong());
         }
 
         // Double
         nrOfValues = in.readInt();
         for (int count = 0; count < nrOfValues; count++) {
-            doubleValues.put(in.readUTF(), in.readDouble());
+            set(in.readUTF(), in.readDouble());
         }
 
         // String Prefixes
@@ -140,6 +170,52 @@ public class ParsedRecord implements Writable {
     }
 
     public ParsedRecord() {
+        this(null);
+    }
+
+    public ParsedRecord(ParsedRecordSchema schema) {
+        bindSchema(schema);
+    }
+
+    /**
+     * Bind this (empty) record to a different schema.
+     * This is only intended for records that are created by a framework that only supports the default constructor.
+     */
+    protected final void setSchema(ParsedRecordSchema newSchema) {
+        bindSchema(newSchema);
+        clear();
+    }
+
+    private void bindSchema(ParsedRecordSchema newSchema) {
+        schema = newSchema;
+        int slots = schema == null ? 0 : schema.size();
+        int words = (slots + 63) >>> 6;
+        slotStrings = new String[slots];
+        slotLongs   = new long[slots];
+        slotDoubles = new double[slots];
+        slotNames   = new String[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            slotNames[slot] = schema.getFieldName(slot);
+        }
+        hasString   = new long[words];
+        hasLong     = new long[words];
+        hasDouble   = new long[words];
+    }
+
+    public ParsedRecordSchema getSchema() {
+        return schema;
+    }
+
+    private int slotOf(String name) {
+        return schema == null ? -1 : schema.getSlot(name);
+    }
+
+    private static boolean isSet(long[] bitmap, int slot) {
+        return (bitmap[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private static void markSet(long[] bitmap, int slot) {
+        bitmap[slot >>> 6] |= 1L << slot;
     }
 
     public void clear() {
@@ -149,26 +225,196 @@ public class ParsedRecord implements Writable {
         for (Map.Entry<String, Map<String, String>> stringMap : stringSetValues.entrySet()) {
             stringMap.getValue().clear();
         }
+        Arrays.fill(hasString, 0);
+        Arrays.fill(hasLong,   0);
+        Arrays.fill(hasDouble, 0);
     }
 
     public void set(String name, String value) {
         if (value != null) {
-            stringValues.put(name, value);
+            int slot = slotOf(name);
+            if (slot >= 0) {
+                slotNames[slot] = name;
+                setString(slot, value);
+            } else {
+                stringValues.put(name, value);
+            }
         }
     }
 
     public void set(String name, Long value) {
         if (value != null) {
-            longValues.put(name, value);
+            int slot = slotOf(name);
+            if (slot >= 0) {
+                slotNames[slot] = name;
+                setLong(slot, value);
+            } else {
+                longValues.put(name, value);
+            }
         }
     }
 
     public void set(String name, Double value) {
         if (value != null) {
-            doubleValues.put(name, value);
+            int slot = slotOf(name);
+            if (slot >= 0) {
+                slotNames[slot] = name;
+                setDouble(slot, value);
+            } else {
+                doubleValues.put(name, value);
+            }
         }
     }
 
+    // --------------------------------------------
+
+    /**
+     * A setter for the parser that stores the values of a field straight into its slot.
+     * The slot is only looked up when the setter gets a record with a different schema than the previous one
+     * (so normally only once); without a slot the values are stored by name.
+     */
+    public static final class SlotSetter implements FieldSetter<ParsedRecord> {
+        private final String  fieldValue;
+        private boolean asString;
+        private boolean asLong;
+        private boolean asDouble;
+
+        private transient ParsedRecordSchema boundSchema = null;
+        private transient int                slot        = -1;
+
+        private SlotSetter(String fieldValue, EnumSet<Casts> casts) {
+            this.fieldValue = Parser.cleanupFieldValue(fieldValue);
+            this.asString   = casts.contains(Casts.STRING);
+            this.asLong     = casts.contains(Casts.LONG);
+            this.asDouble   = casts.contains(Casts.DOUBLE);
+        }
+
+        /**
+         * Only keep the casts the parser actually has for this field.
+         * This way the setter can be added to the parser before it is assembled and the casts come from
+         * that same parser (instead of from a separate parser that is only created to get the casts).
+         * @param allCasts The casts of all fields of the parser (see {@link Parser#getAllCasts()}).
+         */
+        public void retainCasts(Map<String, EnumSet<Casts>> allCasts) {
+            EnumSet<Casts> casts = allCasts.get(fieldValue);
+            if (casts == null) {
+                // This field cannot be produced
+                casts = EnumSet.noneOf(Casts.class);
+            }
+            asString &= casts.contains(Casts.STRING);
+            asLong   &= casts.contains(Casts.LONG);
+            asDouble &= casts.contains(Casts.DOUBLE);
+        }
+
+        @Override
+        public void set(ParsedRecord record, String name, Value value) {
+            if (record.schema != boundSchema || boundSchema == null) {
+                boundSchema = record.schema;
+                slot        = record.slotOf(fieldValue);
+            }
+            if (slot < 0) {
+                if (asString) {
+                    record.set(name, value.getString());
+                }
+                if (asLong) {
+                    record.set(name, value.getLong());
+                }
+                if (asDouble) {
+                    record.set(name, value.getDouble());
+                }
+                return;
+            }
+            record.slotNames[slot] = name;
+            if (asString) {
+                record.setString(slot, value.getString());
+            }
+            if (asLong) {
+                Long longValue = value.getLong();
+                if (longValue != null) {
+                    record.setLong(slot, longValue);
+                }
+            }
+            if (asDouble) {
+                Double doubleValue = value.getDouble();
+                if (doubleValue != null) {
+                    record.setDouble(slot, doubleValue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the setter for the parser of a field of the schema. It does the same as the setters
+     * {@link #set(String, String)}, {@link #set(String, Long)} and {@link #set(String, Double)} for each of the casts
+     * but it stores the values straight into the slot of the field (so without looking up the name per value).
+     * @param fieldValue The requested field (i.e. "IP:connection.client.host").
+     * @param casts The casts that are stored (normally the casts the parser has for this field,
+     *              see {@link SlotSetter#retainCasts(Map)}).
+     */
+    public static SlotSetter createSetter(String fieldValue, EnumSet<Casts> casts) {
+        return new SlotSetter(fieldValue, casts);
+    }
+
+    // --------------------------------------------
+    // Slot based access (only for records with a schema)
+
+    public void setString(int slot, String value) {
+        if (value != null) {
+            slotStrings[slot] = value;
+            markSet(hasString, slot);
+        }
+    }
+
+    public void setLong(int slot, long value) {
+        slotLongs[slot] = value;
+        markSet(hasLong, slot);
+    }
+
+    public void setDouble(int slot, double value) {
+        slotDoubles[slot] = value;
+        markSet(hasDouble, slot);
+    }
+
+    public boolean hasString(int slot) {
+        return isSet(hasString, slot);
+    }
+
+    public boolean hasLong(int slot) {
+        return isSet(hasLong, slot);
+    }
+
+    public boolean hasDouble(int slot) {
+        return isSet(hasDouble, slot);
+    }
+
+    /**
+     * @return The value of the slot (only valid if {@link #hasLong(int)} is true).
+     */
+    public long getLongValue(int slot) {
+        return slotLongs[slot];
+    }
+
+    /**
+     * @return The value of the slot (only valid if {@link #hasDouble(int)} is true).
+     */
+    public double getDoubleValue(int slot) {
+        return slotDoubles[slot];
+    }
+
+    public String getString(int slot) {
+        return isSet(hasString, slot) ? slotStrings[slot] : null;
+    }
+
+    public Long getLong(int slot) {
+        return isSet(hasLong, slot) ? slotLongs[slot] : null;
+    }
+
+    public Double getDouble(int slot) {
+        return isSet(hasDouble, slot) ? slotDoubles[slot] : null;
+    }
+
+    // --------------------------------------------
+
     /**
      * For multivalue things we need to know what the name is we are expecting.
      * For those patterns we match the values we get against
@@ -196,19 +442,77 @@ public class ParsedRecord implements Writable {
     }
 
     public String getString(String name) {
-        return stringValues.get(name);
+        int slot = slotOf(name);
+        return slot >= 0 ? getString(slot) : stringValues.get(name);
     }
 
     public Long getLong(String name) {
-        return longValues.get(name);
+        int slot = slotOf(name);
+        return slot >= 0 ? getLong(slot) : longValues.get(name);
     }
 
     public Double getDouble(String name) {
-        return doubleValues.get(name);
+        int slot = slotOf(name);
+        return slot >= 0 ? getDouble(slot) : doubleValues.get(name);
     }
 
     public Map<String, String> getStringSet(String name) {
         return stringSetValues.get(name);
     }
 
+    // The values that are not stored in a slot.
+    Map<String, String> getUnslottedStrings() {
+        return stringValues;
+    }
+
+    Map<String, Long> getUnslottedLongs() {
+        return longValues;
+    }
+
+    Map<String, Double> getUnslottedDoubles() {
+        return doubleValues;
+    }
+
+    // --------------------------------------------
+    // All values, regardless of where they are stored.
+
+    private Map<String, String> getAllStrings() {
+        if (schema == null) {
+            return stringValues;
+        }
+        Map<String, String> result = new HashMap<>(stringValues);
+        for (int slot = 0; slot < slotStrings.length; slot++) {
+            if (isSet(hasString, slot)) {
+                result.put(slotNames[slot], slotStrings[slot]);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Long> getAllLongs() {
+        if (schema == null) {
+            return longValues;
+        }
+        Map<String, Long> result = new HashMap<>(longValues);
+        for (int slot = 0; slot < slotLongs.length; slot++) {
+            if (isSet(hasLong, slot)) {
+                result.put(slotNames[slot], slotLongs[slot]);
+            }
+        }
+        return result;
+    }
+
+    private Map<String, Double> getAllDoubles() {
+        if (schema == null) {
+            return doubleValues;
+        }
+        Map<String, Double> result = new HashMap<>(doubleValues);
+        for (int slot = 0; slot < slotDoubles.length; slot++) {
+            if (isSet(hasDouble, slot)) {
+                result.put(slotNames[slot], slotDoubles[slot]);
+            }
+        }
+        return result;
+    }
+
 }
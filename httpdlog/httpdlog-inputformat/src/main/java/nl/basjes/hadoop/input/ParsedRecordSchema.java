@@ -0,0 +1,93 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fixed set of fields a ParsedRecord can hold, each field has a fixed slot (index).
+ * A RecordReader or SerDe creates this once (when it knows which fields are requested)
+ * so the values can be stored in and retrieved from arrays instead of maps.
+ * The multi value fields (ending in .*) do not get a slot.
+ */
+public final class ParsedRecordSchema {
+
+    private final List<String>         fieldNames = new ArrayList<>();
+    private final Map<String, Integer> slots      = new HashMap<>();
+
+    public ParsedRecordSchema(Collection<String> requestedFieldNames) {
+        for (String fieldName : requestedFieldNames) {
+            if (fieldName == null || fieldName.endsWith(".*") || slots.containsKey(fieldName)) {
+                continue;
+            }
+            int slot = fieldNames.size();
+            fieldNames.add(fieldName);
+            slots.put(fieldName, slot);
+            // The parser calls the setters with the cleaned name.
+            slots.putIfAbsent(Parser.cleanupFieldValue(fieldName), slot);
+        }
+    }
+
+    /**
+     * @param fieldName The name of the field (as requested or as cleaned by the Parser).
+     * @return The slot of this field or -1 if this field is not part of the schema.
+     */
+    public int getSlot(String fieldName) {
+        Integer slot = slots.get(fieldName);
+        return slot == null ? -1 : slot;
+    }
+
+    public String getFieldName(int slot) {
+        return fieldNames.get(slot);
+    }
+
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(fieldNames);
+    }
+
+    public int size() {
+        return fieldNames.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ParsedRecordSchema)) {
+            return false;
+        }
+        return fieldNames.equals(((ParsedRecordSchema) o).fieldNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return fieldNames.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ParsedRecordSchema" + fieldNames;
+    }
+}
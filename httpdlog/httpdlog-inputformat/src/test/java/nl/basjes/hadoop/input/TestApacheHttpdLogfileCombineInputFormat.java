@@ -0,0 +1,99 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Parser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TestApacheHttpdLogfileCombineInputFormat {
+
+    @TempDir
+    File tempDir;
+
+    private static final int FILES          = 20;
+    private static final int LINES_PER_FILE = 5;
+
+    @Test
+    void checkManySmallFiles() throws IOException, InterruptedException {
+        List<String> expectedUris = new ArrayList<>();
+        for (int file = 0; file < FILES; file++) {
+            try (OutputStream out = new FileOutputStream(new File(tempDir, "access-" + file + ".log"))) {
+                for (int line = 0; line < LINES_PER_FILE; line++) {
+                    String uri = "/file/" + file + "/line/" + line;
+                    expectedUris.add(uri);
+                    out.write(("127.0.0.1 - - [01/Jan/2017:13:01:21 +0100] \"GET " + uri + " HTTP/1.1\" 200 3525\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        Configuration conf = new Configuration();
+        conf.set("nl.basjes.parse.apachehttpdlogline.format", "common");
+        conf.set("nl.basjes.parse.apachehttpdlogline.fields", "HTTP.URI:request.firstline.uri");
+        Job job = Job.getInstance(conf);
+        FileInputFormat.setInputPaths(job, new Path(tempDir.getAbsoluteFile().toURI()));
+
+        ApacheHttpdLogfileCombineInputFormat inputFormat = new ApacheHttpdLogfileCombineInputFormat();
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        assertEquals(1, splits.size());
+        assertEquals(FILES, ((CombineFileSplit) splits.get(0)).getNumPaths());
+
+        TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+        RecordReader<LongWritable, ParsedRecord> reader = inputFormat.createRecordReader(splits.get(0), context);
+        reader.initialize(splits.get(0), context);
+
+        ApacheHttpdLogfileRecordReader fileReader = ((ApacheHttpdLogfileCombineRecordReader) reader).getRecordReader();
+        Parser<ParsedRecord> parser = fileReader.getParser();
+
+        List<String> uris = new ArrayList<>();
+        while (reader.nextKeyValue()) {
+            uris.add(reader.getCurrentValue().getString("HTTP.URI:request.firstline.uri"));
+            // The same parser is used for all files.
+            assertSame(parser, fileReader.getParser());
+        }
+        assertEquals(1.0f, reader.getProgress(), 0.001f);
+        reader.close();
+
+        // The order of the files in the split is not defined
+        uris.sort(String::compareTo);
+        expectedUris.sort(String::compareTo);
+        assertEquals(expectedUris, uris);
+    }
+}
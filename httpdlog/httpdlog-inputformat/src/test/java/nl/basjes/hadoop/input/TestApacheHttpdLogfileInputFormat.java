@@ -22,6 +22,7 @@ import nl.basjes.parse.httpdlog.HttpdLogFormatDissector;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -33,6 +34,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -144,4 +146,22 @@ class TestApacheHttpdLogfileInputFormat {
         assertEquals(null,          value.getLong("DOUBLE:double"));         // double_long
         assertEquals(42D,           value.getDouble("DOUBLE:double"), 0.1D);  // double_double
     }
+
+    @Test
+    void checkDecodeLine() {
+        Text text = new Text();
+        for (byte[] bytes : Arrays.asList(
+            "Plain ASCII".getBytes(StandardCharsets.UTF_8),
+            "Multi byte: \u00e9\u4e2d\ud83d\ude00".getBytes(StandardCharsets.UTF_8),
+            new byte[]{'B', 'a', 'd', (byte) 0xC3, ' ', (byte) 0xFF, (byte) 0xE4, (byte) 0xB8, '!'},
+            new byte[0])) {
+            text.set(bytes);
+            assertEquals(text.toString(), ApacheHttpdLogfileRecordReader.decodeLine(text));
+        }
+
+        // A reused Text may have a backing array that is longer than the value.
+        text.set("A much longer line");
+        text.set("Short");
+        assertEquals("Short", ApacheHttpdLogfileRecordReader.decodeLine(text));
+    }
 }
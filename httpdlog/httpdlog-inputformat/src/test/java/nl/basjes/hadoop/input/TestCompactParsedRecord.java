@@ -0,0 +1,176 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static nl.basjes.hadoop.input.CompactParsedRecord.DICTIONARY_PARAM_PREFIX;
+import static nl.basjes.hadoop.input.CompactParsedRecord.FIELDS_PARAM;
+import static nl.basjes.hadoop.input.CompactParsedRecord.FINGERPRINT_PARAM;
+import static nl.basjes.hadoop.input.TestParsedRecord.serialize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestCompactParsedRecord {
+
+    private static final String METHOD = "STRING:request.firstline.method";
+    private static final String URI    = "HTTP.URI:request.firstline.uri";
+    private static final String STATUS = "STRING:request.status.last";
+    private static final String BYTES  = "BYTES:response.body.bytes";
+    private static final String QUERY  = "STRING:request.firstline.uri.query.*";
+
+    private Configuration createConfiguration() {
+        Configuration conf = new Configuration(false);
+        conf.set(FIELDS_PARAM, String.join(",", METHOD, URI, STATUS, BYTES, QUERY));
+        conf.set(DICTIONARY_PARAM_PREFIX + METHOD, "GET,POST,HEAD");
+        conf.set(DICTIONARY_PARAM_PREFIX + STATUS, "200,304,404");
+        return conf;
+    }
+
+    private CompactParsedRecord createRecord(Configuration conf, String method, String uri, String status, Long bytes) {
+        CompactParsedRecord record = ReflectionUtils.newInstance(CompactParsedRecord.class, conf);
+        record.set(METHOD, method);
+        record.set(URI,    uri);
+        record.set(STATUS, status);
+        record.set(BYTES,  bytes);
+        return record;
+    }
+
+    private CompactParsedRecord deserialize(Configuration conf, byte[] bytes) throws IOException {
+        CompactParsedRecord record = ReflectionUtils.newInstance(CompactParsedRecord.class, conf);
+        record.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return record;
+    }
+
+    @Test
+    void testSerialization() throws IOException {
+        Configuration conf = createConfiguration();
+        CompactParsedRecord record = createRecord(conf, "GET", "/index.html?a=1&b=2", "418", 1234L);
+        record.setMultiValueString("STRING:request.firstline.uri.query.a", "1");
+        record.setMultiValueString("STRING:request.firstline.uri.query.b", "2");
+        record.set("Not in the schema", 42D);
+
+        byte[] bytes = serialize(record);
+        CompactParsedRecord deserialized = deserialize(conf, bytes);
+
+        assertEquals("GET",                 deserialized.getString(METHOD));
+        assertEquals("/index.html?a=1&b=2", deserialized.getString(URI));
+        assertEquals("418",                 deserialized.getString(STATUS));
+        assertEquals((Long) 1234L,          deserialized.getLong(BYTES));
+        assertNull(deserialized.getString(BYTES));
+        assertEquals("1",                   deserialized.getStringSet(QUERY).get("a"));
+        assertEquals("2",                   deserialized.getStringSet(QUERY).get("b"));
+        assertEquals((Double) 42D,          deserialized.getDouble("Not in the schema"));
+        assertEquals(record, deserialized);
+
+        // Reusing the instance must not retain any old values
+        CompactParsedRecord other = createRecord(conf, "POST", null, null, null);
+        deserialized.readFields(new DataInputStream(new ByteArrayInputStream(serialize(other))));
+        assertEquals(other, deserialized);
+        assertNull(deserialized.getString(URI));
+        assertTrue(deserialized.getStringSet(QUERY).isEmpty());
+
+        // Much smaller than the ParsedRecord
+        ParsedRecord plainRecord = new ParsedRecord();
+        plainRecord.set(METHOD, "GET");
+        plainRecord.set(URI,    "/index.html?a=1&b=2");
+        plainRecord.set(STATUS, "418");
+        plainRecord.set(BYTES,  1234L);
+        assertTrue(serialize(createRecord(conf, "GET", "/index.html?a=1&b=2", "418", 1234L)).length * 3 <
+                   serialize(plainRecord).length);
+    }
+
+    @Test
+    void testDictionary() throws IOException {
+        Configuration conf = createConfiguration();
+        byte[] common = serialize(createRecord(conf, "GET",    null, "200", null));
+        byte[] rare   = serialize(createRecord(conf, "DELETE", null, "200", null));
+        // 3 bitmaps of 1 byte + 1 byte for each dictionary value + 1 empty multi value + 3 empty counts
+        assertEquals(9, common.length);
+        assertEquals(9 + 1 + "DELETE".length(), rare.length);
+        assertEquals("DELETE", deserialize(conf, rare).getString(METHOD));
+    }
+
+    @Test
+    void testFingerprint() {
+        Configuration conf = createConfiguration();
+        String fingerprint = createRecord(conf, null, null, null, null).getSchemaFingerprint();
+
+        conf.set(FINGERPRINT_PARAM, fingerprint);
+        createRecord(conf, null, null, null, null);
+
+        Configuration otherConf = createConfiguration();
+        otherConf.set(DICTIONARY_PARAM_PREFIX + METHOD, "GET,POST,HEAD,PUT");
+        otherConf.set(FINGERPRINT_PARAM, fingerprint);
+        assertThrows(IllegalArgumentException.class, () -> createRecord(otherConf, null, null, null, null));
+
+        assertThrows(IllegalStateException.class, () -> serialize(new CompactParsedRecord()));
+    }
+
+    @Test
+    void testRawComparator() throws IOException {
+        Configuration conf = createConfiguration();
+        RawComparator<?> comparator = WritableComparator.get(CompactParsedRecord.class, conf);
+        assertTrue(comparator instanceof CompactParsedRecord.Comparator);
+
+        CompactParsedRecord[] ordered = {
+            createRecord(conf, null,     "/",  "200", 1L),
+            createRecord(conf, "DELETE", "/",  "200", 1L),
+            createRecord(conf, "GET",    null, "200", 1L),
+            createRecord(conf, "GET",    "/",  "200", 1L),
+            createRecord(conf, "GET",    "/",  "200", 2L),
+            createRecord(conf, "GET",    "/",  "404", -5L),
+            createRecord(conf, "GET",    "/a", "200", 1L),
+            createRecord(conf, "HEAD",   "/",  "200", 1L),
+            createRecord(conf, "POST",   "/",  "200", 1L),
+        };
+
+        for (int i = 0; i < ordered.length; i++) {
+            byte[] bytesI = serialize(ordered[i]);
+            for (int j = 0; j < ordered.length; j++) {
+                byte[] bytesJ = serialize(ordered[j]);
+                int expected = Integer.compare(i, j);
+                assertEquals(expected, Integer.signum(comparator.compare(bytesI, 0, bytesI.length, bytesJ, 0, bytesJ.length)),
+                    "Raw compare " + i + " with " + j);
+                assertEquals(expected, Integer.signum(ordered[i].compareTo(ordered[j])),
+                    "compareTo " + i + " with " + j);
+            }
+        }
+    }
+
+    @Test
+    void testWithoutConfiguration() throws IOException {
+        CompactParsedRecord record = new CompactParsedRecord(Arrays.asList(METHOD, URI), new HashMap<>());
+        record.set(METHOD, "GET");
+        CompactParsedRecord deserialized = new CompactParsedRecord(Arrays.asList(METHOD, URI), new HashMap<>());
+        deserialized.readFields(new DataInputStream(new ByteArrayInputStream(serialize(record))));
+        assertEquals(record, deserialized);
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.hadoop.input.GzipCheckpointIndex.Checkpoint;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.BZip2Codec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestGzipCheckpointIndex {
+
+    @TempDir
+    File tempDir;
+
+    private static final int LINES = 40000;
+
+    private static List<String> createLines(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(String.format("10.%d.%d.%d - - [01/Jan/2017:13:%02d:%02d +0100] \"GET /page/%d?id=%d HTTP/1.1\" %d %d",
+                random.nextInt(4), random.nextInt(256), random.nextInt(256), (i / 60) % 60, i % 60,
+                random.nextInt(100), random.nextInt(), random.nextBoolean() ? 200 : 404, random.nextInt(100000)));
+        }
+        return lines;
+    }
+
+    private static byte[] toBytes(List<String> lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeGzipMember(OutputStream out, byte[] data, int level, int strategy, int flushEvery)
+        throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 8192, flushEvery > 0) {
+            {
+                def.setLevel(level);
+                def.setStrategy(strategy);
+            }
+        };
+        for (int offset = 0; offset < data.length; offset += flushEvery > 0 ? flushEvery : data.length) {
+            int length = Math.min(data.length - offset, flushEvery > 0 ? flushEvery : data.length);
+            gzip.write(data, offset, length);
+            if (flushEvery > 0) {
+                gzip.flush();
+            }
+        }
+        gzip.finish();
+    }
+
+    private File writeFile(String name, byte[]... members) throws IOException {
+        return writeFile(name, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 0, members);
+    }
+
+    private File writeFile(String name, int level, int strategy, int flushEvery, byte[]... members) throws IOException {
+        File file = new File(tempDir, name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (byte[] member : members) {
+                writeGzipMember(out, member, level, strategy, flushEvery);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Decompress the file starting at every checkpoint and compare it with the original data.
+     */
+    private GzipCheckpointIndex verifyAllCheckpoints(File file, byte[] expected) throws IOException {
+        GzipCheckpointIndex index;
+        try (InputStream in = new FileInputStream(file)) {
+            index = GzipCheckpointIndex.build(in, GzipCheckpointIndex.WINDOW_SIZE);
+        }
+        assertEquals(file.length(), index.getCompressedLength());
+        assertEquals(expected.length, index.getUncompressedLength());
+
+        // Write and read the index to include the serialization.
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        index.write(indexBytes);
+        index = GzipCheckpointIndex.read(new ByteArrayInputStream(indexBytes.toByteArray()), true);
+
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path path = new Path(file.getAbsoluteFile().toURI());
+        List<Checkpoint> checkpoints = index.getCheckpoints();
+        for (int nr = 0; nr < checkpoints.size(); nr++) {
+            int start = (int) checkpoints.get(nr).getUncompressedOffset();
+            byte[] actual = new byte[expected.length - start];
+            try (InputStream in = new GzipCheckpointInputStream(fs.open(path), index, nr)) {
+                int offset = 0;
+                int read;
+                while ((read = in.read(actual, offset, actual.length - offset)) > 0) {
+                    offset += read;
+                }
+                assertEquals(actual.length, offset, "Wrong length from " + checkpoints.get(nr));
+                assertEquals(-1, in.read(), "Too much data from " + checkpoints.get(nr));
+            }
+            assertArrayEquals(Arrays.copyOfRange(expected, start, expected.length), actual,
+                "Wrong data from " + checkpoints.get(nr));
+        }
+        return index;
+    }
+
+    @Test
+    void testCheckpointsAllBitOffsets() throws IOException {
+        byte[] data = toBytes(createLines(3 * LINES, 42));
+        GzipCheckpointIndex index = verifyAllCheckpoints(writeFile("default.log.gz", data), data);
+
+        Set<Integer> bitOffsets = new HashSet<>();
+        for (Checkpoint checkpoint : index.getCheckpoints()) {
+            bitOffsets.add(checkpoint.getBitOffset());
+        }
+        assertTrue(index.getCheckpoints().size() > 10);
+        assertEquals(8, bitOffsets.size(), "Not all bit offsets were tested: " + bitOffsets);
+    }
+
+    @Test
+    void testCheckpointsCompressionVariants() throws IOException {
+        byte[] data = toBytes(createLines(LINES / 4, 1));
+        // Stored blocks only
+        verifyAllCheckpoints(writeFile("level0.log.gz", 0, Deflater.DEFAULT_STRATEGY, 0, data), data);
+        // Fixed Huffman codes only
+        verifyAllCheckpoints(writeFile("level1.log.gz", Deflater.BEST_SPEED, Deflater.DEFAULT_STRATEGY, 0, data), data);
+        verifyAllCheckpoints(writeFile("level9.log.gz", Deflater.BEST_COMPRESSION, Deflater.DEFAULT_STRATEGY, 0, data), data);
+        verifyAllCheckpoints(writeFile("huffman.log.gz", Deflater.DEFAULT_COMPRESSION, Deflater.HUFFMAN_ONLY, 0, data), data);
+        // Many (empty) stored blocks in between the compressed blocks
+        verifyAllCheckpoints(writeFile("flushed.log.gz", Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY, 999, data), data);
+    }
+
+    @Test
+    void testMultipleMembers() throws IOException {
+        byte[] part1 = toBytes(createLines(LINES / 4, 2));
+        byte[] part2 = toBytes(createLines(10, 3));
+        byte[] part3 = toBytes(createLines(LINES / 4, 4));
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        all.write(part1);
+        all.write(part2);
+        all.write(part3);
+
+        GzipCheckpointIndex index = verifyAllCheckpoints(writeFile("members.log.gz", part1, part2, part3), all.toByteArray());
+        long members = index.getCheckpoints().stream().filter(Checkpoint::isMemberStart).count();
+        assertEquals(3, members);
+    }
+
+    // --------------------------------------------
+
+    private List<String> readAllSplits(FileInputFormat<?, ?> inputFormat, Job job, Class<?> expectedSplitClass)
+        throws IOException, InterruptedException {
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        assertTrue(splits.size() > 1, "Only " + splits.size() + " split(s)");
+
+        List<String> result = new ArrayList<>();
+        for (InputSplit split : splits) {
+            assertEquals(expectedSplitClass, split.getClass());
+            TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+            RecordReader<LongWritable, Text> reader =
+                split instanceof GzipCheckpointSplit ? new GzipCheckpointLineRecordReader() : new LineRecordReader();
+            reader.initialize(split, context);
+            while (reader.nextKeyValue()) {
+                result.add(reader.getCurrentValue().toString());
+            }
+            reader.close();
+        }
+        return result;
+    }
+
+    @Test
+    void testGzipSplits() throws IOException, InterruptedException {
+        List<String> lines = createLines(LINES, 5);
+        File file = writeFile("access.log.gz", toBytes(lines));
+
+        Configuration conf = new Configuration();
+        conf.setBoolean(ApacheHttpdLogfileInputFormat.GZIP_INDEX_CREATE, true);
+        conf.setLong(ApacheHttpdLogfileInputFormat.GZIP_INDEX_SPAN, 50000);
+        Job job = Job.getInstance(conf);
+        FileInputFormat.setInputPaths(job, new Path(tempDir.getAbsoluteFile().toURI()));
+        FileInputFormat.setMaxInputSplitSize(job, 200000);
+
+        ApacheHttpdLogfileInputFormat inputFormat = new ApacheHttpdLogfileInputFormat();
+        assertEquals(lines, readAllSplits(inputFormat, job, GzipCheckpointSplit.class));
+        assertTrue(new File(file.getPath() + GzipCheckpointIndex.EXTENSION).exists());
+
+        // The second time the existing index is used (and it is not seen as an input file).
+        assertEquals(lines, readAllSplits(inputFormat, job, GzipCheckpointSplit.class));
+    }
+
+    @Test
+    void testBZip2Splits() throws IOException, InterruptedException {
+        List<String> lines = createLines(LINES, 6);
+        Configuration conf = new Configuration();
+        BZip2Codec codec = new BZip2Codec();
+        codec.setConf(conf);
+        try (OutputStream out = codec.createOutputStream(new FileOutputStream(new File(tempDir, "access.log.bz2")))) {
+            out.write(toBytes(lines));
+        }
+
+        Job job = Job.getInstance(conf);
+        FileInputFormat.setInputPaths(job, new Path(tempDir.getAbsoluteFile().toURI()));
+        FileInputFormat.setMaxInputSplitSize(job, 100000);
+
+        assertEquals(lines, readAllSplits(new ApacheHttpdLogfileInputFormat(), job, FileSplit.class));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.hadoop.input;
+
+import nl.basjes.parse.core.Parser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestLogfileStatistics {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b";
+
+    private static final String IP     = "IP:connection.client.host";
+    private static final String USER   = "STRING:connection.client.user";
+    private static final String STATUS = "STRING:request.status.last";
+    private static final String URI    = "HTTP.URI:request.firstline.uri";
+
+    private static final List<String> FIELDS = Arrays.asList(IP, USER, STATUS, URI);
+
+    @TempDir
+    File tempDir;
+
+    private Configuration createConfiguration() {
+        Configuration conf = new Configuration(false);
+        conf.set("fs.default.name", "file:///");
+        return conf;
+    }
+
+    private Parser<ParsedRecord> createParser() throws IOException {
+        return new ApacheHttpdLogfileRecordReader(LOGFORMAT, new HashSet<>(FIELDS),
+            Collections.emptyMap(), Collections.emptyList()).getParser();
+    }
+
+    /**
+     * Every line has a different IP and URI, one in four lines has a user and there are 5 status codes.
+     * Every 100th line is garbage.
+     */
+    private File writeLogfile(String name, int firstLine, int lines) throws IOException {
+        File file = new File(tempDir, name);
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8.name())) {
+            for (int line = firstLine; line < firstLine + lines; line++) {
+                if (line % 100 == 99) {
+                    writer.println("This is not a logline");
+                    continue;
+                }
+                writer.println(
+                    "10." + ((line >> 16) & 255) + '.' + ((line >> 8) & 255) + '.' + (line & 255) + " - " +
+                    (line % 4 == 0 ? "user" + line : "-") +
+                    " [24/Oct/2012:23:00:44 +0200] \"GET /page/" + line + ".html HTTP/1.1\" " +
+                    (200 + line % 5) + " 1234");
+            }
+        }
+        return file;
+    }
+
+    @Test
+    void testCompleteFile() throws IOException {
+        Configuration conf = createConfiguration();
+        File file = writeLogfile("complete.log", 0, 1000);
+
+        LogfileStatistics statistics = LogfileStatistics.sample(conf,
+            new Path(file.toURI()), createParser(), FIELDS, 2000);
+
+        // The entire file was read so these are exact
+        assertEquals(1000, statistics.getSampledLines());
+        assertEquals(10, statistics.getBadLines());
+        assertEquals(1000, statistics.getEstimatedRows());
+        assertEquals(990, statistics.getEstimatedGoodRows());
+        assertEquals(file.length(), statistics.getTotalFileSize());
+        assertEquals(file.length(), statistics.getEstimatedRawDataSize());
+
+        FieldStatistics user = statistics.getFieldStatistics(USER);
+        assertEquals(0.75, user.getNullRatio(), 0.01);
+        assertEquals(0.0, statistics.getFieldStatistics(STATUS).getNullRatio());
+        assertEquals(3.0, statistics.getFieldStatistics(STATUS).getAverageWidth());
+
+        assertEquals(5, statistics.getEstimatedDistinct(STATUS));
+        assertEquals(990, statistics.getEstimatedDistinct(IP), 990 * 0.05);
+        assertEquals(-1, statistics.getEstimatedDistinct("STRING:unknown"));
+        assertNull(statistics.getFieldStatistics("STRING:unknown"));
+    }
+
+    @Test
+    void testSampledFiles() throws IOException {
+        Configuration conf = createConfiguration();
+        for (int fileNr = 0; fileNr < 10; fileNr++) {
+            writeLogfile("part-" + fileNr + ".log", fileNr * 10000, 10000);
+        }
+        // These must be skipped
+        writeLogfile("_SUCCESS", 0, 10);
+        writeLogfile(".hidden.log", 0, 10);
+        writeLogfile("part-0.log" + GzipCheckpointIndex.EXTENSION, 0, 10);
+
+        List<FileStatus> files = LogfileStatistics.listInputFiles(conf, tempDir.getAbsolutePath());
+        assertEquals(10, files.size());
+
+        // Only 500 lines of only 3 files are parsed
+        LogfileStatistics statistics = LogfileStatistics.sample(conf, files, createParser(), FIELDS, 500, 3);
+        assertEquals(1500, statistics.getSampledLines());
+        assertEquals(15, statistics.getBadLines());
+
+        long rows = statistics.getEstimatedRows();
+        assertTrue(rows > 90000 && rows < 110000, "Estimated " + rows + " rows instead of 100000");
+        long rawDataSize = statistics.getEstimatedRawDataSize();
+        long fileSize = statistics.getTotalFileSize();
+        assertTrue(Math.abs(rawDataSize - fileSize) < fileSize / 10,
+            "Estimated raw data size " + rawDataSize + " instead of " + fileSize);
+
+        // The URI is unique so this scales with the number of rows, the status is a fixed set.
+        long distinctUris = statistics.getEstimatedDistinct(URI);
+        assertTrue(distinctUris > 80000 && distinctUris < 120000, "Estimated " + distinctUris + " distinct uris");
+        assertEquals(5, statistics.getEstimatedDistinct(STATUS));
+
+        // Globs work too
+        assertEquals(10, LogfileStatistics.listInputFiles(conf, tempDir.getAbsolutePath() + "/part-*.log").size());
+    }
+}
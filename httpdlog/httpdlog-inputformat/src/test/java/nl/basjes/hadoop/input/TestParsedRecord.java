@@ -16,6 +16,10 @@
  */
 package nl.basjes.hadoop.input;
 
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.FieldSetter;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.Value;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.io.Writable;
 import org.junit.jupiter.api.Test;
@@ -25,9 +29,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestParsedRecord {
@@ -82,6 +90,117 @@ public class TestParsedRecord {
         record.clear();
     }
 
+    private ParsedRecordSchema createSchema() {
+        return new ParsedRecordSchema(Arrays.asList(
+            "String A", "String B", "Long A", "Long B", "Double A", "Double B", "Multi_A.*"));
+    }
+
+    @Test
+    void testSchemaBoundParsedRecordSerialization() throws IOException, InstantiationException, IllegalAccessException {
+        ParsedRecord record = new ParsedRecord(createSchema());
+
+        setAllValues(record);
+        checkAllValues(record);
+
+        // The serialized form is the same as without a schema
+        ParsedRecord unbound = new ParsedRecord();
+        setAllValues(unbound);
+        assertEquals(record, unbound);
+        assertEquals(record.hashCode(), unbound.hashCode());
+
+        ParsedRecord deserialized = asWritable(serialize(record), ParsedRecord.class);
+        checkAllValues(deserialized);
+        assertEquals(record, deserialized);
+
+        ParsedRecord deserializedBound = new ParsedRecord(createSchema());
+        deserializedBound.readFields(new DataInputStream(new ByteArrayInputStream(serialize(unbound))));
+        checkAllValues(deserializedBound);
+        assertEquals(record, deserializedBound);
+    }
+
+    @Test
+    void testSchemaSlots() {
+        ParsedRecordSchema schema = createSchema();
+        assertEquals(6, schema.size()); // The multi value field does not get a slot.
+        assertEquals(-1, schema.getSlot("Multi_A.*"));
+        assertEquals(-1, schema.getSlot("Unknown"));
+
+        int stringA = schema.getSlot("String A");
+        int longA   = schema.getSlot("Long A");
+        int doubleA = schema.getSlot("Double A");
+        assertEquals("String A", schema.getFieldName(stringA));
+        // The Parser calls the setters with the cleaned name
+        assertEquals(stringA, schema.getSlot("string a"));
+
+        ParsedRecord record = new ParsedRecord(schema);
+        record.set("string a", "Foo");
+        record.setLong(longA, 42);
+        record.set("Unknown", "Bar");
+
+        assertEquals("Foo",     record.getString(stringA));
+        assertEquals("Foo",     record.getString("String A"));
+        assertEquals((Long)42L, record.getLong("Long A"));
+        assertEquals((Long)42L, record.getLong(longA));
+        assertNull(record.getDouble(doubleA));
+        assertNull(record.getString(longA));
+        assertEquals("Bar",     record.getString("Unknown"));
+
+        record.clear();
+        assertNull(record.getString(stringA));
+        assertNull(record.getLong(longA));
+        assertNull(record.getString("Unknown"));
+        assertEquals(new ParsedRecord(), record);
+    }
+
+    @Test
+    void testSlotSetter() {
+        ParsedRecordSchema schema = createSchema();
+        int stringA = schema.getSlot("String A");
+
+        // Only the casts of the setter are stored
+        FieldSetter<ParsedRecord> setter = ParsedRecord.createSetter("String A", Casts.STRING_OR_LONG);
+
+        ParsedRecord record = new ParsedRecord(schema);
+        setter.set(record, "string a", new Value("42"));
+        assertEquals("42",      record.getString(stringA));
+        assertEquals((Long)42L, record.getLong(stringA));
+        assertNull(record.getDouble(stringA));
+
+        // A record with a different schema (or without one) gets the values by name
+        ParsedRecord unbound = new ParsedRecord();
+        setter.set(unbound, "string a", new Value("42"));
+        assertEquals("42",      unbound.getString("string a"));
+        assertEquals((Long)42L, unbound.getLong("string a"));
+
+        // A value that has no form for a cast is not stored for that cast
+        record.clear();
+        setter.set(record, "string a", new Value("Foo"));
+        assertEquals("Foo", record.getString(stringA));
+        assertNull(record.getLong(stringA));
+    }
+
+    @Test
+    void testSlotSetterRetainCasts() {
+        ParsedRecordSchema schema = createSchema();
+        int stringA = schema.getSlot("String A");
+
+        // The casts the parser has for the field limit the casts of the setter
+        ParsedRecord.SlotSetter setter = ParsedRecord.createSetter("String A", EnumSet.allOf(Casts.class));
+        setter.retainCasts(Collections.singletonMap(Parser.cleanupFieldValue("String A"), Casts.STRING_ONLY));
+
+        ParsedRecord record = new ParsedRecord(schema);
+        setter.set(record, "string a", new Value("42"));
+        assertEquals("42", record.getString(stringA));
+        assertNull(record.getLong(stringA));
+        assertNull(record.getDouble(stringA));
+
+        // A field the parser cannot produce stores nothing
+        setter.retainCasts(Collections.emptyMap());
+        record.clear();
+        setter.set(record, "string a", new Value("42"));
+        assertNull(record.getString(stringA));
+    }
+
     private void setAllValues(ParsedRecord record) {
         record.set("String A", "42");
         record.set("String B", "42");
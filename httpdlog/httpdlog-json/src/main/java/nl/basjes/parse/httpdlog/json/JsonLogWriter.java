@@ -0,0 +1,282 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.json;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.FieldCasts;
+import nl.basjes.parse.core.FieldSetter;
+import nl.basjes.parse.core.LineConsumer;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ParserFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses log lines into newline delimited JSON (NDJSON): one JSON object per line with the requested fields.
+ *
+ * The values are written as UTF-8 JSON straight into a reusable buffer while the parser produces them; there is
+ * no intermediate object per line. The completed lines are written to the OutputStream (or channel) in large blocks.
+ * A field that can be a LONG or a DOUBLE is written as a JSON number, all others as a JSON string.
+ * The fields appear in the object in the order in which the parser produces them (which is not the order in
+ * which they were added). A field without a value is omitted (unless {@link #setWriteNulls(boolean)}).
+ *
+ * <pre>{@code
+ * try (JsonLogWriter writer = new JsonLogWriter(
+ *          () -> new HttpdLoglineParser<>(JsonRecord.class, logformat), outputStream)
+ *          .addField("ip",     "IP:connection.client.host")
+ *          .addField("bytes",  "BYTES:response.body.bytes")
+ *          .addField("query.", "STRING:request.firstline.uri.query.*")) {
+ *     writer.addLines(inputStream);
+ * }
+ * }</pre>
+ * An instance is not thread safe.
+ */
+public class JsonLogWriter extends LineConsumer<JsonRecord> implements Closeable, Flushable {
+
+    /** The default number of bytes that are collected before they are written. */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final class ColumnSpec {
+        private final String name;
+        private final String fieldValue;
+
+        ColumnSpec(String name, String fieldValue) {
+            this.name       = name;
+            this.fieldValue = fieldValue;
+        }
+
+        boolean isWildcard() {
+            return fieldValue.endsWith("*");
+        }
+    }
+
+    private final OutputStream              outputStream;
+    private final WritableByteChannel       channel;
+    private final List<ColumnSpec>          columnSpecs = new ArrayList<>();
+    private int                             blockSize   = DEFAULT_BLOCK_SIZE;
+    private boolean                         writeNulls  = false;
+
+    // Everything below is created when the first line is added.
+    private Parser<JsonRecord>              parser;
+    private JsonRecord                      record;
+
+    /**
+     * @param parserFactory Creates the parser (with the logformat and any additional dissectors) for the JsonRecord.
+     * @param outputStream Receives the JSON lines.
+     */
+    public JsonLogWriter(ParserFactory<JsonRecord> parserFactory, OutputStream outputStream) {
+        super(parserFactory);
+        this.outputStream  = outputStream;
+        this.channel       = null;
+    }
+
+    /**
+     * @param parserFactory Creates the parser (with the logformat and any additional dissectors) for the JsonRecord.
+     * @param channel Receives the JSON lines.
+     */
+    public JsonLogWriter(ParserFactory<JsonRecord> parserFactory, WritableByteChannel channel) {
+        super(parserFactory);
+        this.outputStream  = null;
+        this.channel       = channel;
+    }
+
+    /**
+     * Add the field (the field is also the name in the JSON).
+     */
+    public JsonLogWriter addField(String fieldValue) {
+        return addField(fieldValue, fieldValue);
+    }
+
+    /**
+     * Add the field with the name it must have in the JSON.
+     * For a wildcard field (i.e. "STRING:request.firstline.uri.query.*") the name is the prefix of the names of
+     * the actual fields (i.e. with the name "query." the query parameter "foo" becomes "query.foo").
+     */
+    public JsonLogWriter addField(String name, String fieldValue) {
+        if (record != null) {
+            throw new IllegalStateException("Fields cannot be added after the first line has been written.");
+        }
+        columnSpecs.add(new ColumnSpec(name, Parser.cleanupFieldValue(fieldValue)));
+        return this;
+    }
+
+    /**
+     * @param newBlockSize The (minimal) number of bytes that is written at once.
+     */
+    public JsonLogWriter setBlockSize(int newBlockSize) {
+        if (newBlockSize <= 0) {
+            throw new IllegalArgumentException("The block size must be > 0");
+        }
+        blockSize = newBlockSize;
+        return this;
+    }
+
+    /**
+     * @param newWriteNulls If true a field that is present in the line but has no value is written as a null.
+     */
+    public JsonLogWriter setWriteNulls(boolean newWriteNulls) {
+        if (record != null) {
+            throw new IllegalStateException("The settings cannot be changed after the first line has been written.");
+        }
+        writeNulls = newWriteNulls;
+        return this;
+    }
+
+    // --------------------------------------------
+
+    private FieldSetter<JsonRecord> createSetter(ColumnSpec columnSpec, Casts casts) {
+        final boolean nulls = writeNulls;
+        if (columnSpec.isWildcard()) {
+            final byte[] namePrefix   = JsonRecord.encodeNamePrefix(columnSpec.name);
+            // The part of the actual field name after "TYPE:base."
+            final int    suffixOffset = columnSpec.fieldValue.length() - 1;
+            return (json, fieldName, value) -> {
+                String stringValue = value.getString();
+                if (stringValue != null || nulls) {
+                    json.writeString(namePrefix, fieldName, suffixOffset, stringValue);
+                }
+            };
+        }
+
+        final byte[] prefix = JsonRecord.encodeFieldPrefix(columnSpec.name);
+        switch (casts) {
+            case LONG:
+                return (json, fieldName, value) -> {
+                    Long longValue = value.getLong();
+                    if (longValue != null) {
+                        json.writeLong(prefix, longValue);
+                    } else if (nulls) {
+                        json.writeNull(prefix);
+                    }
+                };
+            case DOUBLE:
+                return (json, fieldName, value) -> {
+                    Double doubleValue = value.getDouble();
+                    if (doubleValue != null) {
+                        json.writeDouble(prefix, doubleValue);
+                    } else if (nulls) {
+                        json.writeNull(prefix);
+                    }
+                };
+            case STRING:
+            default:
+                return (json, fieldName, value) -> {
+                    String stringValue = value.getString();
+                    if (stringValue != null) {
+                        json.writeString(prefix, stringValue);
+                    } else if (nulls) {
+                        json.writeNull(prefix);
+                    }
+                };
+        }
+    }
+
+    private void initialize() {
+        if (record != null) {
+            return;
+        }
+        if (columnSpecs.isEmpty()) {
+            throw new IllegalStateException("No fields were specified");
+        }
+        List<String> fieldValues = new ArrayList<>();
+        for (ColumnSpec columnSpec : columnSpecs) {
+            if (!columnSpec.isWildcard()) {
+                fieldValues.add(columnSpec.fieldValue);
+            }
+        }
+        Map<String, EnumSet<Casts>> allCasts = getCasts(fieldValues);
+        parser = createParser();
+        for (ColumnSpec columnSpec : columnSpecs) {
+            // All values of a wildcard field are written as a String.
+            Casts casts = columnSpec.isWildcard() ? Casts.STRING : FieldCasts.getColumnCasts(allCasts, columnSpec.fieldValue);
+            parser.addFieldSetter(columnSpec.fieldValue, createSetter(columnSpec, casts));
+        }
+        record = new JsonRecord(blockSize + blockSize / 4);
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Parse the line and append it as a JSON object.
+     * @return true if the line was added, false if it was bad or rejected by one of the field filters.
+     */
+    @Override
+    public boolean add(String line) throws IOException {
+        initialize();
+        record.startLine();
+        if (!parse(parser, record, line)) {
+            record.rollbackLine();
+            return false;
+        }
+        record.endLine();
+        if (record.getLength() >= blockSize) {
+            writeBlock();
+        }
+        return true;
+    }
+
+    private void writeBlock() throws IOException {
+        int length = record.getLength();
+        if (length == 0) {
+            return;
+        }
+        if (outputStream != null) {
+            outputStream.write(record.getBuffer(), 0, length);
+        } else {
+            ByteBuffer block = ByteBuffer.wrap(record.getBuffer(), 0, length);
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+        }
+        record.clear();
+    }
+
+    /**
+     * Write all completed lines.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (record != null) {
+            writeBlock();
+        }
+        if (outputStream != null) {
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Write all completed lines and close the OutputStream (or channel).
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (outputStream != null) {
+            outputStream.close();
+        } else {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The record the parser writes the values in for the {@link JsonLogWriter}: a reusable buffer of UTF-8 encoded JSON.
+ * Every value is appended to the JSON object of the current line as soon as the parser produces it, so no
+ * intermediate object (like a Map or a POJO) is needed. The "name": prefixes of all fields are encoded only once.
+ * If the line turns out to be bad (or it is rejected by a field filter) the buffer is simply truncated back to
+ * the start of that line.
+ */
+public final class JsonRecord {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    // For each ASCII character the character that follows the '\\' if it must be escaped (0 = no escaping needed).
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = 'u';
+        }
+        ESCAPES['"']  = '"';
+        ESCAPES['\\'] = '\\';
+        ESCAPES['\n'] = 'n';
+        ESCAPES['\r'] = 'r';
+        ESCAPES['\t'] = 't';
+        ESCAPES['\b'] = 'b';
+        ESCAPES['\f'] = 'f';
+    }
+
+    private byte[]  buffer;
+    private int     position   = 0;
+    private int     lineStart  = 0;
+    private boolean firstField = true;
+
+    JsonRecord(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * @return The encoded "name": of the field (the name is escaped like any other JSON string).
+     */
+    static byte[] encodeFieldPrefix(String name) {
+        JsonRecord record = new JsonRecord(name.length() + 16);
+        record.appendString(name);
+        record.ensureCapacity(1);
+        record.buffer[record.position++] = ':';
+        return Arrays.copyOf(record.buffer, record.position);
+    }
+
+    /**
+     * @return The encoded start of a name that is only completed while parsing (the opening quote and the escaped prefix).
+     */
+    static byte[] encodeNamePrefix(String namePrefix) {
+        JsonRecord record = new JsonRecord(namePrefix.length() * 6 + 1);
+        record.buffer[record.position++] = '"';
+        record.appendChars(namePrefix, 0);
+        return Arrays.copyOf(record.buffer, record.position);
+    }
+
+    // --------------------------------------------
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return The number of bytes of the completed lines.
+     */
+    int getLength() {
+        return lineStart;
+    }
+
+    void startLine() {
+        position = lineStart;
+        firstField = true;
+        ensureCapacity(1);
+        buffer[position++] = '{';
+    }
+
+    void endLine() {
+        ensureCapacity(2);
+        buffer[position++] = '}';
+        buffer[position++] = '\n';
+        lineStart = position;
+    }
+
+    /**
+     * Drop the partially written current line.
+     */
+    void rollbackLine() {
+        position = lineStart;
+    }
+
+    /**
+     * Drop all completed lines (after they have been written).
+     */
+    void clear() {
+        position = 0;
+        lineStart = 0;
+    }
+
+    // --------------------------------------------
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+
+    private void startField(byte[] prefix) {
+        ensureCapacity(prefix.length + 1);
+        if (firstField) {
+            firstField = false;
+        } else {
+            buffer[position++] = ',';
+        }
+        System.arraycopy(prefix, 0, buffer, position, prefix.length);
+        position += prefix.length;
+    }
+
+    void writeNull(byte[] prefix) {
+        startField(prefix);
+        ensureCapacity(NULL.length);
+        System.arraycopy(NULL, 0, buffer, position, NULL.length);
+        position += NULL.length;
+    }
+
+    /**
+     * Write a field of which the name is only known while parsing: the name is the encoded prefix
+     * (see {@link #encodeNamePrefix(String)}) followed by the characters of the name from the offset.
+     * A null value is written as a JSON null.
+     */
+    void writeString(byte[] namePrefix, String name, int offset, String value) {
+        startField(namePrefix);
+        appendChars(name, offset);
+        ensureCapacity(2);
+        buffer[position++] = '"';
+        buffer[position++] = ':';
+        if (value == null) {
+            ensureCapacity(NULL.length);
+            System.arraycopy(NULL, 0, buffer, position, NULL.length);
+            position += NULL.length;
+        } else {
+            appendString(value);
+        }
+    }
+
+    void writeString(byte[] prefix, String value) {
+        startField(prefix);
+        appendString(value);
+    }
+
+    void writeLong(byte[] prefix, long value) {
+        startField(prefix);
+        if (value == Long.MIN_VALUE) {
+            appendAscii(Long.toString(value)); // Cannot be negated
+            return;
+        }
+        ensureCapacity(20);
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[position++] = '-';
+            remaining = -remaining;
+        }
+        int digits = 1;
+        for (long limit = 10; digits < 19 && remaining >= limit; limit *= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        position = end;
+    }
+
+    void writeDouble(byte[] prefix, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeNull(prefix); // Not valid in JSON
+            return;
+        }
+        startField(prefix);
+        appendAscii(Double.toString(value));
+    }
+
+    private void appendAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Append the value as a quoted and escaped JSON string in UTF-8.
+     */
+    private void appendString(String value) {
+        ensureCapacity(1);
+        buffer[position++] = '"';
+        appendChars(value, 0);
+        ensureCapacity(1);
+        buffer[position++] = '"';
+    }
+
+    /**
+     * Append the characters of the value from the offset escaped for a JSON string in UTF-8 (without the quotes).
+     */
+    private void appendChars(String value, int offset) {
+        int length = value.length();
+        // Worst case: every char becomes a 6 byte escape (a surrogate pair becomes 4 bytes).
+        ensureCapacity((length - offset) * 6);
+        byte[] out = buffer;
+        int    pos = position;
+        for (int i = offset; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte escape = ESCAPES[c];
+                if (escape == 0) {
+                    out[pos++] = (byte) c;
+                    continue;
+                }
+                out[pos++] = '\\';
+                out[pos++] = escape;
+                if (escape == 'u') {
+                    out[pos++] = '0';
+                    out[pos++] = '0';
+                    out[pos++] = HEX[c >> 4];
+                    out[pos++] = HEX[c & 0xF];
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                int codePoint = Character.codePointAt(value, i);
+                if (Character.isSupplementaryCodePoint(codePoint)) {
+                    out[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                    out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    out[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                    i++;
+                } else {
+                    // An unpaired surrogate cannot be encoded: use the replacement character (U+FFFD).
+                    out[pos++] = (byte) 0xEF;
+                    out[pos++] = (byte) 0xBF;
+                    out[pos++] = (byte) 0xBD;
+                }
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        position = pos;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestJsonLogWriter {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b \"%{User-Agent}i\"";
+
+    private static final String LINES =
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.php?foo=1&bar=x HTTP/1.1\" 200 1234 \"Mozilla\"\n" +
+        "This is not a logline\n" +
+        "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"POST /form.php HTTP/1.1\" 200 10 \"Quote \\\" Backslash \\\\ \\t\"\n" +
+        "127.0.0.3 - - [24/Oct/2012:23:00:46 +0200] \"GET /robots.txt HTTP/1.1\" 200 999 \"Googlebot/2.1\"\n" +
+        "\n" +
+        "127.0.0.4 - - [24/Oct/2012:23:00:47 +0200] \"GET /last.php HTTP/1.1\" 500 - \"\u20ac \uD83D\uDE00 \u00e9\"\n";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static Parser<JsonRecord> createParser() {
+        Parser<JsonRecord> parser = new HttpdLoglineParser<>(JsonRecord.class, LOGFORMAT);
+        // The crawlers are not wanted
+        parser.addFieldFilter("HTTP.PATH:request.firstline.uri.path", value -> !"/robots.txt".equals(value.getString()));
+        return parser;
+    }
+
+    private static JsonLogWriter addFields(JsonLogWriter writer) {
+        return writer
+            .addField("ip",        "IP:connection.client.host")
+            .addField("user",      "STRING:connection.client.user")
+            .addField("epoch",     "TIME.EPOCH:request.receive.time.epoch")
+            .addField("uri",       "HTTP.PATH:request.firstline.uri.path")
+            .addField("bytes",     "BYTES:response.body.bytes")
+            .addField("agent",     "HTTP.USERAGENT:request.user-agent")
+            .addField("query.",    "STRING:request.firstline.uri.query.*");
+    }
+
+    private static JsonLogWriter createWriter(OutputStream outputStream) {
+        return addFields(new JsonLogWriter(TestJsonLogWriter::createParser, outputStream));
+    }
+
+    private static List<JsonNode> readLines(String json) throws IOException {
+        List<JsonNode> result = new ArrayList<>();
+        assertTrue(json.endsWith("\n"), "Every line must end with a newline");
+        for (String line : json.split("\n")) {
+            result.add(MAPPER.readTree(line));
+        }
+        return result;
+    }
+
+    private static void checkLines(List<JsonNode> lines) {
+        assertEquals(3, lines.size());
+
+        JsonNode first = lines.get(0);
+        assertEquals("127.0.0.1",          first.get("ip").asText());
+        assertEquals(1351112444000L,       first.get("epoch").asLong());
+        assertTrue(first.get("epoch").isIntegralNumber());
+        assertEquals("/index.php",         first.get("uri").asText());
+        assertEquals(1234L,                first.get("bytes").asLong());
+        assertEquals("Mozilla",            first.get("agent").asText());
+        assertEquals("1",                  first.get("query.foo").asText());
+        assertEquals("x",                  first.get("query.bar").asText());
+
+        JsonNode second = lines.get(1);
+        assertEquals("127.0.0.2",          second.get("ip").asText());
+        // The escapes in the logline are not unescaped by the parser so they must survive as is.
+        assertEquals("Quote \\\" Backslash \\\\ \\t", second.get("agent").asText());
+        assertFalse(second.has("query.foo"));
+
+        JsonNode last = lines.get(2);
+        assertEquals("127.0.0.4",          last.get("ip").asText());
+        // The "-" of %b means 0 bytes
+        assertEquals(0L,                   last.get("bytes").asLong());
+        // The "-" of %u means no value so the field is absent
+        assertFalse(last.has("user"));
+        assertEquals("\u20ac \uD83D\uDE00 \u00e9", last.get("agent").asText());
+    }
+
+    @Test
+    void testWriteToStream() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        long added;
+        try (JsonLogWriter writer = createWriter(output)) {
+            added = writer.addLines(new StringReader(LINES));
+            assertEquals(3, writer.getGoodLines());
+            assertEquals(1, writer.getBadLines());
+            assertEquals(1, writer.getFilteredLines());
+        }
+        assertEquals(3, added);
+        checkLines(readLines(output.toString(StandardCharsets.UTF_8.name())));
+    }
+
+    @Test
+    void testWriteToChannel() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonLogWriter writer = addFields(new JsonLogWriter(TestJsonLogWriter::createParser, Channels.newChannel(output)))) {
+            writer.addLines(new ByteArrayInputStream(LINES.getBytes(StandardCharsets.UTF_8)));
+        }
+        checkLines(readLines(output.toString(StandardCharsets.UTF_8.name())));
+    }
+
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+        private int writes = 0;
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            writes++;
+            super.write(bytes, offset, length);
+        }
+
+        @Override
+        public synchronized void write(int value) {
+            writes++;
+            super.write(value);
+        }
+    }
+
+    @Test
+    void testBlockWrites() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        JsonLogWriter writer = createWriter(output).setBlockSize(1000);
+        String line = "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.php?foo=1&bar=x HTTP/1.1\" 200 1234 \"Mozilla\"";
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(writer.add(line));
+        }
+        // Nothing is written per line: only when a block is full.
+        writer.close();
+        int blocks = output.writes;
+        assertTrue(blocks > 1, "Expected multiple blocks");
+        assertTrue(output.size() / blocks >= 1000, "Too many small writes: " + blocks);
+
+        List<JsonNode> lines = readLines(output.toString(StandardCharsets.UTF_8.name()));
+        assertEquals(1000, lines.size());
+        for (JsonNode node : lines) {
+            assertEquals(1234L, node.get("bytes").asLong());
+        }
+    }
+
+    @Test
+    void testRejectedLineIsRemoved() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonLogWriter writer = new JsonLogWriter(TestJsonLogWriter::createParser, output)
+            .addField("agent", "HTTP.USERAGENT:request.user-agent")
+            .addField("bytes", "BYTES:response.body.bytes")) {
+            assertTrue(writer.add("127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET / HTTP/1.1\" 200 10 \"Mozilla\""));
+            // The agent and the bytes are written before the path rejects the line.
+            assertFalse(writer.add("127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"GET /robots.txt HTTP/1.1\" 200 999 \"Googlebot/2.1\""));
+            // Without an agent the bytes are the first member of the object: no separator may remain.
+            assertTrue(writer.add("127.0.0.3 - - [24/Oct/2012:23:00:46 +0200] \"GET / HTTP/1.1\" 200 20 \"-\""));
+            assertEquals(1, writer.getFilteredLines());
+        }
+        assertEquals(
+            "{\"agent\":\"Mozilla\",\"bytes\":10}\n" +
+            "{\"bytes\":20}\n", output.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    void testWriteNulls() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonLogWriter writer = new JsonLogWriter(TestJsonLogWriter::createParser, output)
+            .addField("user", "STRING:connection.client.user")
+            .setWriteNulls(true)) {
+            assertTrue(writer.add("127.0.0.4 - - [24/Oct/2012:23:00:47 +0200] \"GET /last.php HTTP/1.1\" 500 - \"Mozilla\""));
+        }
+        assertEquals("{\"user\":null}\n", output.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    @Test
+    void testEscaping() {
+        JsonRecord record = new JsonRecord(4);
+        byte[] prefix = JsonRecord.encodeFieldPrefix("na\"me");
+        record.startLine();
+        record.writeString(prefix, "\u0000\u001f\b\f\n\r\t/\u007f\u00e9\u20ac\uD83D\uDE00\uD83D");
+        record.writeLong(prefix, Long.MIN_VALUE);
+        record.writeLong(prefix, -42);
+        record.writeDouble(prefix, 1.5);
+        record.writeDouble(prefix, Double.NaN);
+        // The name of a wildcard field is the encoded prefix plus the (escaped) rest of the actual field name.
+        byte[] namePrefix = JsonRecord.encodeNamePrefix("q\".");
+        record.writeString(namePrefix, "STRING:x.a\tb", 9, "v");
+        record.writeString(namePrefix, "STRING:x.c", 9, null);
+        record.endLine();
+
+        String json = new String(record.getBuffer(), 0, record.getLength(), StandardCharsets.UTF_8);
+        assertEquals(
+            "{\"na\\\"me\":\"\\u0000\\u001f\\b\\f\\n\\r\\t/\u007f\u00e9\u20ac\uD83D\uDE00\uFFFD\"," +
+            "\"na\\\"me\":-9223372036854775808,\"na\\\"me\":-42,\"na\\\"me\":1.5,\"na\\\"me\":null," +
+            "\"q\\\".a\\tb\":\"v\",\"q\\\".c\":null}\n", json);
+
+        // A partial line is removed completely
+        record.startLine();
+        record.writeLong(prefix, 1);
+        record.rollbackLine();
+        assertEquals(json.getBytes(StandardCharsets.UTF_8).length, record.getLength());
+    }
+
+    @Test
+    void testBadConfig() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JsonLogWriter noFields = new JsonLogWriter(TestJsonLogWriter::createParser, output);
+        assertThrows(IllegalStateException.class, () -> noFields.add("Something"));
+
+        JsonLogWriter unknownField = new JsonLogWriter(TestJsonLogWriter::createParser, output)
+            .addField("foo", "STRING:no.such.field");
+        assertThrows(IllegalStateException.class, () -> unknownField.add("Something"));
+        assertThrows(IllegalArgumentException.class, () -> unknownField.setBlockSize(0));
+    }
+}
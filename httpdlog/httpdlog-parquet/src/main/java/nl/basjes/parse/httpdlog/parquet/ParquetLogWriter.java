@@ -0,0 +1,523 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.FieldCasts;
+import nl.basjes.parse.core.FieldSetter;
+import nl.basjes.parse.core.LineConsumer;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ParserFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Types;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Parses log lines and writes them directly into a Parquet file.
+ *
+ * The parsing is done in the calling thread, the encoding and writing of the Parquet file in a separate thread.
+ * The parser puts the values straight into the primitive arrays of a batch of rows (so no record object is created
+ * per line) and a full batch is handed over to the writing thread while the next batch is being filled.
+ * There are only a few batches which are reused all the time; if the writing cannot keep up then the parsing
+ * simply waits until a batch is available again.
+ *
+ * The type of every column is derived from the casts of the field: a field that can be a DOUBLE becomes
+ * a DOUBLE, else a field that can be a LONG becomes an INT64 and else it becomes a (UTF-8) String.
+ * All columns are optional: a value that is not present in the line is written as null.
+ *
+ * <pre>{@code
+ * try (ParquetLogWriter writer = new ParquetLogWriter(
+ *          () -> new HttpdLoglineParser<>(ParquetRecord.class, logformat), new Path("/data/access.parquet"))
+ *          .addField("ip",     "IP:connection.client.host")
+ *          .addField("bytes",  "BYTES:response.body.bytes")
+ *          .addField("method", "HTTP.METHOD:request.firstline.method")
+ *          .setRowGroupSize(64 * 1024 * 1024)) {
+ *     writer.addFile(new Path("/logs/access.log.gz"));
+ * }
+ * }</pre>
+ * An instance must be used (i.e. have lines added and be closed) by a single thread.
+ */
+public class ParquetLogWriter extends LineConsumer<ParquetRecord> implements Closeable {
+
+    /** The default number of rows that are handed over to the writing thread at once. */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    /** The prefix of the key in the metadata of the file that holds the field of the parser of a column. */
+    public static final String FIELD_METADATA_KEY_PREFIX = "httpdlog.field.";
+
+    // One batch that is being filled, one that is being written and one that is waiting to be written.
+    private static final int BATCHES = 3;
+
+    // Tells the writing thread there are no more batches.
+    private static final RowBatch END_OF_BATCHES = new RowBatch(new Casts[0], 0);
+
+    private static final class ColumnSpec {
+        private final String  name;
+        private final String  fieldValue;
+
+        ColumnSpec(String name, String fieldValue) {
+            this.name       = name;
+            this.fieldValue = fieldValue;
+        }
+    }
+
+    private final Path                         file;
+    private final List<ColumnSpec>             columnSpecs = new ArrayList<>();
+    private final Map<String, Boolean>         columnDictionaryEncoding = new HashMap<>();
+    private Configuration                      configuration = null;
+    private int                                batchSize = DEFAULT_BATCH_SIZE;
+    private int                                rowGroupSize = ParquetWriter.DEFAULT_BLOCK_SIZE;
+    private int                                pageSize = ParquetWriter.DEFAULT_PAGE_SIZE;
+    private int                                dictionaryPageSize = ParquetWriter.DEFAULT_PAGE_SIZE;
+    private boolean                            dictionaryEncoding = ParquetWriter.DEFAULT_IS_DICTIONARY_ENABLED;
+    private CompressionCodecName               compressionCodec = ParquetWriter.DEFAULT_COMPRESSION_CODEC_NAME;
+    private boolean                            overwrite = false;
+
+    // Everything below is created when the first line is added.
+    private Parser<ParquetRecord>              parser;
+    private MessageType                        schema;
+    private ParquetRecord                      record;
+    private ParquetWriter<RowBatch>            parquetWriter;
+    private Thread                             writerThread;
+    private BlockingQueue<RowBatch>            freeBatches;
+    private BlockingQueue<RowBatch>            fullBatches;
+    private RowBatch                           currentBatch;
+    private volatile Throwable                 writeFailure = null;
+    private boolean                            closed = false;
+
+    /**
+     * @param parserFactory Creates the parser (with the logformat and any additional dissectors) for the ParquetRecord.
+     * @param file The Parquet file that is created.
+     */
+    public ParquetLogWriter(ParserFactory<ParquetRecord> parserFactory, Path file) {
+        super(parserFactory);
+        this.file          = file;
+    }
+
+    /**
+     * Add a column with the value of the field. The name of the column is the field with all characters
+     * that are not allowed in a column name replaced by an '_' (i.e. "IP:connection.client.host" becomes
+     * "IP_connection_client_host").
+     */
+    public ParquetLogWriter addField(String fieldValue) {
+        return addField(fieldValue.replaceAll("[^a-zA-Z0-9_]", "_"), fieldValue);
+    }
+
+    /**
+     * Add a column with the value of the field.
+     */
+    public ParquetLogWriter addField(String name, String fieldValue) {
+        checkNotStarted();
+        for (ColumnSpec columnSpec : columnSpecs) {
+            if (columnSpec.name.equals(name)) {
+                throw new IllegalArgumentException("There already is a column named \"" + name + "\"");
+            }
+        }
+        columnSpecs.add(new ColumnSpec(name, Parser.cleanupFieldValue(fieldValue)));
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (parquetWriter != null || closed) {
+            throw new IllegalStateException("The settings cannot be changed after the first line has been written.");
+        }
+    }
+
+    /**
+     * @param newConfiguration The Hadoop configuration (for the FileSystem and the compression codecs).
+     */
+    public ParquetLogWriter setConfiguration(Configuration newConfiguration) {
+        checkNotStarted();
+        configuration = newConfiguration;
+        return this;
+    }
+
+    /**
+     * @param newRowGroupSize The (approximate) size in bytes of a row group in the file.
+     */
+    public ParquetLogWriter setRowGroupSize(int newRowGroupSize) {
+        checkNotStarted();
+        if (newRowGroupSize <= 0) {
+            throw new IllegalArgumentException("The row group size must be > 0");
+        }
+        rowGroupSize = newRowGroupSize;
+        return this;
+    }
+
+    /**
+     * @param newPageSize The (approximate) size in bytes of a page in the file.
+     */
+    public ParquetLogWriter setPageSize(int newPageSize) {
+        checkNotStarted();
+        if (newPageSize <= 0) {
+            throw new IllegalArgumentException("The page size must be > 0");
+        }
+        pageSize = newPageSize;
+        return this;
+    }
+
+    /**
+     * @param newDictionaryPageSize The maximum size in bytes of the dictionary of a column in a row group.
+     * If the distinct values of a column do not fit the column falls back to the plain encoding.
+     */
+    public ParquetLogWriter setDictionaryPageSize(int newDictionaryPageSize) {
+        checkNotStarted();
+        if (newDictionaryPageSize <= 0) {
+            throw new IllegalArgumentException("The dictionary page size must be > 0");
+        }
+        dictionaryPageSize = newDictionaryPageSize;
+        return this;
+    }
+
+    /**
+     * Enable or disable the dictionary encoding for all columns (that do not have their own setting).
+     * Note that Parquet falls back to the plain encoding for a column if the dictionary becomes too big
+     * (see {@link #setDictionaryPageSize(int)}).
+     */
+    public ParquetLogWriter setDictionaryEncoding(boolean newDictionaryEncoding) {
+        checkNotStarted();
+        dictionaryEncoding = newDictionaryEncoding;
+        return this;
+    }
+
+    /**
+     * Enable or disable the dictionary encoding of a single column.
+     * Enable it for fields with only a few distinct values (like the method, the status or the virtual host),
+     * disable it for fields that are (nearly) unique per line (like the timestamp or a session id).
+     */
+    public ParquetLogWriter setDictionaryEncoding(String column, boolean columnDictionaryEncodingEnabled) {
+        checkNotStarted();
+        columnDictionaryEncoding.put(column, columnDictionaryEncodingEnabled);
+        return this;
+    }
+
+    public ParquetLogWriter setCompressionCodec(CompressionCodecName newCompressionCodec) {
+        checkNotStarted();
+        compressionCodec = newCompressionCodec;
+        return this;
+    }
+
+    /**
+     * @param newOverwrite If true an existing file is replaced, else an existing file is an error.
+     */
+    public ParquetLogWriter setOverwrite(boolean newOverwrite) {
+        checkNotStarted();
+        overwrite = newOverwrite;
+        return this;
+    }
+
+    /**
+     * @param newBatchSize The number of rows that is handed over to the writing thread at once.
+     */
+    public ParquetLogWriter setBatchSize(int newBatchSize) {
+        checkNotStarted();
+        if (newBatchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be > 0");
+        }
+        batchSize = newBatchSize;
+        return this;
+    }
+
+    // --------------------------------------------
+
+    private static FieldSetter<ParquetRecord> createSetter(int column, Casts casts) {
+        switch (casts) {
+            case LONG:
+                return (parquetRecord, name, value) -> parquetRecord.getBatch().setLong(column, value.getLong());
+            case DOUBLE:
+                return (parquetRecord, name, value) -> parquetRecord.getBatch().setDouble(column, value.getDouble());
+            case STRING:
+            default:
+                return (parquetRecord, name, value) -> parquetRecord.getBatch().setString(column, value.getString());
+        }
+    }
+
+    private Casts[] determineColumnCasts() {
+        if (columnSpecs.isEmpty()) {
+            throw new IllegalStateException("No columns were specified");
+        }
+        List<String> fieldValues = new ArrayList<>();
+        for (ColumnSpec columnSpec : columnSpecs) {
+            fieldValues.add(columnSpec.fieldValue);
+        }
+        Map<String, EnumSet<Casts>> allCasts = getCasts(fieldValues);
+        Casts[] columnCasts = new Casts[columnSpecs.size()];
+        for (int column = 0; column < columnCasts.length; column++) {
+            columnCasts[column] = FieldCasts.getColumnCasts(allCasts, columnSpecs.get(column).fieldValue);
+        }
+        return columnCasts;
+    }
+
+    private MessageType createSchema(Casts[] columnCasts) {
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (int column = 0; column < columnCasts.length; column++) {
+            String name = columnSpecs.get(column).name;
+            switch (columnCasts[column]) {
+                case LONG:
+                    builder.optional(PrimitiveTypeName.INT64).named(name);
+                    break;
+                case DOUBLE:
+                    builder.optional(PrimitiveTypeName.DOUBLE).named(name);
+                    break;
+                case STRING:
+                default:
+                    builder.optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named(name);
+                    break;
+            }
+        }
+        return builder.named("httpdlog");
+    }
+
+    /**
+     * @return The schema of the Parquet file.
+     */
+    public MessageType getSchema() {
+        if (schema == null) {
+            schema = createSchema(determineColumnCasts());
+        }
+        return schema;
+    }
+
+    private static final class Builder extends ParquetWriter.Builder<RowBatch, Builder> {
+        private final WriteSupport<RowBatch> writeSupport;
+
+        Builder(Path file, WriteSupport<RowBatch> writeSupport) {
+            super(file);
+            this.writeSupport = writeSupport;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<RowBatch> getWriteSupport(Configuration conf) {
+            return writeSupport;
+        }
+    }
+
+    private void open() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The writer has been closed");
+        }
+        if (parquetWriter != null) {
+            return;
+        }
+
+        Casts[] columnCasts = determineColumnCasts();
+        if (schema == null) {
+            schema = createSchema(columnCasts);
+        }
+
+        parser = createParser();
+        Map<String, String> metaData = new LinkedHashMap<>();
+        for (int column = 0; column < columnCasts.length; column++) {
+            ColumnSpec columnSpec = columnSpecs.get(column);
+            // The value goes straight into the arrays of the column (no reflection or lookup per value).
+            parser.addFieldSetter(columnSpec.fieldValue, createSetter(column, columnCasts[column]));
+            metaData.put(FIELD_METADATA_KEY_PREFIX + columnSpec.name, columnSpec.fieldValue);
+        }
+        record = new ParquetRecord();
+
+        Builder builder = new Builder(file, new RowBatchWriteSupport(schema, metaData, columnCasts))
+            .withConf(configuration == null ? new Configuration() : configuration)
+            .withRowGroupSize(rowGroupSize)
+            .withPageSize(pageSize)
+            .withDictionaryPageSize(dictionaryPageSize)
+            .withDictionaryEncoding(dictionaryEncoding)
+            .withCompressionCodec(compressionCodec)
+            .withWriteMode(overwrite ? ParquetFileWriter.Mode.OVERWRITE : ParquetFileWriter.Mode.CREATE);
+        for (Map.Entry<String, Boolean> entry : columnDictionaryEncoding.entrySet()) {
+            if (!schema.containsField(entry.getKey())) {
+                throw new IllegalArgumentException("There is no column named \"" + entry.getKey() + "\"");
+            }
+            builder.withDictionaryEncoding(entry.getKey(), entry.getValue());
+        }
+        parquetWriter = builder.build();
+
+        freeBatches = new ArrayBlockingQueue<>(BATCHES);
+        fullBatches = new ArrayBlockingQueue<>(BATCHES + 1);
+        for (int i = 1; i < BATCHES; i++) {
+            freeBatches.add(new RowBatch(columnCasts, batchSize));
+        }
+        currentBatch = new RowBatch(columnCasts, batchSize);
+        record.setBatch(currentBatch);
+
+        writerThread = new Thread(this::writeBatches, "Parquet writer for " + file);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // --------------------------------------------
+
+    /**
+     * The writing thread: writes the full batches and returns them for reuse.
+     * After a failure the remaining batches are only returned (so the parsing never blocks); the failure is
+     * reported to the parsing thread on the next hand over.
+     */
+    private void writeBatches() {
+        try {
+            while (true) {
+                RowBatch batch = fullBatches.take();
+                if (batch == END_OF_BATCHES) {
+                    return;
+                }
+                try {
+                    if (writeFailure == null) {
+                        for (int row = 0; row < batch.size(); row++) {
+                            batch.setCursor(row);
+                            parquetWriter.write(batch);
+                        }
+                    }
+                } catch (Throwable e) { // Anything that goes wrong must be reported to the parsing thread.
+                    writeFailure = e;
+                } finally {
+                    batch.clear();
+                    freeBatches.add(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            writeFailure = e;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkWriteFailure() throws IOException {
+        Throwable failure = writeFailure;
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof IOException) {
+            throw new IOException("Unable to write " + file + ": " + failure.getMessage(), failure);
+        }
+        throw new IOException("Unable to write " + file, failure);
+    }
+
+    private void handOver() throws IOException {
+        checkWriteFailure();
+        try {
+            fullBatches.put(currentBatch);
+            currentBatch = freeBatches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Parquet writer");
+        }
+        record.setBatch(currentBatch);
+    }
+
+    /**
+     * Parse the line and write it as the next row in the file.
+     * @return true if the line was added, false if it was bad or rejected by one of the field filters.
+     * @throws IOException If writing the file failed.
+     */
+    @Override
+    public boolean add(String line) throws IOException {
+        open();
+        // The previous line may have been rejected after some of its values had been written into this row.
+        currentBatch.startRow();
+        if (!parse(parser, record, line)) {
+            return false;
+        }
+        currentBatch.commitRow();
+        if (currentBatch.isFull()) {
+            handOver();
+        }
+        return true;
+    }
+
+    /**
+     * Add all (non empty) lines of the UTF-8 encoded logfile.
+     * A compressed file (like .gz or .bz2) is decompressed with the Hadoop codec for its extension.
+     * @return The number of lines that were added.
+     */
+    public long addFile(Path logfile) throws IOException {
+        Configuration conf = configuration == null ? new Configuration() : configuration;
+        FileSystem fileSystem = logfile.getFileSystem(conf);
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(logfile);
+        try (InputStream inputStream = codec == null
+            ? fileSystem.open(logfile)
+            : codec.createInputStream(fileSystem.open(logfile))) {
+            return addLines(inputStream);
+        }
+    }
+
+    /**
+     * Write the remaining rows, wait for the writing thread and close the file.
+     * If no line was added the file is created anyway (with the schema and no rows).
+     * @throws IOException If writing the file failed (also if it failed earlier in the writing thread).
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        open();
+        closed = true;
+        try {
+            if (currentBatch.size() > 0) {
+                fullBatches.put(currentBatch);
+            }
+            fullBatches.put(END_OF_BATCHES);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Parquet writer");
+        } finally {
+            if (!writerThread.isAlive()) {
+                closeParquetWriter();
+            }
+        }
+        checkWriteFailure();
+    }
+
+    private void closeParquetWriter() throws IOException {
+        try {
+            parquetWriter.close();
+        } catch (IOException | RuntimeException e) {
+            Throwable failure = writeFailure;
+            if (failure == null) {
+                throw e;
+            }
+            // After a failure in the writing thread the file cannot be completed anyway: report the original failure.
+            failure.addSuppressed(e);
+        }
+    }
+}
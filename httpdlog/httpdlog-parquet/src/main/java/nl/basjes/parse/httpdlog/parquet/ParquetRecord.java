@@ -0,0 +1,38 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+/**
+ * The record the parser puts the values in for the {@link ParquetLogWriter}.
+ * There is only one instance per writer: it only holds the current batch, the setter of every column
+ * writes the value straight into the current row of that batch.
+ */
+public final class ParquetRecord {
+
+    private RowBatch batch;
+
+    ParquetRecord() {
+    }
+
+    void setBatch(RowBatch newBatch) {
+        batch = newBatch;
+    }
+
+    RowBatch getBatch() {
+        return batch;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+import nl.basjes.parse.core.Casts;
+
+import java.util.Arrays;
+
+/**
+ * A reusable block of rows that is filled by the parsing thread and then written by the writing thread.
+ * The values are stored per column in primitive arrays so no object is created per line (except for the
+ * Strings the parser produces anyway). A value that was not set in a row is written as null.
+ */
+final class RowBatch {
+
+    private final int         capacity;
+    private final Casts[]     columnCasts;
+    private final String[][]  strings;
+    private final long[][]    longs;
+    private final double[][]  doubles;
+    private final boolean[][] present;
+
+    // The number of completed rows.
+    private int size = 0;
+
+    // The row that is being read by the writer.
+    private int cursor = 0;
+
+    RowBatch(Casts[] columnCasts, int capacity) {
+        this.capacity    = capacity;
+        this.columnCasts = columnCasts;
+        int columns = columnCasts.length;
+        strings = new String[columns][];
+        longs   = new long[columns][];
+        doubles = new double[columns][];
+        present = new boolean[columns][capacity];
+        for (int column = 0; column < columns; column++) {
+            switch (columnCasts[column]) {
+                case LONG:
+                    longs[column] = new long[capacity];
+                    break;
+                case DOUBLE:
+                    doubles[column] = new double[capacity];
+                    break;
+                case STRING:
+                default:
+                    strings[column] = new String[capacity];
+                    break;
+            }
+        }
+    }
+
+    Casts[] getColumnCasts() {
+        return columnCasts;
+    }
+
+    // --------------------------------------------
+    // The parsing side: the values are put into row 'size' which only becomes part of the batch after commitRow().
+
+    /**
+     * Clear the row that is filled next (it may contain values of a line that was rejected halfway).
+     */
+    void startRow() {
+        for (boolean[] columnPresent : present) {
+            columnPresent[size] = false;
+        }
+    }
+
+    void commitRow() {
+        size++;
+    }
+
+    void setString(int column, String value) {
+        if (value == null) {
+            return;
+        }
+        strings[column][size] = value;
+        present[column][size] = true;
+    }
+
+    void setLong(int column, Long value) {
+        if (value == null) {
+            return;
+        }
+        longs[column][size] = value;
+        present[column][size] = true;
+    }
+
+    void setDouble(int column, Double value) {
+        if (value == null) {
+            return;
+        }
+        doubles[column][size] = value;
+        present[column][size] = true;
+    }
+
+    boolean isFull() {
+        return size >= capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Make the batch empty (and drop the references to the Strings of the previous rows).
+     */
+    void clear() {
+        for (String[] columnStrings : strings) {
+            if (columnStrings != null) {
+                Arrays.fill(columnStrings, 0, size, null);
+            }
+        }
+        size = 0;
+        cursor = 0;
+    }
+
+    // --------------------------------------------
+    // The writing side: reads row 'cursor'.
+
+    void setCursor(int row) {
+        cursor = row;
+    }
+
+    boolean isPresent(int column) {
+        return present[column][cursor];
+    }
+
+    String getString(int column) {
+        return strings[column][cursor];
+    }
+
+    long getLong(int column) {
+        return longs[column][cursor];
+    }
+
+    double getDouble(int column) {
+        return doubles[column][cursor];
+    }
+}
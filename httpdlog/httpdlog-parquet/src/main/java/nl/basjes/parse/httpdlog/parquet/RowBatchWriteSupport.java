@@ -0,0 +1,84 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+import nl.basjes.parse.core.Casts;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+
+import java.util.Map;
+
+/**
+ * Writes the row at the cursor of a {@link RowBatch} as a Parquet record.
+ * The columns of the schema are all optional and in the same order as the columns of the batch.
+ */
+final class RowBatchWriteSupport extends WriteSupport<RowBatch> {
+
+    private final MessageType         schema;
+    private final Map<String, String> extraMetaData;
+    private final String[]            names;
+    private final Casts[]             columnCasts;
+    private RecordConsumer            recordConsumer;
+
+    RowBatchWriteSupport(MessageType schema, Map<String, String> extraMetaData, Casts[] columnCasts) {
+        this.schema        = schema;
+        this.extraMetaData = extraMetaData;
+        this.columnCasts   = columnCasts;
+        names = new String[columnCasts.length];
+        for (int column = 0; column < names.length; column++) {
+            names[column] = schema.getFieldName(column);
+        }
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+        return new WriteContext(schema, extraMetaData);
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer newRecordConsumer) {
+        recordConsumer = newRecordConsumer;
+    }
+
+    @Override
+    public void write(RowBatch batch) {
+        recordConsumer.startMessage();
+        for (int column = 0; column < names.length; column++) {
+            if (!batch.isPresent(column)) {
+                continue; // Null
+            }
+            recordConsumer.startField(names[column], column);
+            switch (columnCasts[column]) {
+                case LONG:
+                    recordConsumer.addLong(batch.getLong(column));
+                    break;
+                case DOUBLE:
+                    recordConsumer.addDouble(batch.getDouble(column));
+                    break;
+                case STRING:
+                default:
+                    recordConsumer.addBinary(Binary.fromString(batch.getString(column)));
+                    break;
+            }
+            recordConsumer.endField(names[column], column);
+        }
+        recordConsumer.endMessage();
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.parquet;
+
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.httpdlog.HttpdLoglineParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.util.Progressable;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestParquetLogWriter {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b";
+
+    @TempDir
+    File tempDir;
+
+    private static Parser<ParquetRecord> createParser() {
+        return new HttpdLoglineParser<>(ParquetRecord.class, LOGFORMAT);
+    }
+
+    private Path path(String name) {
+        return new Path(new File(tempDir, name).toURI());
+    }
+
+    private static String line(int i) {
+        return "10.0.0." + (i % 250) + " - - [24/Oct/2012:23:00:44 +0200] \"" + ((i % 3 == 0) ? "POST" : "GET") +
+            " /page/" + i + ".html?session=" + (i * 7919L) + " HTTP/1.1\" 200 " + i;
+    }
+
+    private static ParquetLogWriter createWriter(Path file) {
+        return new ParquetLogWriter(TestParquetLogWriter::createParser, file)
+            .addField("ip",       "IP:connection.client.host")
+            .addField("method",   "HTTP.METHOD:request.firstline.method")
+            .addField("HTTP.URI:request.firstline.uri")
+            .addField("status",   "STRING:request.status.last")
+            .addField("bytes",    "BYTES:response.body.bytesclf");
+    }
+
+    private static List<Group> readAll(Path file) throws IOException {
+        List<Group> rows = new ArrayList<>();
+        try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), file).build()) {
+            Group row;
+            while ((row = reader.read()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static ParquetMetadata readFooter(Path file) throws IOException {
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(file, new Configuration()))) {
+            return reader.getFooter();
+        }
+    }
+
+    @Test
+    void testWriteAndRead() throws IOException {
+        Path file = path("access.parquet");
+        // A very small batch size to have many hand overs to the writing thread.
+        try (ParquetLogWriter writer = createWriter(file).setBatchSize(1)) {
+            MessageType schema = writer.getSchema();
+            assertEquals(PrimitiveTypeName.BINARY, schema.getType("ip").asPrimitiveType().getPrimitiveTypeName());
+            assertEquals(PrimitiveTypeName.BINARY, schema.getType("HTTP_URI_request_firstline_uri").asPrimitiveType().getPrimitiveTypeName());
+            assertEquals(PrimitiveTypeName.INT64,  schema.getType("bytes").asPrimitiveType().getPrimitiveTypeName());
+
+            assertTrue(writer.add(line(1)));
+            assertFalse(writer.add("This is not a logline"));
+            assertTrue(writer.add(line(3)));
+            assertTrue(writer.add("10.0.0.9 - - [24/Oct/2012:23:00:47 +0200] \"GET /robots.txt HTTP/1.1\" 404 -"));
+            assertEquals(3, writer.getGoodLines());
+            assertEquals(1, writer.getBadLines());
+        }
+
+        List<Group> rows = readAll(file);
+        assertEquals(3, rows.size());
+
+        assertEquals("10.0.0.1",   rows.get(0).getString("ip", 0));
+        assertEquals("GET",        rows.get(0).getString("method", 0));
+        assertEquals("/page/1.html?session=7919", rows.get(0).getString("HTTP_URI_request_firstline_uri", 0));
+        assertEquals("200",        rows.get(0).getString("status", 0));
+        assertEquals(1L,           rows.get(0).getLong("bytes", 0));
+
+        assertEquals("10.0.0.3",   rows.get(1).getString("ip", 0));
+        assertEquals("POST",       rows.get(1).getString("method", 0));
+        assertEquals(3L,           rows.get(1).getLong("bytes", 0));
+
+        // The '-' is a null
+        assertEquals("/robots.txt", rows.get(2).getString("HTTP_URI_request_firstline_uri", 0));
+        assertEquals("404",        rows.get(2).getString("status", 0));
+        assertEquals(0,            rows.get(2).getFieldRepetitionCount("bytes"));
+
+        assertEquals("IP:connection.client.host", readFooter(file).getFileMetaData().getKeyValueMetaData()
+            .get(ParquetLogWriter.FIELD_METADATA_KEY_PREFIX + "ip"));
+    }
+
+    private static boolean isDictionaryEncoded(ColumnChunkMetaData chunk) {
+        Set<Encoding> encodings = chunk.getEncodings();
+        return encodings.contains(Encoding.PLAIN_DICTIONARY) || encodings.contains(Encoding.RLE_DICTIONARY);
+    }
+
+    @Test
+    void testDictionaryEncodingPerColumn() throws IOException {
+        Path file = path("dictionary.parquet");
+        try (ParquetLogWriter writer = createWriter(file)
+            .setDictionaryEncoding(false)
+            .setDictionaryEncoding("method", true)) {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(writer.add(line(i)));
+            }
+        }
+
+        ParquetMetadata footer = readFooter(file);
+        for (BlockMetaData block : footer.getBlocks()) {
+            for (ColumnChunkMetaData chunk : block.getColumns()) {
+                String column = chunk.getPath().toDotString();
+                assertEquals("method".equals(column), isDictionaryEncoded(chunk), column);
+            }
+        }
+        assertEquals(1000, readAll(file).size());
+    }
+
+    @Test
+    void testDictionaryFallback() throws IOException {
+        Path file = path("fallback.parquet");
+        try (ParquetLogWriter writer = createWriter(file).setDictionaryPageSize(1024)) {
+            for (int i = 0; i < 2000; i++) {
+                assertTrue(writer.add(line(i)));
+            }
+        }
+
+        // Every uri is unique so its dictionary overflows and the rest of the column is written plain,
+        // the few methods remain dictionary encoded.
+        for (BlockMetaData block : readFooter(file).getBlocks()) {
+            for (ColumnChunkMetaData chunk : block.getColumns()) {
+                String column = chunk.getPath().toDotString();
+                if ("HTTP_URI_request_firstline_uri".equals(column)) {
+                    assertTrue(chunk.getEncodings().contains(Encoding.PLAIN), column + " " + chunk.getEncodings());
+                }
+                if ("method".equals(column)) {
+                    assertTrue(isDictionaryEncoded(chunk), column + " " + chunk.getEncodings());
+                    assertFalse(chunk.getEncodings().contains(Encoding.PLAIN), column + " " + chunk.getEncodings());
+                }
+            }
+        }
+
+        // Nothing is lost in the fall back
+        List<Group> rows = readAll(file);
+        assertEquals(2000, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals("/page/" + i + ".html?session=" + (i * 7919L), rows.get(i).getString("HTTP_URI_request_firstline_uri", 0));
+            assertEquals((i % 3 == 0) ? "POST" : "GET", rows.get(i).getString("method", 0));
+        }
+    }
+
+    @Test
+    void testRowGroupSize() throws IOException {
+        Path file = path("rowgroups.parquet");
+        try (ParquetLogWriter writer = createWriter(file).setRowGroupSize(4096).setPageSize(1024)) {
+            for (int i = 0; i < 5000; i++) {
+                writer.add(line(i));
+            }
+        }
+        List<BlockMetaData> blocks = readFooter(file).getBlocks();
+        assertTrue(blocks.size() > 1, "Only " + blocks.size() + " row groups");
+        long rows = 0;
+        for (BlockMetaData block : blocks) {
+            rows += block.getRowCount();
+        }
+        assertEquals(5000, rows);
+    }
+
+    @Test
+    void testAddCompressedFile() throws IOException {
+        File logfile = new File(tempDir, "access.log.gz");
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(logfile)), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 100; i++) {
+                out.write(line(i));
+                out.write("\n\n");
+            }
+        }
+
+        Path file = path("fromfile.parquet");
+        try (ParquetLogWriter writer = createWriter(file)) {
+            assertEquals(100, writer.addFile(new Path(logfile.toURI())));
+        }
+        assertEquals(100, readAll(file).size());
+    }
+
+    /**
+     * A local file system of which the files fail on everything that is written after the magic
+     * at the start of a Parquet file.
+     */
+    public static final class FailingFileSystem extends RawLocalFileSystem {
+        @Override
+        public URI getUri() {
+            return URI.create("failing:///");
+        }
+
+        @Override
+        public FSDataOutputStream create(Path path, boolean overwrite, int bufferSize,
+                                         short replication, long blockSize, Progressable progress) throws IOException {
+            OutputStream out = super.create(path, overwrite, bufferSize, replication, blockSize, progress);
+            return new FSDataOutputStream(new FilterOutputStream(out) {
+                private long written = 0;
+
+                @Override
+                public void write(int value) throws IOException {
+                    write(new byte[]{(byte) value}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    written += length;
+                    if (written > 4) {
+                        throw new IOException("Disk full");
+                    }
+                    out.write(bytes, offset, length);
+                }
+            }, null);
+        }
+    }
+
+    @Test
+    void testWriteFailureDuringClose() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("fs.failing.impl", FailingFileSystem.class.getName());
+        conf.setBoolean("fs.failing.impl.disable.cache", true);
+        Path file = new Path("failing", null, new File(tempDir, "failing.parquet").getAbsolutePath());
+
+        ParquetLogWriter writer = createWriter(file)
+            .setConfiguration(conf)
+            .setRowGroupSize(1024)
+            .setPageSize(256);
+        // All rows fit in the first batch so the writing thread only starts writing (and fails) during the close.
+        for (int i = 0; i < 500; i++) {
+            assertTrue(writer.add(line(i)));
+        }
+        IOException failure = assertThrows(IOException.class, writer::close);
+        assertTrue(failure.getMessage().startsWith("Unable to write " + file), failure.getMessage());
+        assertEquals("Disk full", failure.getCause().getMessage());
+
+        // Closing again does nothing and the writer cannot be used anymore.
+        writer.close();
+        assertThrows(IllegalStateException.class, () -> writer.add(line(0)));
+    }
+
+    @Test
+    void testNoLinesAndOverwrite() throws IOException {
+        Path file = path("empty.parquet");
+        createWriter(file).close();
+        assertEquals(0, readAll(file).size());
+        assertEquals(5, readFooter(file).getFileMetaData().getSchema().getFieldCount());
+
+        // The file already exists
+        ParquetLogWriter writer = createWriter(file);
+        assertThrows(IOException.class, () -> writer.add(line(0)));
+
+        try (ParquetLogWriter overwriter = createWriter(file).setOverwrite(true)) {
+            assertTrue(overwriter.add(line(0)));
+            assertFalse(overwriter.add("This is not a logline"));
+            assertThrows(IllegalStateException.class, () -> overwriter.setBatchSize(10));
+        }
+        assertEquals(1, readAll(file).size());
+    }
+
+    @Test
+    void testBadConfig() {
+        // A duplicate column name, an unknown field and a dictionary setting for an unknown column.
+        assertThrows(IllegalArgumentException.class, () ->
+            createWriter(path("bad.parquet")).addField("ip", "STRING:connection.client.user"));
+        assertThrows(IllegalStateException.class, () ->
+            createWriter(path("bad.parquet")).addField("NOSUCHTYPE:request.firstline.uri").getSchema());
+        assertThrows(IllegalArgumentException.class, () ->
+            createWriter(path("bad.parquet")).setDictionaryEncoding("nosuchcolumn", true).add(line(0)));
+    }
+}
@@ -27,8 +27,6 @@ import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static nl.basjes.parse.core.Casts.STRING_ONLY;
 
@@ -56,11 +54,23 @@ public class HttpFirstLineDissector extends Dissector {
     public static final String FIRSTLINE_REGEX =
             ".*";
 
-    private final Pattern firstlineSplitter = Pattern
-            .compile("^([a-zA-Z-_]+) (.*) (HTTP/[0-9]+\\.[0-9]+)$");
+    // The actual splitting is done by a hand written scanner (see dissect) that does the same as the
+    // regular expressions
+    //      ^([a-zA-Z-_]+) (.*) (HTTP/[0-9]+\.[0-9]+)$
+    // and (if the HTTP version has been cut off)
+    //      ^([a-zA-Z-_]+) (.*)$
+    // in a single pass without creating any Matcher instances.
 
-    private final Pattern tooLongFirstlineSplitter = Pattern
-            .compile("^([a-zA-Z-_]+) (.*)$");
+    // The most common methods and protocols are taken from these pools instead of creating new substrings.
+    private static final String[] METHOD_POOL = {
+        "GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "PATCH", "CONNECT", "TRACE", "PROPFIND",
+    };
+
+    private static final String[] PROTOCOL_POOL = {
+        "HTTP/1.1", "HTTP/1.0", "HTTP/2.0", "HTTP/0.9", "HTTP/3.0",
+    };
+
+    private static final String PROTOCOL_SEPARATOR = " HTTP/";
 
     // --------------------------------------------
 
@@ -92,44 +102,89 @@ public class HttpFirstLineDissector extends Dissector {
             return; // Nothing to do here
         }
 
-        // Now we create a matcher for this line
-        Matcher matcher = firstlineSplitter.matcher(fieldValue);
-
-        // Is it all as expected?
-        boolean matches = matcher.find();
+        // Step 1: The method is everything up to the first space
+        final int methodEnd = fieldValue.indexOf(' ');
+        if (methodEnd <= 0) {
+            return; // No method or no separating space: Not a valid firstline
+        }
+        for (int i = 0; i < methodEnd; i++) {
+            if (!isMethodChar(fieldValue.charAt(i))) {
+                return; // Garbage: Not a valid firstline
+            }
+        }
 
-        if (matches && matcher.groupCount() == 3) {
-            outputDissection(parsable, inputname, "HTTP.METHOD", "method", matcher, 1);
-            outputDissection(parsable, inputname, "HTTP.URI", "uri", matcher, 2);
-            outputDissection(parsable, inputname, "HTTP.PROTOCOL_VERSION", "protocol", matcher, 3);
+        // Step 2: The protocol is the part after the last " HTTP/" (if it is a valid protocol version)
+        final int uriStart = methodEnd + 1;
+        final int protocolSeparator = fieldValue.lastIndexOf(PROTOCOL_SEPARATOR);
+        if (protocolSeparator >= uriStart && isProtocolVersion(fieldValue, protocolSeparator + PROTOCOL_SEPARATOR.length())) {
+            outputDissection(parsable, inputname, "HTTP.METHOD", "method",
+                fromPool(METHOD_POOL, fieldValue, 0, methodEnd));
+            outputDissection(parsable, inputname, "HTTP.URI", "uri",
+                fieldValue.substring(uriStart, protocolSeparator));
+            outputDissection(parsable, inputname, "HTTP.PROTOCOL_VERSION", "protocol",
+                fromPool(PROTOCOL_POOL, fieldValue, protocolSeparator + 1, fieldValue.length()));
             return;
         }
 
         // In the scenario that the actual URI is too long the last part ("HTTP/1.1") may have been cut off by the
-        // Apache HTTPD webserver. To still be able to parse these we try that pattern too
+        // Apache HTTPD webserver. To still be able to parse these we output what we have.
+        outputDissection(parsable, inputname, "HTTP.METHOD", "method",
+            fromPool(METHOD_POOL, fieldValue, 0, methodEnd));
+        outputDissection(parsable, inputname, "HTTP.URI", "uri",
+            fieldValue.substring(uriStart));
+        parsable.addDissection(inputname, "HTTP.PROTOCOL_VERSION", "protocol", (String) null);
+    }
 
-        // Now we create a matcher for this line
-        matcher = tooLongFirstlineSplitter.matcher(fieldValue);
+    private static boolean isMethodChar(char c) {
+        return  (c >= 'a' && c <= 'z') ||
+                (c >= 'A' && c <= 'Z') ||
+                c == '-' || c == '_';
+    }
 
-        // Is it all as expected?
-        matches = matcher.find();
+    /**
+     * Checks if the value from the offset until the end is [0-9]+\.[0-9]+
+     */
+    private static boolean isProtocolVersion(String value, int offset) {
+        final int length = value.length();
+        int pos = offset;
+        while (pos < length && isDigit(value.charAt(pos))) {
+            pos++;
+        }
+        if (pos == offset || pos == length || value.charAt(pos) != '.') {
+            return false;
+        }
+        final int minorStart = ++pos;
+        while (pos < length && isDigit(value.charAt(pos))) {
+            pos++;
+        }
+        return pos != minorStart && pos == length;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
-        if (matches && matcher.groupCount() == 2) {
-            outputDissection(parsable, inputname, "HTTP.METHOD", "method", matcher, 1);
-            outputDissection(parsable, inputname, "HTTP.URI", "uri", matcher, 2);
-            parsable.addDissection(inputname, "HTTP.PROTOCOL_VERSION", "protocol", (String) null);
+    /**
+     * Returns the substring [start, end) of the value; taken from the pool if it is one of the common values.
+     */
+    private static String fromPool(String[] pool, String value, int start, int end) {
+        final int length = end - start;
+        for (String candidate : pool) {
+            if (candidate.length() == length && value.regionMatches(start, candidate, 0, length)) {
+                return candidate;
+            }
         }
+        return value.substring(start, end);
     }
 
     private void outputDissection(Parsable<?> parsable,
                                   String inputname,
                                   String type,
                                   String name,
-                                  Matcher matcher,
-                                  int offset)
+                                  String value)
             throws DissectionFailure {
         if (requestedParameters.contains(name)) {
-            parsable.addDissection(inputname, type, name, matcher.group(offset));
+            parsable.addDissection(inputname, type, name, value);
         }
     }
 
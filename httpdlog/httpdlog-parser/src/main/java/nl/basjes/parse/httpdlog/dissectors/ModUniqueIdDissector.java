@@ -21,11 +21,11 @@ import nl.basjes.parse.core.Dissector;
 import nl.basjes.parse.core.Parsable;
 import nl.basjes.parse.core.ParsedField;
 import nl.basjes.parse.core.exceptions.DissectionFailure;
-import org.apache.commons.codec.binary.Base64;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -110,133 +110,87 @@ public class ModUniqueIdDissector extends Dissector {
             return; // Nothing to do here
         }
 
-        UniqueIdRec record = decode(fieldValue);
-        if (record == null) {
+        // http://httpd.apache.org/docs/current/mod/mod_unique_id.html
+        // The UNIQUE_ID environment variable is constructed by encoding the 144-bit
+        // (32-bit IP address, 32 bit pid, 32 bit time stamp, 16 bit counter, 32 bit thread index)
+        // quadruple using the alphabet [A-Za-z0-9@-] in a manner similar to MIME base64 encoding,
+        // producing 24 characters.
+        // The actual ordering of the encoding is: time stamp, IP address, pid, counter, thread index.
+        if (fieldValue.length() != 24) {
             return;
         }
 
+        // 1 letter = 6 bits of data = 2^6 = 64 letters needed to do the mapping
+        // So 8 letters = 48 bits = 6 bytes and the full 24 letters are decoded as 3 chunks of 6 bytes.
+        final long timestampAndIpHigh = decodeChunk(fieldValue, 0);  // 32 bit time stamp + 16 bit IP
+        final long ipLowAndPid        = decodeChunk(fieldValue, 8);  // 16 bit IP + 32 bit pid
+        final long counterAndThread   = decodeChunk(fieldValue, 16); // 16 bit counter + 32 bit thread index
+        if (timestampAndIpHigh < 0 || ipLowAndPid < 0 || counterAndThread < 0) {
+            return; // Invalid letter(s) in the input.
+        }
+
         if (wantTime) {
-            parsable.addDissection(inputname, "TIME.EPOCH",   "epoch",       record.timestamp);
+            // Quote: The timestamp has only one second granularity
+            long timestamp = (timestampAndIpHigh >>> 16) * 1000; // This is to convert the time into milliseconds
+            parsable.addDissection(inputname, "TIME.EPOCH",   "epoch",       timestamp);
         }
         if (wantIp) {
-            parsable.addDissection(inputname, "IP",           "ip",          record.ipaddrStr);
+            // NOTE: In case of IPv6 the value will be related to the lower bits of the address.
+            long ipaddr = ((timestampAndIpHigh & 0xFFFFL) << 16) | (ipLowAndPid >>> 32);
+            String ipaddrStr = ""  + ((ipaddr >>> 24) & 0xFF) +
+                               '.' + ((ipaddr >>> 16) & 0xFF) +
+                               '.' + ((ipaddr >>>  8) & 0xFF) +
+                               '.' + (ipaddr          & 0xFF);
+            parsable.addDissection(inputname, "IP",           "ip",          ipaddrStr);
         }
         if (wantProcessId) {
-            parsable.addDissection(inputname, "PROCESSID",    "processid",   record.pid);
+            parsable.addDissection(inputname, "PROCESSID",    "processid",   ipLowAndPid & 0xFFFFFFFFL);
         }
         if (wantCounter) {
-            parsable.addDissection(inputname, "COUNTER",      "counter",     record.counter);
+            parsable.addDissection(inputname, "COUNTER",      "counter",     counterAndThread >>> 32);
         }
         if (wantThreadIndex) {
-            parsable.addDissection(inputname, "THREAD_INDEX", "threadindex", record.threadIndex);
+            parsable.addDissection(inputname, "THREAD_INDEX", "threadindex", counterAndThread & 0xFFFFFFFFL);
         }
     }
     // --------------------------------------------
 
-    private static class UniqueIdRec {
-        long timestamp;
-        long ipaddr;
-        String ipaddrStr;
-        long pid;
-        long counter;
-        long threadIndex;
-    }
-
-    // 1 letter = 6 bits of data = 2^6 = 64 letters needed to do the mapping
-    // 4 letters = 4*6 = 24 = 3*8 = 3 bytes
-    // So 24 letters = 24*6 = 144 bits = 18 bytes
-    public static final Charset CHARSET_UTF_8 = StandardCharsets.UTF_8;
-
-    private byte[] decodeToBytes(String modUniqueIdString) {
-        if (modUniqueIdString.length() != 24) {
-            return null;
-        }
-
-        // http://httpd.apache.org/docs/current/mod/mod_unique_id.html
-        // The UNIQUE_ID environment variable is constructed by encoding the 144-bit
-        // (32-bit IP address, 32 bit pid, 32 bit time stamp, 16 bit counter, 32 bit thread index)
-        // quadruple using the alphabet [A-Za-z0-9@-] in a manner similar to MIME base64 encoding,
-        // producing 24 characters.
-
-        // This implementation is based on the observation that the encoding used by mod-unique-id is
-        // the same as Base64 except that the last two letters are different.
-        // So by simply replacing the occurrences of these letters in the source we reuse and existing
-        // Base64 decode implementation.
+    // The encoding used by mod_unique_id is the same as Base64 except that the last two letters are different.
+    // Maps every possible letter to the 6 bits it represents (or -1 if it is not part of the alphabet).
+    private static final byte[] DECODE_TABLE = new byte[256];
 
-        byte[] modUniqueIdBytes = modUniqueIdString.getBytes(CHARSET_UTF_8);
-
-        byte[] modUniqueIdBase64Bytes = new byte[modUniqueIdBytes.length];
-
-        for (int i = 0; i < modUniqueIdBytes.length; i++) {
-            byte nextByte = modUniqueIdBytes[i];
-            switch (nextByte) {
-                case '+':
-                case '/':
-                    modUniqueIdBase64Bytes[i] = '@';
-                    break;
-
-                default:
-                    modUniqueIdBase64Bytes[i] = nextByte;
-                    break;
-            }
-        }
-
-        try {
-            return Base64.decodeBase64(modUniqueIdBase64Bytes);
-        } catch (IllegalArgumentException iae) {
-            return null;
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789@-";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
         }
     }
 
-    private UniqueIdRec decode(String modUniqueIdString) {
-        byte[] bytes = decodeToBytes(modUniqueIdString);
-        if (bytes == null) {
-            return null;
-        }
+    /**
+     * @deprecated The value is decoded without converting it into bytes so this is no longer used;
+     * use {@link StandardCharsets#UTF_8} instead.
+     */
+    @Deprecated
+    public static final Charset CHARSET_UTF_8 = StandardCharsets.UTF_8;
 
-        // Is the decoded output the right length?
-        if (bytes.length != 18) {
-            return null;
+    /**
+     * Decode the 8 letters starting at the offset into the 48 bits they represent.
+     * @return The decoded value or -1 if any of the letters is invalid.
+     */
+    private static long decodeChunk(String value, int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            final char letter = value.charAt(i);
+            if (letter > 0xFF) {
+                return -1;
+            }
+            final int bits = DECODE_TABLE[letter];
+            if (bits < 0) {
+                return -1;
+            }
+            result = (result << 6) | bits;
         }
-
-        UniqueIdRec result = new UniqueIdRec();
-
-//        http://httpd.apache.org/docs/current/mod/mod_unique_id.html
-
-//         we will use a Unix timestamp (seconds since January 1, 1970 UTC)
-//      (32-bit IP address, 32 bit pid, 32 bit time stamp, 16 bit counter, 32 bit thread index)
-//      The actual ordering of the encoding is: time stamp, IP address, pid, counter.
-
-        result.timestamp    =                               (((int)bytes[0]) & 0xFF);
-        result.timestamp    = (result.timestamp    * 256) + (((int)bytes[1]) & 0xFF);
-        result.timestamp    = (result.timestamp    * 256) + (((int)bytes[2]) & 0xFF);
-        result.timestamp    = (result.timestamp    * 256) + (((int)bytes[3]) & 0xFF);
-        // Quote: The timestamp has only one second granularity
-        result.timestamp   *= 1000; // This is to convert the time into milliseconds
-
-        // NOTE: In case of IPv6 the value will be related to the lower bits of the address.
-        result.ipaddr       =                               (((int)bytes[4]) & 0xFF);
-        result.ipaddr       = (result.ipaddr       * 256) + (((int)bytes[5]) & 0xFF);
-        result.ipaddr       = (result.ipaddr       * 256) + (((int)bytes[6]) & 0xFF);
-        result.ipaddr       = (result.ipaddr       * 256) + (((int)bytes[7]) & 0xFF);
-        result.ipaddrStr    = ""  + (((int)bytes[4]) & 0xFF) +
-                              '.' + (((int)bytes[5]) & 0xFF) +
-                              '.' + (((int)bytes[6]) & 0xFF) +
-                              '.' + (((int)bytes[7]) & 0xFF);
-
-        result.pid          =                                (((int)bytes[8]) & 0xFF);
-        result.pid          = (result.pid          * 256) +  (((int)bytes[9]) & 0xFF);
-        result.pid          = (result.pid          * 256) +  (((int)bytes[10]) & 0xFF);
-        result.pid          = (result.pid          * 256) +  (((int)bytes[11]) & 0xFF);
-
-        result.counter      =                                (((int)bytes[12]) & 0xFF);
-        result.counter      = (result.counter      * 256) +  (((int)bytes[13]) & 0xFF);
-
-        result.threadIndex  =                                (((int)bytes[14]) & 0xFF);
-        result.threadIndex  = (result.threadIndex  * 256) +  (((int)bytes[15]) & 0xFF);
-        result.threadIndex  = (result.threadIndex  * 256) +  (((int)bytes[16]) & 0xFF);
-        result.threadIndex  = (result.threadIndex  * 256) +  (((int)bytes[17]) & 0xFF);
-
         return result;
     }
 }
@@ -17,22 +17,26 @@
 package nl.basjes.parse.httpdlog.dissectors.geoip;
 
 import com.maxmind.db.CHMCache;
-import com.maxmind.db.Reader;
+import com.maxmind.db.Reader.FileMode;
 import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.AbstractResponse;
 import nl.basjes.parse.core.Dissector;
 import nl.basjes.parse.core.Parsable;
 import nl.basjes.parse.core.ParsedField;
 import nl.basjes.parse.core.exceptions.DissectionFailure;
 import nl.basjes.parse.core.exceptions.InvalidDissectorException;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
 
-public abstract class AbstractGeoIPDissector extends Dissector {
+public abstract class AbstractGeoIPDissector extends Dissector implements Closeable {
 
     static final String INPUT_TYPE = "IP";
 
@@ -52,35 +56,142 @@ public abstract class AbstractGeoIPDissector extends Dissector {
 
     // --------------------------------------------
 
+    /**
+     * The settings are the name of the database file.
+     * Optionally prefixed with the FileMode that must be used to load it (i.e. "MEMORY_MAPPED:/path/to/file.mmdb").
+     */
     @Override
     public boolean initializeFromSettingsParameter(String settings) {
         databaseFileName = settings;
+        if (settings != null) {
+            for (FileMode mode : FileMode.values()) {
+                String prefix = mode.name() + ':';
+                if (settings.startsWith(prefix)) {
+                    fileMode = mode;
+                    databaseFileName = settings.substring(prefix.length());
+                    break;
+                }
+            }
+        }
         return true; // Everything went right.
     }
 
     // --------------------------------------------
 
+    private FileMode fileMode = FileMode.MEMORY;
+
+    /**
+     * Use FileMode.MEMORY_MAPPED to let the operating system page cache hold the database.
+     * This way the memory is shared across all threads and JVMs on the same machine.
+     * With FileMode.MEMORY (the default) the database is loaded onto the heap once per JVM.
+     */
+    public AbstractGeoIPDissector setFileMode(FileMode newFileMode) {
+        fileMode = newFileMode;
+        return this;
+    }
+
+    public FileMode getFileMode() {
+        return fileMode;
+    }
+
+    // --------------------------------------------
+
     @Override
     protected void initializeNewInstance(Dissector newInstance) {
         newInstance.initializeFromSettingsParameter(databaseFileName);
+        if (newInstance instanceof AbstractGeoIPDissector) {
+            ((AbstractGeoIPDissector) newInstance).setFileMode(fileMode);
+            ((AbstractGeoIPDissector) newInstance).setResultCacheSize(resultCacheSize);
+            ((AbstractGeoIPDissector) newInstance).setReloadCheckInterval(reloadCheckIntervalMs);
+        }
+    }
+
+    // --------------------------------------------
+
+    private long reloadCheckIntervalMs = 0;
+
+    /**
+     * Periodically check if the database file has been modified and if so load it again (in the background).
+     * The new version is used as soon as it has been loaded completely. This is intended for long running
+     * processes that want to use the updated versions of the database (MaxMind releases them weekly).
+     * The file must be replaced by renaming a new file into place, never by overwriting it.
+     * @param newReloadCheckIntervalMs The time between the checks in milliseconds (0 = never reload).
+     */
+    public AbstractGeoIPDissector setReloadCheckInterval(long newReloadCheckIntervalMs) {
+        reloadCheckIntervalMs = Math.max(0, newReloadCheckIntervalMs);
+        return this;
+    }
+
+    public long getReloadCheckInterval() {
+        return reloadCheckIntervalMs;
     }
 
     // --------------------------------------------
 
+    // The reader that is currently in use (only valid during a lookup). After a reload this is replaced by the new reader.
     protected DatabaseReader reader;
 
+    private transient GeoIPDatabaseReaders.SharedReader sharedReader;
+
     @Override
     public void prepareForRun() throws InvalidDissectorException {
-        // This creates the DatabaseReader object, which should be reused across lookups.
+        // The DatabaseReader is shared by all dissectors in this JVM that use the same database.
+        close();
         try {
-            reader = new DatabaseReader
-                .Builder(openDatabaseFile(databaseFileName))
-                .fileMode(Reader.FileMode.MEMORY)
-                .withCache(new CHMCache())
-                .build();
+            sharedReader = GeoIPDatabaseReaders.acquire(
+                databaseFileName, fileMode, getDatabaseOpener(), reloadCheckIntervalMs, this::createDatabaseReader);
+            reader = sharedReader.get();
         } catch (IOException e) {
             throw new InvalidDissectorException(this.getClass().getCanonicalName() + ":" + e.getMessage());
         }
+        resultCache = resultCacheSize > 0 ? new GeoIPResultCache(resultCacheSize) : null;
+    }
+
+    DatabaseReader createDatabaseReader() throws IOException {
+        DatabaseReader.Builder builder;
+        if (fileMode == FileMode.MEMORY) {
+            builder = new DatabaseReader.Builder(openDatabaseFile(databaseFileName));
+        } else {
+            // Memory mapping is only possible with an actual file.
+            if (getDatabaseOpener() != AbstractGeoIPDissector.class) {
+                throw new IOException(getClass().getCanonicalName() + " overrides openDatabaseFile so the database " +
+                    databaseFileName + " cannot be memory mapped: use FileMode.MEMORY");
+            }
+            builder = new DatabaseReader.Builder(new File(databaseFileName));
+        }
+        return builder
+            .fileMode(fileMode)
+            .withCache(new CHMCache())
+            .build();
+    }
+
+    /**
+     * @return The class that implements the openDatabaseFile that is used. Dissectors that open the same file name
+     * in a different way must not share a reader.
+     */
+    Class<?> getDatabaseOpener() {
+        Class<?> clazz = getClass();
+        while (clazz != AbstractGeoIPDissector.class) {
+            try {
+                clazz.getDeclaredMethod("openDatabaseFile", String.class);
+                return clazz;
+            } catch (NoSuchMethodException e) {
+                clazz = clazz.getSuperclass();
+            }
+        }
+        return clazz;
+    }
+
+    /**
+     * Release the (shared) database reader. The dissector cannot be used anymore until prepareForRun is called again.
+     * Note that the Parser never calls this: the readers of the dissectors of a Parser remain loaded (and shared)
+     * for the lifetime of the JVM.
+     */
+    @Override
+    public void close() {
+        GeoIPDatabaseReaders.release(sharedReader);
+        sharedReader = null;
+        reader = null;
     }
 
     protected InputStream openDatabaseFile(String filename) throws FileNotFoundException {
@@ -90,6 +201,9 @@ public abstract class AbstractGeoIPDissector extends Dissector {
 
     // --------------------------------------------
 
+    // Receives the packed IP address of the current value (a dissector instance is only used by a single thread).
+    private final long[] packed = new long[2];
+
     @Override
     public void dissect(final Parsable<?> parsable, final String inputname) throws DissectionFailure {
         final ParsedField field = parsable.getParsableField(INPUT_TYPE, inputname);
@@ -99,17 +213,121 @@ public abstract class AbstractGeoIPDissector extends Dissector {
             return; // Nothing to do here
         }
 
-        InetAddress ipAddress;
-        try {
-            ipAddress = InetAddress.getByName(fieldValue);
-        } catch (UnknownHostException e) {
+        // We only accept IP literals; a hostname is never resolved.
+        if (!IPAddressParser.parse(fieldValue, packed)) {
+            return;
+        }
+
+        AbstractResponse response = lookup(packed[0], packed[1]);
+        if (response == null) {
             return;
         }
+        extractFields(parsable, inputname, response);
+    }
+
+    // --------------------------------------------
+
+    public static final int DEFAULT_RESULT_CACHE_SIZE = 10000;
+
+    private int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+
+    // The results of the lookups for the most recently used IP addresses.
+    private transient GeoIPResultCache resultCache;
+
+    /**
+     * Set the maximum number of IP addresses for which the lookup result is cached (0 = no caching).
+     * Must be called before the parser is assembled.
+     */
+    public AbstractGeoIPDissector setResultCacheSize(int newResultCacheSize) {
+        resultCacheSize = Math.max(0, newResultCacheSize);
+        return this;
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    private AbstractResponse lookup(long high, long low) {
+        if (sharedReader != null) {
+            DatabaseReader currentReader = sharedReader.get();
+            if (currentReader != reader) {
+                // The database was reloaded: the cached results are from the old version.
+                reader = currentReader;
+                if (resultCache != null) {
+                    resultCache.clear();
+                }
+            }
+        }
+
+        if (resultCache != null) {
+            Object cached = resultCache.get(high, low);
+            if (cached == GeoIPResultCache.NOT_FOUND) {
+                return null;
+            }
+            if (cached != null) {
+                return (AbstractResponse) cached;
+            }
+        }
 
-        dissect(parsable, inputname, ipAddress);
+        AbstractResponse response;
+        try {
+            response = lookupInCurrentGeneration(IPAddressParser.toInetAddress(high, low));
+        } catch (AddressNotFoundException e) {
+            if (resultCache != null) {
+                resultCache.put(high, low, GeoIPResultCache.NOT_FOUND);
+            }
+            return null;
+        } catch (IOException | GeoIp2Exception e) {
+            return null;
+        }
+
+        if (resultCache != null) {
+            resultCache.put(high, low, response == null ? GeoIPResultCache.NOT_FOUND : response);
+        }
+        return response;
+    }
+
+    /**
+     * Do the lookup while holding the current generation of the database so a reload cannot close it halfway.
+     */
+    private AbstractResponse lookupInCurrentGeneration(InetAddress ipAddress) throws IOException, GeoIp2Exception {
+        GeoIPDatabaseReaders.Generation generation = sharedReader.acquireGeneration();
+        try {
+            if (generation.getReader() != reader) {
+                // Reloaded after the check of the cache.
+                reader = generation.getReader();
+                if (resultCache != null) {
+                    resultCache.clear();
+                }
+            }
+            return lookup(ipAddress);
+        } finally {
+            generation.release();
+        }
+    }
+
+    public void dissect(final Parsable<?> parsable, final String inputname, final InetAddress ipAddress)
+        throws DissectionFailure {
+        AbstractResponse response;
+        try {
+            response = lookupInCurrentGeneration(ipAddress);
+        } catch (IOException | GeoIp2Exception e) {
+            return;
+        }
+        if (response != null) {
+            extractFields(parsable, inputname, response);
+        }
     }
 
     // --------------------------------------------
 
-    abstract void dissect(Parsable<?> parsable, String inputname, InetAddress ipAddress) throws DissectionFailure;
+    /**
+     * Do the actual lookup of the IP address in the database.
+     */
+    abstract AbstractResponse lookup(InetAddress ipAddress) throws IOException, GeoIp2Exception;
+
+    /**
+     * Put the requested values from the response (which was returned by lookup) into the parsable.
+     */
+    abstract void extractFields(Parsable<?> parsable, String inputname, AbstractResponse response) throws DissectionFailure;
 }
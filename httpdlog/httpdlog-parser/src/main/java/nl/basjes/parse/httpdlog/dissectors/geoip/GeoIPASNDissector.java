@@ -17,6 +17,7 @@
 package nl.basjes.parse.httpdlog.dissectors.geoip;
 
 import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.AbstractResponse;
 import com.maxmind.geoip2.model.AsnResponse;
 import nl.basjes.parse.core.Casts;
 import nl.basjes.parse.core.Parsable;
@@ -76,15 +77,14 @@ public class GeoIPASNDissector extends AbstractGeoIPDissector {
 
     // --------------------------------------------
 
-    public void dissect(final Parsable<?> parsable, final String inputname, final InetAddress ipAddress) throws DissectionFailure {
-        AsnResponse response;
-        try {
-            response = reader.asn(ipAddress);
-        } catch (IOException | GeoIp2Exception e) {
-            return;
-        }
+    @Override
+    AbstractResponse lookup(final InetAddress ipAddress) throws IOException, GeoIp2Exception {
+        return reader.asn(ipAddress);
+    }
 
-        extractAsnFields(parsable, inputname, response);
+    @Override
+    void extractFields(final Parsable<?> parsable, final String inputname, final AbstractResponse response) throws DissectionFailure {
+        extractAsnFields(parsable, inputname, (AsnResponse) response);
     }
 
     protected void extractAsnFields(final Parsable<?> parsable, final String inputname, AsnResponse response) throws DissectionFailure {
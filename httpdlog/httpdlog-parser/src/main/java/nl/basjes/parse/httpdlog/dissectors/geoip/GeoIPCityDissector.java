@@ -18,7 +18,7 @@ package nl.basjes.parse.httpdlog.dissectors.geoip;
 
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.AbstractCityResponse;
-import com.maxmind.geoip2.model.CityResponse;
+import com.maxmind.geoip2.model.AbstractResponse;
 import com.maxmind.geoip2.record.City;
 import com.maxmind.geoip2.record.Location;
 import com.maxmind.geoip2.record.Postal;
@@ -176,17 +176,16 @@ public class GeoIPCityDissector extends GeoIPCountryDissector {
 
     // --------------------------------------------
 
-    public void dissect(final Parsable<?> parsable, final String inputname, final InetAddress ipAddress) throws DissectionFailure {
+    @Override
+    AbstractResponse lookup(final InetAddress ipAddress) throws IOException, GeoIp2Exception {
         // City is the 'Country' + more details.
-        CityResponse response;
-        try {
-            response = reader.city(ipAddress);
-        } catch (IOException | GeoIp2Exception e) {
-            return;
-        }
+        return reader.city(ipAddress);
+    }
 
-        extractCountryFields(parsable, inputname, response);
-        extractCityFields(parsable, inputname, response);
+    @Override
+    void extractFields(final Parsable<?> parsable, final String inputname, final AbstractResponse response) throws DissectionFailure {
+        extractCountryFields(parsable, inputname, (AbstractCityResponse) response);
+        extractCityFields(parsable, inputname, (AbstractCityResponse) response);
     }
 
     protected void extractCityFields(final Parsable<?> parsable, final String inputname, AbstractCityResponse response) throws DissectionFailure {
@@ -18,7 +18,7 @@ package nl.basjes.parse.httpdlog.dissectors.geoip;
 
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.AbstractCountryResponse;
-import com.maxmind.geoip2.model.CountryResponse;
+import com.maxmind.geoip2.model.AbstractResponse;
 import com.maxmind.geoip2.record.Continent;
 import com.maxmind.geoip2.record.Country;
 import nl.basjes.parse.core.Casts;
@@ -112,15 +112,14 @@ public class GeoIPCountryDissector extends AbstractGeoIPDissector {
 
     // --------------------------------------------
 
-    public void dissect(final Parsable<?> parsable, final String inputname, final InetAddress ipAddress)
-        throws DissectionFailure {
-        CountryResponse response;
-        try {
-            response = reader.country(ipAddress);
-        } catch (IOException | GeoIp2Exception e) {
-            return;
-        }
-        extractCountryFields(parsable, inputname, response);
+    @Override
+    AbstractResponse lookup(final InetAddress ipAddress) throws IOException, GeoIp2Exception {
+        return reader.country(ipAddress);
+    }
+
+    @Override
+    void extractFields(final Parsable<?> parsable, final String inputname, final AbstractResponse response) throws DissectionFailure {
+        extractCountryFields(parsable, inputname, (AbstractCountryResponse) response);
     }
 
     protected void extractCountryFields(final Parsable<?> parsable, final String inputname, AbstractCountryResponse response)
@@ -0,0 +1,326 @@
+/*
+ * Apache HTTPD logparsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.dissectors.geoip;
+
+import com.maxmind.db.Reader.FileMode;
+import com.maxmind.geoip2.DatabaseReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A JVM wide registry of the GeoIP2 DatabaseReaders.
+ * A DatabaseReader is thread safe so all dissector instances (across all Parsers and all threads)
+ * that use the same database file in the same FileMode (and open it the same way) share a single reader.
+ * This avoids loading the same (large) database onto the heap for every dissector instance.
+ *
+ * In practice this is a permanent cache: a Parser never closes its dissectors so a database that has been loaded
+ * remains loaded until the JVM exits. The readers are reference counted only for code that explicitly calls
+ * close() on every dissector that uses it (like a test); the release of the last of those closes the reader.
+ *
+ * If any of the users asks for it the database file is checked periodically (in a background thread) and
+ * when it has been modified a new reader is built and swapped in. Every lookup holds the generation (i.e. loaded
+ * version) of the database it started with, so nobody ever blocks on, or sees, a partially loaded database.
+ * An old generation is closed as soon as the last lookup that was still using it has finished; this matters
+ * for FileMode.MEMORY_MAPPED where every generation holds a mapping of the file.
+ *
+ * A database file must always be replaced by writing a new file and renaming it into place (which is atomic,
+ * like geoipupdate does), never by overwriting it: a memory mapped generation would see the bytes change
+ * underneath the lookups that are still using it.
+ */
+public final class GeoIPDatabaseReaders {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GeoIPDatabaseReaders.class);
+
+    private GeoIPDatabaseReaders() {
+    }
+
+    interface ReaderFactory {
+        DatabaseReader create() throws IOException;
+    }
+
+    /**
+     * One loaded version of the database.
+     */
+    static final class Generation {
+        private final String          key;
+        private final DatabaseReader  reader;
+        // The lookups that are using it right now plus 1 for as long as it is the current generation.
+        // Once it drops to 0 the reader is closed and it can never be acquired again.
+        private final AtomicInteger   users = new AtomicInteger(1);
+
+        Generation(String key, DatabaseReader reader) {
+            this.key = key;
+            this.reader = reader;
+        }
+
+        DatabaseReader getReader() {
+            return reader;
+        }
+
+        /**
+         * @return true if it can be used until {@link #release()}, false if it has been closed already.
+         */
+        boolean tryAcquire() {
+            while (true) {
+                int count = users.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (users.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (users.decrementAndGet() == 0) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOG.warn("Unable to close GeoIP database {}: {}", key, e.getMessage());
+                }
+            }
+        }
+
+        boolean isClosed() {
+            return users.get() == 0;
+        }
+    }
+
+    static final class SharedReader {
+        private final String                  key;
+        private final String                  databaseFileName;
+        private final FileMode                fileMode;
+        private final ReaderFactory           factory;
+        private volatile Generation           current;
+        private int                           references = 0;
+
+        // The state of the file from which the current reader was loaded
+        private long                          lastModified;
+        private long                          length;
+
+        private long                          reloadCheckIntervalMs = 0;
+        private ScheduledFuture<?>            reloadTask = null;
+
+        // Set (under the lock of this instance) when the last user has released it.
+        private boolean                       released = false;
+
+        SharedReader(String key, String databaseFileName, FileMode fileMode, ReaderFactory factory) {
+            this.key = key;
+            this.databaseFileName = databaseFileName;
+            this.fileMode = fileMode;
+            this.factory = factory;
+        }
+
+        /**
+         * @return The most recently loaded reader (only for a quick check if it changed: use
+         * {@link #acquireGeneration()} to actually use it).
+         */
+        DatabaseReader get() {
+            return current.getReader();
+        }
+
+        /**
+         * @return The current generation which remains open until it is released.
+         */
+        Generation acquireGeneration() {
+            while (true) {
+                Generation generation = current;
+                if (generation.tryAcquire()) {
+                    return generation;
+                }
+                if (generation == current) {
+                    throw new IllegalStateException("The GeoIP database " + key + " has been closed");
+                }
+                // It was replaced by a reload right now: use the new one.
+            }
+        }
+
+        private synchronized void load() throws IOException {
+            // Record the state of the file BEFORE loading so a change during loading triggers a new reload.
+            File file = new File(databaseFileName);
+            long newLastModified = file.lastModified();
+            long newLength = file.length();
+            Generation oldGeneration = current;
+            current = new Generation(key, factory.create());
+            lastModified = newLastModified;
+            length = newLength;
+            if (oldGeneration != null) {
+                // Closed as soon as the lookups that are still using it are done.
+                oldGeneration.release();
+            }
+        }
+
+        synchronized boolean reloadIfModified() {
+            if (released) {
+                return false; // A reload that was already scheduled must not load a reader nobody will close.
+            }
+            File file = new File(databaseFileName);
+            long newLastModified = file.lastModified();
+            if (newLastModified == 0) {
+                return false; // Not a (readable) file or it is being replaced right now.
+            }
+            if (newLastModified == lastModified && file.length() == length) {
+                return false; // Unchanged
+            }
+
+            DatabaseReader oldReader = current.getReader();
+            try {
+                load();
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Unable to reload GeoIP database {} (keeping the old one): {}", key, e.getMessage());
+                return false;
+            }
+            LOG.info("Reloaded GeoIP database {} (old build date {}, new build date {})",
+                key, oldReader.getMetadata().getBuildDate(), get().getMetadata().getBuildDate());
+            return true;
+        }
+
+        /**
+         * Close the current reader (after the lookups that are still using it). Because this holds the same lock
+         * as a reload, a reload that is running right now completes first and the reader it loaded is the one
+         * that is closed here.
+         */
+        private synchronized void close() {
+            released = true;
+            LOG.info("Closing GeoIP database {}", key);
+            current.release();
+        }
+    }
+
+    // Key = "FileMode:opener:databaseFileName"
+    private static final Map<String, SharedReader> READERS = new HashMap<>();
+
+    private static ScheduledExecutorService reloadExecutor = null;
+
+    static String makeKey(String databaseFileName, FileMode fileMode, Class<?> opener) {
+        return fileMode.name() + ':' + opener.getName() + ':' + databaseFileName;
+    }
+
+    /**
+     * Get the shared reader for the database file. If there is none yet it is created using the factory.
+     * Every call to acquire must be followed by exactly one call to {@link #release(SharedReader)}.
+     * @param opener The class that determines how the file is opened (the factories of the same opener, file name
+     *               and FileMode are assumed to create the same reader).
+     * @param reloadCheckIntervalMs If &gt; 0 the file is checked for changes at (at most) this interval.
+     */
+    static synchronized SharedReader acquire(String databaseFileName, FileMode fileMode, Class<?> opener,
+                                             long reloadCheckIntervalMs, ReaderFactory factory)
+        throws IOException {
+        String key = makeKey(databaseFileName, fileMode, opener);
+        SharedReader sharedReader = READERS.get(key);
+        if (sharedReader == null) {
+            LOG.info("Loading GeoIP database {} (FileMode {})", databaseFileName, fileMode);
+            sharedReader = new SharedReader(key, databaseFileName, fileMode, factory);
+            sharedReader.load();
+            READERS.put(key, sharedReader);
+        }
+        sharedReader.references++;
+
+        if (reloadCheckIntervalMs > 0 &&
+            (sharedReader.reloadCheckIntervalMs == 0 || reloadCheckIntervalMs < sharedReader.reloadCheckIntervalMs)) {
+            scheduleReloadCheck(sharedReader, reloadCheckIntervalMs);
+        }
+        return sharedReader;
+    }
+
+    private static void scheduleReloadCheck(SharedReader sharedReader, long reloadCheckIntervalMs) {
+        if (reloadExecutor == null) {
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "GeoIP database reloader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (sharedReader.reloadTask != null) {
+            sharedReader.reloadTask.cancel(false);
+        }
+        sharedReader.reloadCheckIntervalMs = reloadCheckIntervalMs;
+        sharedReader.reloadTask = reloadExecutor.scheduleWithFixedDelay(
+            sharedReader::reloadIfModified, reloadCheckIntervalMs, reloadCheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Release a reader that was obtained via acquire. When the last user releases it the reader is closed.
+     */
+    static synchronized void release(SharedReader sharedReader) {
+        if (sharedReader == null) {
+            return;
+        }
+        sharedReader.references--;
+        if (sharedReader.references <= 0) {
+            READERS.remove(sharedReader.key);
+            if (sharedReader.reloadTask != null) {
+                sharedReader.reloadTask.cancel(false);
+                sharedReader.reloadTask = null;
+            }
+            sharedReader.close();
+        }
+    }
+
+    /**
+     * Immediately check if the database file has been modified and if so load and swap in the new version.
+     * This is the same as what is done periodically if a reload check interval has been set.
+     * @return true if a new version of the database was loaded.
+     */
+    public static boolean reloadIfModified(String databaseFileName, FileMode fileMode) {
+        List<SharedReader> sharedReaders;
+        synchronized (GeoIPDatabaseReaders.class) {
+            sharedReaders = getSharedReaders(databaseFileName, fileMode);
+        }
+        boolean reloaded = false;
+        for (SharedReader sharedReader : sharedReaders) {
+            reloaded |= sharedReader.reloadIfModified();
+        }
+        return reloaded;
+    }
+
+    /**
+     * @return The number of users of the readers for this database file (0 if not loaded).
+     */
+    public static synchronized int getReferenceCount(String databaseFileName, FileMode fileMode) {
+        int references = 0;
+        for (SharedReader sharedReader : getSharedReaders(databaseFileName, fileMode)) {
+            references += sharedReader.references;
+        }
+        return references;
+    }
+
+    // All readers of the file (a subclass that opens the file differently has a reader of its own).
+    private static List<SharedReader> getSharedReaders(String databaseFileName, FileMode fileMode) {
+        List<SharedReader> sharedReaders = new ArrayList<>();
+        for (SharedReader sharedReader : READERS.values()) {
+            if (sharedReader.fileMode == fileMode && sharedReader.databaseFileName.equals(databaseFileName)) {
+                sharedReaders.add(sharedReader);
+            }
+        }
+        return sharedReaders;
+    }
+
+}
@@ -17,6 +17,7 @@
 package nl.basjes.parse.httpdlog.dissectors.geoip;
 
 import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.AbstractResponse;
 import com.maxmind.geoip2.model.IspResponse;
 import nl.basjes.parse.core.Casts;
 import nl.basjes.parse.core.Parsable;
@@ -78,16 +79,15 @@ public class GeoIPISPDissector extends GeoIPASNDissector {
 
     // --------------------------------------------
 
-    public void dissect(final Parsable<?> parsable, final String inputname, final InetAddress ipAddress) throws DissectionFailure {
-        IspResponse response;
-        try {
-            response = reader.isp(ipAddress);
-        } catch (IOException | GeoIp2Exception e) {
-            return;
-        }
+    @Override
+    AbstractResponse lookup(final InetAddress ipAddress) throws IOException, GeoIp2Exception {
+        return reader.isp(ipAddress);
+    }
 
-        extractAsnFields(parsable, inputname, response);
-        extractIspFields(parsable, inputname, response);
+    @Override
+    void extractFields(final Parsable<?> parsable, final String inputname, final AbstractResponse response) throws DissectionFailure {
+        extractAsnFields(parsable, inputname, (IspResponse) response);
+        extractIspFields(parsable, inputname, (IspResponse) response);
     }
 
     protected void extractIspFields(final Parsable<?> parsable, final String inputname, IspResponse response) throws DissectionFailure {
@@ -0,0 +1,177 @@
+/*
+ * Apache HTTPD logparsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.dissectors.geoip;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of lookup results keyed by the IP address (packed into two longs, see {@link IPAddressParser}).
+ * The keys are stored in primitive arrays (no key objects) and the entries are evicted using the CLOCK algorithm
+ * (an approximation of LRU): every hit marks the entry as referenced, the clock hand skips (and clears) the
+ * referenced entries and evicts the first entry that has not been used since the last pass.
+ */
+final class GeoIPResultCache {
+
+    /** The value stored for addresses that are not present in the database. */
+    static final Object NOT_FOUND = new Object();
+
+    private final int       capacity;
+    private final long[]    keyHigh;
+    private final long[]    keyLow;
+    private final Object[]  values;
+    private final boolean[] referenced;
+    private int             size = 0;
+    private int             clockHand = 0;
+
+    // Open addressing (linear probing) index from the hash of the key to the entry (+1, so 0 means empty).
+    private final int[]     index;
+    private final int       indexMask;
+
+    private long hits   = 0;
+    private long misses = 0;
+
+    GeoIPResultCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the cache must be > 0");
+        }
+        this.capacity = capacity;
+        keyHigh    = new long[capacity];
+        keyLow     = new long[capacity];
+        values     = new Object[capacity];
+        referenced = new boolean[capacity];
+
+        // Keep the load factor of the index at 50% or lower
+        int indexSize = Integer.highestOneBit(capacity) << 2;
+        index = new int[indexSize];
+        indexMask = indexSize - 1;
+    }
+
+    private int slotOf(long high, long low) {
+        long hash = high * 0x9E3779B97F4A7C15L + low;
+        hash ^= hash >>> 32;
+        hash *= 0xC2B2AE3D27D4EB4FL;
+        hash ^= hash >>> 29;
+        return ((int) hash) & indexMask;
+    }
+
+    /**
+     * @return The cached value, {@link #NOT_FOUND} or null if this address is not in the cache.
+     */
+    synchronized Object get(long high, long low) {
+        int slot = slotOf(high, low);
+        while (true) {
+            int entry = index[slot] - 1;
+            if (entry < 0) {
+                misses++;
+                return null;
+            }
+            if (keyHigh[entry] == high && keyLow[entry] == low) {
+                referenced[entry] = true;
+                hits++;
+                return values[entry];
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    synchronized void put(long high, long low, Object value) {
+        int slot = slotOf(high, low);
+        while (true) {
+            int entry = index[slot] - 1;
+            if (entry < 0) {
+                break;
+            }
+            if (keyHigh[entry] == high && keyLow[entry] == low) {
+                values[entry] = value; // Already present: simply replace.
+                return;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+
+        int entry;
+        if (size < capacity) {
+            entry = size++;
+        } else {
+            entry = evict();
+            // Removing the evicted entry may have shifted the index so we must search for the free slot again.
+            slot = slotOf(high, low);
+            while (index[slot] != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+        }
+        keyHigh[entry]    = high;
+        keyLow[entry]     = low;
+        values[entry]     = value;
+        referenced[entry] = false;
+        index[slot]       = entry + 1;
+    }
+
+    /**
+     * Find an entry that has not been referenced recently, remove it from the index and return it.
+     */
+    private int evict() {
+        while (referenced[clockHand]) {
+            referenced[clockHand] = false;
+            clockHand = (clockHand + 1) % capacity;
+        }
+        int victim = clockHand;
+        clockHand = (clockHand + 1) % capacity;
+
+        // Locate the victim in the index
+        int slot = slotOf(keyHigh[victim], keyLow[victim]);
+        while (index[slot] != victim + 1) {
+            slot = (slot + 1) & indexMask;
+        }
+
+        // Backward shift deletion: move the entries that follow in the same probe run into the gap.
+        int gap = slot;
+        int next = (gap + 1) & indexMask;
+        while (index[next] != 0) {
+            int entry = index[next] - 1;
+            int home = slotOf(keyHigh[entry], keyLow[entry]);
+            // Can this entry be moved into the gap without ending up before its home slot?
+            if (((next - home) & indexMask) >= ((next - gap) & indexMask)) {
+                index[gap] = index[next];
+                gap = next;
+            }
+            next = (next + 1) & indexMask;
+        }
+        index[gap] = 0;
+        values[victim] = null;
+        return victim;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(index, 0);
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, false);
+        size = 0;
+        clockHand = 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
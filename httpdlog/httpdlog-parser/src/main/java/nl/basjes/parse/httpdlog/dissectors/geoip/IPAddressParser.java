@@ -0,0 +1,252 @@
+/*
+ * Apache HTTPD logparsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.dissectors.geoip;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Parses IPv4 and IPv6 literals into a pair of longs (the 128 bits of the IPv6 address).
+ * An IPv4 address is stored as the IPv4-mapped IPv6 address (::ffff:a.b.c.d).
+ * Unlike InetAddress.getByName this never does any kind of (DNS) resolving:
+ * anything that is not an IP literal is simply rejected.
+ */
+public final class IPAddressParser {
+
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFFL << 32;
+
+    private IPAddressParser() {
+    }
+
+    /**
+     * Parse the IP literal.
+     * @param value The IPv4 or IPv6 literal (an IPv6 may be enclosed in [] and may have a %zone which is ignored).
+     * @param packed Array of (at least) 2 longs that receives the high and low 64 bits of the address.
+     * @return true if the value was a valid IP literal, false otherwise (the packed is then undefined).
+     */
+    public static boolean parse(String value, long[] packed) {
+        if (value == null) {
+            return false;
+        }
+        int start = 0;
+        int end = value.length();
+        if (end == 0) {
+            return false;
+        }
+
+        if (value.indexOf(':') == -1) {
+            long ipv4 = parseIPv4(value, start, end);
+            if (ipv4 < 0) {
+                return false;
+            }
+            packed[0] = 0;
+            packed[1] = IPV4_MAPPED_PREFIX | ipv4;
+            return true;
+        }
+
+        if (value.charAt(0) == '[') {
+            if (value.charAt(end - 1) != ']') {
+                return false;
+            }
+            start++;
+            end--;
+        }
+        int zone = value.indexOf('%', start);
+        if (zone != -1 && zone < end) {
+            end = zone;
+        }
+        return parseIPv6(value, start, end, packed);
+    }
+
+    /**
+     * @return true if the packed address is an IPv4 address.
+     */
+    public static boolean isIPv4(long high, long low) {
+        return high == 0 && (low >>> 32) == 0xFFFFL;
+    }
+
+    /**
+     * Convert the packed address into an InetAddress (without any resolving).
+     */
+    public static InetAddress toInetAddress(long high, long low) {
+        byte[] bytes;
+        if (isIPv4(high, low)) {
+            bytes = new byte[4];
+            putBytes(bytes, 0, low, 4);
+        } else {
+            bytes = new byte[16];
+            putBytes(bytes, 0, high, 8);
+            putBytes(bytes, 8, low, 8);
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // Only happens if the array has the wrong length.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void putBytes(byte[] bytes, int offset, long value, int count) {
+        for (int i = 0; i < count; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * (count - 1 - i)));
+        }
+    }
+
+    /**
+     * @return The 32 bits of the dotted quad IPv4 address or -1 if invalid.
+     */
+    static long parseIPv4(String value, int start, int end) {
+        long result = 0;
+        int parts = 0;
+        int pos = start;
+        while (pos <= end) {
+            int part = 0;
+            int digits = 0;
+            while (pos < end) {
+                char c = value.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                part = part * 10 + (c - '0');
+                if (++digits > 3) {
+                    return -1;
+                }
+                pos++;
+            }
+            if (digits == 0 || part > 255) {
+                return -1;
+            }
+            result = (result << 8) | part;
+            parts++;
+            if (pos == end) {
+                break;
+            }
+            if (parts == 4 || value.charAt(pos) != '.') {
+                return -1;
+            }
+            pos++;
+        }
+        return parts == 4 ? result : -1;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean parseIPv6(String value, int start, int end, long[] packed) {
+        int[] groups = new int[8];
+        int groupCount = 0;
+        int compressAt = -1;
+        int pos = start;
+
+        if (end - start >= 2 && value.charAt(pos) == ':') {
+            if (value.charAt(pos + 1) != ':') {
+                return false;
+            }
+            compressAt = 0;
+            pos += 2;
+        }
+
+        while (pos < end) {
+            if (groupCount == 8) {
+                return false;
+            }
+            int group = 0;
+            int groupEnd = pos;
+            while (groupEnd < end && groupEnd - pos < 4) {
+                int hex = hexValue(value.charAt(groupEnd));
+                if (hex < 0) {
+                    break;
+                }
+                group = (group << 4) | hex;
+                groupEnd++;
+            }
+
+            if (groupEnd < end && value.charAt(groupEnd) == '.') {
+                // The last 32 bits are written as an IPv4 address
+                if (groupCount > 6) {
+                    return false;
+                }
+                long ipv4 = parseIPv4(value, pos, end);
+                if (ipv4 < 0) {
+                    return false;
+                }
+                groups[groupCount++] = (int) (ipv4 >>> 16);
+                groups[groupCount++] = (int) (ipv4 & 0xFFFF);
+                pos = end;
+                break;
+            }
+
+            if (groupEnd == pos) {
+                return false; // Empty or invalid group
+            }
+            groups[groupCount++] = group;
+            pos = groupEnd;
+            if (pos == end) {
+                break;
+            }
+            if (value.charAt(pos) != ':') {
+                return false;
+            }
+            pos++;
+            if (pos < end && value.charAt(pos) == ':') {
+                if (compressAt >= 0) {
+                    return false; // Only one :: is allowed
+                }
+                compressAt = groupCount;
+                pos++;
+            } else if (pos == end) {
+                return false; // Ends with a single ':'
+            }
+        }
+
+        if (compressAt < 0) {
+            if (groupCount != 8) {
+                return false;
+            }
+        } else {
+            if (groupCount == 8) {
+                return false;
+            }
+            // Move the groups after the :: to the end and fill the gap with 0
+            int moved = groupCount - compressAt;
+            System.arraycopy(groups, compressAt, groups, 8 - moved, moved);
+            for (int i = compressAt; i < 8 - moved; i++) {
+                groups[i] = 0;
+            }
+        }
+
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 4; i++) {
+            high = (high << 16) | groups[i];
+            low  = (low  << 16) | groups[i + 4];
+        }
+        packed[0] = high;
+        packed[1] = low;
+        return true;
+    }
+}
@@ -17,16 +17,20 @@
 
 package nl.basjes.parse.httpdlog.dissectors;
 
+import com.maxmind.db.Reader.FileMode;
 import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
 import nl.basjes.parse.core.test.DissectorTester;
 import nl.basjes.parse.core.test.TestRecord;
 import nl.basjes.parse.httpdlog.HttpdLoglineParser;
 import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPASNDissector;
 import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPCityDissector;
 import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPCountryDissector;
+import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPDatabaseReaders;
 import nl.basjes.parse.httpdlog.dissectors.geoip.GeoIPISPDissector;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -278,6 +282,41 @@ class TestGeoIPDissectors {
             .checkExpectations();
     }
 
+    // =================================================================================================================
+    // Loading and sharing the databases
+
+    @Test
+    void testGeoIPASNMemoryMapped() {
+        GeoIPASNDissector dissector = new GeoIPASNDissector();
+        assertTrue(dissector.initializeFromSettingsParameter("MEMORY_MAPPED:" + ASN_TEST_MMDB));
+        assertEquals(FileMode.MEMORY_MAPPED, dissector.getFileMode());
+
+        createTester(dissector)
+            .withInput("80.100.47.45")
+            .expect("ASN:asn.number",               "4444")
+            .expect("STRING:asn.organization",      "Basjes Global Network")
+            .checkExpectations();
+    }
+
+    @Test
+    void testSharedDatabaseReader() throws InvalidDissectorException {
+        GeoIPCityDissector dissector1 = new GeoIPCityDissector(CITY_TEST_MMDB);
+        GeoIPCityDissector dissector2 = new GeoIPCityDissector(CITY_TEST_MMDB);
+        dissector1.setFileMode(FileMode.MEMORY_MAPPED);
+        dissector2.setFileMode(FileMode.MEMORY_MAPPED);
+
+        assertEquals(0, GeoIPDatabaseReaders.getReferenceCount(CITY_TEST_MMDB, FileMode.MEMORY_MAPPED));
+        dissector1.prepareForRun();
+        dissector2.prepareForRun();
+        assertEquals(2, GeoIPDatabaseReaders.getReferenceCount(CITY_TEST_MMDB, FileMode.MEMORY_MAPPED));
+
+        dissector1.close();
+        assertEquals(1, GeoIPDatabaseReaders.getReferenceCount(CITY_TEST_MMDB, FileMode.MEMORY_MAPPED));
+        dissector2.close();
+        dissector2.close(); // Closing twice must not release the reader twice.
+        assertEquals(0, GeoIPDatabaseReaders.getReferenceCount(CITY_TEST_MMDB, FileMode.MEMORY_MAPPED));
+    }
+
     // =================================================================================================================
     // Tests with localhost ... which is NOT in the database
 
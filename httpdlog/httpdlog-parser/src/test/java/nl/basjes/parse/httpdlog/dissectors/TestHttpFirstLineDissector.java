@@ -70,6 +70,45 @@ public class TestHttpFirstLineDissector {
             .checkExpectations();
     }
 
+    @Test
+    void testSpacesInUri() {
+        DissectorTester.create()
+            .withDissector(new HttpFirstLineDissector())
+            .withDissector(new HttpFirstLineProtocolDissector())
+            .withInput("GET /index.html HTTP/1.0 HTTP/1.1")
+            .expect("HTTP.METHOD:method",                     "GET")
+            .expect("HTTP.URI:uri",                           "/index.html HTTP/1.0")
+            .expect("HTTP.PROTOCOL:protocol",                 "HTTP")
+            .expect("HTTP.PROTOCOL.VERSION:protocol.version", "1.1")
+            .checkExpectations();
+    }
+
+    @Test
+    void testInvalidProtocolVersion() {
+        DissectorTester.create()
+            .withDissector(new HttpFirstLineDissector())
+            .withDissector(new HttpFirstLineProtocolDissector())
+            .withInput("GET /index.html HTTP/1.")
+            .expect("HTTP.METHOD:method",                     "GET")
+            .expect("HTTP.URI:uri",                           "/index.html HTTP/1.")
+            .expectAbsentString("HTTP.PROTOCOL:protocol")
+            .expectAbsentString("HTTP.PROTOCOL.VERSION:protocol.version")
+            .checkExpectations();
+    }
+
+    @Test
+    void testEmptyUri() {
+        DissectorTester.create()
+            .withDissector(new HttpFirstLineDissector())
+            .withDissector(new HttpFirstLineProtocolDissector())
+            .withInput("GET  HTTP/1.1")
+            .expect("HTTP.METHOD:method",                     "GET")
+            .expect("HTTP.URI:uri",                           "")
+            .expect("HTTP.PROTOCOL:protocol",                 "HTTP")
+            .expect("HTTP.PROTOCOL.VERSION:protocol.version", "1.1")
+            .checkExpectations();
+    }
+
     @Test
     void testProtocol() {
         DissectorTester.create()
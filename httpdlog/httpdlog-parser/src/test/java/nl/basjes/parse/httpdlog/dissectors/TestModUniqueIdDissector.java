@@ -64,6 +64,26 @@ public class TestModUniqueIdDissector {
             .checkExpectations();
     }
 
+    @Test
+    void testUniqueIdLastTwoLetters() {
+        // The mod_unique_id alphabet ends with '@' (=62) and '-' (=63) instead of the Base64 '+' and '/'.
+        DissectorTester.create()
+            .withDissector(new ModUniqueIdDissector())
+            .withInput("VaGTKApid0AAALpaNo0AAAA-")
+            .expect("TIME.EPOCH:epoch",           "1436652328000")
+            .expect("IP:ip",                      "10.98.119.64")
+            .expect("PROCESSID:processid",        "47706")
+            .expect("COUNTER:counter",            "13965")
+            .expect("THREAD_INDEX:threadindex",   "63")
+            .checkExpectations();
+
+        DissectorTester.create()
+            .withDissector(new ModUniqueIdDissector())
+            .withInput("VaGTKApid0AAALpaNo0AAAA@")
+            .expect("THREAD_INDEX:threadindex",   "62")
+            .checkExpectations();
+    }
+
     @Test
     void testBadUniqueIdTooShort() {
         DissectorTester.create()
@@ -0,0 +1,228 @@
+/*
+ * Apache HTTPD logparsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.dissectors.geoip;
+
+import com.maxmind.db.Reader.FileMode;
+import com.maxmind.geoip2.DatabaseReader;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestGeoIPDatabaseReload {
+
+    private static final String TEST_MMDB_BASE_DIR = "../../GeoIP2-TestData/test-data/";
+    private static final Path   CITY_TEST_MMDB     = Paths.get(TEST_MMDB_BASE_DIR + "GeoIP2-City-Test.mmdb");
+    private static final Path   COUNTRY_TEST_MMDB  = Paths.get(TEST_MMDB_BASE_DIR + "GeoIP2-Country-Test.mmdb");
+
+    // Replace the file the same way geoipupdate does: write a new file and move it into place.
+    private void replaceDatabase(Path source, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Make sure the change is visible even on filesystems with a coarse timestamp resolution.
+        Files.setLastModifiedTime(target, FileTime.fromMillis(Files.getLastModifiedTime(target).toMillis() + 10000));
+    }
+
+    private String databaseType(GeoIPDatabaseReaders.SharedReader sharedReader) {
+        return sharedReader.get().getMetadata().getDatabaseType();
+    }
+
+    @Test
+    void testManualReload(@TempDir Path tempDir) throws IOException {
+        Path database = tempDir.resolve("GeoIP2.mmdb");
+        replaceDatabase(COUNTRY_TEST_MMDB, database);
+        String databaseFileName = database.toString();
+
+        GeoIPCountryDissector dissector = new GeoIPCountryDissector(databaseFileName);
+        GeoIPDatabaseReaders.SharedReader sharedReader = GeoIPDatabaseReaders.acquire(
+            databaseFileName, FileMode.MEMORY, dissector.getDatabaseOpener(), 0, dissector::createDatabaseReader);
+        try {
+            DatabaseReader original = sharedReader.get();
+            assertEquals("GeoIP2-Country", databaseType(sharedReader));
+
+            // Nothing changed
+            assertFalse(GeoIPDatabaseReaders.reloadIfModified(databaseFileName, FileMode.MEMORY));
+
+            replaceDatabase(CITY_TEST_MMDB, database);
+            assertTrue(GeoIPDatabaseReaders.reloadIfModified(databaseFileName, FileMode.MEMORY));
+            assertNotSame(original, sharedReader.get());
+            assertEquals("GeoIP2-City", databaseType(sharedReader));
+
+            // Only once
+            assertFalse(GeoIPDatabaseReaders.reloadIfModified(databaseFileName, FileMode.MEMORY));
+
+            // A broken file does not replace the working reader
+            Files.write(database, "This is not a GeoIP2 database".getBytes());
+            assertFalse(GeoIPDatabaseReaders.reloadIfModified(databaseFileName, FileMode.MEMORY));
+            assertEquals("GeoIP2-City", databaseType(sharedReader));
+        } finally {
+            GeoIPDatabaseReaders.release(sharedReader);
+        }
+        assertEquals(0, GeoIPDatabaseReaders.getReferenceCount(databaseFileName, FileMode.MEMORY));
+    }
+
+    @Test
+    void testNoReloadAfterRelease(@TempDir Path tempDir) throws IOException {
+        Path database = tempDir.resolve("GeoIP2.mmdb");
+        replaceDatabase(COUNTRY_TEST_MMDB, database);
+        String databaseFileName = database.toString();
+
+        GeoIPCountryDissector dissector = new GeoIPCountryDissector(databaseFileName);
+        AtomicInteger loads = new AtomicInteger();
+        GeoIPDatabaseReaders.SharedReader sharedReader = GeoIPDatabaseReaders.acquire(
+            databaseFileName, FileMode.MEMORY, dissector.getDatabaseOpener(), 0, () -> {
+                loads.incrementAndGet();
+                return dissector.createDatabaseReader();
+            });
+        assertEquals(1, loads.get());
+        GeoIPDatabaseReaders.release(sharedReader);
+
+        // A reload check that was already scheduled when the reader was released must not load a new reader
+        // because nobody would ever close that one.
+        replaceDatabase(CITY_TEST_MMDB, database);
+        assertFalse(sharedReader.reloadIfModified());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void testOldGenerationClosedAfterLastLookup(@TempDir Path tempDir) throws Exception {
+        Path database = tempDir.resolve("GeoIP2.mmdb");
+        replaceDatabase(COUNTRY_TEST_MMDB, database);
+        String databaseFileName = database.toString();
+        InetAddress ipAddress = InetAddress.getByName("80.100.47.45");
+
+        GeoIPCountryDissector dissector = new GeoIPCountryDissector(databaseFileName);
+        dissector.setFileMode(FileMode.MEMORY_MAPPED);
+        GeoIPDatabaseReaders.SharedReader sharedReader = GeoIPDatabaseReaders.acquire(
+            databaseFileName, FileMode.MEMORY_MAPPED, dissector.getDatabaseOpener(), 0, dissector::createDatabaseReader);
+        try {
+            // A lookup that is still running while the database is reloaded.
+            GeoIPDatabaseReaders.Generation running = sharedReader.acquireGeneration();
+
+            replaceDatabase(CITY_TEST_MMDB, database);
+            assertTrue(GeoIPDatabaseReaders.reloadIfModified(databaseFileName, FileMode.MEMORY_MAPPED));
+            assertEquals("GeoIP2-City", databaseType(sharedReader));
+
+            // The old mapping can still be used by the running lookup ...
+            assertFalse(running.isClosed());
+            assertEquals("NL", running.getReader().country(ipAddress).getCountry().getIsoCode());
+
+            // ... and is closed when that lookup is done.
+            running.release();
+            assertTrue(running.isClosed());
+            assertThrows(IOException.class, () -> running.getReader().country(ipAddress));
+
+            // A new lookup gets the new version.
+            GeoIPDatabaseReaders.Generation next = sharedReader.acquireGeneration();
+            assertEquals("GeoIP2-City", next.getReader().getMetadata().getDatabaseType());
+            next.release();
+            assertFalse(next.isClosed());
+        } finally {
+            GeoIPDatabaseReaders.release(sharedReader);
+        }
+        // The last release closes the current generation and nothing can use it anymore.
+        assertThrows(IllegalStateException.class, sharedReader::acquireGeneration);
+    }
+
+    // Opens the database in its own way (i.e. from the classpath or a distributed filesystem).
+    static class StreamGeoIPCountryDissector extends GeoIPCountryDissector {
+        StreamGeoIPCountryDissector(String databaseFileName) {
+            super(databaseFileName);
+        }
+
+        @Override
+        protected InputStream openDatabaseFile(String filename) throws FileNotFoundException {
+            return new FileInputStream(filename);
+        }
+    }
+
+    @Test
+    void testOwnOpenDatabaseFile() throws Exception {
+        String databaseFileName = COUNTRY_TEST_MMDB.toString();
+        GeoIPCountryDissector normal = new GeoIPCountryDissector(databaseFileName);
+        GeoIPCountryDissector stream = new StreamGeoIPCountryDissector(databaseFileName);
+        assertEquals(AbstractGeoIPDissector.class, normal.getDatabaseOpener());
+        assertEquals(StreamGeoIPCountryDissector.class, stream.getDatabaseOpener());
+
+        normal.prepareForRun();
+        stream.prepareForRun();
+        try {
+            // Both are loaded but they do not share a reader.
+            assertEquals(2, GeoIPDatabaseReaders.getReferenceCount(databaseFileName, FileMode.MEMORY));
+            assertNotSame(normal.reader, stream.reader);
+        } finally {
+            normal.close();
+            stream.close();
+        }
+        assertEquals(0, GeoIPDatabaseReaders.getReferenceCount(databaseFileName, FileMode.MEMORY));
+
+        // An InputStream cannot be memory mapped.
+        stream.setFileMode(FileMode.MEMORY_MAPPED);
+        assertThrows(InvalidDissectorException.class, stream::prepareForRun);
+        assertEquals(0, GeoIPDatabaseReaders.getReferenceCount(databaseFileName, FileMode.MEMORY_MAPPED));
+    }
+
+    @Test
+    void testBackgroundReload(@TempDir Path tempDir) throws IOException, InvalidDissectorException, InterruptedException {
+        Path database = tempDir.resolve("GeoIP2.mmdb");
+        replaceDatabase(COUNTRY_TEST_MMDB, database);
+        String databaseFileName = database.toString();
+
+        GeoIPCountryDissector dissector = new GeoIPCountryDissector(databaseFileName);
+        dissector.setReloadCheckInterval(10);
+        dissector.prepareForRun();
+        try {
+            assertEquals("GeoIP2-Country", dissector.reader.getMetadata().getDatabaseType());
+
+            replaceDatabase(CITY_TEST_MMDB, database);
+
+            // The reload happens in the background.
+            GeoIPDatabaseReaders.SharedReader sharedReader = GeoIPDatabaseReaders.acquire(
+                databaseFileName, FileMode.MEMORY, dissector.getDatabaseOpener(), 0, dissector::createDatabaseReader);
+            try {
+                for (int i = 0; i < 500 && !"GeoIP2-City".equals(databaseType(sharedReader)); i++) {
+                    Thread.sleep(10);
+                }
+                assertEquals("GeoIP2-City", databaseType(sharedReader));
+            } finally {
+                GeoIPDatabaseReaders.release(sharedReader);
+            }
+        } finally {
+            dissector.close();
+        }
+        assertEquals(0, GeoIPDatabaseReaders.getReferenceCount(databaseFileName, FileMode.MEMORY));
+    }
+
+}
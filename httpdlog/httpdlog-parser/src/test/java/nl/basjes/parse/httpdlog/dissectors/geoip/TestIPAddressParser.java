@@ -0,0 +1,148 @@
+/*
+ * Apache HTTPD logparsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog.dissectors.geoip;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestIPAddressParser {
+
+    private void verify(String ip) throws UnknownHostException {
+        long[] packed = new long[2];
+        assertTrue(IPAddressParser.parse(ip, packed), "Unable to parse " + ip);
+        InetAddress expected = InetAddress.getByName(ip);
+        assertEquals(expected, IPAddressParser.toInetAddress(packed[0], packed[1]), "Wrong address for " + ip);
+    }
+
+    private void verifyInvalid(String ip) {
+        assertFalse(IPAddressParser.parse(ip, new long[2]), "Should not parse " + ip);
+    }
+
+    @Test
+    void testIPv4() throws UnknownHostException {
+        verify("0.0.0.0");
+        verify("1.2.3.4");
+        verify("80.100.47.45");
+        verify("127.0.0.1");
+        verify("255.255.255.255");
+    }
+
+    @Test
+    void testIPv6() throws UnknownHostException {
+        verify("::");
+        verify("::1");
+        verify("1::");
+        verify("2001:980:91c0:1:21c:c0ff:fe06:e580");
+        verify("2001:0980:91C0:0001:021C:C0FF:FE06:E580");
+        verify("2001:db8::ff00:42:8329");
+        verify("1:2:3:4:5:6:7::");
+        verify("::ffff:80.100.47.45");
+        verify("::80.100.47.45");
+        verify("[2001:db8::1]");
+    }
+
+    @Test
+    void testIPv4MappedIsIPv4() {
+        long[] packed4 = new long[2];
+        long[] packed6 = new long[2];
+        assertTrue(IPAddressParser.parse("80.100.47.45", packed4));
+        assertTrue(IPAddressParser.parse("::ffff:80.100.47.45", packed6));
+        assertEquals(packed4[0], packed6[0]);
+        assertEquals(packed4[1], packed6[1]);
+        assertTrue(IPAddressParser.isIPv4(packed4[0], packed4[1]));
+    }
+
+    @Test
+    void testInvalid() {
+        verifyInvalid(null);
+        verifyInvalid("");
+        verifyInvalid("-");
+        verifyInvalid("localhost");
+        verifyInvalid("www.example.com");
+        verifyInvalid("1.2.3");
+        verifyInvalid("1.2.3.4.5");
+        verifyInvalid("1.2.3.256");
+        verifyInvalid("1.2.3.");
+        verifyInvalid("1..3.4");
+        verifyInvalid("1.2.3.0004");
+        verifyInvalid(":");
+        verifyInvalid(":1");
+        verifyInvalid("1:");
+        verifyInvalid("1:2:3:4:5:6:7");
+        verifyInvalid("1:2:3:4:5:6:7:8:9");
+        verifyInvalid("1::2::3");
+        verifyInvalid("12345::");
+        verifyInvalid("g::");
+        verifyInvalid("[::1");
+        verifyInvalid("1:2:3:4:5:6:7:1.2.3.4");
+    }
+
+    @Test
+    void testResultCache() {
+        GeoIPResultCache cache = new GeoIPResultCache(3);
+        Object one   = new Object();
+        Object two   = new Object();
+        Object three = new Object();
+        Object four  = new Object();
+
+        cache.put(0, 1, one);
+        cache.put(0, 2, two);
+        cache.put(1, 1, three);
+        assertEquals(3, cache.size());
+        assertSame(one,   cache.get(0, 1));
+        assertSame(two,   cache.get(0, 2));
+        assertNull(cache.get(1, 2));
+
+        // Full: the only entry that was not used recently is evicted
+        cache.put(2, 2, four);
+        assertEquals(3, cache.size());
+        assertNull(cache.get(1, 1));
+        assertSame(one,  cache.get(0, 1));
+        assertSame(two,  cache.get(0, 2));
+        assertSame(four, cache.get(2, 2));
+
+        cache.put(3, 3, GeoIPResultCache.NOT_FOUND);
+        assertSame(GeoIPResultCache.NOT_FOUND, cache.get(3, 3));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(0, 1));
+    }
+
+    @Test
+    void testResultCacheManyEntries() {
+        GeoIPResultCache cache = new GeoIPResultCache(100);
+        for (long i = 0; i < 10000; i++) {
+            cache.put(i % 7, i, i);
+            assertEquals(i, cache.get(i % 7, i));
+        }
+        assertEquals(100, cache.size());
+        // The most recent entries must all still be present
+        for (long i = 9990; i < 10000; i++) {
+            assertEquals(i, cache.get(i % 7, i));
+        }
+    }
+
+}
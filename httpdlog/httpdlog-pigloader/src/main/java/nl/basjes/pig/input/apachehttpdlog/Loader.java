@@ -19,12 +19,14 @@ package nl.basjes.pig.input.apachehttpdlog;
 
 import nl.basjes.hadoop.input.ApacheHttpdLogfileInputFormat;
 import nl.basjes.hadoop.input.ApacheHttpdLogfileRecordReader;
+import nl.basjes.hadoop.input.LogfileStatistics;
 import nl.basjes.hadoop.input.ParsedRecord;
+import nl.basjes.hadoop.input.ParsedRecordSchema;
 import nl.basjes.parse.core.Casts;
 import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.FieldFilter;
 import nl.basjes.parse.core.Parser;
-import nl.basjes.parse.core.exceptions.InvalidDissectorException;
-import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.RecordReader;
@@ -32,10 +34,12 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.pig.Expression;
 import org.apache.pig.LoadFunc;
 import org.apache.pig.LoadMetadata;
+import org.apache.pig.LoadPredicatePushdown;
 import org.apache.pig.LoadPushDown;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.ResourceSchema.ResourceFieldSchema;
 import org.apache.pig.ResourceStatistics;
+import org.apache.pig.ResourceStatistics.ResourceFieldStatistics;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
@@ -61,7 +65,8 @@ import java.util.Set;
 public class Loader
         extends LoadFunc
         implements LoadMetadata,
-                   LoadPushDown {
+                   LoadPushDown,
+                   LoadPredicatePushdown {
 
     private static final Logger LOG = LoggerFactory.getLogger(Loader.class);
 
@@ -83,6 +88,7 @@ public class Loader
     private final ArrayList<String>         specialParameters    = new ArrayList<>();
 
     private static final String             PRUNE_PROJECTION_INFO = "prune.projection.info";
+    private static final String             PUSHDOWN_PREDICATE_FILTERS = "pushdown.predicate.filters";
 
     // ------------------------------------------
 
@@ -204,54 +210,92 @@ public class Loader
     public Tuple getNext()
             throws IOException {
         Tuple tuple = null;
-        try {
-            if (isBuildingExample) {
-                isBuildingExample = false; // Terminate on the next iteration
-                return tupleFactory.newTuple(createPigExample());
-            }
+        if (isBuildingExample) {
+            isBuildingExample = false; // Terminate on the next iteration
+            return tupleFactory.newTuple(createPigExample());
+        }
 
-            boolean notDone = reader.nextKeyValue();
-            if (!notDone) {
-                return null;
+        boolean notDone = reader.nextKeyValue();
+        if (!notDone) {
+            return null;
+        }
+
+        ParsedRecord value = reader.getCurrentValue();
+
+        if (value != null) {
+            if (onlyWantListOfFields) {
+                List<Object> values = new ArrayList<>(1);
+                values.add(value.getString(ApacheHttpdLogfileRecordReader.FIELDS));
+                return tupleFactory.newTupleNoCopy(values);
             }
 
-            ParsedRecord value = reader.getCurrentValue();
+            if (fieldTypes == null || value.getSchema() != resolvedSchema) {
+                resolveFields(value.getSchema());
+            }
 
-            if (value != null) {
-                List<Object> values = new ArrayList<>();
-                if (onlyWantListOfFields) {
-                    values.add(value.getString(ApacheHttpdLogfileRecordReader.FIELDS));
-                } else {
-                    for (String fieldName : requestedFields) {
-                        if (fieldName.endsWith(".*")) {
-                            values.add(value.getStringSet(fieldName));
-                            continue;
-                        } else {
-                            EnumSet<Casts> casts = reader.getParser().getCasts(fieldName);
-
-                            if (casts != null) {
-                                if (casts.contains(Casts.LONG)) {
-                                    values.add(value.getLong(fieldName));
-                                    continue;
-                                }
-
-                                if (casts.contains(Casts.DOUBLE)) {
-                                    values.add(value.getDouble(fieldName));
-                                    continue;
-                                }
-                            }
-                        }
-                        values.add(value.getString(fieldName));
-                    }
+            // The list is handed over to the tuple (no copy) so a new one is needed for every tuple.
+            List<Object> values = new ArrayList<>(fieldTypes.length);
+            for (int index = 0; index < fieldTypes.length; index++) {
+                int slot = fieldSlots[index];
+                switch (fieldTypes[index]) {
+                    case DataType.MAP:
+                        values.add(value.getStringSet(requestedFields.get(index)));
+                        break;
+                    case DataType.LONG:
+                        values.add(slot >= 0 ? value.getLong(slot) : value.getLong(requestedFields.get(index)));
+                        break;
+                    case DataType.DOUBLE:
+                        values.add(slot >= 0 ? value.getDouble(slot) : value.getDouble(requestedFields.get(index)));
+                        break;
+                    default:
+                        values.add(slot >= 0 ? value.getString(slot) : value.getString(requestedFields.get(index)));
+                        break;
                 }
-                tuple = tupleFactory.newTuple(values);
             }
-        } catch (InvalidDissectorException | MissingDissectorsException e) {
-            throw new IOException("Fatal error in the parser", e);
+            tuple = tupleFactory.newTupleNoCopy(values);
         }
         return tuple;
     }
 
+    // The requested fields resolved (once) to the slot in the ParsedRecord and the Pig type of the value.
+    private ParsedRecordSchema resolvedSchema = null;
+    private int[]              fieldSlots     = null;
+    private byte[]             fieldTypes     = null;
+
+    private void resolveFields(ParsedRecordSchema schema) throws IOException {
+        int fields = requestedFields.size();
+        int[]  slots = new int[fields];
+        byte[] types = new byte[fields];
+        for (int index = 0; index < fields; index++) {
+            String fieldName = requestedFields.get(index);
+            slots[index] = schema == null ? -1 : schema.getSlot(fieldName);
+            types[index] = getPigType(reader, fieldName);
+        }
+        resolvedSchema = schema;
+        fieldSlots     = slots;
+        fieldTypes     = types;
+    }
+
+    /**
+     * @return The Pig DataType of the values of the field.
+     */
+    private static byte getPigType(ApacheHttpdLogfileRecordReader recordReader, String fieldName) throws IOException {
+        if (fieldName.endsWith(".*")) {
+            return DataType.MAP;
+        }
+        EnumSet<Casts> casts = recordReader.getCasts(fieldName);
+        if (casts == null) {
+            return DataType.BYTEARRAY;
+        }
+        if (casts.contains(Casts.LONG)) {
+            return DataType.LONG;
+        }
+        if (casts.contains(Casts.DOUBLE)) {
+            return DataType.DOUBLE;
+        }
+        return DataType.CHARARRAY;
+    }
+
     // ------------------------------------------
 
     private static final String MULTI_COMMENT = "  -- If you only want a single field replace * with name and change type to chararray";
@@ -277,10 +321,7 @@ public class Loader
                 fields.add(value);
             }
 
-            String name = value.split(":")[1]
-                            .replace('.', '_')
-                            .replace('-', '_')
-                            .replace('*', '_');
+            String name = getExampleName(value);
 
             EnumSet<Casts> casts = reader.getCasts(value);
 
@@ -330,16 +371,36 @@ public class Loader
         return sb.toString();
     }
 
+    /**
+     * @return The name that is used for the field in the generated example.
+     */
+    static String getExampleName(String field) {
+        return field.split(":")[1]
+            .replace('.', '_')
+            .replace('-', '_')
+            .replace('*', '_');
+    }
+
     // ------------------------------------------
 
     @Override
-    public void prepareToRead(RecordReader newReader, PigSplit pigSplit) {
+    public void prepareToRead(RecordReader newReader, PigSplit pigSplit) throws IOException {
         // Note that for this Loader, we don't care about the PigSplit.
         if (newReader instanceof ApacheHttpdLogfileRecordReader) {
             this.reader = (ApacheHttpdLogfileRecordReader) newReader;
+            fieldTypes = null; // Resolve the fields again for this reader
         } else {
             throw new IncorrectRecordReaderException();
         }
+
+        // The lines that do not match the pushed down filter are dropped as early as possible.
+        Object fieldFilters = getFromUDFContext(PUSHDOWN_PREDICATE_FILTERS);
+        if (fieldFilters instanceof Map) {
+            Parser<ParsedRecord> parser = reader.getParser();
+            for (Map.Entry<?, ?> fieldFilter : ((Map<?, ?>) fieldFilters).entrySet()) {
+                parser.addFieldFilter((String) fieldFilter.getKey(), (FieldFilter) fieldFilter.getValue());
+            }
+        }
     }
 
     // ------------------------------------------
@@ -385,24 +446,7 @@ public class Loader
             rfs.setName(fieldName);
             rfs.setDescription(fieldName);
 
-            if(fieldName.endsWith(".*")) {
-                rfs.setType(DataType.MAP);
-            } else {
-                EnumSet<Casts> casts = theInputFormat.getRecordReader().getCasts(fieldName);
-                if (casts != null) {
-                    if (casts.contains(Casts.LONG)) {
-                        rfs.setType(DataType.LONG);
-                    } else {
-                        if (casts.contains(Casts.DOUBLE)) {
-                            rfs.setType(DataType.DOUBLE);
-                        } else {
-                            rfs.setType(DataType.CHARARRAY);
-                        }
-                    }
-                } else {
-                    rfs.setType(DataType.BYTEARRAY);
-                }
-            }
+            rfs.setType(getPigType(theInputFormat.getRecordReader(), fieldName));
             fieldSchemaList.add(rfs);
         }
 
@@ -412,9 +456,55 @@ public class Loader
 
     // ------------------------------------------
 
+    public static final String STATISTICS_SAMPLE_LINES = "nl.basjes.parse.apachehttpdlogline.statistics.sample.lines";
+    public static final String STATISTICS_SAMPLE_FILES = "nl.basjes.parse.apachehttpdlogline.statistics.sample.files";
+
+    /**
+     * The statistics are estimated by parsing the first lines of a few of the input files.
+     */
     @Override
     public ResourceStatistics getStatistics(String location, Job job) {
-        return null;
+        if (onlyWantListOfFields || isBuildingExample) {
+            return null;
+        }
+
+        Configuration conf = job.getConfiguration();
+        LogfileStatistics statistics;
+        try {
+            Parser<ParsedRecord> parser = theInputFormat.getRecordReader().getParser();
+            if (parser == null) {
+                return null;
+            }
+            statistics = LogfileStatistics.sample(conf,
+                LogfileStatistics.listInputFiles(conf, LoadFunc.getPathStrings(location)),
+                parser, requestedFields,
+                conf.getInt(STATISTICS_SAMPLE_LINES, LogfileStatistics.DEFAULT_SAMPLE_LINES),
+                conf.getInt(STATISTICS_SAMPLE_FILES, LogfileStatistics.DEFAULT_SAMPLE_FILES));
+        } catch (IOException e) {
+            LOG.warn("Unable to determine the statistics of {}: {}", location, e.getMessage());
+            return null;
+        }
+        LOG.debug("{}", statistics);
+
+        ResourceStatistics resourceStatistics = new ResourceStatistics();
+        resourceStatistics.setNumRecords(statistics.getEstimatedGoodRows());
+        resourceStatistics.setSizeInBytes(statistics.getEstimatedRawDataSize());
+        if (statistics.getSampledLines() > 0) {
+            resourceStatistics.setAvgRecordSize(Math.round(statistics.getAverageLineSize()));
+        }
+
+        ResourceFieldStatistics[] fields = new ResourceFieldStatistics[requestedFields.size()];
+        int index = 0;
+        for (String fieldName : requestedFields) {
+            ResourceFieldStatistics field = new ResourceFieldStatistics();
+            long distinct = statistics.getEstimatedDistinct(fieldName);
+            if (distinct >= 0) {
+                field.setNumDistinctValues(distinct);
+            }
+            fields[index++] = field;
+        }
+        resourceStatistics.setFields(fields);
+        return resourceStatistics;
     }
 
     // ------------------------------------------
@@ -450,6 +540,59 @@ public class Loader
         return new RequiredFieldResponse(true);
     }
 
+    // ------------------------------------------
+
+    /**
+     * The filter on a field can be pushed down if the field is referred to by the name of the field (which is
+     * only possible if no schema was specified in the script) or by the name that is used for it in the
+     * generated example.
+     */
+    @Override
+    public List<String> getPredicateFields(String location, Job job) {
+        return new ArrayList<>(getFieldOfColumn().keySet());
+    }
+
+    private Map<String, String> getFieldOfColumn() {
+        Map<String, String> fieldOfColumn = new HashMap<>();
+        for (String field : originalRequestedFields == null ? requestedFields : originalRequestedFields) {
+            if (field.endsWith(".*") || !field.contains(":")) {
+                continue;
+            }
+            fieldOfColumn.put(field, field);
+            fieldOfColumn.put(getExampleName(field), field);
+        }
+        return fieldOfColumn;
+    }
+
+    @Override
+    public List<Expression.OpType> getSupportedExpressionTypes() {
+        return LoaderFilterPushdown.SUPPORTED_EXPRESSION_TYPES;
+    }
+
+    @Override
+    public void setPushdownPredicate(Expression predicate) throws IOException {
+        Map<String, String> fieldOfColumn = getFieldOfColumn();
+        Map<String, Casts> castsOfField = new HashMap<>();
+        for (String field : fieldOfColumn.values()) {
+            // The same type as the one used in getNext
+            EnumSet<Casts> casts = theInputFormat.getRecordReader().getCasts(field);
+            if (casts == null) {
+                continue;
+            }
+            if (casts.contains(Casts.LONG)) {
+                castsOfField.put(field, Casts.LONG);
+            } else if (casts.contains(Casts.DOUBLE)) {
+                castsOfField.put(field, Casts.DOUBLE);
+            } else if (casts.contains(Casts.STRING)) {
+                castsOfField.put(field, Casts.STRING);
+            }
+        }
+        storeInUDFContext(PUSHDOWN_PREDICATE_FILTERS,
+            LoaderFilterPushdown.toFieldFilters(predicate, fieldOfColumn, castsOfField));
+    }
+
+    // ------------------------------------------
+
     private String theUDFContextSignature;
     @Override
     public void setUDFContextSignature(String signature) {
@@ -0,0 +1,244 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.pig.input.apachehttpdlog;
+
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.ValueFilters;
+import nl.basjes.parse.core.ValueFilters.Comparison;
+import nl.basjes.parse.core.ValueFilters.Condition;
+import org.apache.pig.Expression;
+import org.apache.pig.Expression.BetweenExpression;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.Column;
+import org.apache.pig.Expression.Const;
+import org.apache.pig.Expression.InExpression;
+import org.apache.pig.Expression.OpType;
+import org.apache.pig.Expression.UnaryExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the filter that Pig pushes down into the Loader into field filters of the Parser.
+ * Pig still applies the filter itself so only those parts of the filter that can be translated
+ * exactly are pushed down: each part of the top level AND that only uses a single field.
+ */
+final class LoaderFilterPushdown {
+    private static final Logger LOG = LoggerFactory.getLogger(LoaderFilterPushdown.class);
+
+    static final List<OpType> SUPPORTED_EXPRESSION_TYPES = Arrays.asList(
+        OpType.OP_EQ, OpType.OP_NE,
+        OpType.OP_GT, OpType.OP_GE, OpType.OP_LT, OpType.OP_LE,
+        OpType.OP_IN, OpType.OP_BETWEEN, OpType.OP_NULL,
+        OpType.OP_NOT, OpType.OP_AND, OpType.OP_OR);
+
+    private LoaderFilterPushdown() {
+    }
+
+    /**
+     * @param predicate The filter as provided by Pig.
+     * @param fieldOfColumn The field (i.e. "TYPE:name") for each of the column names Pig can use.
+     * @param castsOfField The type of the values of each field as it is passed to Pig.
+     * @return The filters per field (a HashMap so it can be stored in the UDFContext).
+     */
+    static HashMap<String, Condition> toFieldFilters(Expression predicate,
+                                                     Map<String, String> fieldOfColumn,
+                                                     Map<String, Casts> castsOfField) {
+        List<Expression> conjuncts = new ArrayList<>();
+        collectConjuncts(predicate, conjuncts);
+
+        HashMap<String, Condition> fieldFilters = new HashMap<>();
+        for (Expression conjunct : conjuncts) {
+            String columnName = getSingleColumnName(conjunct);
+            if (columnName == null) {
+                continue;
+            }
+            String field = fieldOfColumn.get(columnName);
+            Casts casts = field == null ? null : castsOfField.get(field);
+            if (casts == null) {
+                continue;
+            }
+            Condition condition = toCondition(conjunct, casts);
+            if (condition == null) {
+                LOG.debug("Unable to push down {}", conjunct);
+                continue;
+            }
+            Condition existing = fieldFilters.get(field);
+            fieldFilters.put(field, existing == null ? condition : ValueFilters.and(existing, condition));
+        }
+        LOG.info("Pushed down filters: {}", fieldFilters);
+        return fieldFilters;
+    }
+
+    private static void collectConjuncts(Expression expression, List<Expression> conjuncts) {
+        if (expression instanceof BinaryExpression && expression.getOpType() == OpType.OP_AND) {
+            collectConjuncts(((BinaryExpression) expression).getLhs(), conjuncts);
+            collectConjuncts(((BinaryExpression) expression).getRhs(), conjuncts);
+        } else {
+            conjuncts.add(expression);
+        }
+    }
+
+    /**
+     * @return The name of the only column used in the expression, null if none or more than one.
+     */
+    private static String getSingleColumnName(Expression expression) {
+        if (expression instanceof Column) {
+            return ((Column) expression).getName();
+        }
+        if (expression instanceof UnaryExpression) {
+            return getSingleColumnName(((UnaryExpression) expression).getExpression());
+        }
+        if (expression instanceof BinaryExpression) {
+            Expression lhs = ((BinaryExpression) expression).getLhs();
+            Expression rhs = ((BinaryExpression) expression).getRhs();
+            String lhsName = isConstant(lhs) ? null : getSingleColumnName(lhs);
+            String rhsName = isConstant(rhs) ? null : getSingleColumnName(rhs);
+            if (lhsName == null) {
+                return isConstant(lhs) ? rhsName : null;
+            }
+            if (rhsName == null) {
+                return isConstant(rhs) ? lhsName : null;
+            }
+            return lhsName.equals(rhsName) ? lhsName : null;
+        }
+        return null;
+    }
+
+    private static boolean isConstant(Expression expression) {
+        return expression instanceof Const ||
+               expression instanceof InExpression ||
+               expression instanceof BetweenExpression;
+    }
+
+    /**
+     * @return The exact equivalent of the expression or null if that is not possible.
+     */
+    private static Condition toCondition(Expression expression, Casts casts) {
+        OpType opType = expression.getOpType();
+
+        if (expression instanceof UnaryExpression) {
+            Expression child = ((UnaryExpression) expression).getExpression();
+            if (opType == OpType.OP_NULL) {
+                return child instanceof Column ? ValueFilters.isNull(casts) : null;
+            }
+            if (opType == OpType.OP_NOT) {
+                Condition childCondition = toCondition(child, casts);
+                return childCondition == null ? null : ValueFilters.not(childCondition);
+            }
+            return null;
+        }
+
+        if (!(expression instanceof BinaryExpression)) {
+            return null;
+        }
+        Expression lhs = ((BinaryExpression) expression).getLhs();
+        Expression rhs = ((BinaryExpression) expression).getRhs();
+
+        if (opType == OpType.OP_AND || opType == OpType.OP_OR) {
+            Condition lhsCondition = toCondition(lhs, casts);
+            Condition rhsCondition = toCondition(rhs, casts);
+            if (lhsCondition == null || rhsCondition == null) {
+                return null;
+            }
+            return opType == OpType.OP_AND
+                ? ValueFilters.and(lhsCondition, rhsCondition)
+                : ValueFilters.or(lhsCondition, rhsCondition);
+        }
+
+        if (opType == OpType.OP_IN && lhs instanceof Column && rhs instanceof InExpression) {
+            List<Object> values = ((InExpression) rhs).getValues();
+            for (Object value : values) {
+                if (!isCompatible(value, casts)) {
+                    return null;
+                }
+            }
+            return ValueFilters.in(values);
+        }
+
+        if (opType == OpType.OP_BETWEEN && lhs instanceof Column && rhs instanceof BetweenExpression) {
+            Object lower = ((BetweenExpression) rhs).getLower();
+            Object upper = ((BetweenExpression) rhs).getUpper();
+            if (!isCompatible(lower, casts) || !isCompatible(upper, casts)) {
+                return null;
+            }
+            return ValueFilters.between(lower, upper);
+        }
+
+        // A comparison of a column with a constant (in either order)
+        Object constant;
+        if (lhs instanceof Column && rhs instanceof Const) {
+            constant = ((Const) rhs).getValue();
+        } else if (lhs instanceof Const && rhs instanceof Column) {
+            constant = ((Const) lhs).getValue();
+            opType = mirror(opType);
+        } else {
+            return null;
+        }
+        if (!isCompatible(constant, casts)) {
+            return null;
+        }
+
+        switch (opType) {
+            case OP_EQ: return ValueFilters.compare(Comparison.EQUALS,                constant);
+            case OP_NE: return ValueFilters.compare(Comparison.NOT_EQUALS,            constant);
+            case OP_LT: return ValueFilters.compare(Comparison.LESS_THAN,             constant);
+            case OP_LE: return ValueFilters.compare(Comparison.LESS_THAN_OR_EQUAL,    constant);
+            case OP_GT: return ValueFilters.compare(Comparison.GREATER_THAN,          constant);
+            case OP_GE: return ValueFilters.compare(Comparison.GREATER_THAN_OR_EQUAL, constant);
+            default:    return null;
+        }
+    }
+
+    /**
+     * The (c op column) is the same as (column mirror(op) c).
+     */
+    private static OpType mirror(OpType opType) {
+        switch (opType) {
+            case OP_LT: return OpType.OP_GT;
+            case OP_LE: return OpType.OP_GE;
+            case OP_GT: return OpType.OP_LT;
+            case OP_GE: return OpType.OP_LE;
+            default:    return opType;
+        }
+    }
+
+    /**
+     * The constant must have the same type as the field to get the same outcome as in Pig.
+     */
+    private static boolean isCompatible(Object constant, Casts casts) {
+        if (constant == null) {
+            return false;
+        }
+        switch (casts) {
+            case LONG:
+                return constant instanceof Long || constant instanceof Integer;
+            case DOUBLE:
+                return constant instanceof Double || constant instanceof Float;
+            case STRING:
+                return constant instanceof String;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.pig.input.apachehttpdlog;
+
+import nl.basjes.hadoop.input.ApacheHttpdLogfileRecordReader;
+import nl.basjes.hadoop.input.ParsedRecord;
+import nl.basjes.parse.core.Parser;
+import org.apache.pig.ExecType;
+import org.apache.pig.Expression;
+import org.apache.pig.Expression.BinaryExpression;
+import org.apache.pig.Expression.Column;
+import org.apache.pig.Expression.Const;
+import org.apache.pig.Expression.OpType;
+import org.apache.pig.Expression.UnaryExpression;
+import org.apache.pig.PigServer;
+import org.apache.pig.builtin.mock.Storage;
+import org.apache.pig.data.Tuple;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.apache.pig.builtin.mock.Storage.resetData;
+import static org.apache.pig.builtin.mock.Storage.tuple;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestFilterPushdown {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    private static final String LINE_200 =
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.php HTTP/1.1\" 200 1234 \"-\" \"Mozilla/5.0\"";
+    private static final String LINE_500 =
+        "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"GET /error.php HTTP/1.1\" 500 - \"-\" \"Mozilla/5.0\"";
+
+    @Test
+    void testPushdownInScript() throws Exception {
+        PigServer pigServer = new PigServer(ExecType.LOCAL);
+        Storage.Data data = resetData(pigServer);
+
+        // The names from the generated example are recognized as the fields
+        pigServer.registerQuery(
+            "Clicks = " +
+            "    LOAD '" + getClass().getResource("/access.log").toString() + "' " +
+            "    USING nl.basjes.pig.input.apachehttpdlog.Loader(" +
+            "            '" + LOGFORMAT + "'," +
+            "            'HTTP.URI:request.firstline.uri'," +
+            "            'BYTES:response.body.bytesclf'" +
+            "            )" +
+            "         AS (" +
+            "            request_firstline_uri:chararray," +
+            "            response_body_bytesclf:long" +
+            "            );"
+        );
+        pigServer.registerQuery(
+            "Filtered = FILTER Clicks BY " +
+            "    request_firstline_uri == '/1-500e-KWh?FoO=bAr%20BaR&bAr=fOo%20FoO' AND response_body_bytesclf > 2;");
+        pigServer.registerQuery("STORE Filtered INTO 'Filtered' USING mock.Storage();");
+
+        List<Tuple> out = data.get("Filtered");
+        assertEquals(1, out.size());
+        assertEquals(tuple("/1-500e-KWh?FoO=bAr%20BaR&bAr=fOo%20FoO", 3L), out.get(0));
+    }
+
+    private Parser<ParsedRecord> getFilteringParser(Expression predicate) throws Exception {
+        Loader loader = new Loader(LOGFORMAT,
+            "STRING:request.status.last",
+            "BYTES:response.body.bytesclf",
+            "IP:connection.client.host");
+        loader.setUDFContextSignature("TestFilterPushdown");
+
+        // Only the fields of the loader can be used
+        List<String> predicateFields = loader.getPredicateFields(null, null);
+        assertTrue(predicateFields.contains("request_status_last"));
+        assertTrue(predicateFields.contains("STRING:request.status.last"));
+
+        loader.setPushdownPredicate(predicate);
+
+        ApacheHttpdLogfileRecordReader reader = (ApacheHttpdLogfileRecordReader)
+            loader.getInputFormat().createRecordReader(null, null);
+        loader.prepareToRead(reader, null);
+        return reader.getParser();
+    }
+
+    @Test
+    void testPushdownIntoParser() throws Exception {
+        // request_status_last == '500'
+        Parser<ParsedRecord> parser = getFilteringParser(
+            new BinaryExpression(new Column("request_status_last"), new Const("500"), OpType.OP_EQ));
+        assertNull(parser.parse(new ParsedRecord(), LINE_200));
+        assertNotNull(parser.parse(new ParsedRecord(), LINE_500));
+
+        // 1000 < response_body_bytesclf AND connection_client_host IS NOT NULL
+        parser = getFilteringParser(
+            new BinaryExpression(
+                new BinaryExpression(new Const(1000L), new Column("response_body_bytesclf"), OpType.OP_LT),
+                new UnaryExpression(new UnaryExpression(new Column("connection_client_host"), OpType.OP_NULL), OpType.OP_NOT),
+                OpType.OP_AND));
+        assertNotNull(parser.parse(new ParsedRecord(), LINE_200));
+        assertNull(parser.parse(new ParsedRecord(), LINE_500));
+
+        // An unknown column and a comparison between two columns are ignored
+        parser = getFilteringParser(
+            new BinaryExpression(
+                new BinaryExpression(new Column("foo"), new Const(1000L), OpType.OP_LT),
+                new BinaryExpression(new Column("request_status_last"), new Column("connection_client_host"), OpType.OP_EQ),
+                OpType.OP_AND));
+        assertNotNull(parser.parse(new ParsedRecord(), LINE_200));
+        assertNotNull(parser.parse(new ParsedRecord(), LINE_500));
+    }
+}
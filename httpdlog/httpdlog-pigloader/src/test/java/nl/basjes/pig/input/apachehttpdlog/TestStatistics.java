@@ -0,0 +1,63 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.pig.input.apachehttpdlog;
+
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.ResourceStatistics.ResourceFieldStatistics;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TestStatistics {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    @Test
+    void testStatistics() throws Exception {
+        Loader loader = new Loader(LOGFORMAT,
+            "IP:connection.client.host",
+            "HTTP.URI:request.firstline.uri",
+            "STRING:request.firstline.uri.query.*");
+
+        String location = getClass().getResource("/access.log").toString();
+        ResourceStatistics statistics = loader.getStatistics(location, Job.getInstance());
+        assertNotNull(statistics);
+
+        // The file has 2 lines with the same IP and a different URI
+        assertEquals(2L, statistics.getNumRecords().longValue());
+        assertEquals(new File(getClass().getResource("/access.log").toURI()).length(),
+            statistics.getSizeInBytes().longValue());
+
+        ResourceFieldStatistics[] fields = statistics.getFields();
+        assertEquals(3, fields.length);
+        assertEquals(1L, fields[0].getNumDistinctValues().longValue());
+        assertEquals(2L, fields[1].getNumDistinctValues().longValue());
+        assertNull(fields[2].getNumDistinctValues());
+    }
+
+    @Test
+    void testNoStatisticsForFieldList() throws Exception {
+        Loader loader = new Loader(LOGFORMAT, "fields");
+        assertNull(loader.getStatistics(getClass().getResource("/access.log").toString(), Job.getInstance()));
+    }
+
+}
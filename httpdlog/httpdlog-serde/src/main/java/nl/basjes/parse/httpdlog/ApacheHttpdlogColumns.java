@@ -0,0 +1,310 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import nl.basjes.hadoop.input.ParsedRecord;
+import nl.basjes.hadoop.input.ParsedRecord.SlotSetter;
+import nl.basjes.hadoop.input.ParsedRecordSchema;
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.Dissector;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static nl.basjes.parse.core.Casts.DOUBLE;
+import static nl.basjes.parse.core.Casts.LONG;
+import static nl.basjes.parse.core.Casts.STRING;
+import static org.apache.hadoop.hive.serde.serdeConstants.BIGINT_TYPE_NAME;
+import static org.apache.hadoop.hive.serde.serdeConstants.DOUBLE_TYPE_NAME;
+import static org.apache.hadoop.hive.serde.serdeConstants.STRING_TYPE_NAME;
+
+/**
+ * The mapping of the columns of a Hive table onto the fields of the parsed log lines as specified
+ * in the table properties (see {@link ApacheHttpdlogDeserializer}).
+ * This creates the Parser and the schema of the ParsedRecord with a slot for every column.
+ */
+final class ApacheHttpdlogColumns {
+    private static final Logger      LOG = LoggerFactory.getLogger(ApacheHttpdlogColumns.class);
+    private static final String      FIELD = "field:";
+
+    private static final String      MAP_FIELD = "map:";
+    private static final int         MAP_FIELD_LENGTH = MAP_FIELD.length();
+    private static final String      LOAD_DISSECTOR = "load:";
+    private static final int         LOAD_DISSECTOR_LENGTH = LOAD_DISSECTOR.length();
+
+    static class Column {
+        private String name;
+        private int    index;
+        private Casts  casts;
+        private String fieldValue;
+        private int    slot;
+
+        String getName() {
+            return name;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        Casts getCasts() {
+            return casts;
+        }
+
+        String getFieldValue() {
+            return fieldValue;
+        }
+
+        int getSlot() {
+            return slot;
+        }
+    }
+
+    private final List<String>         columnNames;
+    private final List<TypeInfo>       columnTypes;
+    private final List<Column>         columns = new ArrayList<>();
+    private final Map<String, Column>  allColumns = new HashMap<>();
+    private final Parser<ParsedRecord> parser;
+    private final ParsedRecordSchema   schema;
+
+    /**
+     * @param props The table properties.
+     * @param conf The job configuration which indicates which columns are read (null means all columns).
+     */
+    ApacheHttpdlogColumns(Properties props, Configuration conf) throws SerDeException {
+        boolean usable = true;
+
+        String logformat = props.getProperty("logformat");
+
+        Map<String, Set<String>> typeRemappings = new HashMap<>();
+        List<Dissector> additionalDissectors = new ArrayList<>();
+
+        for (Map.Entry<Object, Object> property: props.entrySet()){
+            String key = (String)property.getKey();
+
+            if (key.startsWith(MAP_FIELD)) {
+                String mapField = key.substring(MAP_FIELD_LENGTH);
+                String mapType  = (String)property.getValue();
+
+                Set<String> remapping = typeRemappings.computeIfAbsent(mapField, k -> new HashSet<>());
+                remapping.add(mapType);
+                LOG.info("Add mapping for field \"{}\" to type \"{}\"", mapField, mapType);
+                continue;
+            }
+
+            if (key.startsWith(LOAD_DISSECTOR)) {
+                String dissectorClassName = key.substring(LOAD_DISSECTOR_LENGTH);
+                String dissectorParam = (String)property.getValue();
+
+                try {
+                    Class<?> clazz = Class.forName(dissectorClassName);
+                    Constructor<?> constructor = clazz.getConstructor();
+                    Dissector instance = (Dissector) constructor.newInstance();
+                    if (!instance.initializeFromSettingsParameter(dissectorParam)) {
+                        throw new SerDeException("Initialization failed of dissector instance of class " + dissectorClassName);
+                    }
+                    additionalDissectors.add(instance);
+                } catch (ClassNotFoundException e) {
+                    throw new SerDeException("Found load with bad specification: No such class:" + dissectorClassName, e);
+                } catch (NoSuchMethodException e) {
+                    throw new SerDeException("Found load with bad specification: Class does not have the required constructor", e);
+                } catch (InvocationTargetException e) {
+                    throw new SerDeException("Got an InvocationTargetException", e);
+                } catch (InstantiationException e) {
+                    throw new SerDeException("Got an InstantiationException", e);
+                } catch (IllegalAccessException e) {
+                    throw new SerDeException("Found load with bad specification: Required constructor is not public", e);
+                }
+                LOG.debug("Loaded additional dissector: {}(\"{}\")", dissectorClassName, dissectorParam);
+            }
+        }
+
+        String columnNameProperty  = props.getProperty(serdeConstants.LIST_COLUMNS);
+        String columnTypeProperty  = props.getProperty(serdeConstants.LIST_COLUMN_TYPES);
+        columnNames = Collections.unmodifiableList(Arrays.asList(columnNameProperty.split(",")));
+        columnTypes = Collections.unmodifiableList(TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty));
+        assert columnNames.size() == columnTypes.size();
+        int numColumns = columnNames.size();
+
+        boolean[] neededColumns = getNeededColumns(conf, numColumns);
+
+        parser = createParser(logformat, typeRemappings, additionalDissectors);
+
+        for (int columnNr = 0; columnNr < numColumns; columnNr++) {
+            String columnName = columnNames.get(columnNr);
+            TypeInfo columnType = columnTypes.get(columnNr);
+
+            String fieldValue = props.getProperty(FIELD + columnName);
+
+            if (fieldValue == null) {
+                LOG.error("MUST have Field value for column \"{}\".", columnName);
+                usable = false;
+                continue;
+            }
+
+            Column column = new Column();
+            column.name       = columnName;
+            column.index      = columnNr;
+            column.fieldValue = fieldValue;
+
+            switch (columnType.getTypeName()) {
+                case STRING_TYPE_NAME:
+                    column.casts = STRING;
+                    break;
+                case BIGINT_TYPE_NAME:
+                    column.casts = LONG;
+                    break;
+                case DOUBLE_TYPE_NAME:
+                    column.casts = DOUBLE;
+                    break;
+                default:
+                    LOG.error("Requested column type {} is not supported at this time.", columnType.getTypeName());
+                    usable = false;
+                    continue;
+            }
+
+            allColumns.put(columnName, column);
+
+            // Only the columns that are actually read by the query are parsed (the others remain null).
+            if (neededColumns[columnNr]) {
+                columns.add(column);
+            }
+        }
+
+        if (!usable) {
+            throw new SerDeException("Fatal config error. Check the logged error messages why.");
+        }
+
+        // The values are stored straight into the slot of the field in the record.
+        // Like before a column only gets a value if the field has the cast of the column;
+        // these casts come from the parser itself once all setters have been added.
+        List<SlotSetter> slotSetters = new ArrayList<>(columns.size());
+        for (Column column: columns) {
+            SlotSetter setter = ParsedRecord.createSetter(column.fieldValue, EnumSet.of(column.casts));
+            parser.addFieldSetter(column.fieldValue, setter);
+            slotSetters.add(setter);
+        }
+        Map<String, EnumSet<Casts>> allCasts;
+        try {
+            allCasts = parser.getAllCasts();
+        } catch (MissingDissectorsException | InvalidDissectorException e) {
+            throw new SerDeException("Unable to create the parser", e);
+        }
+        for (SlotSetter setter: slotSetters) {
+            setter.retainCasts(allCasts);
+        }
+
+        // Resolve the fields to their slots in the record once so retrieving the values per row avoids any lookups.
+        List<String> fieldValues = new ArrayList<>(columns.size());
+        for (Column column: columns) {
+            fieldValues.add(column.fieldValue);
+        }
+        schema = new ParsedRecordSchema(fieldValues);
+        for (Column column: columns) {
+            column.slot = schema.getSlot(column.fieldValue);
+        }
+
+        // The lines that do not match the filter of the query are dropped as early as possible.
+        if (conf != null) {
+            SearchArgument searchArgument = ApacheHttpdlogFilterPushdown.getSearchArgument(conf);
+            if (searchArgument != null) {
+                pushDownFilter(searchArgument);
+            }
+        }
+    }
+
+    /**
+     * Let the parser reject the lines that do not match (parts of) the filter of the query.
+     * @return The number of filters that were added to the parser.
+     */
+    int pushDownFilter(SearchArgument searchArgument) {
+        return ApacheHttpdlogFilterPushdown.addFieldFilters(searchArgument, allColumns, parser);
+    }
+
+    private static Parser<ParsedRecord> createParser(String logformat,
+                                                     Map<String, Set<String>> typeRemappings,
+                                                     List<Dissector> additionalDissectors) {
+        Parser<ParsedRecord> newParser = new HttpdLoglineParser<>(ParsedRecord.class, logformat);
+        newParser.setTypeRemappings(typeRemappings)
+                 .addDissectors(additionalDissectors);
+        return newParser;
+    }
+
+    private static boolean[] getNeededColumns(Configuration conf, int numColumns) {
+        boolean[] neededColumns = new boolean[numColumns];
+        if (conf == null || ColumnProjectionUtils.isReadAllColumns(conf)) {
+            Arrays.fill(neededColumns, true);
+            return neededColumns;
+        }
+
+        boolean any = false;
+        for (Integer columnId : ColumnProjectionUtils.getReadColumnIDs(conf)) {
+            if (columnId >= 0 && columnId < numColumns) {
+                neededColumns[columnId] = true;
+                any = true;
+            }
+        }
+        if (!any && numColumns > 0) {
+            // Something like count(*): we still need to parse the lines to know which are valid.
+            neededColumns[0] = true;
+        }
+        return neededColumns;
+    }
+
+    List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    List<TypeInfo> getColumnTypes() {
+        return columnTypes;
+    }
+
+    List<Column> getColumns() {
+        return columns;
+    }
+
+    Parser<ParsedRecord> getParser() {
+        return parser;
+    }
+
+    ParsedRecord createRecord() {
+        return new ParsedRecord(schema);
+    }
+
+}
@@ -18,14 +18,11 @@
 package nl.basjes.parse.httpdlog;
 
 import nl.basjes.hadoop.input.ParsedRecord;
-import nl.basjes.parse.core.Casts;
-import nl.basjes.parse.core.Dissector;
 import nl.basjes.parse.core.Parser;
 import nl.basjes.parse.core.exceptions.DissectionFailure;
 import nl.basjes.parse.core.exceptions.InvalidDissectorException;
 import nl.basjes.parse.core.exceptions.MissingDissectorsException;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.AbstractDeserializer;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeStats;
@@ -36,26 +33,12 @@ import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
 
-import static nl.basjes.parse.core.Casts.DOUBLE;
-import static nl.basjes.parse.core.Casts.LONG;
-import static nl.basjes.parse.core.Casts.STRING;
-import static org.apache.hadoop.hive.serde.serdeConstants.BIGINT_TYPE_NAME;
-import static org.apache.hadoop.hive.serde.serdeConstants.DOUBLE_TYPE_NAME;
-import static org.apache.hadoop.hive.serde.serdeConstants.STRING_TYPE_NAME;
+import static nl.basjes.hadoop.input.ApacheHttpdLogfileRecordReader.decodeLine;
 
 /**
  * Hive SerDe for accessing Apache Access log files.
@@ -102,152 +85,39 @@ import static org.apache.hadoop.hive.serde.serdeConstants.STRING_TYPE_NAME;
 //    RegexSerDe.INPUT_REGEX_CASE_SENSITIVE
 //})
 public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
-    private static final Logger      LOG = LoggerFactory.getLogger(ApacheHttpdlogDeserializer.class);
-    private static final String      FIELD = "field:";
-
-    private static final String      MAP_FIELD = "map:";
-    private static final int         MAP_FIELD_LENGTH = MAP_FIELD.length();
-    private static final String      LOAD_DISSECTOR = "load:";
-    private static final int         LOAD_DISSECTOR_LENGTH = LOAD_DISSECTOR.length();
-
     private StructObjectInspector    rowOI;
     private ArrayList<Object>        row;
 
     private Parser<ParsedRecord>     parser;
     private ParsedRecord             currentValue;
 
+    private BadLineCounter           badLineCounter;
 
-    // We do not want the parsing to fail immediately when we hit a single 'bad' line.
-    // So we count the good and bad lines.
-    // If we see more than 1% bad lines we abort (after we have seen 1000 lines)
-    private static final long    MINIMAL_FAIL_LINES      = 1000;
-    private static final int     MINIMAL_FAIL_PERCENTAGE =    1;
-    private long    linesInput  = 0;
-    private long    linesBad    = 0;
-
-    static class ColumnToGetterMapping {
-        private int    index;
-        private Casts  casts;
-        private String fieldValue;
-    }
+    private List<ApacheHttpdlogColumns.Column> columns;
 
-    private final List<ColumnToGetterMapping> columnToGetterMappings = new ArrayList<>();
+    // Like the other SerDes the raw data size is that of the last deserialized row.
+    private final SerDeStats         stats = new SerDeStats();
+    private long                     rowCount;
+    private long                     lastRawDataSize;
 
     @Override
     public void initialize(Configuration conf, Properties props)
         throws SerDeException {
 
-        boolean usable = true;
-        linesInput = 0;
-        linesBad   = 0;
-
-        String logformat = props.getProperty("logformat");
-
-        Map<String, Set<String>> typeRemappings = new HashMap<>();
-        List<Dissector> additionalDissectors = new ArrayList<>();
-
-        for (Map.Entry<Object, Object> property: props.entrySet()){
-            String key = (String)property.getKey();
-
-            if (key.startsWith(MAP_FIELD)) {
-                String mapField = key.substring(MAP_FIELD_LENGTH);
-                String mapType  = (String)property.getValue();
-
-                Set<String> remapping = typeRemappings.computeIfAbsent(mapField, k -> new HashSet<>());
-                remapping.add(mapType);
-                LOG.info("Add mapping for field \"{}\" to type \"{}\"", mapField, mapType);
-                continue;
-            }
-
-            if (key.startsWith(LOAD_DISSECTOR)) {
-                String dissectorClassName = key.substring(LOAD_DISSECTOR_LENGTH);
-                String dissectorParam = (String)property.getValue();
-
-                try {
-                    Class<?> clazz = Class.forName(dissectorClassName);
-                    Constructor<?> constructor = clazz.getConstructor();
-                    Dissector instance = (Dissector) constructor.newInstance();
-                    if (!instance.initializeFromSettingsParameter(dissectorParam)) {
-                        throw new SerDeException("Initialization failed of dissector instance of class " + dissectorClassName);
-                    }
-                    additionalDissectors.add(instance);
-                } catch (ClassNotFoundException e) {
-                    throw new SerDeException("Found load with bad specification: No such class:" + dissectorClassName, e);
-                } catch (NoSuchMethodException e) {
-                    throw new SerDeException("Found load with bad specification: Class does not have the required constructor", e);
-                } catch (InvocationTargetException e) {
-                    throw new SerDeException("Got an InvocationTargetException", e);
-                } catch (InstantiationException e) {
-                    throw new SerDeException("Got an InstantiationException", e);
-                } catch (IllegalAccessException e) {
-                    throw new SerDeException("Found load with bad specification: Required constructor is not public", e);
-                }
-                LOG.debug("Loaded additional dissector: {}(\"{}\")", dissectorClassName, dissectorParam);
-            }
-        }
-
-        currentValue = new ParsedRecord();
-
-
-//        List<String>            fieldList;
-        int                     numColumns;
-
-        String columnNameProperty  = props.getProperty(serdeConstants.LIST_COLUMNS);
-        String columnTypeProperty  = props.getProperty(serdeConstants.LIST_COLUMN_TYPES);
-        List<String> columnNames   = Arrays.asList(columnNameProperty.split(","));
-        List<TypeInfo> columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
-        assert columnNames.size() == columnTypes.size();
-        numColumns = columnNames.size();
-
-        parser = new HttpdLoglineParser<>(ParsedRecord.class, logformat);
-        parser.setTypeRemappings(typeRemappings)
-              .addDissectors(additionalDissectors);
-
-        List<ObjectInspector> columnOIs = new ArrayList<>(columnNames.size());
-
-        try {
-            for (int columnNr = 0; columnNr < numColumns; columnNr++) {
-                columnOIs.add(TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(columnTypes.get(columnNr)));
-                String columnName = columnNames.get(columnNr);
-                TypeInfo columnType = columnTypes.get(columnNr);
-
-                String fieldValue = props.getProperty(FIELD + columnName);
+        badLineCounter = new BadLineCounter();
 
-                if (fieldValue == null) {
-                    LOG.error("MUST have Field value for column \"{}\".", columnName);
-                    usable = false;
-                    continue;
-                }
+        ApacheHttpdlogColumns httpdlogColumns = new ApacheHttpdlogColumns(props, conf);
+        parser       = httpdlogColumns.getParser();
+        currentValue = httpdlogColumns.createRecord();
+        columns      = httpdlogColumns.getColumns();
 
-                ColumnToGetterMapping ctgm = new ColumnToGetterMapping();
-                ctgm.index      = columnNr;
-                ctgm.fieldValue = fieldValue;
+        List<String>   columnNames = httpdlogColumns.getColumnNames();
+        List<TypeInfo> columnTypes = httpdlogColumns.getColumnTypes();
+        int            numColumns  = columnNames.size();
 
-                List<String> singleFieldValue= new ArrayList<>();
-                singleFieldValue.add(fieldValue);
-                switch (columnType.getTypeName()) {
-                    case STRING_TYPE_NAME:
-                        ctgm.casts = STRING;
-                        parser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, String.class), singleFieldValue);
-                        break;
-                    case BIGINT_TYPE_NAME:
-                        ctgm.casts = LONG;
-                        parser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, Long.class), singleFieldValue);
-                        break;
-                    case DOUBLE_TYPE_NAME:
-                        ctgm.casts = DOUBLE;
-                        parser.addParseTarget(ParsedRecord.class.getMethod("set", String.class, Double.class), singleFieldValue);
-                        break;
-                    default:
-                        LOG.error("Requested column type {} is not supported at this time.", columnType.getTypeName());
-                        usable = false;
-                        break;
-                }
-                columnToGetterMappings.add(ctgm);
-            }
-        } catch (NoSuchMethodException
-                |SecurityException e) {
-            throw new SerDeException("(Should not occur) Caught exception: {}", e);
+        List<ObjectInspector> columnOIs = new ArrayList<>(numColumns);
+        for (TypeInfo columnType : columnTypes) {
+            columnOIs.add(TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(columnType));
         }
 
         // StandardStruct uses ArrayList to store the row.
@@ -258,11 +128,6 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
         for (int c = 0; c < numColumns; c++) {
             row.add(null);
         }
-
-        if (!usable) {
-            throw new SerDeException("Fatal config error. Check the logged error messages why.");
-        }
-
     }
 
     @Override
@@ -276,48 +141,48 @@ public class ApacheHttpdlogDeserializer extends AbstractDeserializer {
             throw new SerDeException("The input MUST be a Text line.");
         }
 
-        linesInput++;
+        badLineCounter.countLine();
+        lastRawDataSize = ((Text) writable).getLength();
 
         try {
             currentValue.clear();
-            parser.parse(currentValue, writable.toString());
+            if (parser.parse(currentValue, decodeLine((Text) writable)) == null) {
+                return null; // Rejected by the pushed down filter so Hive would drop it anyway.
+            }
         } catch (DissectionFailure dissectionFailure) {
-            linesBad++;
-            if (linesInput >= MINIMAL_FAIL_LINES) {
-                if (100* linesBad > MINIMAL_FAIL_PERCENTAGE * linesInput){
-                    throw new SerDeException("To many bad lines: " + linesBad + " of " + linesInput + " are bad.");
-                }
+            if (badLineCounter.countBadLine()) {
+                throw new SerDeException("To many bad lines: " + badLineCounter);
             }
             return null; // Just return that this line is nothing.
         } catch (InvalidDissectorException |MissingDissectorsException e) {
             throw new SerDeException("Cannot continue; Fix the Dissectors before retrying", e);
         }
 
-        for (ColumnToGetterMapping ctgm: columnToGetterMappings) {
-            switch(ctgm.casts) {
+        for (ApacheHttpdlogColumns.Column column: columns) {
+            switch(column.getCasts()) {
                 case STRING:
-                    String currentValueString = currentValue.getString(ctgm.fieldValue);
-                    row.set(ctgm.index, currentValueString);
+                    row.set(column.getIndex(), currentValue.getString(column.getSlot()));
                     break;
                 case LONG:
-                    Long currentValueLong = currentValue.getLong(ctgm.fieldValue);
-                    row.set(ctgm.index, currentValueLong);
+                    row.set(column.getIndex(), currentValue.getLong(column.getSlot()));
                     break;
                 case DOUBLE:
-                    Double currentValueDouble = currentValue.getDouble(ctgm.fieldValue);
-                    row.set(ctgm.index, currentValueDouble);
+                    row.set(column.getIndex(), currentValue.getDouble(column.getSlot()));
                     break;
                 default:
                     // Do nothing
             }
         }
 
+        rowCount++;
         return row;
     }
 
     @Override
     public SerDeStats getSerDeStats() {
-        return new SerDeStats();
+        stats.setRawDataSize(lastRawDataSize);
+        stats.setRowCount(rowCount);
+        return stats;
     }
 
 }
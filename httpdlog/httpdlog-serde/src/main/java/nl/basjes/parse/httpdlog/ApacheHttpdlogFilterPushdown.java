@@ -0,0 +1,227 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import nl.basjes.hadoop.input.ParsedRecord;
+import nl.basjes.parse.core.Casts;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.ValueFilters;
+import nl.basjes.parse.core.ValueFilters.Comparison;
+import nl.basjes.parse.core.ValueFilters.Condition;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.io.sarg.ConvertAstToSearchArg;
+import org.apache.hadoop.hive.ql.io.sarg.ExpressionTree;
+import org.apache.hadoop.hive.ql.io.sarg.PredicateLeaf;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the filter that Hive pushes down to the table scan into field filters of the Parser.
+ * This way the lines that are not wanted are rejected as soon as the fields used in the filter
+ * have been dissected and the rest of the dissection of those lines is skipped.
+ * Hive still applies the filter itself so only those parts of the filter that can be translated
+ * exactly are pushed down: each part of the top level AND that only uses a single column.
+ */
+final class ApacheHttpdlogFilterPushdown {
+    private static final Logger LOG = LoggerFactory.getLogger(ApacheHttpdlogFilterPushdown.class);
+
+    private ApacheHttpdlogFilterPushdown() {
+    }
+
+    /**
+     * @return The filter that Hive has pushed down to the table scan or null if there is none.
+     */
+    static SearchArgument getSearchArgument(Configuration conf) {
+        try {
+            if (!ConvertAstToSearchArg.canCreateFromConf(conf)) {
+                return null;
+            }
+            return ConvertAstToSearchArg.createFromConf(conf);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to use the pushed down filter: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of filters that were added to the parser.
+     */
+    static int addFieldFilters(SearchArgument searchArgument,
+                               Map<String, ApacheHttpdlogColumns.Column> columns,
+                               Parser<ParsedRecord> parser) {
+        List<PredicateLeaf> leaves = searchArgument.getLeaves();
+        ExpressionTree root = searchArgument.getExpression();
+
+        List<ExpressionTree> conjuncts = root.getOperator() == ExpressionTree.Operator.AND
+            ? root.getChildren()
+            : Collections.singletonList(root);
+
+        int added = 0;
+        for (ExpressionTree conjunct : conjuncts) {
+            String columnName = getSingleColumnName(conjunct, leaves);
+            if (columnName == null) {
+                continue;
+            }
+            ApacheHttpdlogColumns.Column column = columns.get(columnName);
+            if (column == null) {
+                continue;
+            }
+            Condition condition = toCondition(conjunct, leaves, column.getCasts());
+            if (condition == null) {
+                LOG.debug("Unable to push down {}", conjunct);
+                continue;
+            }
+            LOG.info("Pushed down filter on {} ({}): {}", columnName, column.getFieldValue(), condition);
+            parser.addFieldFilter(column.getFieldValue(), condition);
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * @return The name of the only column used in the expression, null if none or more than one.
+     */
+    private static String getSingleColumnName(ExpressionTree expression, List<PredicateLeaf> leaves) {
+        switch (expression.getOperator()) {
+            case LEAF:
+                return leaves.get(expression.getLeaf()).getColumnName();
+            case AND:
+            case OR:
+            case NOT:
+                String columnName = null;
+                for (ExpressionTree child : expression.getChildren()) {
+                    String childColumnName = getSingleColumnName(child, leaves);
+                    if (childColumnName == null ||
+                        (columnName != null && !columnName.equals(childColumnName))) {
+                        return null;
+                    }
+                    columnName = childColumnName;
+                }
+                return columnName;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The exact equivalent of the expression or null if that is not possible.
+     */
+    private static Condition toCondition(ExpressionTree expression, List<PredicateLeaf> leaves, Casts casts) {
+        switch (expression.getOperator()) {
+            case LEAF:
+                return toCondition(leaves.get(expression.getLeaf()), casts);
+            case NOT:
+                Condition child = toCondition(expression.getChildren().get(0), leaves, casts);
+                return child == null ? null : ValueFilters.not(child);
+            case AND:
+            case OR:
+                List<Condition> children = new ArrayList<>();
+                for (ExpressionTree childExpression : expression.getChildren()) {
+                    Condition childCondition = toCondition(childExpression, leaves, casts);
+                    if (childCondition == null) {
+                        return null;
+                    }
+                    children.add(childCondition);
+                }
+                return expression.getOperator() == ExpressionTree.Operator.AND
+                    ? ValueFilters.and(children)
+                    : ValueFilters.or(children);
+            default:
+                return null;
+        }
+    }
+
+    private static Condition toCondition(PredicateLeaf leaf, Casts casts) {
+        // The constants must have the same type as the column to get the same outcome as in Hive.
+        switch (leaf.getType()) {
+            case LONG:
+                if (casts != Casts.LONG) {
+                    return null;
+                }
+                break;
+            case FLOAT:
+                if (casts != Casts.DOUBLE) {
+                    return null;
+                }
+                break;
+            case STRING:
+                if (casts != Casts.STRING) {
+                    return null;
+                }
+                break;
+            default:
+                return null;
+        }
+
+        switch (leaf.getOperator()) {
+            case IS_NULL:
+                return ValueFilters.isNull(casts);
+            case IN:
+                return hasNull(leaf.getLiteralList(), 1) ? null : ValueFilters.in(leaf.getLiteralList());
+            case BETWEEN:
+                if (casts == Casts.STRING) {
+                    return null; // Hive orders strings by their UTF-8 bytes which is not always the same as Java does.
+                }
+                return hasNull(leaf.getLiteralList(), 2) ? null
+                    : ValueFilters.between(leaf.getLiteralList().get(0), leaf.getLiteralList().get(1));
+            default:
+                break;
+        }
+
+        Object literal = leaf.getLiteral();
+        if (casts == Casts.STRING && leaf.getOperator() != PredicateLeaf.Operator.EQUALS &&
+            leaf.getOperator() != PredicateLeaf.Operator.NULL_SAFE_EQUALS) {
+            return null; // Hive orders strings by their UTF-8 bytes which is not always the same as Java does.
+        }
+        switch (leaf.getOperator()) {
+            case NULL_SAFE_EQUALS:
+                if (literal == null) {
+                    return ValueFilters.isNull(casts);
+                }
+                // Comparing NULL with a value is false (instead of unknown)
+                return ValueFilters.and(
+                    ValueFilters.not(ValueFilters.isNull(casts)),
+                    ValueFilters.compare(Comparison.EQUALS, literal));
+            case EQUALS:
+                return literal == null ? null : ValueFilters.compare(Comparison.EQUALS, literal);
+            case LESS_THAN:
+                return literal == null ? null : ValueFilters.compare(Comparison.LESS_THAN, literal);
+            case LESS_THAN_EQUALS:
+                return literal == null ? null : ValueFilters.compare(Comparison.LESS_THAN_OR_EQUAL, literal);
+            default:
+                return null;
+        }
+    }
+
+    private static boolean hasNull(List<Object> literals, int minimalSize) {
+        if (literals == null || literals.size() < minimalSize) {
+            return true;
+        }
+        for (Object literal : literals) {
+            if (literal == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.Utilities;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedInputFormatInterface;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedSupport;
+import org.apache.hadoop.hive.ql.io.HiveFileFormatUtils;
+import org.apache.hadoop.hive.ql.plan.MapWork;
+import org.apache.hadoop.hive.ql.plan.PartitionDesc;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.LineRecordReader;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An InputFormat for Hive tables that use the {@link ApacheHttpdlogDeserializer}.
+ * In normal (row by row) execution this simply provides the lines (exactly like the TextInputFormat) to the SerDe.
+ * When Hive uses vectorized execution the lines are parsed directly into VectorizedRowBatches.
+ * <pre>
+ * CREATE EXTERNAL TABLE clicks ( ... )
+ * ROW FORMAT SERDE 'nl.basjes.parse.httpdlog.ApacheHttpdlogDeserializer'
+ * WITH SERDEPROPERTIES ( ... )
+ * STORED AS
+ *   INPUTFORMAT  'nl.basjes.parse.httpdlog.ApacheHttpdlogInputFormat'
+ *   OUTPUTFORMAT 'org.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat'
+ * LOCATION "/user/nbasjes/clicks";
+ * </pre>
+ */
+public class ApacheHttpdlogInputFormat extends FileInputFormat<Writable, Writable>
+    implements VectorizedInputFormatInterface {
+
+    @Override
+    protected boolean isSplitable(FileSystem fs, Path file) {
+        final CompressionCodec codec = new CompressionCodecFactory(fs.getConf()).getCodec(file);
+        return codec == null || codec instanceof SplittableCompressionCodec;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RecordReader<Writable, Writable> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+        throws IOException {
+        reporter.setStatus(split.toString());
+        FileSplit fileSplit = (FileSplit) split;
+        if (Utilities.getIsVectorized(job)) {
+            return (RecordReader) new ApacheHttpdlogVectorizedRecordReader(
+                fileSplit, job, Utilities.getVectorizedRowBatchCtx(job), getTableProperties(job, fileSplit.getPath()));
+        }
+        return (RecordReader) new LineRecordReader(job, fileSplit);
+    }
+
+    /**
+     * The table (and partition) properties contain the logformat and the mapping of the columns onto the fields.
+     */
+    static Properties getTableProperties(JobConf job, Path path) throws IOException {
+        MapWork mapWork = Utilities.getMapWork(job);
+        if (mapWork != null) {
+            PartitionDesc partitionDesc =
+                HiveFileFormatUtils.getFromPathRecursively(mapWork.getPathToPartitionInfo(), path, null);
+            if (partitionDesc != null) {
+                return partitionDesc.getProperties();
+            }
+        }
+
+        // Fall back to the job configuration.
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> entry : job) {
+            properties.setProperty(entry.getKey(), entry.getValue());
+        }
+        return properties;
+    }
+
+    @Override
+    public VectorizedSupport.Support[] getSupportedFeatures() {
+        return new VectorizedSupport.Support[0];
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import nl.basjes.hadoop.input.ParsedRecord;
+import nl.basjes.parse.core.Parser;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.LineRecordReader;
+import org.apache.hadoop.mapred.RecordReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import static nl.basjes.hadoop.input.ApacheHttpdLogfileRecordReader.decodeLine;
+
+/**
+ * Reads the log lines and parses them directly into the column vectors of a VectorizedRowBatch
+ * so Hive can use its vectorized execution engine on the raw logfiles.
+ * The bad lines are skipped with the same threshold as the {@link ApacheHttpdlogDeserializer}.
+ */
+class ApacheHttpdlogVectorizedRecordReader implements RecordReader<NullWritable, VectorizedRowBatch> {
+
+    private final LineRecordReader                   lineReader;
+    private final LongWritable                       lineKey;
+    private final Text                               line;
+
+    private final VectorizedRowBatchCtx              rbCtx;
+    private final Object[]                           partitionValues;
+    private boolean                                  addPartitionColumns = true;
+
+    private final Parser<ParsedRecord>               parser;
+    private final ParsedRecord                       currentValue;
+    private final List<ApacheHttpdlogColumns.Column> columns;
+    private final BadLineCounter                     badLineCounter = new BadLineCounter();
+
+    ApacheHttpdlogVectorizedRecordReader(FileSplit split, JobConf job,
+                                         VectorizedRowBatchCtx rbCtx, Properties tableProperties) throws IOException {
+        ApacheHttpdlogColumns httpdlogColumns;
+        try {
+            httpdlogColumns = new ApacheHttpdlogColumns(tableProperties, job);
+        } catch (SerDeException e) {
+            throw new IOException("Unable to initialize the parser", e);
+        }
+        parser       = httpdlogColumns.getParser();
+        currentValue = httpdlogColumns.createRecord();
+        columns      = httpdlogColumns.getColumns();
+
+        this.rbCtx = rbCtx;
+        int partitionColumnCount = rbCtx.getPartitionColumnCount();
+        if (partitionColumnCount > 0) {
+            partitionValues = new Object[partitionColumnCount];
+            VectorizedRowBatchCtx.getPartitionValues(rbCtx, job, split, partitionValues);
+        } else {
+            partitionValues = null;
+        }
+
+        lineReader = new LineRecordReader(job, split);
+        lineKey    = lineReader.createKey();
+        line       = lineReader.createValue();
+    }
+
+    @Override
+    public boolean next(NullWritable key, VectorizedRowBatch batch) throws IOException {
+        if (addPartitionColumns) {
+            if (partitionValues != null) {
+                rbCtx.addPartitionColsToBatch(batch, partitionValues);
+            }
+            addPartitionColumns = false;
+        }
+
+        batch.selectedInUse = false;
+        for (ApacheHttpdlogColumns.Column column : columns) {
+            batch.cols[column.getIndex()].reset();
+        }
+
+        int row = 0;
+        int maxSize = batch.getMaxSize();
+        while (row < maxSize && lineReader.next(lineKey, line)) {
+            badLineCounter.countLine();
+            try {
+                currentValue.clear();
+                if (parser.parse(currentValue, decodeLine(line)) == null) {
+                    continue; // Rejected by the pushed down filter
+                }
+            } catch (DissectionFailure dissectionFailure) {
+                if (badLineCounter.countBadLine()) {
+                    throw new IOException("To many bad lines: " + badLineCounter);
+                }
+                continue; // Skip this line
+            } catch (InvalidDissectorException | MissingDissectorsException e) {
+                throw new IOException("Cannot continue; Fix the Dissectors before retrying", e);
+            }
+            fillRow(batch, row);
+            row++;
+        }
+        batch.size = row;
+        return row > 0;
+    }
+
+    private void fillRow(VectorizedRowBatch batch, int row) {
+        for (ApacheHttpdlogColumns.Column column : columns) {
+            ColumnVector columnVector = batch.cols[column.getIndex()];
+            int slot = column.getSlot();
+            switch (column.getCasts()) {
+                case STRING:
+                    String stringValue = currentValue.getString(slot);
+                    if (stringValue == null) {
+                        setNull(columnVector, row);
+                    } else {
+                        byte[] bytes = stringValue.getBytes(StandardCharsets.UTF_8);
+                        ((BytesColumnVector) columnVector).setRef(row, bytes, 0, bytes.length);
+                    }
+                    break;
+                case LONG:
+                    if (currentValue.hasLong(slot)) {
+                        ((LongColumnVector) columnVector).vector[row] = currentValue.getLongValue(slot);
+                    } else {
+                        ((LongColumnVector) columnVector).vector[row] = LongColumnVector.NULL_VALUE;
+                        setNull(columnVector, row);
+                    }
+                    break;
+                case DOUBLE:
+                    if (currentValue.hasDouble(slot)) {
+                        ((DoubleColumnVector) columnVector).vector[row] = currentValue.getDoubleValue(slot);
+                    } else {
+                        ((DoubleColumnVector) columnVector).vector[row] = DoubleColumnVector.NULL_VALUE;
+                        setNull(columnVector, row);
+                    }
+                    break;
+                default:
+                    setNull(columnVector, row);
+            }
+        }
+    }
+
+    private static void setNull(ColumnVector columnVector, int row) {
+        columnVector.noNulls = false;
+        columnVector.isNull[row] = true;
+    }
+
+    @Override
+    public NullWritable createKey() {
+        return NullWritable.get();
+    }
+
+    @Override
+    public VectorizedRowBatch createValue() {
+        return rbCtx.createVectorizedRowBatch();
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return lineReader.getPos();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lineReader.close();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        return lineReader.getProgress();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+/**
+ * We do not want the parsing to fail immediately when we hit a single 'bad' line.
+ * So we count the good and bad lines.
+ * If we see more than 1% bad lines we abort (after we have seen 1000 lines)
+ */
+final class BadLineCounter {
+    private static final long    MINIMAL_FAIL_LINES      = 1000;
+    private static final int     MINIMAL_FAIL_PERCENTAGE =    1;
+    private long    linesInput  = 0;
+    private long    linesBad    = 0;
+
+    void countLine() {
+        linesInput++;
+    }
+
+    /**
+     * Count a line (that was already counted as input) as bad.
+     * @return true if there are now too many bad lines.
+     */
+    boolean countBadLine() {
+        linesBad++;
+        return linesInput >= MINIMAL_FAIL_LINES &&
+               100 * linesBad > MINIMAL_FAIL_PERCENTAGE * linesInput;
+    }
+
+    @Override
+    public String toString() {
+        return linesBad + " of " + linesInput + " are bad.";
+    }
+}
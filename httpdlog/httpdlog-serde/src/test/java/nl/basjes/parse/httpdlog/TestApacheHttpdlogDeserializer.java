@@ -20,12 +20,15 @@ package nl.basjes.parse.httpdlog;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.serdeConstants;
 import org.apache.hadoop.hive.serde2.AbstractDeserializer;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.io.Text;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -127,7 +130,32 @@ class TestApacheHttpdlogDeserializer {
         });
     }
 
+    @Test
+    void testColumnProjection() throws Throwable {
+        Configuration conf = new Configuration();
+        ColumnProjectionUtils.appendReadColumns(conf, Arrays.asList(0, 3));
+        AbstractDeserializer serDe = getTestSerDe(conf);
+
+        List<?> rowArray = (List<?>)serDe.deserialize(new Text(testLogLine));
+        assertEquals("127.0.0.1",     rowArray.get(0));
+        assertNull(rowArray.get(1)); // Not read so not parsed
+        assertNull(rowArray.get(2)); // Not read so not parsed
+        assertEquals(800L,            rowArray.get(3));
+        assertNull(rowArray.get(4)); // Not read so not parsed
+
+        // Nothing read (like count(*)) must still reject the bad lines
+        Configuration countConf = new Configuration();
+        ColumnProjectionUtils.appendReadColumns(countConf, Collections.emptyList());
+        AbstractDeserializer countSerDe = getTestSerDe(countConf);
+        assertNotNull(countSerDe.deserialize(new Text(testLogLine)));
+        assertNull(countSerDe.deserialize(new Text("A really bad line")));
+    }
+
     private AbstractDeserializer getTestSerDe() throws SerDeException {
+        return getTestSerDe(new Configuration());
+    }
+
+    private AbstractDeserializer getTestSerDe(Configuration conf) throws SerDeException {
         // Create the SerDe
         Properties schema = new Properties();
         schema.setProperty(serdeConstants.LIST_COLUMNS,
@@ -145,7 +173,7 @@ class TestApacheHttpdlogDeserializer {
         schema.setProperty("field:screenHeight",  "SCREENHEIGHT:request.firstline.uri.query.s.height");
 
         AbstractDeserializer serDe = new ApacheHttpdlogDeserializer();
-        serDe.initialize(new Configuration(), createOverlayedProperties(schema, null));
+        serDe.initialize(conf, createOverlayedProperties(schema, null));
         return serDe;
     }
 
@@ -0,0 +1,161 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import nl.basjes.hadoop.input.ParsedRecord;
+import nl.basjes.parse.core.Parser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.io.sarg.PredicateLeaf;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgument;
+import org.apache.hadoop.hive.ql.io.sarg.SearchArgumentFactory;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TestApacheHttpdlogFilterPushdown {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    private static final String LINE_200 =
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.php HTTP/1.1\" 200 1234 \"-\" \"Mozilla/5.0\"";
+    private static final String LINE_500 =
+        "127.0.0.2 - - [24/Oct/2012:23:00:45 +0200] \"GET /error.php HTTP/1.1\" 500 - \"-\" \"Mozilla/5.0\"";
+
+    private ApacheHttpdlogColumns createColumns() throws SerDeException {
+        Properties props = new Properties();
+        props.setProperty(serdeConstants.LIST_COLUMNS,      "ip,status,bytes,uri,referer");
+        props.setProperty(serdeConstants.LIST_COLUMN_TYPES, "string,string,bigint,string,string");
+        props.setProperty("logformat",    LOGFORMAT);
+        props.setProperty("field:ip",     "IP:connection.client.host");
+        props.setProperty("field:status", "STRING:request.status.last");
+        props.setProperty("field:bytes",  "BYTES:response.body.bytesclf");
+        props.setProperty("field:uri",    "HTTP.URI:request.firstline.uri");
+        props.setProperty("field:referer", "HTTP.URI:request.referer");
+        return new ApacheHttpdlogColumns(props, new Configuration());
+    }
+
+    private boolean[] accepted(SearchArgument searchArgument, int expectedFilters) throws Exception {
+        ApacheHttpdlogColumns columns = createColumns();
+        assertEquals(expectedFilters, columns.pushDownFilter(searchArgument));
+        Parser<ParsedRecord> parser = columns.getParser();
+        return new boolean[]{
+            parser.parse(columns.createRecord(), LINE_200) != null,
+            parser.parse(columns.createRecord(), LINE_500) != null,
+        };
+    }
+
+    private void assertAccepted(SearchArgument searchArgument, int expectedFilters,
+                                boolean expect200, boolean expect500) throws Exception {
+        boolean[] accepted = accepted(searchArgument, expectedFilters);
+        assertEquals(expect200, accepted[0], "Line with status 200 for " + searchArgument);
+        assertEquals(expect500, accepted[1], "Line with status 500 for " + searchArgument);
+    }
+
+    @Test
+    void testEquals() throws Exception {
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .equals("status", PredicateLeaf.Type.STRING, "500")
+            .build(), 1, false, true);
+
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .equals("ip", PredicateLeaf.Type.STRING, "127.0.0.1")
+            .build(), 1, true, false);
+    }
+
+    @Test
+    void testRanges() throws Exception {
+        // bytes > 1000  ==  NOT (bytes <= 1000)
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .startNot().lessThanEquals("bytes", PredicateLeaf.Type.LONG, 1000L).end()
+            .build(), 1, true, false);
+
+        // A "-" for the bytes is NULL
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .between("bytes", PredicateLeaf.Type.LONG, 0L, 10L)
+            .build(), 1, false, false);
+
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .between("bytes", PredicateLeaf.Type.LONG, 1000L, 2000L)
+            .build(), 1, true, false);
+
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .in("status", PredicateLeaf.Type.STRING, "404", "500", "503")
+            .build(), 1, false, true);
+    }
+
+    @Test
+    void testNulls() throws Exception {
+        // A "-" for the bytes in the CLF format is NULL
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .isNull("bytes", PredicateLeaf.Type.LONG)
+            .build(), 1, false, true);
+
+        // A "-" for the referer is NULL
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .isNull("referer", PredicateLeaf.Type.STRING)
+            .build(), 1, true, true);
+
+        // NOT (referer = 'x') is unknown for NULL
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .startNot().equals("referer", PredicateLeaf.Type.STRING, "x").end()
+            .build(), 1, false, false);
+    }
+
+    @Test
+    void testOnlyExactPartsArePushedDown() throws Exception {
+        // The OR over two columns cannot be pushed down, the status can.
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .startAnd()
+                .startOr()
+                    .equals("ip", PredicateLeaf.Type.STRING, "127.0.0.1")
+                    .lessThan("bytes", PredicateLeaf.Type.LONG, 10L)
+                .end()
+                .equals("status", PredicateLeaf.Type.STRING, "200")
+            .end()
+            .build(), 1, true, false);
+
+        // Ordering strings is not pushed down and neither is a column that does not exist
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .startAnd()
+                .lessThan("uri", PredicateLeaf.Type.STRING, "/f")
+                .equals("nosuchcolumn", PredicateLeaf.Type.LONG, 1L)
+            .end()
+            .build(), 0, true, true);
+
+        // A type mismatch between the column and the constant is not pushed down
+        assertAccepted(SearchArgumentFactory.newBuilder()
+            .equals("bytes", PredicateLeaf.Type.STRING, "1234")
+            .build(), 0, true, true);
+    }
+
+    @Test
+    void testRejectedLineSkipsTheOtherColumns() throws Exception {
+        ApacheHttpdlogColumns columns = createColumns();
+        columns.pushDownFilter(SearchArgumentFactory.newBuilder()
+            .equals("status", PredicateLeaf.Type.STRING, "200")
+            .build());
+        ParsedRecord record = columns.createRecord();
+        assertNull(columns.getParser().parse(record, LINE_500));
+        assertNotNull(columns.getParser().parse(columns.createRecord(), LINE_200));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.httpdlog;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatchCtx;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestApacheHttpdlogVectorizedRecordReader {
+
+    private static final String LOGFORMAT = "%h %l %u %t \"%r\" %>s %b";
+
+    private static final String GOOD_LINE =
+        "127.0.0.1 - - [24/Oct/2012:23:00:44 +0200] \"GET /index.php?s=800x600 HTTP/1.1\" 200 1234";
+    // No screen resolution
+    private static final String GOOD_LINE_WITH_NULLS =
+        "10.11.12.13 - - [24/Oct/2012:23:00:45 +0200] \"GET /index.php HTTP/1.1\" 304 -";
+    private static final String BAD_LINE = "A really bad line";
+
+    @TempDir
+    File tempDir;
+
+    private Properties createTableProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(serdeConstants.LIST_COLUMNS,      "ip,timestamp,screenWidth,bytes,status");
+        properties.setProperty(serdeConstants.LIST_COLUMN_TYPES, "string,bigint,bigint,bigint,string");
+
+        properties.setProperty("logformat",         LOGFORMAT);
+        properties.setProperty("field:ip",          "IP:connection.client.host");
+        properties.setProperty("field:timestamp",   "TIME.EPOCH:request.receive.time.epoch");
+        properties.setProperty("load:nl.basjes.parse.httpdlog.dissectors.ScreenResolutionDissector", "x");
+        properties.setProperty("map:request.firstline.uri.query.s", "SCREENRESOLUTION");
+        properties.setProperty("field:screenWidth", "SCREENWIDTH:request.firstline.uri.query.s.width");
+        properties.setProperty("field:bytes",       "BYTES:response.body.bytes");
+        properties.setProperty("field:status",      "STRING:request.status.last");
+        return properties;
+    }
+
+    private ApacheHttpdlogVectorizedRecordReader createReader(List<String> lines) throws Exception {
+        File file = new File(tempDir, "access.log");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+
+        Properties properties = createTableProperties();
+        ApacheHttpdlogDeserializer serDe = new ApacheHttpdlogDeserializer();
+        serDe.initialize(new Configuration(), properties);
+
+        VectorizedRowBatchCtx rbCtx = new VectorizedRowBatchCtx();
+        rbCtx.init((StructObjectInspector) serDe.getObjectInspector(), new String[0]);
+
+        JobConf job = new JobConf();
+        FileSplit split = new FileSplit(new Path(file.toURI()), 0, file.length(), (String[]) null);
+        return new ApacheHttpdlogVectorizedRecordReader(split, job, rbCtx, properties);
+    }
+
+    private String getString(VectorizedRowBatch batch, int column, int row) {
+        BytesColumnVector vector = (BytesColumnVector) batch.cols[column];
+        if (!vector.noNulls && vector.isNull[row]) {
+            return null;
+        }
+        return new String(vector.vector[row], vector.start[row], vector.length[row], StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testVectorizedRead() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(GOOD_LINE);
+            lines.add(GOOD_LINE_WITH_NULLS);
+        }
+        lines.add(BAD_LINE);
+
+        ApacheHttpdlogVectorizedRecordReader reader = createReader(lines);
+        VectorizedRowBatch batch = reader.createValue();
+
+        long rows = 0;
+        boolean first = true;
+        while (reader.next(NullWritable.get(), batch)) {
+            if (first) {
+                assertEquals(VectorizedRowBatch.DEFAULT_SIZE, batch.size);
+                assertEquals("127.0.0.1",   getString(batch, 0, 0));
+                assertEquals(1351112444000L, ((LongColumnVector) batch.cols[1]).vector[0]);
+                assertEquals(800L,          ((LongColumnVector) batch.cols[2]).vector[0]);
+                assertEquals(1234L,         ((LongColumnVector) batch.cols[3]).vector[0]);
+                assertEquals("200",         getString(batch, 4, 0));
+
+                assertEquals("10.11.12.13", getString(batch, 0, 1));
+                assertFalse(batch.cols[2].noNulls);
+                assertTrue(batch.cols[2].isNull[1]);
+                assertFalse(batch.cols[2].isNull[0]);
+                assertEquals(0L,            ((LongColumnVector) batch.cols[3]).vector[1]); // %b uses "-" for 0 bytes
+                assertEquals("304",         getString(batch, 4, 1));
+                first = false;
+            }
+            rows += batch.size;
+        }
+        reader.close();
+        assertEquals(2000, rows);
+    }
+
+    @Test
+    void testHighFailRatio() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(GOOD_LINE);
+        }
+        for (int i = 0; i < 100; i++) {
+            lines.add(BAD_LINE);
+        }
+
+        ApacheHttpdlogVectorizedRecordReader reader = createReader(lines);
+        VectorizedRowBatch batch = reader.createValue();
+        assertThrows(IOException.class, () -> {
+            while (reader.next(NullWritable.get(), batch)) {
+                assertTrue(batch.size > 0);
+            }
+        });
+        reader.close();
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+
+/**
+ * Receives the results of {@link Parser#parseBatch(Iterable, BatchHandler)}.
+ */
+public interface BatchHandler<RECORD> {
+    /**
+     * The value was parsed into the record.
+     */
+    void onRecord(String value, RECORD record);
+
+    /**
+     * The value was rejected by one of the field filters of the parser.
+     */
+    default void onFiltered(String value) {
+        // Ignored by default
+    }
+
+    /**
+     * The value was rejected by the line sampler of the parser (it was not dissected at all).
+     */
+    default void onSampledOut(String value) {
+        // Ignored by default
+    }
+
+    /**
+     * The value could not be parsed.
+     */
+    void onFailure(String value, DissectionFailure failure);
+}
@@ -0,0 +1,90 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Determines the casts of a set of fields before the actual parser is created.
+ * Code that stores the values in columns of a fixed type (or binds a separate setter per type) needs the casts
+ * to create the columns, but a parse target cannot be removed from a Parser again; so the casts are determined
+ * with a separate probe Parser.
+ */
+public final class FieldCasts {
+
+    private FieldCasts() {
+    }
+
+    /**
+     * @param probe A new Parser (with the logformat and any additional dissectors) that is only used to get the casts.
+     * @param fieldValues The fields (i.e. "TYPE:name").
+     * @return The casts of all fields the probe can produce (by the cleaned field value).
+     * @throws IllegalStateException If the probe cannot be assembled.
+     */
+    public static <RECORD> Map<String, EnumSet<Casts>> getCasts(Parser<RECORD> probe, Collection<String> fieldValues) {
+        for (String fieldValue : fieldValues) {
+            probe.addFieldSetter(fieldValue, (record, name, value) -> { });
+        }
+        try {
+            return probe.getAllCasts();
+        } catch (MissingDissectorsException | InvalidDissectorException e) {
+            throw new IllegalStateException("Unable to create the parser: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The casts of the field.
+     * @throws IllegalArgumentException If the field cannot be retrieved.
+     */
+    public static EnumSet<Casts> getCasts(Map<String, EnumSet<Casts>> allCasts, String fieldValue) {
+        EnumSet<Casts> casts = allCasts.get(Parser.cleanupFieldValue(fieldValue));
+        if (casts == null || casts.isEmpty()) {
+            throw new IllegalArgumentException("The field \"" + fieldValue + "\" cannot be retrieved");
+        }
+        return casts;
+    }
+
+    /**
+     * Only checks that the parser can produce the field (i.e. a field that is only used to group the values).
+     * @throws IllegalArgumentException If the field cannot be retrieved.
+     */
+    public static void checkRetrievable(Map<String, EnumSet<Casts>> allCasts, String fieldValue) {
+        getCasts(allCasts, fieldValue);
+    }
+
+    /**
+     * The type of a column that holds all values of the field: a field that can be a DOUBLE is a DOUBLE
+     * (a value like the "0.123" seconds of nginx has a fraction), else a field that can be a LONG is a LONG
+     * and else it is a STRING.
+     * @throws IllegalArgumentException If the field cannot be retrieved.
+     */
+    public static Casts getColumnCasts(Map<String, EnumSet<Casts>> allCasts, String fieldValue) {
+        EnumSet<Casts> casts = getCasts(allCasts, fieldValue);
+        if (casts.contains(Casts.DOUBLE)) {
+            return Casts.DOUBLE;
+        }
+        if (casts.contains(Casts.LONG)) {
+            return Casts.LONG;
+        }
+        return Casts.STRING;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+
+/**
+ * A condition on the value of a single field that decides if a line is wanted at all.
+ * The Parser evaluates it as soon as the field has been dissected and if it rejects the value
+ * the rest of the dissection of that line is skipped.
+ * If the field does not occur in the line the filter is called with a null value.
+ * Because the Parser is Serializable a filter must be Serializable too.
+ */
+@FunctionalInterface
+public interface FieldFilter extends Serializable {
+    /**
+     * @param value The value of the field.
+     * @return true if the line must be kept, false if the line can be dropped.
+     */
+    boolean accept(Value value);
+}
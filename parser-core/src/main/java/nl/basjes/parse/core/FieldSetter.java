@@ -0,0 +1,35 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+
+/**
+ * A parse target that receives the value of a field directly (so without the reflection of a setter method).
+ * The value is passed as is; the setter decides which of getString, getLong or getDouble it needs.
+ * Because the Parser is Serializable a setter must be Serializable too.
+ * @param <RECORD> The type of the record that is being filled.
+ */
+@FunctionalInterface
+public interface FieldSetter<RECORD> extends Serializable {
+    /**
+     * @param record The record that is being filled.
+     * @param name The name of the field (i.e. "TYPE:name"); for a wildcard target this is the actual field.
+     * @param value The value of the field.
+     */
+    void set(RECORD record, String name, Value value);
+}
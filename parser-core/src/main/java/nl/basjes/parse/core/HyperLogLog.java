@@ -0,0 +1,142 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch to estimate the number of distinct values using a small fixed amount of memory
+ * (2^precision bytes). The standard error is about 1.04 / sqrt(2^precision), so 1.6% for the default precision.
+ * Sketches with the same precision can be merged.
+ */
+public final class HyperLogLog implements Serializable {
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int    precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("The precision must be in the range 4-18");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Add a value of which the hash is already known; the hash must have good 64 bit mixing.
+     */
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // The extra bit limits the rank to 64 - precision + 1
+        long remainder = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(remainder) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    public void add(CharSequence value) {
+        addHash(hash(value));
+    }
+
+    public void add(long value) {
+        addHash(mix(value));
+    }
+
+    /**
+     * @return The estimated number of distinct values that were added.
+     */
+    public long estimate() {
+        int    count = registers.length;
+        double sum   = 0;
+        int    zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / count);
+        double estimate = alpha * count * count / sum;
+        if (estimate <= 2.5 * count && zeros > 0) {
+            // Small range correction: linear counting
+            estimate = count * Math.log((double) count / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Unable to merge sketches with a different precision");
+        }
+        for (int index = 0; index < registers.length; index++) {
+            if (other.registers[index] > registers[index]) {
+                registers[index] = other.registers[index];
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    // --------------------------------------------
+
+    /**
+     * FNV-1a over the characters followed by a finalization step to spread the bits.
+     */
+    public static long hash(CharSequence value) {
+        return hash(value, 0, value.length());
+    }
+
+    /**
+     * FNV-1a over the characters from start (inclusive) to end (exclusive) followed by a finalization step
+     * to spread the bits. This is also the hash used by the {@link LineSamplers}.
+     */
+    public static long hash(CharSequence value, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int index = start; index < end; index++) {
+            hash ^= value.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The finalization step of MurmurHash3 (fmix64).
+     */
+    public static long mix(long value) {
+        long hash = value;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
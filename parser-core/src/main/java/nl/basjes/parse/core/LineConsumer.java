@@ -0,0 +1,134 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * The base of a class that parses log lines one at a time into a single reused record (like a writer that
+ * puts the values straight into its output) and that keeps track of the good, bad and filtered lines.
+ * @param <RECORD> The type of the record the parser puts the values in.
+ */
+public abstract class LineConsumer<RECORD> {
+
+    private final ParserFactory<RECORD> parserFactory;
+
+    private long goodLines     = 0;
+    private long badLines      = 0;
+    private long filteredLines = 0;
+
+    /**
+     * @param parserFactory Creates the parser (with the logformat and any additional dissectors).
+     */
+    protected LineConsumer(ParserFactory<RECORD> parserFactory) {
+        this.parserFactory = parserFactory;
+    }
+
+    /**
+     * @return A new Parser from the ParserFactory.
+     * @throws IllegalStateException If the parser cannot be created.
+     */
+    protected final Parser<RECORD> createParser() {
+        try {
+            return parserFactory.createParser();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to create the parser", e);
+        }
+    }
+
+    /**
+     * @return The casts of all these fields (determined with a separate parser, see {@link FieldCasts}).
+     */
+    protected final Map<String, EnumSet<Casts>> getCasts(Collection<String> fieldValues) {
+        return FieldCasts.getCasts(createParser(), fieldValues);
+    }
+
+    /**
+     * Parse the line into the record and count the outcome.
+     * @return true if the line is good, false if it was bad or rejected by the parser (filters or sampling).
+     * @throws IllegalStateException If the parser cannot be assembled.
+     */
+    protected final boolean parse(Parser<RECORD> parser, RECORD record, String line) {
+        try {
+            if (parser.parse(record, line) == null) {
+                filteredLines++;
+                return false;
+            }
+        } catch (DissectionFailure e) {
+            badLines++;
+            return false;
+        } catch (InvalidDissectorException | MissingDissectorsException e) {
+            throw new IllegalStateException("Fatal error in the parser", e);
+        }
+        goodLines++;
+        return true;
+    }
+
+    /**
+     * Parse and add the line.
+     * @return true if the line was added, false if it was bad or rejected by the parser (filters or sampling).
+     */
+    public abstract boolean add(String line) throws IOException;
+
+    /**
+     * Add all (non empty) lines.
+     * @return The number of lines that were added.
+     */
+    public long addLines(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        long added = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (!line.isEmpty() && add(line)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Add all (non empty) lines from the UTF-8 encoded stream.
+     * @return The number of lines that were added.
+     */
+    public long addLines(InputStream inputStream) throws IOException {
+        return addLines(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    public long getGoodLines() {
+        return goodLines;
+    }
+
+    public long getBadLines() {
+        return badLines;
+    }
+
+    public long getFilteredLines() {
+        return filteredLines;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+
+/**
+ * Decides (before anything is dissected) if a line must be parsed at all.
+ * See {@link LineSamplers} for the common implementations.
+ */
+@FunctionalInterface
+public interface LineSampler extends Serializable {
+    /**
+     * @param line The raw line (the value passed to parse).
+     * @return true if the line must be parsed, false if it must be skipped.
+     */
+    boolean accept(String line);
+}
@@ -0,0 +1,156 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.util.Random;
+
+/**
+ * Common {@link LineSampler}s.
+ * The hash based samplers are deterministic: the same key is always either in or out of the sample (also
+ * across runs and machines) so with a sample on the client IP all requests of a sampled client are retained.
+ * To avoid dissecting the line the key is a token of the raw line: the lines are split on single spaces and
+ * only the part of the line up to the wanted token is scanned. So the tokens before it must not contain spaces;
+ * in the common Apache HTTPD formats the %h (client IP) is token 0 and the "[%t" timestamp is token 3.
+ */
+public final class LineSamplers {
+
+    private LineSamplers() {
+    }
+
+    private static void checkFraction(double fraction) {
+        if (!(fraction >= 0.0 && fraction <= 1.0)) {
+            throw new IllegalArgumentException("The fraction must be between 0.0 and 1.0 (was " + fraction + ")");
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The start of the token or -1 if the line does not have this many tokens.
+     */
+    static int tokenStart(String line, int tokenIndex) {
+        int start = 0;
+        for (int token = 0; token < tokenIndex; token++) {
+            int space = line.indexOf(' ', start);
+            if (space == -1) {
+                return -1;
+            }
+            start = space + 1;
+        }
+        return start;
+    }
+
+    /**
+     * @return The (exclusive) end of the token that starts at the start.
+     */
+    static int tokenEnd(String line, int start) {
+        int space = line.indexOf(' ', start);
+        return space == -1 ? line.length() : space;
+    }
+
+    /**
+     * @return true if the hash falls in the first fraction of the possible hash values.
+     */
+    static boolean isInSample(long hash, double fraction) {
+        // The top 53 bits as a number in [0, 1)
+        return (hash >>> 11) * 0x1.0p-53 < fraction;
+    }
+
+    // --------------------------------------------
+
+    private static final class HashOfLine implements LineSampler {
+        private final double fraction;
+
+        private HashOfLine(double fraction) {
+            this.fraction = fraction;
+        }
+
+        @Override
+        public boolean accept(String line) {
+            return isInSample(HyperLogLog.hash(line), fraction);
+        }
+    }
+
+    /**
+     * Keep the fraction of the distinct lines (an identical line is always either in or out of the sample).
+     */
+    public static LineSampler hashOfLine(double fraction) {
+        checkFraction(fraction);
+        return new HashOfLine(fraction);
+    }
+
+    // --------------------------------------------
+
+    private static final class HashOfToken implements LineSampler {
+        private final int    tokenIndex;
+        private final double fraction;
+
+        private HashOfToken(int tokenIndex, double fraction) {
+            this.tokenIndex = tokenIndex;
+            this.fraction   = fraction;
+        }
+
+        @Override
+        public boolean accept(String line) {
+            int start = tokenStart(line, tokenIndex);
+            if (start == -1) {
+                // No such token: treat it as an empty key
+                return isInSample(HyperLogLog.hash(line, 0, 0), fraction);
+            }
+            return isInSample(HyperLogLog.hash(line, start, tokenEnd(line, start)), fraction);
+        }
+    }
+
+    /**
+     * Keep the fraction of the distinct values of a token of the line.
+     * @param tokenIndex The index of the token (the first token of the line is 0).
+     * @param fraction The fraction of the values that is kept (0.01 = 1%).
+     */
+    public static LineSampler hashOfToken(int tokenIndex, double fraction) {
+        if (tokenIndex < 0) {
+            throw new IllegalArgumentException("The token index must be >= 0");
+        }
+        checkFraction(fraction);
+        return new HashOfToken(tokenIndex, fraction);
+    }
+
+    // --------------------------------------------
+
+    private static final class Bernoulli implements LineSampler {
+        private final double fraction;
+        private final Random random;
+
+        private Bernoulli(double fraction, long seed) {
+            this.fraction = fraction;
+            this.random   = new Random(seed);
+        }
+
+        @Override
+        public boolean accept(String line) {
+            return random.nextDouble() < fraction;
+        }
+    }
+
+    /**
+     * Keep every line with the probability of the fraction (independent of the content of the line).
+     * @param seed The seed of the random generator (the same seed and lines produce the same sample).
+     */
+    public static LineSampler random(double fraction, long seed) {
+        checkFraction(fraction);
+        return new Bernoulli(fraction, seed);
+    }
+}
@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -49,6 +50,16 @@ public final class Parsable<RECORD> {
 
     private final Map<String, Set<String>> typeRemappings;
 
+    // The filters that decide if this line is wanted
+    private final Map<String, List<FieldFilter>> fieldFilters;
+
+    // The fields for which the filters have been evaluated
+    private final Set<String>              filteredFields;
+
+    // Set when a filter has rejected this line
+    private boolean                        rejected = false;
+    private String                         rejectedBy = null;
+
     // --------------------------------------------
 
     public Parsable(final Parser<RECORD> parser, final RECORD record, Map<String, Set<String>> typeRemappings) {
@@ -57,6 +68,8 @@ public final class Parsable<RECORD> {
         this.typeRemappings = typeRemappings;
         needed = parser.getNeeded();
         usefulIntermediates = parser.getUsefulIntermediateFields();
+        fieldFilters = parser.getFieldFilters();
+        filteredFields = fieldFilters.isEmpty() ? null : new HashSet<>();
     }
 
     // --------------------------------------------
@@ -146,6 +159,10 @@ public final class Parsable<RECORD> {
             final Value value,
             final boolean recursion)
             throws DissectionFailure {
+        if (rejected) {
+            return this; // This line is not wanted anyway
+        }
+
         String completeName;
         String neededWildCardName;
         if (base.isEmpty()) { // The root name is an empty string
@@ -172,9 +189,16 @@ public final class Parsable<RECORD> {
                     }
                     addDissection(base, typeRemapping, name, value, true);
                 }
+                if (rejected) {
+                    return this;
+                }
             }
         }
 
+        if (filteredFields != null && !isAccepted(neededName, value)) {
+            return this;
+        }
+
         final ParsedField parsedfield = new ParsedField(type, completeName, value);
 
         if (usefulIntermediates.contains(completeName)) {
@@ -194,6 +218,53 @@ public final class Parsable<RECORD> {
 
     // --------------------------------------------
 
+    private boolean isAccepted(final String neededName, final Value value) {
+        List<FieldFilter> filters = fieldFilters.get(neededName);
+        if (filters == null) {
+            return true;
+        }
+        filteredFields.add(neededName);
+        for (FieldFilter filter : filters) {
+            if (!filter.accept(value)) {
+                LOG.debug("Line rejected by the filter on {}", neededName);
+                rejected = true;
+                rejectedBy = neededName;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The filters on fields that were not present in this line are evaluated with a null value.
+     */
+    void checkFiltersOfAbsentFields() {
+        if (filteredFields == null || rejected) {
+            return;
+        }
+        for (String filteredField : fieldFilters.keySet()) {
+            if (!filteredFields.contains(filteredField) && !isAccepted(filteredField, new Value((String) null))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if this line was rejected by one of the field filters of the parser.
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return The field ("TYPE:name") of the filter that rejected this line (null if it was not rejected).
+     */
+    public String getRejectedBy() {
+        return rejectedBy;
+    }
+
+    // --------------------------------------------
+
     public ParsedField getParsableField(final String type, final String name) {
         return cache.get(ParsedField.makeId(type, name));
     }
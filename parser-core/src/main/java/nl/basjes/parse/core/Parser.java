@@ -87,6 +87,8 @@ public class Parser<RECORD> implements Serializable {
     // Value = the set of dissectors that must all be started once we have this value
     private HashMap<String, Set<DissectorPhase>> compiledDissectors = null;
     private HashSet<String> usefulIntermediateFields = null;
+    // The ids ("TYPE:name") of the fields that must be dissected to get to the fields that have a filter.
+    private HashSet<String> filterPathFields = null;
     private String rootType;
 
     // NOTE: The Method is NOT serializable. So after deserialization the 'assembled' is false
@@ -98,8 +100,21 @@ public class Parser<RECORD> implements Serializable {
     private final Map<String, Set<Pair<List<String>, SetterPolicy>>> targetsMethodNames = new TreeMap<>();
     private transient boolean assembled = false;
 
+    // The targets that are called directly (without reflection).
+    private final Map<String, List<FieldSetter<RECORD>>> fieldSetters = new TreeMap<>();
+
     private final Map<String, EnumSet<Casts>> castsOfTargets = new TreeMap<>();
 
+    // The filters that decide if a line is wanted at all
+    private final Map<String, List<FieldFilter>> fieldFilters = new TreeMap<>();
+
+    // The number of lines rejected by the filters (in total and per field that rejected them)
+    private transient long filteredLines = 0;
+    private transient Map<String, Long> filteredLinesPerField;
+
+    // Decides before any dissection if a line is parsed at all
+    private LineSampler lineSampler = null;
+    private transient long sampledOutLines = 0;
 
     // --------------------------------------------
 
@@ -305,6 +320,7 @@ public class Parser<RECORD> implements Serializable {
         // We first build a set of all possible subtargets that may be useful
         // this way we can skip anything we know not to be useful
         Set<String> needed = new HashSet<>(getNeeded());
+        needed.addAll(fieldFilters.keySet());
         needed.add(rootType + ':'); // The root name is an empty string
         LOG.debug("Root: >>>{}:<<<", rootType);
 
@@ -331,6 +347,7 @@ public class Parser<RECORD> implements Serializable {
         usefulIntermediateFields = new HashSet<>();
         Set<String> locatedTargets = new HashSet<>();
         findUsefulDissectorsFromField(allPossibleSubtargets, locatedTargets, rootType, "", true); // The root name is an empty string
+        filterPathFields = findFilterPathFields();
 
         // Step 3: Inform all dissectors to prepare for the run
         for (Set<DissectorPhase> dissectorPhases : compiledDissectors.values()) {
@@ -459,6 +476,37 @@ public class Parser<RECORD> implements Serializable {
 
     }
 
+    /**
+     * Find all fields from which (via one or more dissectors) the fields with a filter are produced.
+     * These are dissected before anything else so a line that is rejected is dropped as early as possible.
+     * @return The ids of these fields or null if there are no filters.
+     */
+    private HashSet<String> findFilterPathFields() {
+        if (fieldFilters.isEmpty()) {
+            return null;
+        }
+
+        // A dissector only extends the name of its input (the root has an empty name) and a type remapping
+        // keeps the name, so a filtered field can only be dissected from fields with a name that is a prefix of it.
+        // Only the name is used so this may include a few fields of a different type that are not needed.
+        Set<String> filteredNames = new HashSet<>();
+        for (String filteredField : fieldFilters.keySet()) {
+            filteredNames.add(filteredField.substring(filteredField.indexOf(':') + 1));
+        }
+
+        HashSet<String> pathFields = new HashSet<>();
+        for (String dissectedField : compiledDissectors.keySet()) {
+            String name = dissectedField.substring(dissectedField.indexOf(':') + 1);
+            for (String filteredName : filteredNames) {
+                if (name.isEmpty() || filteredName.equals(name) || filteredName.startsWith(name + '.')) {
+                    pathFields.add(dissectedField);
+                    break;
+                }
+            }
+        }
+        return pathFields;
+    }
+
     private DissectorPhase findDissectorInstance(Set<DissectorPhase> dissectorPhases,
                                                  Class<? extends Dissector> clazz) {
         for (DissectorPhase phase : dissectorPhases) {
@@ -473,7 +521,9 @@ public class Parser<RECORD> implements Serializable {
 
     private Set<String> getTheMissingFields(Set<String> locatedTargets) {
         Set<String> missing = new HashSet<>();
-        for (String target : getNeeded()) {
+        Set<String> allNeeded = new HashSet<>(getNeeded());
+        allNeeded.addAll(fieldFilters.keySet());
+        for (String target : allNeeded) {
             if (!locatedTargets.contains(target)) {
                 // Handle wildcard targets differently
                 if (target.endsWith("*")) {
@@ -636,6 +686,94 @@ public class Parser<RECORD> implements Serializable {
         return this;
     }
 
+    /**
+     * Call the setter with the value of the field. Unlike with a setter Method the value is passed as is
+     * (without a check of the casts or a SetterPolicy) and no reflection is involved.
+     * @param fieldValue The field (i.e. "TYPE:name") as it is also used in addParseTarget (a wildcard is allowed).
+     * @param setter The setter that receives the value.
+     */
+    public Parser<RECORD> addFieldSetter(final String fieldValue, final FieldSetter<RECORD> setter) {
+        if (fieldValue == null || setter == null) {
+            return this; // Nothing to do here
+        }
+        assembled = false;
+        String cleanedFieldValue = cleanupFieldValue(fieldValue);
+        fieldSetters.computeIfAbsent(cleanedFieldValue, k -> new ArrayList<>()).add(setter);
+        // Make it a needed field (also after deserialization).
+        targets.computeIfAbsent(cleanedFieldValue, k -> new HashSet<>());
+        targetsMethodNames.computeIfAbsent(cleanedFieldValue, k -> new HashSet<>());
+        return this;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Only keep the lines for which the filter accepts the value of the field.
+     * The filter is evaluated as soon as the field has been dissected and if the value is rejected
+     * the remaining dissection of the line is skipped and parse returns null instead of the record.
+     * The field does not need to be a parse target; the Parser will dissect it for the filter anyway.
+     * If the field is not present in a line the filter is called with a null value.
+     * When multiple filters are added (also on different fields) a line must be accepted by all of them.
+     * The fields that lead to the fields with a filter are dissected before all other fields and the number of
+     * rejected lines is available via {@link #getFilteredLines()}.
+     * @param fieldValue The field (i.e. "TYPE:name") as it is also used in addParseTarget (wildcards are not allowed).
+     * @param filter The filter that must accept the value.
+     */
+    public Parser<RECORD> addFieldFilter(final String fieldValue, final FieldFilter filter) {
+        if (fieldValue == null || filter == null) {
+            return this; // Nothing to do here
+        }
+        if (fieldValue.endsWith("*")) {
+            throw new IllegalArgumentException("A filter cannot be put on a wildcard field: " + fieldValue);
+        }
+        assembled = false;
+        List<FieldFilter> filters = fieldFilters.computeIfAbsent(cleanupFieldValue(fieldValue), k -> new ArrayList<>());
+        if (!filters.contains(filter)) {
+            filters.add(filter);
+        }
+        return this;
+    }
+
+    Map<String, List<FieldFilter>> getFieldFilters() {
+        return fieldFilters;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Only parse the lines that are accepted by the sampler. The sampler is called with the raw line before
+     * anything is dissected; for a line that it rejects parse returns null (just like for a filtered line).
+     * @param sampler The sampler (null = parse all lines).
+     */
+    public Parser<RECORD> setLineSampler(final LineSampler sampler) {
+        lineSampler = sampler;
+        return this;
+    }
+
+    public LineSampler getLineSampler() {
+        return lineSampler;
+    }
+
+    /**
+     * @return The number of lines that were rejected by the line sampler (since the last reset).
+     */
+    public long getSampledOutLines() {
+        return sampledOutLines;
+    }
+
+    public Parser<RECORD> resetSampledOutLines() {
+        sampledOutLines = 0;
+        return this;
+    }
+
+    private boolean isSampledOut(final String value) {
+        if (lineSampler == null || lineSampler.accept(value)) {
+            return false;
+        }
+        sampledOutLines++;
+        return true;
+    }
+
     // --------------------------------------------
 
     private Map<String, Set<String>> typeRemappings = new HashMap<>(16);
@@ -698,29 +836,126 @@ public class Parser<RECORD> implements Serializable {
     /**
      * Parse the value and return a new instance of RECORD.
      * For this method to work the RECORD class may NOT be an inner class.
+     * @return The record or null if the line was rejected by the line sampler or one of the field filters.
      */
     public RECORD parse(final String value)
         throws DissectionFailure, InvalidDissectorException, MissingDissectorsException {
+        if (isSampledOut(value)) {
+            return null;
+        }
         assembleDissectors();
         final Parsable<RECORD> parsable = createParsable();
         if (parsable == null) {
             return null;
         }
         parsable.setRootDissection(rootType, value);
-        return parse(parsable).getRecord();
+        return getRecordIfAccepted(parse(parsable));
     }
 
     // --------------------------------------------
 
     /**
      * Parse the value and call all configured setters in the provided instance of RECORD.
+     * @return The record or null if the line was rejected by the line sampler or one of the field filters
+     *         (the record may then have received only some of the values).
      */
     public RECORD parse(final RECORD record, final String value)
         throws DissectionFailure, InvalidDissectorException, MissingDissectorsException {
+        if (isSampledOut(value)) {
+            return null;
+        }
         assembleDissectors();
         final Parsable<RECORD> parsable = createParsable(record);
         parsable.setRootDissection(rootType, value);
-        return parse(parsable).getRecord();
+        return getRecordIfAccepted(parse(parsable));
+    }
+
+    /**
+     * Parse all values, each into a new instance of RECORD, and hand the results to the handler
+     * (in the same order as the values). The setup work (like finding the constructor of the RECORD)
+     * is done only once for the entire batch. A bad value does not stop the batch.
+     * For this method to work the RECORD class may NOT be an inner class.
+     */
+    public void parseBatch(final Iterable<String> values, final BatchHandler<RECORD> handler)
+        throws InvalidDissectorException, MissingDissectorsException {
+        assembleDissectors();
+        if (!assembled) {
+            return;
+        }
+
+        final Constructor<RECORD> constructor;
+        try {
+            constructor = recordClass.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unable to create instances of " + recordClass.getCanonicalName(), e);
+        }
+
+        for (String value : values) {
+            if (isSampledOut(value)) {
+                handler.onSampledOut(value);
+                continue;
+            }
+            final RECORD record;
+            try {
+                record = constructor.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to create instance of " + recordClass.getCanonicalName(), e);
+            }
+
+            final Parsable<RECORD> parsable = createParsable(record);
+            parsable.setRootDissection(rootType, value);
+            final RECORD result;
+            try {
+                result = getRecordIfAccepted(parse(parsable));
+            } catch (DissectionFailure failure) {
+                handler.onFailure(value, failure);
+                continue;
+            }
+            if (result == null) {
+                handler.onFiltered(value);
+            } else {
+                handler.onRecord(value, result);
+            }
+        }
+    }
+
+    private RECORD getRecordIfAccepted(Parsable<RECORD> parsable) {
+        if (parsable == null) {
+            return null;
+        }
+        if (parsable.isRejected()) {
+            filteredLines++;
+            if (filteredLinesPerField == null) {
+                filteredLinesPerField = new TreeMap<>();
+            }
+            filteredLinesPerField.merge(parsable.getRejectedBy(), 1L, Long::sum);
+            return null;
+        }
+        return parsable.getRecord();
+    }
+
+    /**
+     * @return The number of lines that were rejected by the field filters (since the last reset).
+     */
+    public long getFilteredLines() {
+        return filteredLines;
+    }
+
+    /**
+     * @return For each field ("TYPE:name") with a filter the number of lines that were rejected by its filters
+     *         (since the last reset). A line is only counted for the first filter that rejected it.
+     */
+    public Map<String, Long> getFilteredLinesPerField() {
+        if (filteredLinesPerField == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(filteredLinesPerField);
+    }
+
+    public Parser<RECORD> resetFilteredLines() {
+        filteredLines = 0;
+        filteredLinesPerField = null;
+        return this;
     }
 
     // --------------------------------------------
@@ -736,8 +971,23 @@ public class Parser<RECORD> implements Serializable {
         // Values look like "TYPE:foo.bar"
         Set<ParsedField> toBeParsed = new HashSet<>(parsable.getToBeParsed());
 
+        boolean absentFieldsChecked = false;
         while (!toBeParsed.isEmpty()) {
+            // As long as there is something that leads to a filtered field only that is dissected.
+            // The other fields remain to be parsed and are picked up once the filters have had their chance.
+            boolean onlyFilterPaths = containsFilterPath(toBeParsed);
+            if (!onlyFilterPaths && !absentFieldsChecked) {
+                // Nothing left can produce a filtered field so the ones we have not seen yet are absent.
+                absentFieldsChecked = true;
+                parsable.checkFiltersOfAbsentFields();
+                if (parsable.isRejected()) {
+                    return parsable;
+                }
+            }
             for (ParsedField fieldThatNeedsToBeParsed : toBeParsed) {
+                if (onlyFilterPaths && !filterPathFields.contains(fieldThatNeedsToBeParsed.getId())) {
+                    continue;
+                }
                 parsable.setAsParsed(fieldThatNeedsToBeParsed);
                 Set<DissectorPhase> dissectorSet = compiledDissectors.get(fieldThatNeedsToBeParsed.getId());
                 if (dissectorSet != null) {
@@ -746,6 +996,9 @@ public class Parser<RECORD> implements Serializable {
                             LOG.debug("Dissect {} with {}", fieldThatNeedsToBeParsed, dissector.instance.getClass().getName());
                         }
                         dissector.instance.dissect(parsable, fieldThatNeedsToBeParsed.getName());
+                        if (parsable.isRejected()) {
+                            return parsable; // The line is not wanted so there is no need to dissect the rest.
+                        }
                     }
                 } else {
                     LOG.trace("NO DISSECTORS FOR \"{}\"", fieldThatNeedsToBeParsed);
@@ -754,9 +1007,24 @@ public class Parser<RECORD> implements Serializable {
             toBeParsed.clear();
             toBeParsed.addAll(parsable.getToBeParsed());
         }
+        if (!absentFieldsChecked) {
+            parsable.checkFiltersOfAbsentFields();
+        }
         return parsable;
     }
 
+    private boolean containsFilterPath(Set<ParsedField> fields) {
+        if (filterPathFields == null || filterPathFields.isEmpty()) {
+            return false;
+        }
+        for (ParsedField field : fields) {
+            if (filterPathFields.contains(field.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // --------------------------------------------
 
     void store(final RECORD record, final String key, final String name, final Value value) {
@@ -767,9 +1035,19 @@ public class Parser<RECORD> implements Serializable {
             return; // Nothing to do
         }
 
+        final List<FieldSetter<RECORD>> setters = fieldSetters.get(key);
+        if (setters != null) {
+            for (FieldSetter<RECORD> setter : setters) {
+                setter.set(record, name, value);
+            }
+            calledASetter = true;
+        }
+
         final Set<Pair<Method, SetterPolicy>> methodPairs = targets.get(key);
-        if (methodPairs == null) {
-            LOG.error("NO methods for key={}  name={}.", key, name);
+        if (methodPairs == null || methodPairs.isEmpty()) {
+            if (!calledASetter) {
+                LOG.error("NO methods for key={}  name={}.", key, name);
+            }
             return;
         }
 
@@ -0,0 +1,29 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.io.Serializable;
+
+/**
+ * Creates a Parser where it is used.
+ * In distributed systems (like Apache Flink and Apache Beam) only this factory is shipped to the workers and
+ * the Parser is created (and assembled) in the worker itself.
+ */
+@FunctionalInterface
+public interface ParserFactory<RECORD> extends Serializable {
+    Parser<RECORD> createParser() throws Exception;
+}
@@ -0,0 +1,161 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.InvalidDissectorException;
+import nl.basjes.parse.core.exceptions.MissingDissectorsException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Retains a uniform random sample of (at most) a fixed number of lines per time window (reservoir sampling)
+ * and only parses those when the window is complete. All other lines are never dissected at all.
+ *
+ * To avoid dissecting the lines the window is determined from a token of the raw line (see {@link LineSamplers}):
+ * the first characters of that token are the key of the window. With the Apache HTTPD timestamp
+ * "[24/Oct/2012:23:00:44 +0200]" (token 3 in the common formats) a key length of 18 gives a window per minute,
+ * 15 a window per hour. A window ends as soon as a line with a different key arrives so the lines must be
+ * ordered by time (like they are in a logfile).
+ * The sampled lines of a window are handed to the handler via {@link Parser#parseBatch(Iterable, BatchHandler)}
+ * (not in the order in which they arrived).
+ * An instance is not thread safe.
+ */
+public final class ReservoirSampler<RECORD> {
+
+    private final Parser<RECORD>       parser;
+    private final BatchHandler<RECORD> handler;
+    private final String[]             reservoir;
+    private int                        filled = 0;
+    private long                       linesInWindow = 0;
+
+    private int                        windowTokenIndex = -1;
+    private int                        windowKeyLength  = 0;
+    private String                     currentWindow    = null;
+
+    private Random                     random = new Random();
+
+    private long lines           = 0;
+    private long sampledOutLines = 0;
+    private long windows         = 0;
+
+    /**
+     * @param parser The parser for the sampled lines.
+     * @param size The maximum number of lines that is retained per window.
+     * @param handler Receives the results of the sampled lines.
+     */
+    public ReservoirSampler(Parser<RECORD> parser, int size, BatchHandler<RECORD> handler) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The size of the reservoir must be > 0");
+        }
+        this.parser    = parser;
+        this.handler   = handler;
+        this.reservoir = new String[size];
+    }
+
+    /**
+     * Start a new window whenever the first keyLength characters of the token change.
+     * Without this all lines are a single window (until {@link #flush()} is called).
+     * @param tokenIndex The index of the token (the first token of the line is 0).
+     * @param keyLength The number of characters of the token that identify the window.
+     */
+    public ReservoirSampler<RECORD> setWindowToken(int tokenIndex, int keyLength) {
+        if (tokenIndex < 0 || keyLength <= 0) {
+            throw new IllegalArgumentException("The token index must be >= 0 and the key length > 0");
+        }
+        windowTokenIndex = tokenIndex;
+        windowKeyLength  = keyLength;
+        return this;
+    }
+
+    /**
+     * Use a fixed seed so the same lines produce the same sample.
+     */
+    public ReservoirSampler<RECORD> setSeed(long seed) {
+        random = new Random(seed);
+        return this;
+    }
+
+    // --------------------------------------------
+
+    public void add(String line) throws InvalidDissectorException, MissingDissectorsException {
+        lines++;
+        if (windowTokenIndex >= 0) {
+            int start = LineSamplers.tokenStart(line, windowTokenIndex);
+            int end   = start == -1 ? 0 : Math.min(LineSamplers.tokenEnd(line, start), start + windowKeyLength);
+            if (start == -1) {
+                start = 0;
+            }
+            int length = end - start;
+            if (currentWindow == null ||
+                currentWindow.length() != length ||
+                !line.regionMatches(start, currentWindow, 0, length)) {
+                flush();
+                currentWindow = line.substring(start, end);
+            }
+        }
+
+        // Algorithm R: the n-th line of the window replaces a random retained line with probability size/n
+        linesInWindow++;
+        if (filled < reservoir.length) {
+            reservoir[filled++] = line;
+            return;
+        }
+        long slot = (long) (random.nextDouble() * linesInWindow);
+        if (slot < reservoir.length) {
+            reservoir[(int) slot] = line;
+        }
+        sampledOutLines++;
+    }
+
+    /**
+     * Parse the sampled lines of the current window and start a new window.
+     */
+    public void flush() throws InvalidDissectorException, MissingDissectorsException {
+        if (filled > 0) {
+            parser.parseBatch(Arrays.asList(reservoir).subList(0, filled), handler);
+            windows++;
+        }
+        Arrays.fill(reservoir, null);
+        filled = 0;
+        linesInWindow = 0;
+        currentWindow = null;
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @return The number of lines that were added.
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return The number of lines that were not retained in the sample (and thus never dissected).
+     */
+    public long getSampledOutLines() {
+        return sampledOutLines;
+    }
+
+    /**
+     * @return The number of windows of which the sample has been parsed.
+     */
+    public long getWindows() {
+        return windows;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Common {@link FieldFilter}s that compare the value of a field with constants.
+ * These follow the SQL semantics for NULL (i.e. comparing with NULL is unknown) and a line is only
+ * accepted if the condition is definitely true. This makes it possible to push down the filters
+ * from systems like Hive and Pig without changing the outcome of the query.
+ * The type of the constant determines how the value is compared: an integral number compares the
+ * value as a Long, a floating point number as a Double and anything else as a String.
+ */
+public final class ValueFilters {
+
+    private ValueFilters() {
+    }
+
+    public enum Comparison {
+        EQUALS,
+        NOT_EQUALS,
+        LESS_THAN,
+        LESS_THAN_OR_EQUAL,
+        GREATER_THAN,
+        GREATER_THAN_OR_EQUAL
+    }
+
+    /**
+     * A FieldFilter with three valued logic (true, false and unknown).
+     */
+    public abstract static class Condition implements FieldFilter {
+        /**
+         * @return TRUE, FALSE or null if the outcome is unknown (because the value is NULL).
+         */
+        public abstract Boolean evaluate(Value value);
+
+        @Override
+        public final boolean accept(Value value) {
+            return Boolean.TRUE.equals(evaluate(value));
+        }
+    }
+
+    // --------------------------------------------
+
+    /**
+     * Convert the constant into a Long, Double or String.
+     */
+    private static Object normalize(Object constant) {
+        if (constant == null) {
+            return null;
+        }
+        if (constant instanceof Long) {
+            return constant;
+        }
+        if (constant instanceof Integer || constant instanceof Short || constant instanceof Byte) {
+            return ((Number) constant).longValue();
+        }
+        if (constant instanceof Double) {
+            return constant;
+        }
+        if (constant instanceof Number) { // Float, BigDecimal, ...
+            return ((Number) constant).doubleValue();
+        }
+        return constant.toString();
+    }
+
+    /**
+     * @return The result of comparing the value with the (normalized) constant or null if either is null.
+     */
+    private static Integer compareTo(Value value, Object constant) {
+        if (value == null || constant == null) {
+            return null;
+        }
+        if (constant instanceof Long) {
+            Long longValue = value.getLong();
+            return longValue == null ? null : Long.compare(longValue, (Long) constant);
+        }
+        if (constant instanceof Double) {
+            Double doubleValue = value.getDouble();
+            return doubleValue == null ? null : Double.compare(doubleValue, (Double) constant);
+        }
+        String stringValue = value.getString();
+        return stringValue == null ? null : stringValue.compareTo((String) constant);
+    }
+
+    // --------------------------------------------
+
+    public static Condition compare(final Comparison comparison, final Object constant) {
+        return new Compare(comparison, normalize(constant));
+    }
+
+    private static final class Compare extends Condition {
+        private final Comparison comparison;
+        private final Object     constant;
+
+        Compare(Comparison comparison, Object constant) {
+            this.comparison = comparison;
+            this.constant = constant;
+        }
+
+        @Override
+        public Boolean evaluate(Value value) {
+            Integer result = compareTo(value, constant);
+            if (result == null) {
+                return null;
+            }
+            switch (comparison) {
+                case EQUALS:                return result == 0;
+                case NOT_EQUALS:            return result != 0;
+                case LESS_THAN:             return result < 0;
+                case LESS_THAN_OR_EQUAL:    return result <= 0;
+                case GREATER_THAN:          return result > 0;
+                case GREATER_THAN_OR_EQUAL: return result >= 0;
+                default:                    return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return comparison + " " + constant;
+        }
+    }
+
+    // --------------------------------------------
+
+    public static Condition in(final Collection<?> constants) {
+        return new In(constants);
+    }
+
+    private static final class In extends Condition {
+        private final ArrayList<Object> constants;
+
+        In(Collection<?> constants) {
+            this.constants = new ArrayList<>(constants.size());
+            for (Object constant : constants) {
+                this.constants.add(normalize(constant));
+            }
+        }
+
+        @Override
+        public Boolean evaluate(Value value) {
+            Boolean result = Boolean.FALSE;
+            for (Object constant : constants) {
+                Integer compared = compareTo(value, constant);
+                if (compared == null) {
+                    result = null;
+                } else if (compared == 0) {
+                    return Boolean.TRUE;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "IN " + constants;
+        }
+    }
+
+    // --------------------------------------------
+
+    public static Condition between(final Object lower, final Object upper) {
+        return and(compare(Comparison.GREATER_THAN_OR_EQUAL, lower), compare(Comparison.LESS_THAN_OR_EQUAL, upper));
+    }
+
+    // --------------------------------------------
+
+    /**
+     * @param cast The type as which the value is retrieved (a value like "-" is not NULL as a STRING but it is as a LONG).
+     */
+    public static Condition isNull(final Casts cast) {
+        return new IsNull(cast);
+    }
+
+    private static final class IsNull extends Condition {
+        private final Casts cast;
+
+        IsNull(Casts cast) {
+            this.cast = cast;
+        }
+
+        @Override
+        public Boolean evaluate(Value value) {
+            if (value == null) {
+                return true;
+            }
+            switch (cast) {
+                case LONG:   return value.getLong() == null;
+                case DOUBLE: return value.getDouble() == null;
+                default:     return value.getString() == null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "IS NULL (" + cast + ")";
+        }
+    }
+
+    // --------------------------------------------
+
+    public static Condition not(final Condition condition) {
+        return new Not(condition);
+    }
+
+    private static final class Not extends Condition {
+        private final Condition condition;
+
+        Not(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public Boolean evaluate(Value value) {
+            Boolean result = condition.evaluate(value);
+            return result == null ? null : !result;
+        }
+
+        @Override
+        public String toString() {
+            return "NOT (" + condition + ")";
+        }
+    }
+
+    // --------------------------------------------
+
+    public static Condition and(final Condition... conditions) {
+        return new Junction(true, conditions);
+    }
+
+    public static Condition and(final List<Condition> conditions) {
+        return new Junction(true, conditions.toArray(new Condition[0]));
+    }
+
+    public static Condition or(final Condition... conditions) {
+        return new Junction(false, conditions);
+    }
+
+    public static Condition or(final List<Condition> conditions) {
+        return new Junction(false, conditions.toArray(new Condition[0]));
+    }
+
+    private static final class Junction extends Condition {
+        private final boolean     isAnd;
+        private final Condition[] conditions;
+
+        Junction(boolean isAnd, Condition[] conditions) {
+            this.isAnd = isAnd;
+            this.conditions = conditions;
+        }
+
+        @Override
+        public Boolean evaluate(Value value) {
+            // AND: false wins, OR: true wins. Otherwise an unknown makes the result unknown.
+            boolean unknown = false;
+            for (Condition condition : conditions) {
+                Boolean result = condition.evaluate(value);
+                if (result == null) {
+                    unknown = true;
+                } else if (result != isAnd) {
+                    return result;
+                }
+            }
+            return unknown ? null : isAnd;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Condition condition : conditions) {
+                if (sb.length() > 0) {
+                    sb.append(isAnd ? " AND " : " OR ");
+                }
+                sb.append('(').append(condition).append(')');
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HyperLogLogTest {
+
+    @Test
+    void testEstimate() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0, sketch.estimate());
+
+        for (int count : new int[]{10, 1000, 100000}) {
+            HyperLogLog first = new HyperLogLog();
+            HyperLogLog second = new HyperLogLog();
+            for (int value = 0; value < count; value++) {
+                // Both sketches get half of the values and all values twice
+                (value % 2 == 0 ? first : second).add("Value " + value);
+                (value % 2 == 0 ? first : second).add("Value " + value);
+            }
+            first.merge(second);
+            assertEquals(count, first.estimate(), Math.max(1, count * 0.05), "Wrong estimate for " + count);
+        }
+    }
+
+    @Test
+    void testMergeDifferentPrecision() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertThrows(IllegalArgumentException.class, () -> sketch.merge(new HyperLogLog(10)));
+    }
+
+    @Test
+    void testHashOfRange() {
+        String line = "10.0.0.1 - - [31/Dec/2012:23:49:40 +0100] \"GET / HTTP/1.1\" 200 1213";
+        assertEquals(HyperLogLog.hash("10.0.0.1"), HyperLogLog.hash(line, 0, 8));
+        assertEquals(HyperLogLog.hash("200"),      HyperLogLog.hash(line, 59, 62));
+        assertEquals(HyperLogLog.hash(""),         HyperLogLog.hash(line, 3, 3));
+        assertNotEquals(HyperLogLog.hash("10.0.0.1"), HyperLogLog.hash("10.0.0.2"));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.test.NormalValuesDissector;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LineConsumerTest {
+
+    public static class FailingDissector extends NormalValuesDissector {
+        @Override
+        public void dissect(Parsable<?> parsable, String inputname, Value value) throws DissectionFailure {
+            if ("Bad".equals(value.getString())) {
+                throw new DissectionFailure("Bad line");
+            }
+            super.dissect(parsable, inputname, value);
+        }
+    }
+
+    private static Parser<List<String>> createParser() {
+        @SuppressWarnings("unchecked")
+        Class<List<String>> recordClass = (Class<List<String>>) (Class<?>) List.class;
+        return new Parser<>(recordClass)
+            .setRootType("INPUT")
+            .addDissector(new FailingDissector());
+    }
+
+    private static final class LongCollector extends LineConsumer<List<String>> {
+        private final Parser<List<String>> parser;
+        private final List<String>         values = new ArrayList<>();
+
+        LongCollector() {
+            super(LineConsumerTest::createParser);
+            parser = createParser()
+                .addFieldSetter("LONG:long", (record, name, value) -> record.add(value.getString()))
+                .setLineSampler(line -> !"Skip".equals(line));
+        }
+
+        @Override
+        public boolean add(String line) {
+            return parse(parser, values, line);
+        }
+    }
+
+    @Test
+    void testColumnCasts() {
+        Map<String, EnumSet<Casts>> allCasts = FieldCasts.getCasts(createParser(),
+            Arrays.asList("ANY:any", "STRING:string", "LONG:long", "DOUBLE:double"));
+
+        assertEquals(Casts.DOUBLE, FieldCasts.getColumnCasts(allCasts, "ANY:any"));
+        assertEquals(Casts.STRING, FieldCasts.getColumnCasts(allCasts, "STRING:string"));
+        assertEquals(Casts.LONG,   FieldCasts.getColumnCasts(allCasts, "LONG:long"));
+        assertEquals(Casts.DOUBLE, FieldCasts.getColumnCasts(allCasts, "DOUBLE:double"));
+        assertEquals(Casts.STRING_OR_LONG, FieldCasts.getCasts(allCasts, "LONG:long"));
+
+        assertThrows(IllegalArgumentException.class, () -> FieldCasts.getColumnCasts(allCasts, "LONG:nosuchfield"));
+        FieldCasts.checkRetrievable(allCasts, "STRING:string");
+        assertThrows(IllegalArgumentException.class, () -> FieldCasts.checkRetrievable(allCasts, "LONG:nosuchfield"));
+    }
+
+    @Test
+    void testCounters() throws IOException {
+        LongCollector collector = new LongCollector();
+        assertTrue(collector.add("Good"));
+        assertFalse(collector.add("Bad"));
+        assertFalse(collector.add("Skip"));
+
+        // Empty lines are ignored
+        assertEquals(2, collector.addLines(new StringReader("Good\n\nBad\nSkip\nGood\n")));
+
+        assertEquals(3, collector.getGoodLines());
+        assertEquals(2, collector.getBadLines());
+        assertEquals(2, collector.getFilteredLines());
+        assertEquals(Arrays.asList("42", "42", "42"), collector.values);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.test.TestRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+
+import static nl.basjes.parse.core.Casts.STRING_ONLY;
+import static nl.basjes.parse.core.ValueFilters.Comparison.NOT_EQUALS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParserBatchTest {
+
+    /**
+     * Copies the input into STRING:value, fails on "BAD".
+     */
+    public static class CopyDissector extends SimpleDissector {
+        private static final HashMap<String, EnumSet<Casts>> CONFIG = new HashMap<>();
+        static {
+            CONFIG.put("STRING:value", STRING_ONLY);
+        }
+
+        public CopyDissector() {
+            super("INPUT", CONFIG);
+        }
+
+        @Override
+        public void dissect(Parsable<?> parsable, String inputname, Value value) throws DissectionFailure {
+            if ("BAD".equals(value.getString())) {
+                throw new DissectionFailure("Bad value");
+            }
+            parsable.addDissection(inputname, "STRING", "value", value.getString());
+        }
+    }
+
+    @Test
+    void testBatch() throws Exception {
+        Parser<TestRecord> parser = new Parser<>(TestRecord.class)
+            .setRootType("INPUT")
+            .addDissector(new CopyDissector())
+            .addParseTarget(TestRecord.class.getMethod("setStringValue", String.class, String.class), "STRING:value")
+            .addFieldFilter("STRING:value", ValueFilters.compare(NOT_EQUALS, "SKIP"));
+
+        List<String> events = new ArrayList<>();
+        parser.parseBatch(Arrays.asList("One", "BAD", "SKIP", "Two"), new BatchHandler<TestRecord>() {
+            @Override
+            public void onRecord(String value, TestRecord record) {
+                record.expectString("STRING:value", value);
+                events.add("Record:" + value);
+            }
+
+            @Override
+            public void onFiltered(String value) {
+                events.add("Filtered:" + value);
+            }
+
+            @Override
+            public void onFailure(String value, DissectionFailure failure) {
+                events.add("Failure:" + value + ":" + failure.getMessage());
+            }
+        });
+
+        assertEquals(Arrays.asList("Record:One", "Failure:BAD:Bad value", "Filtered:SKIP", "Record:Two"), events);
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.test.NormalValuesDissector;
+import nl.basjes.parse.core.test.TestRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+
+import static nl.basjes.parse.core.Casts.STRING_ONLY;
+import static nl.basjes.parse.core.Casts.STRING_OR_LONG;
+import static nl.basjes.parse.core.ValueFilters.Comparison.EQUALS;
+import static nl.basjes.parse.core.ValueFilters.Comparison.GREATER_THAN;
+import static nl.basjes.parse.core.ValueFilters.Comparison.LESS_THAN;
+import static nl.basjes.parse.core.ValueFilters.Comparison.NOT_EQUALS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParserFieldFilterTest {
+
+    /**
+     * Dissects the STRING:string into a single character and counts how often it was called.
+     */
+    public static class CountingDissector extends SimpleDissector {
+        static int calls = 0;
+
+        private static final HashMap<String, EnumSet<Casts>> CONFIG = new HashMap<>();
+        static {
+            CONFIG.put("STRING:first", STRING_ONLY);
+            CONFIG.put("NUMBER:absent", STRING_OR_LONG);
+        }
+
+        public CountingDissector() {
+            super("STRING", CONFIG);
+        }
+
+        @Override
+        public void dissect(Parsable<?> parsable, String inputname, Value value) throws DissectionFailure {
+            calls++;
+            // Only the "first" is ever present.
+            parsable.addDissection(inputname, "STRING", "first", value.getString().substring(0, 1));
+        }
+    }
+
+    /**
+     * Dissects the ANY:any into a STRING:any.deep and counts how often it was called.
+     */
+    public static class DeepDissector extends SimpleDissector {
+        static int calls = 0;
+
+        private static final HashMap<String, EnumSet<Casts>> CONFIG = new HashMap<>();
+        static {
+            CONFIG.put("STRING:deep", STRING_ONLY);
+        }
+
+        public DeepDissector() {
+            super("ANY", CONFIG);
+        }
+
+        @Override
+        public void dissect(Parsable<?> parsable, String inputname, Value value) throws DissectionFailure {
+            calls++;
+            parsable.addDissection(inputname, "STRING", "deep", "Deep" + value.getString());
+        }
+    }
+
+    private Parser<TestRecord> createParser() throws NoSuchMethodException {
+        CountingDissector.calls = 0;
+        DeepDissector.calls = 0;
+        return new Parser<>(TestRecord.class)
+            .setRootType("INPUT")
+            .addDissector(new NormalValuesDissector())
+            .addDissector(new CountingDissector())
+            .addParseTarget(TestRecord.class.getMethod("setStringValue", String.class, String.class),
+                Arrays.asList("ANY:any", "STRING:string", "STRING:string.first"));
+    }
+
+    @Test
+    void testAccepted() throws Exception {
+        Parser<TestRecord> parser = createParser()
+            .addFieldFilter("LONG:long", ValueFilters.compare(EQUALS, 42));
+
+        TestRecord record = new TestRecord();
+        assertSame(record, parser.parse(record, "Something"));
+        record
+            .expectString("ANY:any", "42")
+            .expectString("STRING:string", "FortyTwo")
+            .expectString("STRING:string.first", "F");
+        assertEquals(1, CountingDissector.calls);
+    }
+
+    @Test
+    void testRejectedSkipsTheRestOfTheDissection() throws Exception {
+        // The ANY:any is the first value that is dissected.
+        Parser<TestRecord> parser = createParser()
+            .addFieldFilter("ANY:any", ValueFilters.compare(GREATER_THAN, 100));
+
+        TestRecord record = new TestRecord();
+        assertNull(parser.parse(record, "Something"));
+        assertNull(parser.parse("Something"));
+
+        // Neither the later values nor the deeper dissections were done
+        assertFalse(record.hasStringValue("STRING:string"));
+        assertFalse(record.hasStringValue("STRING:string.first"));
+        assertEquals(0, CountingDissector.calls);
+    }
+
+    @Test
+    void testFilterPathIsDissectedFirst() throws Exception {
+        // Both the ANY:any and the STRING:string must be dissected further but only the ANY:any leads to the filter.
+        Parser<TestRecord> parser = createParser()
+            .addDissector(new DeepDissector())
+            .addParseTarget(TestRecord.class.getMethod("setStringValue", String.class, String.class), "STRING:any.deep")
+            .addFieldFilter("STRING:any.deep", ValueFilters.compare(EQUALS, "Deep0"));
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(parser.parse(new TestRecord(), "Something"));
+        }
+        assertEquals(10, DeepDissector.calls);
+        assertEquals(0, CountingDissector.calls);
+
+        parser = createParser()
+            .addDissector(new DeepDissector())
+            .addParseTarget(TestRecord.class.getMethod("setStringValue", String.class, String.class), "STRING:any.deep")
+            .addFieldFilter("STRING:any.deep", ValueFilters.compare(EQUALS, "Deep42"));
+        TestRecord record = new TestRecord();
+        assertSame(record, parser.parse(record, "Something"));
+        record
+            .expectString("STRING:any.deep", "Deep42")
+            .expectString("STRING:string.first", "F");
+        assertEquals(1, DeepDissector.calls);
+        assertEquals(1, CountingDissector.calls);
+    }
+
+    @Test
+    void testFilteredLinesCounters() throws Exception {
+        Parser<TestRecord> parser = createParser()
+            .addFieldFilter("LONG:long", ValueFilters.compare(EQUALS, 42))
+            .addFieldFilter("NUMBER:string.absent", ValueFilters.compare(EQUALS, 1));
+        assertEquals(0, parser.getFilteredLines());
+        assertTrue(parser.getFilteredLinesPerField().isEmpty());
+
+        for (int i = 0; i < 3; i++) {
+            assertNull(parser.parse(new TestRecord(), "Something"));
+        }
+        assertEquals(3, parser.getFilteredLines());
+        assertEquals(3L, parser.getFilteredLinesPerField().get("NUMBER:string.absent"));
+        assertNull(parser.getFilteredLinesPerField().get("LONG:long"));
+
+        parser.resetFilteredLines();
+        assertEquals(0, parser.getFilteredLines());
+        assertTrue(parser.getFilteredLinesPerField().isEmpty());
+    }
+
+    @Test
+    void testFilterOnFieldThatIsNotATarget() throws Exception {
+        Parser<TestRecord> parser = createParser()
+            .addFieldFilter("string:STRING.first", ValueFilters.compare(EQUALS, "X"));
+        assertNull(parser.parse(new TestRecord(), "Something"));
+
+        parser = createParser()
+            .addFieldFilter("STRING:string.first", ValueFilters.compare(EQUALS, "F"));
+        assertNotNull(parser.parse(new TestRecord(), "Something"));
+    }
+
+    @Test
+    void testFilterOnAbsentField() throws Exception {
+        // A field that is not present is NULL
+        Parser<TestRecord> parser = createParser()
+            .addFieldFilter("NUMBER:string.absent", ValueFilters.isNull(Casts.LONG));
+        assertNotNull(parser.parse(new TestRecord(), "Something"));
+
+        parser = createParser()
+            .addFieldFilter("NUMBER:string.absent", ValueFilters.compare(NOT_EQUALS, 1));
+        assertNull(parser.parse(new TestRecord(), "Something"));
+    }
+
+    @Test
+    void testAbsentFieldRejectsBeforeTheRestIsDissected() throws Exception {
+        // Only the STRING:string leads to the absent field; the ANY:any is not needed to reject the line.
+        Parser<TestRecord> parser = createParser()
+            .addDissector(new DeepDissector())
+            .addParseTarget(TestRecord.class.getMethod("setStringValue", String.class, String.class), "STRING:any.deep")
+            .addFieldFilter("NUMBER:string.absent", ValueFilters.compare(NOT_EQUALS, 1));
+
+        for (int i = 0; i < 10; i++) {
+            assertNull(parser.parse(new TestRecord(), "Something"));
+        }
+        assertEquals(10, CountingDissector.calls);
+        assertEquals(0, DeepDissector.calls);
+        assertEquals(10, parser.getFilteredLines());
+
+        // If the absent field is accepted the rest is dissected as usual.
+        parser = createParser()
+            .addDissector(new DeepDissector())
+            .addParseTarget(TestRecord.class.getMethod("setStringValue", String.class, String.class), "STRING:any.deep")
+            .addFieldFilter("NUMBER:string.absent", ValueFilters.isNull(Casts.LONG));
+        TestRecord record = new TestRecord();
+        assertSame(record, parser.parse(record, "Something"));
+        record.expectString("STRING:any.deep", "Deep42");
+        assertEquals(1, CountingDissector.calls);
+        assertEquals(1, DeepDissector.calls);
+    }
+
+    @Test
+    void testAllFiltersMustAccept() throws Exception {
+        Parser<TestRecord> parser = createParser()
+            .addFieldFilter("LONG:long", ValueFilters.compare(EQUALS, 42))
+            .addFieldFilter("DOUBLE:double", ValueFilters.compare(LESS_THAN, 42.0));
+        assertNull(parser.parse(new TestRecord(), "Something"));
+    }
+
+    @Test
+    void testNoWildcardFilters() throws Exception {
+        Parser<TestRecord> parser = createParser();
+        assertThrows(IllegalArgumentException.class,
+            () -> parser.addFieldFilter("STRING:string.*", ValueFilters.isNull(Casts.STRING)));
+    }
+
+    @Test
+    void testThreeValuedLogic() {
+        Value nullValue = new Value((String) null);
+        Value dash = new Value("-");
+        Value fortyTwo = new Value(42L);
+
+        // Comparing with NULL is unknown so it does not accept the value; neither does the negation.
+        assertNull(ValueFilters.compare(EQUALS, 42).evaluate(nullValue));
+        assertFalse(ValueFilters.not(ValueFilters.compare(EQUALS, 42)).accept(nullValue));
+        assertFalse(ValueFilters.not(ValueFilters.compare(EQUALS, 42)).accept(dash));
+
+        // A "-" is a valid string but not a valid number
+        assertTrue(ValueFilters.isNull(Casts.LONG).accept(dash));
+        assertFalse(ValueFilters.isNull(Casts.STRING).accept(dash));
+
+        assertTrue(ValueFilters.in(Arrays.asList(1, 42L, 100)).accept(fortyTwo));
+        assertFalse(ValueFilters.in(Arrays.asList(1, 100)).accept(fortyTwo));
+        assertTrue(ValueFilters.between(40, 45).accept(fortyTwo));
+        assertTrue(ValueFilters.between(41.5, 42.5).accept(fortyTwo));
+        assertFalse(ValueFilters.between(43, 45).accept(fortyTwo));
+
+        // OR: one true is enough, AND: one false is enough
+        assertTrue(ValueFilters.or(ValueFilters.isNull(Casts.LONG), ValueFilters.compare(EQUALS, 42)).accept(nullValue));
+        assertEquals(Boolean.FALSE,
+            ValueFilters.and(ValueFilters.isNull(Casts.LONG), ValueFilters.compare(EQUALS, 42)).evaluate(fortyTwo));
+        assertNull(ValueFilters.and(ValueFilters.isNull(Casts.LONG), ValueFilters.compare(EQUALS, 42)).evaluate(nullValue));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.test.NormalValuesDissector;
+import nl.basjes.parse.core.test.TestRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ParserFieldSetterTest {
+
+    private Parser<TestRecord> createParser() {
+        return new Parser<>(TestRecord.class)
+            .setRootType("INPUT")
+            .addDissector(new NormalValuesDissector())
+            .addFieldSetter("ANY:any",       (record, name, value) -> record.setStringValue(name, value.getString()))
+            .addFieldSetter("LONG:long",     (record, name, value) -> record.setLongValue(name, value.getLong()))
+            .addFieldSetter("DOUBLE:double", (record, name, value) -> record.setDoubleValue(name, value.getDouble()))
+            // A wildcard gets the actual name of the field
+            .addFieldSetter("STRING:*",      (record, name, value) -> record.setStringValue(name, value.getString()));
+    }
+
+    @Test
+    void testFieldSetters() throws Exception {
+        TestRecord record = createParser().parse(new TestRecord(), "Something");
+        record
+            .expectString("ANY:any",      "42")
+            .expectString("STRING:string", "FortyTwo")
+            .expectLong("LONG:long",       42L)
+            .expectDouble("DOUBLE:double", 42D);
+    }
+
+    @Test
+    void testFieldSettersAndFilters() throws Exception {
+        Parser<TestRecord> parser = createParser()
+            .addFieldFilter("LONG:long", value -> value.getLong() != 42L);
+        assertNull(parser.parse(new TestRecord(), "Something"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSerialization() throws Exception {
+        Parser<TestRecord> parser = createParser();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(parser);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            parser = (Parser<TestRecord>) in.readObject();
+        }
+
+        parser.parse(new TestRecord(), "Something")
+            .expectString("STRING:string", "FortyTwo")
+            .expectLong("LONG:long",       42L);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Apache HTTPD & NGINX Access log parsing made easy
+ * Copyright (C) 2011-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.core;
+
+import nl.basjes.parse.core.ParserFieldFilterTest.CountingDissector;
+import nl.basjes.parse.core.exceptions.DissectionFailure;
+import nl.basjes.parse.core.test.NormalValuesDissector;
+import nl.basjes.parse.core.test.TestRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParserSamplingTest {
+
+    private Parser<TestRecord> createParser() throws NoSuchMethodException {
+        CountingDissector.calls = 0;
+        return new Parser<>(TestRecord.class)
+            .setRootType("INPUT")
+            .addDissector(new NormalValuesDissector())
+            .addDissector(new CountingDissector())
+            .addParseTarget(TestRecord.class.getMethod("setStringValue", String.class, String.class),
+                Arrays.asList("ANY:any", "STRING:string.first"));
+    }
+
+    private static String line(int client) {
+        return "10.0." + (client / 256) + '.' + (client % 256) + " - - [24/Oct/2012:23:00:44 +0200] \"GET / HTTP/1.1\"";
+    }
+
+    @Test
+    void testTokens() {
+        String line = "one two  four";
+        assertEquals(0,  LineSamplers.tokenStart(line, 0));
+        assertEquals(3,  LineSamplers.tokenEnd(line, 0));
+        assertEquals(4,  LineSamplers.tokenStart(line, 1));
+        assertEquals(8,  LineSamplers.tokenStart(line, 2));
+        assertEquals(8,  LineSamplers.tokenEnd(line, 8));
+        assertEquals(9,  LineSamplers.tokenStart(line, 3));
+        assertEquals(13, LineSamplers.tokenEnd(line, 9));
+        assertEquals(-1, LineSamplers.tokenStart(line, 4));
+    }
+
+    @Test
+    void testHashOfTokenIsDeterministic() {
+        LineSampler sampler = LineSamplers.hashOfToken(0, 0.1);
+        int accepted = 0;
+        for (int client = 0; client < 10000; client++) {
+            boolean accept = sampler.accept(line(client));
+            // The same client is always either in or out of the sample (whatever the rest of the line is).
+            assertEquals(accept, sampler.accept(line(client).replace("GET", "POST")));
+            assertEquals(accept, LineSamplers.hashOfToken(0, 0.1).accept(line(client)));
+            if (accept) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted > 900 && accepted < 1100, "Accepted " + accepted);
+
+        assertFalse(LineSamplers.hashOfToken(0, 0.0).accept(line(1)));
+        assertTrue(LineSamplers.hashOfToken(0, 1.0).accept(line(1)));
+        assertThrows(IllegalArgumentException.class, () -> LineSamplers.hashOfToken(0, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> LineSamplers.hashOfToken(-1, 0.5));
+    }
+
+    @Test
+    void testRandom() {
+        LineSampler sampler1 = LineSamplers.random(0.25, 42);
+        LineSampler sampler2 = LineSamplers.random(0.25, 42);
+        int accepted = 0;
+        for (int i = 0; i < 10000; i++) {
+            boolean accept = sampler1.accept("Something");
+            assertEquals(accept, sampler2.accept("Something"));
+            if (accept) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted > 2300 && accepted < 2700, "Accepted " + accepted);
+    }
+
+    @Test
+    void testSampledOutLinesAreNotDissected() throws Exception {
+        Parser<TestRecord> parser = createParser()
+            .setLineSampler(LineSamplers.hashOfToken(0, 0.0));
+        assertNull(parser.parse(line(1)));
+        assertNull(parser.parse(new TestRecord(), line(2)));
+        assertEquals(0, CountingDissector.calls);
+        assertEquals(2, parser.getSampledOutLines());
+        assertEquals(0, parser.getFilteredLines());
+
+        parser.setLineSampler(line -> line.startsWith("10.0.0.1 "));
+        assertNotNull(parser.parse(line(1)));
+        assertNull(parser.parse(line(2)));
+        assertEquals(1, CountingDissector.calls);
+        assertEquals(3, parser.getSampledOutLines());
+
+        parser.resetSampledOutLines();
+        assertEquals(0, parser.getSampledOutLines());
+    }
+
+    @Test
+    void testSampledOutLinesInBatch() throws Exception {
+        Parser<TestRecord> parser = createParser()
+            .setLineSampler(line -> line.startsWith("10.0.0.1 "));
+
+        List<String> sampledOut = new ArrayList<>();
+        List<String> parsed = new ArrayList<>();
+        parser.parseBatch(Arrays.asList(line(1), line(2), line(3)), new BatchHandler<TestRecord>() {
+            @Override
+            public void onRecord(String value, TestRecord record) {
+                parsed.add(value);
+            }
+
+            @Override
+            public void onSampledOut(String value) {
+                sampledOut.add(value);
+            }
+
+            @Override
+            public void onFailure(String value, DissectionFailure failure) {
+                throw new IllegalStateException(failure);
+            }
+        });
+        assertEquals(Arrays.asList(line(1)), parsed);
+        assertEquals(Arrays.asList(line(2), line(3)), sampledOut);
+        assertEquals(1, CountingDissector.calls);
+    }
+
+    @Test
+    void testReservoirPerWindow() throws Exception {
+        Parser<TestRecord> parser = createParser();
+
+        List<String> parsed = new ArrayList<>();
+        ReservoirSampler<TestRecord> sampler = new ReservoirSampler<>(parser, 10, new BatchHandler<TestRecord>() {
+            @Override
+            public void onRecord(String value, TestRecord record) {
+                parsed.add(value);
+            }
+
+            @Override
+            public void onFailure(String value, DissectionFailure failure) {
+                throw new IllegalStateException(failure);
+            }
+        })
+            .setWindowToken(1, 5)
+            .setSeed(42);
+
+        // 3 windows: with 100, 5 and 50 lines
+        for (int i = 0; i < 100; i++) {
+            sampler.add("line 10:00:" + i);
+        }
+        assertTrue(parsed.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            sampler.add("line 10:01:" + i);
+        }
+        assertEquals(10, parsed.size());
+        assertEquals(10, CountingDissector.calls);
+        for (int i = 0; i < 50; i++) {
+            sampler.add("line 10:02:" + i);
+        }
+        sampler.flush();
+
+        assertEquals(25, parsed.size());
+        assertEquals(25, CountingDissector.calls);
+        assertEquals(3, sampler.getWindows());
+        assertEquals(155, sampler.getLines());
+        assertEquals(130, sampler.getSampledOutLines());
+
+        Set<String> unique = new HashSet<>(parsed);
+        assertEquals(25, unique.size());
+        assertEquals(10, parsed.stream().filter(l -> l.startsWith("line 10:00:")).count());
+        assertEquals(5,  parsed.stream().filter(l -> l.startsWith("line 10:01:")).count());
+        assertEquals(10, parsed.stream().filter(l -> l.startsWith("line 10:02:")).count());
+    }
+
+    @Test
+    void testReservoirIsUniform() throws Exception {
+        // Every line must have the same chance to end up in the sample.
+        int[] counts = new int[20];
+        ReservoirSampler<TestRecord> sampler = new ReservoirSampler<>(createParser(), 5, new BatchHandler<TestRecord>() {
+            @Override
+            public void onRecord(String value, TestRecord record) {
+                counts[Integer.parseInt(value)]++;
+            }
+
+            @Override
+            public void onFailure(String value, DissectionFailure failure) {
+                throw new IllegalStateException(failure);
+            }
+        }).setSeed(42);
+        for (int run = 0; run < 500; run++) {
+            for (int i = 0; i < counts.length; i++) {
+                sampler.add(Integer.toString(i));
+            }
+            sampler.flush();
+        }
+        // Expected 500 * 5 / 20 = 125 for each line
+        for (int count : counts) {
+            assertTrue(count > 90 && count < 160, "Count " + count);
+        }
+    }
+}